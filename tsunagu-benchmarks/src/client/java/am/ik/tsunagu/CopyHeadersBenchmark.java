@@ -0,0 +1,94 @@
+package am.ik.tsunagu;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import am.ik.tsunagu.benchmark.Fixtures;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.web.reactive.function.client.WebClient;
+
+/**
+ * Benchmarks the routing and {@link TsunaguConnector#copyHeaders(HttpRequestMetadata, RoutingTable.Route)} with growing
+ * {@code tsunagu.host-map} and {@code tsunagu.path-to-host-map}, it is in this package to reach the package-private
+ * methods.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CopyHeadersBenchmark {
+	@Param({ "10", "1000" })
+	int mappings;
+
+	TsunaguConnector connector;
+
+	HttpRequestMetadata metadata;
+
+	RoutingTable.Route route;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		final Map<String, String> hostMap = new LinkedHashMap<>();
+		final Map<String, String> pathToHostMap = new LinkedHashMap<>();
+		for (int i = 0; i < this.mappings - 1; i++) {
+			hostMap.put("host-" + i + ".example.com", "upstream-" + i + ".internal");
+			pathToHostMap.put("service-" + i + "/", "service-" + i + ".internal");
+		}
+		hostMap.put("example.com", "www.internal");
+		pathToHostMap.put("api/", "api.internal");
+		final Map<String, Object> properties = new LinkedHashMap<>();
+		properties.put("remote", "ws://127.0.0.1:8080/tsunagu");
+		properties.put("upstream", "http://127.0.0.1:8081");
+		properties.put("preserve-host", true);
+		properties.put("access-log.enabled", false);
+		properties.putAll(Fixtures.entries("host-map", hostMap));
+		properties.putAll(Fixtures.entries("path-to-host-map", pathToHostMap));
+		final TsunaguProps props = Fixtures.props(TsunaguProps.class, properties);
+		final DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+		beanFactory.registerSingleton("builder", RSocketRequester.builder());
+		this.connector = new TsunaguConnector(beanFactory.getBeanProvider(RSocketRequester.Builder.class), WebClient.builder(), props,
+				new GenericApplicationContext(), new TunnelMetrics(new SimpleMeterRegistry()), new AccessLog(props, new SimpleMeterRegistry()));
+		this.metadata = new HttpRequestMetadata(HttpMethod.GET, URI.create("/api/v1/users/12345?include=profile&page=2"), Fixtures.requestHeaders());
+		this.route = this.connector.route(this.metadata);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		this.connector.destroy();
+	}
+
+	@Benchmark
+	public RoutingTable.Route route() {
+		return this.connector.route(this.metadata);
+	}
+
+	@Benchmark
+	public HttpHeaders copyHeaders() {
+		final HttpHeaders headers = new HttpHeaders();
+		this.connector.copyHeaders(this.metadata, this.route).accept(headers);
+		return headers;
+	}
+}
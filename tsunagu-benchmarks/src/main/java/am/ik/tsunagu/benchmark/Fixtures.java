@@ -0,0 +1,64 @@
+package am.ik.tsunagu.benchmark;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+import org.springframework.http.HttpHeaders;
+
+public final class Fixtures {
+	private Fixtures() {
+	}
+
+	// headers sent by a typical browser plus the ones added by the tsunagu server
+	public static HttpHeaders requestHeaders() {
+		final HttpHeaders headers = new HttpHeaders();
+		headers.add(HttpHeaders.HOST, "example.com");
+		headers.add(HttpHeaders.USER_AGENT, "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_15_7) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/100.0.4896.75 Safari/537.36");
+		headers.add(HttpHeaders.ACCEPT, "text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,*/*;q=0.8");
+		headers.add(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate, br");
+		headers.add(HttpHeaders.ACCEPT_LANGUAGE, "ja,en-US;q=0.9,en;q=0.8");
+		headers.add(HttpHeaders.CACHE_CONTROL, "max-age=0");
+		headers.add(HttpHeaders.COOKIE, "_ga=GA1.2.1234567890.1234567890; session=0123456789abcdef0123456789abcdef");
+		headers.add("Sec-Fetch-Dest", "document");
+		headers.add("Sec-Fetch-Mode", "navigate");
+		headers.add("Sec-Fetch-Site", "none");
+		headers.add("Forwarded", "for=203.0.113.10;host=example.com:443;proto=https");
+		headers.add("X-Real-IP", "203.0.113.10");
+		return headers;
+	}
+
+	public static HttpHeaders responseHeaders() {
+		final HttpHeaders headers = new HttpHeaders();
+		headers.add(HttpHeaders.CONTENT_TYPE, "application/json");
+		headers.add(HttpHeaders.CONTENT_LENGTH, "1234");
+		headers.add(HttpHeaders.CACHE_CONTROL, "no-cache, no-store, max-age=0, must-revalidate");
+		headers.add(HttpHeaders.DATE, "Sat, 09 Apr 2022 12:34:56 GMT");
+		headers.add(HttpHeaders.VARY, "Origin");
+		headers.add(HttpHeaders.VARY, "Access-Control-Request-Method");
+		headers.add("X-Content-Type-Options", "nosniff");
+		headers.add("X-Frame-Options", "DENY");
+		return headers;
+	}
+
+	/**
+	 * Binds the {@code TsunaguProps} of either application like Spring Boot does, so that everything not given gets its
+	 * default.
+	 * @param properties values by their name without the {@code tsunagu.} prefix
+	 */
+	public static <T> T props(Class<T> type, Map<String, ?> properties) {
+		final Map<String, Object> source = new LinkedHashMap<>();
+		properties.forEach((name, value) -> source.put("tsunagu." + name, value));
+		return new Binder(new MapConfigurationPropertySource(source)).bindOrCreate("tsunagu", type);
+	}
+
+	/**
+	 * @return the entries of a map property, with the keys in brackets so that dots and slashes are kept
+	 */
+	public static Map<String, Object> entries(String name, Map<String, ?> map) {
+		final Map<String, Object> entries = new LinkedHashMap<>();
+		map.forEach((key, value) -> entries.put(name + ".[" + key + "]", value));
+		return entries;
+	}
+}
@@ -0,0 +1,93 @@
+package am.ik.tsunagu.benchmark;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import am.ik.tsunagu.BinaryMetadataCodec;
+import am.ik.tsunagu.CborMetadataCodec;
+import am.ik.tsunagu.HttpRequestMetadata;
+import am.ik.tsunagu.HttpResponseMetadata;
+import am.ik.tsunagu.MetadataCodec;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MetadataCodecBenchmark {
+	@Param({ "binary", "cbor" })
+	String codec;
+
+	MetadataCodec metadataCodec;
+
+	ByteBufAllocator allocator = PooledByteBufAllocator.DEFAULT;
+
+	HttpRequestMetadata request;
+
+	HttpResponseMetadata response;
+
+	ByteBuf encodedRequest;
+
+	ByteBuf encodedResponse;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		this.metadataCodec = "binary".equals(this.codec) ? BinaryMetadataCodec.INSTANCE : CborMetadataCodec.INSTANCE;
+		this.request = new HttpRequestMetadata(HttpMethod.GET, URI.create("https://example.com/api/v1/users/12345?include=profile&page=2"), Fixtures.requestHeaders());
+		this.response = new HttpResponseMetadata(HttpStatus.OK, Fixtures.responseHeaders());
+		this.encodedRequest = this.metadataCodec.encodeRequest(this.request, this.allocator);
+		this.encodedResponse = this.metadataCodec.encodeResponse(this.response, this.allocator);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		this.encodedRequest.release();
+		this.encodedResponse.release();
+	}
+
+	@Benchmark
+	public int encodeRequest() {
+		final ByteBuf buf = this.metadataCodec.encodeRequest(this.request, this.allocator);
+		final int size = buf.readableBytes();
+		buf.release();
+		return size;
+	}
+
+	@Benchmark
+	public HttpRequestMetadata decodeRequest() {
+		return this.metadataCodec.decodeRequest(this.encodedRequest);
+	}
+
+	@Benchmark
+	public int encodeResponse() {
+		final ByteBuf buf = this.metadataCodec.encodeResponse(this.response, this.allocator);
+		final int size = buf.readableBytes();
+		buf.release();
+		return size;
+	}
+
+	@Benchmark
+	public HttpResponseMetadata decodeResponse() {
+		return this.metadataCodec.decodeResponse(this.encodedResponse);
+	}
+}
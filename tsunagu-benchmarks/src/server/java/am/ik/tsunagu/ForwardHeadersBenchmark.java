@@ -0,0 +1,59 @@
+package am.ik.tsunagu;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import am.ik.tsunagu.benchmark.Fixtures;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+
+/**
+ * Benchmarks {@link TsunaguController#setForwardHeaders(ServerHttpRequest)}, it is in this package to reach the
+ * package-private method.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ForwardHeadersBenchmark {
+	TsunaguController controller;
+
+	ServerHttpRequest request;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		final TsunaguProps props = Fixtures.props(TsunaguProps.class, Map.of("access-log.enabled", false));
+		final TunnelMetrics metrics = new TunnelMetrics(new SimpleMeterRegistry());
+		final RequesterRegistry registry = new RequesterRegistry(props, metrics);
+		this.controller = new TsunaguController(props, registry, new ResponseCache(props), new RequestCoalescer(props), metrics, new Cluster(props, registry, null, null, null), new RateLimiter(props), new Authorizer(props), new AccessLog(props, new SimpleMeterRegistry()));
+		final HttpHeaders headers = Fixtures.requestHeaders();
+		headers.remove("Forwarded");
+		headers.remove("X-Real-IP");
+		this.request = MockServerHttpRequest.get("https://example.com/api/v1/users/12345?include=profile&page=2")
+				.headers(headers)
+				.remoteAddress(new InetSocketAddress("203.0.113.10", 54321))
+				.build();
+	}
+
+	@Benchmark
+	public HttpHeaders setForwardHeaders() {
+		return this.controller.setForwardHeaders(this.request);
+	}
+}
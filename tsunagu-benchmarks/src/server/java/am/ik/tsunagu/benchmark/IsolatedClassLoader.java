@@ -0,0 +1,64 @@
+package am.ik.tsunagu.benchmark;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+
+/**
+ * Loads the classes of tsunagu-client next to the ones of tsunagu-server. Both use the package {@code am.ik.tsunagu},
+ * so its classes and resources are only looked up in the given urls. Everything else, the libraries in particular,
+ * comes from the parent so that both apps share them.
+ */
+final class IsolatedClassLoader extends URLClassLoader {
+	private static final String PACKAGE = "am.ik.tsunagu.";
+
+	private static final String BENCHMARK_PACKAGE = "am.ik.tsunagu.benchmark.";
+
+	private static final String PATH = "am/ik/tsunagu";
+
+	static {
+		ClassLoader.registerAsParallelCapable();
+	}
+
+	IsolatedClassLoader(URL[] urls, ClassLoader parent) {
+		super(urls, parent);
+	}
+
+	@Override
+	protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+		if (!name.startsWith(PACKAGE) || name.startsWith(BENCHMARK_PACKAGE)) {
+			return super.loadClass(name, resolve);
+		}
+		synchronized (this.getClassLoadingLock(name)) {
+			Class<?> loaded = this.findLoadedClass(name);
+			if (loaded == null) {
+				loaded = this.findClass(name);
+			}
+			if (resolve) {
+				this.resolveClass(loaded);
+			}
+			return loaded;
+		}
+	}
+
+	// application.properties of the client has to win over anything on the parent classpath
+	@Override
+	public URL getResource(String name) {
+		final URL url = this.findResource(name);
+		return url != null ? url : super.getResource(name);
+	}
+
+	@Override
+	public Enumeration<URL> getResources(String name) throws IOException {
+		final List<URL> urls = Collections.list(this.findResources(name));
+		// component scanning must not see the classes of the server
+		if (!name.startsWith(PATH)) {
+			urls.addAll(Collections.list(this.getParent().getResources(name)));
+		}
+		return Collections.enumeration(new ArrayList<>(urls));
+	}
+}
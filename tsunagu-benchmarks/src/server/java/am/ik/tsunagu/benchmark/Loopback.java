@@ -0,0 +1,103 @@
+package am.ik.tsunagu.benchmark;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.time.Duration;
+
+import am.ik.tsunagu.RequesterRegistry;
+import am.ik.tsunagu.TsunaguServerApplication;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.io.DefaultResourceLoader;
+
+/**
+ * Runs a tsunagu server and a tsunagu client in this process, connected over loopback, in front of a
+ * {@link StubUpstream}. The client is loaded from its build output, {@code tsunagu-client/target/classes} by default
+ * or the directory given by the {@code tsunagu.client.classes} system property.
+ */
+final class Loopback implements AutoCloseable {
+	static final String TOKEN = "benchmark";
+
+	private final StubUpstream upstream;
+
+	private final ConfigurableApplicationContext server;
+
+	private final ConfigurableApplicationContext client;
+
+	private final int port;
+
+	Loopback() throws Exception {
+		this.upstream = new StubUpstream();
+		this.server = new SpringApplicationBuilder(TsunaguServerApplication.class)
+				.properties("server.port=0",
+						"spring.main.banner-mode=off",
+						"spring.rsocket.server.transport=websocket",
+						"spring.rsocket.server.mapping-path=/tsunagu",
+						"spring.rsocket.server.fragment-size=16MB",
+						"logging.level.root=WARN",
+						"tsunagu.token=" + TOKEN)
+				.run();
+		this.port = this.server.getEnvironment().getRequiredProperty("local.server.port", Integer.class);
+		this.client = startClient(this.port, this.upstream.port());
+		final RequesterRegistry registry = this.server.getBean(RequesterRegistry.class);
+		final long deadline = System.nanoTime() + Duration.ofSeconds(30).toNanos();
+		while (registry.ids().isEmpty()) {
+			if (System.nanoTime() > deadline) {
+				this.close();
+				throw new IllegalStateException("The client did not connect.");
+			}
+			Thread.sleep(100);
+		}
+	}
+
+	static ConfigurableApplicationContext startClient(int serverPort, int upstreamPort) throws Exception {
+		final ClassLoader classLoader = new IsolatedClassLoader(new URL[] { clientClasses() }, Loopback.class.getClassLoader());
+		final Thread thread = Thread.currentThread();
+		final ClassLoader contextClassLoader = thread.getContextClassLoader();
+		thread.setContextClassLoader(classLoader);
+		try {
+			return new SpringApplicationBuilder(classLoader.loadClass("am.ik.tsunagu.TsunaguClientApplication"))
+					.resourceLoader(new DefaultResourceLoader(classLoader))
+					.properties("server.port=0",
+							"spring.main.banner-mode=off",
+							"logging.level.root=WARN",
+							"tsunagu.remote=ws://127.0.0.1:" + serverPort + "/tsunagu",
+							"tsunagu.upstream=http://127.0.0.1:" + upstreamPort,
+							"tsunagu.token=" + TOKEN)
+					.run();
+		}
+		finally {
+			thread.setContextClassLoader(contextClassLoader);
+		}
+	}
+
+	static URL clientClasses() throws MalformedURLException {
+		final String configured = System.getProperty("tsunagu.client.classes");
+		final File classes;
+		if (configured != null) {
+			classes = new File(configured);
+		}
+		else {
+			// from the root of the repository or from tsunagu-benchmarks
+			final File fromRoot = new File("tsunagu-client/target/classes");
+			classes = fromRoot.isDirectory() ? fromRoot : new File("../tsunagu-client/target/classes");
+		}
+		if (!new File(classes, "am/ik/tsunagu/TsunaguClientApplication.class").isFile()) {
+			throw new IllegalStateException("tsunagu-client is not built in " + classes.getAbsolutePath() + ", run 'mvn package -f tsunagu-client' or set -Dtsunagu.client.classes.");
+		}
+		return classes.toURI().toURL();
+	}
+
+	int port() {
+		return this.port;
+	}
+
+	@Override
+	public void close() {
+		this.client.close();
+		this.server.close();
+		this.upstream.close();
+	}
+}
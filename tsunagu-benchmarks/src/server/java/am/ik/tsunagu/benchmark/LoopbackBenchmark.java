@@ -0,0 +1,68 @@
+package am.ik.tsunagu.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * Sends HTTP requests through a server and a client running in this process. {@link Mode#SampleTime} reports the
+ * latency percentiles, run it with {@code -t} to see them under concurrency.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoopbackBenchmark {
+	@Param({ "128", "1048576" })
+	int bodySize;
+
+	Loopback loopback;
+
+	ConnectionProvider connectionProvider;
+
+	HttpClient httpClient;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		this.loopback = new Loopback();
+		this.connectionProvider = ConnectionProvider.builder("benchmark").maxConnections(1024).build();
+		this.httpClient = HttpClient.create(this.connectionProvider)
+				.baseUrl("http://127.0.0.1:" + this.loopback.port());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		this.connectionProvider.disposeLater().block();
+		this.loopback.close();
+	}
+
+	@Benchmark
+	public long get() {
+		final Long received = this.httpClient.get()
+				.uri("/bytes/" + this.bodySize)
+				.responseContent()
+				.map(buffer -> (long) buffer.readableBytes())
+				.reduce(0L, Long::sum)
+				.block();
+		if (received == null || received != this.bodySize) {
+			throw new IllegalStateException("Received " + received + " bytes instead of " + this.bodySize + ".");
+		}
+		return received;
+	}
+}
@@ -0,0 +1,56 @@
+package am.ik.tsunagu.benchmark;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.WebsocketServerSpec;
+
+/**
+ * Upstream which answers {@code GET /bytes/{size}} with a body of the given size and echoes WebSocket frames on
+ * {@code /ws}. Bodies are binary so that link compression does not kick in.
+ */
+final class StubUpstream implements AutoCloseable {
+	private final Map<Integer, byte[]> bodies = new ConcurrentHashMap<>();
+
+	private final DisposableServer server;
+
+	StubUpstream() {
+		this.server = HttpServer.create()
+				.host("127.0.0.1")
+				.port(0)
+				.route(routes -> routes
+						.get("/bytes/{size}", (request, response) -> {
+							final byte[] body = this.body(Integer.parseInt(request.param("size")));
+							return response.header(HttpHeaderNames.CONTENT_TYPE, "application/octet-stream")
+									.header(HttpHeaderNames.CONTENT_LENGTH, String.valueOf(body.length))
+									.send(Mono.fromSupplier(() -> Unpooled.wrappedBuffer(body)));
+						})
+						.ws("/ws", (in, out) -> out.sendObject(in.receiveFrames().map(frame -> frame.retain())),
+								WebsocketServerSpec.builder().maxFramePayloadLength(1024 * 1024).build()))
+				.bindNow();
+	}
+
+	byte[] body(int size) {
+		return this.bodies.computeIfAbsent(size, s -> {
+			final byte[] body = new byte[s];
+			for (int i = 0; i < s; i++) {
+				body[i] = (byte) i;
+			}
+			return body;
+		});
+	}
+
+	int port() {
+		return this.server.port();
+	}
+
+	@Override
+	public void close() {
+		this.server.disposeNow();
+	}
+}
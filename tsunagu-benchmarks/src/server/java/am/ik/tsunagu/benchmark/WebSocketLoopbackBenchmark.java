@@ -0,0 +1,96 @@
+package am.ik.tsunagu.benchmark;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import reactor.core.Disposable;
+import reactor.core.publisher.Sinks;
+import reactor.netty.http.client.HttpClient;
+
+/**
+ * Round trips of WebSocket frames through a server and a client running in this process. Every benchmark thread has
+ * its own WebSocket session. Frames have to stay below the frame size limit of the server, 64KB by default.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class WebSocketLoopbackBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Tunnel {
+		@Param({ "128", "16384" })
+		int frameSize;
+
+		Loopback loopback;
+
+		@Setup(Level.Trial)
+		public void setup() throws Exception {
+			this.loopback = new Loopback();
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			this.loopback.close();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Session {
+		final Sinks.Many<WebSocketFrame> outbound = Sinks.many().unicast().onBackpressureBuffer();
+
+		final BlockingQueue<Integer> inbound = new LinkedBlockingQueue<>();
+
+		byte[] payload;
+
+		Disposable connection;
+
+		@Setup(Level.Trial)
+		public void setup(Tunnel tunnel) {
+			this.payload = new byte[tunnel.frameSize];
+			this.connection = HttpClient.create()
+					.websocket()
+					.uri("ws://127.0.0.1:" + tunnel.loopback.port() + "/ws")
+					.handle((in, out) -> {
+						in.receiveFrames()
+								.subscribe(frame -> this.inbound.add(frame.content().readableBytes()));
+						return out.sendObject(this.outbound.asFlux());
+					})
+					.subscribe();
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			this.outbound.tryEmitComplete();
+			this.connection.dispose();
+		}
+	}
+
+	@Benchmark
+	public int roundTrip(Session session) throws InterruptedException {
+		session.outbound.tryEmitNext(new BinaryWebSocketFrame(Unpooled.wrappedBuffer(session.payload))).orThrow();
+		final Integer received = session.inbound.poll(30, TimeUnit.SECONDS);
+		if (received == null || received != session.payload.length) {
+			throw new IllegalStateException("Received " + received + " bytes instead of " + session.payload.length + ".");
+		}
+		return received;
+	}
+}
@@ -0,0 +1,173 @@
+package am.ik.tsunagu;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.util.MimeType;
+
+/**
+ * Hand-written binary codec for the tunnel metadata.
+ *
+ * <pre>
+ * request  = version(1) method(1) uri(string) headers
+ * response = version(1) status(2) headers
+ * headers  = count(varint) *(name(string) count(varint) *value(string))
+ * string   = length(varint) utf-8 bytes
+ * </pre>
+ */
+public class BinaryMetadataCodec implements MetadataCodec {
+	public static final MimeType MIME_TYPE = MimeType.valueOf("application/x.tsunagu.metadata");
+
+	public static final BinaryMetadataCodec INSTANCE = new BinaryMetadataCodec();
+
+	static final byte VERSION_1 = 1;
+
+	static final byte NO_METHOD = (byte) 0xFF;
+
+	// large enough for typical metadata so that the buffer does not need to grow while encoding
+	static final int INITIAL_CAPACITY = 1024;
+
+	// do not rely on the declaration order of HttpMethod
+	private static final HttpMethod[] METHODS = { HttpMethod.GET, HttpMethod.HEAD, HttpMethod.POST, HttpMethod.PUT,
+			HttpMethod.PATCH, HttpMethod.DELETE, HttpMethod.OPTIONS, HttpMethod.TRACE };
+
+	@Override
+	public MimeType getMimeType() {
+		return MIME_TYPE;
+	}
+
+	@Override
+	public ByteBuf encodeRequest(HttpRequestMetadata metadata, ByteBufAllocator allocator) {
+		final ByteBuf buf = allocator.buffer(INITIAL_CAPACITY);
+		buf.writeByte(this.version());
+		buf.writeByte(encodeMethod(metadata.getMethod()));
+		writeString(buf, metadata.getUri().toString());
+		this.writeHeaders(buf, metadata.getHeaders());
+		return buf;
+	}
+
+	@Override
+	public HttpRequestMetadata decodeRequest(ByteBuf buf) {
+		final ByteBuf in = buf.duplicate();
+		this.checkVersion(in.readByte());
+		final HttpMethod method = decodeMethod(in.readByte());
+		final URI uri = URI.create(readString(in));
+		final HttpHeaders headers = this.readHeaders(in);
+		return new HttpRequestMetadata(method, uri, headers);
+	}
+
+	@Override
+	public ByteBuf encodeResponse(HttpResponseMetadata metadata, ByteBufAllocator allocator) {
+		final ByteBuf buf = allocator.buffer(INITIAL_CAPACITY);
+		buf.writeByte(this.version());
+		buf.writeShort(metadata.getStatus().value());
+		this.writeHeaders(buf, metadata.getHeaders());
+		return buf;
+	}
+
+	@Override
+	public HttpResponseMetadata decodeResponse(ByteBuf buf) {
+		final ByteBuf in = buf.duplicate();
+		this.checkVersion(in.readByte());
+		final HttpStatus status = HttpStatus.valueOf(in.readUnsignedShort());
+		final HttpHeaders headers = this.readHeaders(in);
+		return new HttpResponseMetadata(status, headers);
+	}
+
+	void writeHeaders(ByteBuf buf, HttpHeaders headers) {
+		writeVarInt(buf, headers.size());
+		for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+			writeString(buf, header.getKey());
+			final List<String> values = header.getValue();
+			writeVarInt(buf, values.size());
+			for (String value : values) {
+				writeString(buf, value);
+			}
+		}
+	}
+
+	HttpHeaders readHeaders(ByteBuf buf) {
+		final int size = readVarInt(buf);
+		final HttpHeaders headers = new HttpHeaders();
+		for (int i = 0; i < size; i++) {
+			final String name = readString(buf);
+			final int count = readVarInt(buf);
+			for (int j = 0; j < count; j++) {
+				headers.add(name, readString(buf));
+			}
+		}
+		return headers;
+	}
+
+	byte version() {
+		return VERSION_1;
+	}
+
+	void checkVersion(byte version) {
+		if (version != this.version()) {
+			throw new IllegalArgumentException("Unsupported metadata version: " + version);
+		}
+	}
+
+	static byte encodeMethod(HttpMethod method) {
+		if (method == null) {
+			return NO_METHOD;
+		}
+		for (int i = 0; i < METHODS.length; i++) {
+			if (METHODS[i] == method) {
+				return (byte) i;
+			}
+		}
+		return NO_METHOD;
+	}
+
+	static HttpMethod decodeMethod(byte b) {
+		if (b == NO_METHOD) {
+			return null;
+		}
+		if (b < 0 || b >= METHODS.length) {
+			throw new IllegalArgumentException("Unknown method: " + b);
+		}
+		return METHODS[b];
+	}
+
+	static void writeString(ByteBuf buf, String value) {
+		final int length = ByteBufUtil.utf8Bytes(value);
+		writeVarInt(buf, length);
+		ByteBufUtil.reserveAndWriteUtf8(buf, value, length);
+	}
+
+	static String readString(ByteBuf buf) {
+		final int length = readVarInt(buf);
+		return buf.readCharSequence(length, StandardCharsets.UTF_8).toString();
+	}
+
+	static void writeVarInt(ByteBuf buf, int value) {
+		while ((value & ~0x7F) != 0) {
+			buf.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buf.writeByte(value);
+	}
+
+	static int readVarInt(ByteBuf buf) {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			final byte b = buf.readByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Malformed varint");
+	}
+}
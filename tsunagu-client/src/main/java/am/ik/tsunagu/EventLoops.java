@@ -0,0 +1,67 @@
+package am.ik.tsunagu;
+
+import java.time.Duration;
+
+import io.netty.channel.epoll.Epoll;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+import reactor.netty.resources.LoopResources;
+
+/**
+ * Event loops of the client instead of the global ones of Reactor Netty. The tunnel loops run the connections to the
+ * server, the upstream loops the requests to upstreams and the connections to TCP targets.
+ */
+public class EventLoops {
+	private final boolean preferNative;
+
+	private final LoopResources tunnelLoops;
+
+	private final LoopResources upstreamLoops;
+
+	private final Logger log = LoggerFactory.getLogger(EventLoops.class);
+
+	public EventLoops(TsunaguProps props) {
+		final TsunaguProps.EventLoop eventLoop = props.getEventLoop();
+		this.preferNative = eventLoop.isPreferNative();
+		// a connection stays on one loop, more threads than connections would idle
+		final int tunnelThreads = eventLoop.getTunnelThreads() > 0 ? eventLoop.getTunnelThreads()
+				: Math.min(Math.max(props.getConnections(), 1), LoopResources.DEFAULT_IO_WORKER_COUNT);
+		final int upstreamThreads = eventLoop.getUpstreamThreads() > 0 ? eventLoop.getUpstreamThreads() : LoopResources.DEFAULT_IO_WORKER_COUNT;
+		// threads start on first use
+		this.tunnelLoops = LoopResources.create("tsunagu-tunnel", tunnelThreads, true);
+		this.upstreamLoops = LoopResources.create("tsunagu-upstream", upstreamThreads, true);
+		if (this.preferNative && !LoopResources.hasNativeSupport()) {
+			log.info("Event loops: nio ({} tunnel threads, {} upstream threads), native transport is not available: {}", tunnelThreads, upstreamThreads,
+					String.valueOf(Epoll.unavailabilityCause()));
+		}
+		else {
+			log.info("Event loops: {} ({} tunnel threads, {} upstream threads)", transport(this.preferNative), tunnelThreads, upstreamThreads);
+		}
+	}
+
+	static String transport(boolean preferNative) {
+		if (!preferNative || !LoopResources.hasNativeSupport()) {
+			return "nio";
+		}
+		return Epoll.isAvailable() ? "epoll" : "kqueue";
+	}
+
+	public boolean isPreferNative() {
+		return preferNative;
+	}
+
+	public LoopResources getTunnelLoops() {
+		return tunnelLoops;
+	}
+
+	public LoopResources getUpstreamLoops() {
+		return upstreamLoops;
+	}
+
+	void dispose() {
+		// connections are closed by now, so there is nothing to wait for
+		Mono.when(this.tunnelLoops.disposeLater(Duration.ZERO, Duration.ofSeconds(5)), this.upstreamLoops.disposeLater(Duration.ZERO, Duration.ofSeconds(5)))
+				.block();
+	}
+}
@@ -0,0 +1,259 @@
+package am.ik.tsunagu;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import org.reactivestreams.Subscription;
+import reactor.core.CoreSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Operators;
+
+/**
+ * Byte based flow control of bodies. Demand is only signalled to the source while the bytes handed to the writer and
+ * not released yet fit into the window of the stream and the window of the connection it shares with other streams.
+ * Netty releases a buffer once it is written to the socket, so a slow reader stops the source after a window instead
+ * of after a number of buffers of any size.
+ */
+public final class FlowControl {
+	// guess of the buffer size until the first buffers arrive
+	static final long INITIAL_BUFFER_SIZE = 16 * 1024;
+
+	private FlowControl() {
+	}
+
+	/**
+	 * @param source body to send, the buffers are passed on and released by the subscriber
+	 * @param streamWindow bytes in flight for this stream
+	 * @param connectionWindow window shared with the other streams of the connection
+	 * @param stalled called with the nanoseconds a stream waited for the window whenever it continues or ends
+	 */
+	public static Flux<ByteBuf> window(Flux<ByteBuf> source, long streamWindow, Window connectionWindow, LongConsumer stalled) {
+		return new Flux<ByteBuf>() {
+			@Override
+			public void subscribe(CoreSubscriber<? super ByteBuf> actual) {
+				source.subscribe(new WindowSubscriber(actual, new Window(streamWindow), connectionWindow, stalled));
+			}
+		};
+	}
+
+	/**
+	 * Bytes in flight against a limit. A window of a connection is shared by its streams.
+	 */
+	public static final class Window {
+		private final long size;
+
+		private final AtomicLong buffered = new AtomicLong();
+
+		private final Queue<WindowSubscriber> waiting = new ConcurrentLinkedQueue<>();
+
+		public Window(long size) {
+			this.size = size;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public long getBuffered() {
+			return this.buffered.get();
+		}
+
+		long credit() {
+			return this.size - this.buffered.get();
+		}
+
+		void acquire(long bytes) {
+			this.buffered.addAndGet(bytes);
+		}
+
+		void release(long bytes) {
+			this.buffered.addAndGet(-bytes);
+			// a woken subscriber queues itself again once it used up the window
+			while (this.credit() > 0) {
+				final WindowSubscriber subscriber = this.waiting.poll();
+				if (subscriber == null) {
+					break;
+				}
+				subscriber.wake();
+			}
+		}
+
+		void await(WindowSubscriber subscriber) {
+			this.waiting.offer(subscriber);
+			// the window may have opened before the subscriber was queued
+			if (this.credit() > 0 && this.waiting.remove(subscriber)) {
+				subscriber.wake();
+			}
+		}
+	}
+
+	static final class WindowSubscriber implements CoreSubscriber<ByteBuf>, Subscription {
+		private final CoreSubscriber<? super ByteBuf> actual;
+
+		private final Window stream;
+
+		private final Window connection;
+
+		private final LongConsumer stalled;
+
+		// requested by the subscriber and not delivered yet
+		private final AtomicLong requested = new AtomicLong();
+
+		// requested from the source and not delivered yet
+		private final AtomicLong pending = new AtomicLong();
+
+		private final AtomicInteger wip = new AtomicInteger();
+
+		private final AtomicBoolean waiting = new AtomicBoolean();
+
+		private volatile long averageSize = INITIAL_BUFFER_SIZE;
+
+		private volatile boolean stopped;
+
+		private Subscription upstream;
+
+		private long stalledSince;
+
+		WindowSubscriber(CoreSubscriber<? super ByteBuf> actual, Window stream, Window connection, LongConsumer stalled) {
+			this.actual = actual;
+			this.stream = stream;
+			this.connection = connection;
+			this.stalled = stalled;
+		}
+
+		@Override
+		public void onSubscribe(Subscription s) {
+			if (Operators.validate(this.upstream, s)) {
+				this.upstream = s;
+				this.actual.onSubscribe(this);
+			}
+		}
+
+		@Override
+		public void onNext(ByteBuf buffer) {
+			this.pending.decrementAndGet();
+			this.requested.decrementAndGet();
+			final int size = buffer.readableBytes();
+			this.averageSize = Math.max((this.averageSize * 7 + size) / 8, 1);
+			this.stream.acquire(size);
+			this.connection.acquire(size);
+			this.actual.onNext(new ReleaseAwareByteBuf(buffer, () -> this.released(size)));
+			this.drain();
+		}
+
+		@Override
+		public void onError(Throwable t) {
+			this.stop();
+			this.actual.onError(t);
+		}
+
+		@Override
+		public void onComplete() {
+			this.stop();
+			this.actual.onComplete();
+		}
+
+		@Override
+		public void request(long n) {
+			if (Operators.validate(n)) {
+				this.requested.getAndAccumulate(n, Operators::addCap);
+				this.drain();
+			}
+		}
+
+		@Override
+		public void cancel() {
+			this.stop();
+			this.upstream.cancel();
+		}
+
+		void stop() {
+			this.stopped = true;
+			this.drain();
+		}
+
+		void released(int size) {
+			this.stream.release(size);
+			this.connection.release(size);
+			this.drain();
+		}
+
+		void wake() {
+			this.waiting.set(false);
+			this.drain();
+		}
+
+		void drain() {
+			if (this.wip.getAndIncrement() != 0) {
+				return;
+			}
+			int missed = 1;
+			do {
+				if (this.stopped) {
+					this.resume();
+				}
+				else {
+					final long requested = this.requested.get();
+					final long pending = this.pending.get();
+					if (requested > pending) {
+						final long credit = Math.min(this.stream.credit(), this.connection.credit());
+						if (credit <= 0) {
+							if (this.stalledSince == 0) {
+								this.stalledSince = System.nanoTime();
+							}
+							// the stream window opens when this stream's buffers are released, the connection window may
+							// be opened by any stream
+							if (this.connection.credit() <= 0 && this.waiting.compareAndSet(false, true)) {
+								this.connection.await(this);
+							}
+						}
+						else {
+							final long wanted = Math.min(Math.max(credit / this.averageSize, 1), requested) - pending;
+							if (wanted > 0) {
+								this.resume();
+								this.pending.addAndGet(wanted);
+								this.upstream.request(wanted);
+							}
+						}
+					}
+				}
+				missed = this.wip.addAndGet(-missed);
+			} while (missed != 0);
+		}
+
+		void resume() {
+			if (this.stalledSince != 0) {
+				this.stalled.accept(System.nanoTime() - this.stalledSince);
+				this.stalledSince = 0;
+			}
+		}
+	}
+
+	/**
+	 * Wraps a buffer to learn when the writer releases it. A composite of one component is written without copying.
+	 */
+	static final class ReleaseAwareByteBuf extends CompositeByteBuf {
+		private final Runnable onRelease;
+
+		ReleaseAwareByteBuf(ByteBuf buffer, Runnable onRelease) {
+			super(buffer.alloc(), buffer.isDirect(), 1, buffer);
+			this.onRelease = onRelease;
+		}
+
+		@Override
+		protected void deallocate() {
+			try {
+				super.deallocate();
+			}
+			finally {
+				this.onRelease.run();
+			}
+		}
+	}
+}
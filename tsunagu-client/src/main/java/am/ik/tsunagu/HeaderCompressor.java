@@ -0,0 +1,113 @@
+package am.ik.tsunagu;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+
+/**
+ * Sending side of the header compression. Header fields which miss the table are counted and, every
+ * {@link #UPDATE_INTERVAL} messages, the hottest ones are proposed to the peer as a new epoch. The new table is only
+ * used after the peer acknowledged it, so frames which are reordered between concurrent streams can always be
+ * decoded.
+ */
+public class HeaderCompressor {
+	static final int UPDATE_INTERVAL = 64;
+
+	static final int MAX_VALUE_LENGTH = 512;
+
+	// never put credentials into the shared dynamic table
+	private static final Set<String> SENSITIVE_HEADERS = Set.of("authorization", "proxy-authorization", "cookie", "set-cookie");
+
+	private final int maxEntries;
+
+	private final Function<HeaderTable, Mono<Void>> sender;
+
+	private final ConcurrentMap<Map.Entry<String, String>, LongAdder> candidates = new ConcurrentHashMap<>();
+
+	private final AtomicLong messages = new AtomicLong();
+
+	private final AtomicBoolean updating = new AtomicBoolean();
+
+	private volatile HeaderTable table = HeaderTable.EMPTY;
+
+	private final Logger log = LoggerFactory.getLogger(HeaderCompressor.class);
+
+	/**
+	 * @param maxEntries max number of dynamic entries
+	 * @param sender sends a new table to the peer and completes when the peer installed it
+	 */
+	public HeaderCompressor(int maxEntries, Function<HeaderTable, Mono<Void>> sender) {
+		this.maxEntries = maxEntries;
+		this.sender = sender;
+	}
+
+	/**
+	 * @return the table to encode the next message with
+	 */
+	public HeaderTable table() {
+		if (this.messages.incrementAndGet() % UPDATE_INTERVAL == 0) {
+			this.maybeUpdate();
+		}
+		return this.table;
+	}
+
+	void miss(String name, String value) {
+		if (value.length() > MAX_VALUE_LENGTH || SENSITIVE_HEADERS.contains(name.toLowerCase(Locale.ROOT))) {
+			return;
+		}
+		if (this.candidates.size() < this.maxEntries * 4) {
+			this.candidates.computeIfAbsent(Map.entry(name, value), __ -> new LongAdder()).increment();
+		}
+	}
+
+	void maybeUpdate() {
+		if (this.candidates.isEmpty() || !this.updating.compareAndSet(false, true)) {
+			return;
+		}
+		final HeaderTable current = this.table;
+		final List<Map.Entry<String, String>> entries = new ArrayList<>();
+		final Set<Map.Entry<String, String>> added = new HashSet<>();
+		final List<Map.Entry<String, String>> currentEntries = current.getEntries();
+		for (int i = 0; i < currentEntries.size(); i++) {
+			if (current.hits(i) > 0 && added.add(currentEntries.get(i))) {
+				entries.add(currentEntries.get(i));
+			}
+		}
+		final int kept = entries.size();
+		this.candidates.entrySet().stream()
+				.filter(e -> e.getValue().sum() > 1)
+				.sorted(Comparator.comparingLong((Map.Entry<Map.Entry<String, String>, LongAdder> e) -> e.getValue().sum()).reversed())
+				.map(Map.Entry::getKey)
+				.filter(added::add)
+				.limit(Math.max(this.maxEntries - kept, 0))
+				.forEach(entries::add);
+		this.candidates.clear();
+		if (entries.size() == kept && kept == currentEntries.size()) {
+			this.updating.set(false);
+			return;
+		}
+		final HeaderTable next = new HeaderTable(current.getEpoch() + 1, entries);
+		this.sender.apply(next)
+				.doOnSuccess(__ -> {
+					log.debug("Header table updated {}", next);
+					this.table = next;
+				})
+				.doOnError(e -> log.warn("Failed to update the header table ({})", e.getMessage()))
+				.doFinally(__ -> this.updating.set(false))
+				.subscribe();
+	}
+}
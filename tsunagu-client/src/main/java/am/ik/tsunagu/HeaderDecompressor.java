@@ -0,0 +1,35 @@
+package am.ik.tsunagu;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Receiving side of the header compression. Keeps the latest few epochs because messages encoded with the previous
+ * epoch may still be in flight when a new table is installed.
+ */
+public class HeaderDecompressor {
+	static final int RETAINED_EPOCHS = 4;
+
+	private final int maxEntries;
+
+	private final AtomicReferenceArray<HeaderTable> tables = new AtomicReferenceArray<>(RETAINED_EPOCHS);
+
+	public HeaderDecompressor(int maxEntries) {
+		this.maxEntries = maxEntries;
+		this.tables.set(0, HeaderTable.EMPTY);
+	}
+
+	public void install(HeaderTable table) {
+		if (table.getEntries().size() > this.maxEntries) {
+			throw new IllegalArgumentException("Too many header table entries: " + table.getEntries().size() + " > " + this.maxEntries);
+		}
+		this.tables.set(table.getEpoch() % RETAINED_EPOCHS, table);
+	}
+
+	public HeaderTable table(int epoch) {
+		final HeaderTable table = this.tables.get(epoch % RETAINED_EPOCHS);
+		if (table == null || table.getEpoch() != epoch) {
+			throw new IllegalStateException("Unknown header table epoch: " + epoch);
+		}
+		return table;
+	}
+}
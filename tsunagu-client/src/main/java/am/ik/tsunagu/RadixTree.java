@@ -0,0 +1,76 @@
+package am.ik.tsunagu;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Radix tree keyed by strings which answers the value of the longest key that is a prefix of a given string.
+ */
+final class RadixTree<V> {
+	private final Node<V> root = new Node<>("", null);
+
+	void put(String key, V value) {
+		Node<V> node = this.root;
+		int i = 0;
+		while (i < key.length()) {
+			final Node<V> child = node.children.get(key.charAt(i));
+			if (child == null) {
+				node.children.put(key.charAt(i), new Node<>(key.substring(i), value));
+				return;
+			}
+			final int common = commonPrefixLength(child.label, key, i);
+			if (common < child.label.length()) {
+				// splits the edge at the first differing character
+				final Node<V> split = new Node<>(child.label.substring(0, common), null);
+				child.label = child.label.substring(common);
+				split.children.put(child.label.charAt(0), child);
+				node.children.put(key.charAt(i), split);
+				node = split;
+			}
+			else {
+				node = child;
+			}
+			i += common;
+		}
+		node.value = value;
+	}
+
+	V longestPrefixMatch(String key) {
+		Node<V> node = this.root;
+		V value = node.value;
+		int i = 0;
+		while (i < key.length()) {
+			node = node.children.get(key.charAt(i));
+			if (node == null || !key.startsWith(node.label, i)) {
+				break;
+			}
+			if (node.value != null) {
+				value = node.value;
+			}
+			i += node.label.length();
+		}
+		return value;
+	}
+
+	static int commonPrefixLength(String label, String key, int offset) {
+		final int max = Math.min(label.length(), key.length() - offset);
+		int i = 0;
+		while (i < max && label.charAt(i) == key.charAt(offset + i)) {
+			i++;
+		}
+		return i;
+	}
+
+	static final class Node<V> {
+		private final Map<Character, Node<V>> children = new HashMap<>(4);
+
+		private String label;
+
+		private V value;
+
+		Node(String label, V value) {
+			this.label = label;
+			this.value = value;
+		}
+	}
+}
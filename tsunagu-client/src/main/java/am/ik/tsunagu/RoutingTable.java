@@ -0,0 +1,75 @@
+package am.ik.tsunagu;
+
+import java.net.URI;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Routing rules compiled from {@code tsunagu.host-map}, {@code tsunagu.path-to-host-map} and
+ * {@code tsunagu.path-to-upstream-map}. Path prefixes are given without the leading slash and the longest matching
+ * prefix wins. A route inherits what it does not define from the shorter prefixes.
+ */
+final class RoutingTable {
+	private final Map<String, String> hostMap;
+
+	private final RadixTree<Route> routes = new RadixTree<>();
+
+	RoutingTable(TsunaguProps props) {
+		this.hostMap = props.getHostMap();
+		// shorter prefixes first so that every route can inherit from the routes above it
+		final Map<String, Route> rules = new TreeMap<>(Comparator.comparingInt(String::length).thenComparing(Comparator.naturalOrder()));
+		rules.put("", new Route(null, props.getUpstream()));
+		props.getPathToHostMap().forEach((prefix, host) -> rules.merge(TsunaguConnector.removeLeadingSlash(prefix), new Route(host, null), Route::with));
+		props.getPathToUpstreamMap().forEach((prefix, upstream) -> rules.merge(TsunaguConnector.removeLeadingSlash(prefix), new Route(null, upstream), Route::with));
+		rules.forEach((prefix, route) -> {
+			final Route parent = this.routes.longestPrefixMatch(prefix);
+			this.routes.put(prefix, parent == null ? route : parent.with(route));
+		});
+	}
+
+	/**
+	 * @param path request path without the leading slash
+	 */
+	Route route(String path) {
+		return this.routes.longestPrefixMatch(path);
+	}
+
+	/**
+	 * @return the host the given host is mapped to or {@code null}
+	 */
+	String mapHost(String host) {
+		return host == null ? null : this.hostMap.get(host);
+	}
+
+	static final class Route {
+		private final String host;
+
+		private final URI upstream;
+
+		Route(String host, URI upstream) {
+			this.host = host;
+			this.upstream = upstream;
+		}
+
+		/**
+		 * @return the host to send to the upstream or {@code null} to keep the host
+		 */
+		String getHost() {
+			return host;
+		}
+
+		URI getUpstream() {
+			return upstream;
+		}
+
+		Route with(Route other) {
+			return new Route(other.host != null ? other.host : this.host, other.upstream != null ? other.upstream : this.upstream);
+		}
+
+		@Override
+		public String toString() {
+			return "{host=" + host + ", upstream=" + upstream + '}';
+		}
+	}
+}
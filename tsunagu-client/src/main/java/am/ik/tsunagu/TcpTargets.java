@@ -0,0 +1,87 @@
+package am.ik.tsunagu;
+
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.AdaptiveRecvByteBufAllocator;
+import io.netty.channel.ChannelOption;
+import io.rsocket.Payload;
+import io.rsocket.util.ByteBufPayload;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.netty.tcp.TcpClient;
+
+/**
+ * Addresses of the TCP targets this client forwards. The server opens a request-channel per connection of one of its
+ * TCP ports, whose first payload names the target. The bytes of the following payloads are written to a new connection
+ * to the target as they are and the bytes read from it are sent back the same way.
+ */
+public class TcpTargets {
+	public static final String ROUTE = "tcp";
+
+	// reads stay well below the 64KB the server accepts per WebSocket frame by default
+	static final int MAX_READ_SIZE = 16 * 1024;
+
+	private final Map<String, InetSocketAddress> targets;
+
+	private final EventLoops eventLoops;
+
+	private final Logger log = LoggerFactory.getLogger(TcpTargets.class);
+
+	public TcpTargets(TsunaguProps props, EventLoops eventLoops) {
+		final Map<String, InetSocketAddress> targets = new HashMap<>();
+		props.getTcp().getTargets().forEach((name, address) -> targets.put(name, parseAddress(address)));
+		this.targets = Map.copyOf(targets);
+		this.eventLoops = eventLoops;
+	}
+
+	static InetSocketAddress parseAddress(String address) {
+		final int colon = address.lastIndexOf(':');
+		if (colon <= 0 || colon == address.length() - 1) {
+			throw new IllegalArgumentException("TCP target must be host:port (" + address + ")");
+		}
+		final String host = address.substring(0, colon);
+		// brackets of IPv6 literals
+		final String hostname = host.startsWith("[") && host.endsWith("]") ? host.substring(1, host.length() - 1) : host;
+		return InetSocketAddress.createUnresolved(hostname, Integer.parseInt(address.substring(colon + 1)));
+	}
+
+	public Set<String> names() {
+		return this.targets.keySet();
+	}
+
+	/**
+	 * @param target name of the target
+	 * @param data bytes from the end user, released once written
+	 * @return bytes from the target
+	 */
+	public Flux<Payload> forward(String target, Flux<ByteBuf> data) {
+		final InetSocketAddress address = this.targets.get(target);
+		if (address == null) {
+			return Flux.error(new IllegalArgumentException("Unknown TCP target: " + target));
+		}
+		return TcpClient.newConnection()
+				.runOn(this.eventLoops.getUpstreamLoops(), this.eventLoops.isPreferNative())
+				.remoteAddress(() -> address)
+				.option(ChannelOption.RCVBUF_ALLOCATOR, new AdaptiveRecvByteBufAllocator(64, 1024, MAX_READ_SIZE))
+				.connect()
+				.doOnNext(__ -> log.debug("TCP: Connected to {} ({})", target, address))
+				.flatMapMany(connection -> {
+					final Disposable sending = connection.outbound().send(data).then()
+							.subscribe(null, e -> connection.dispose());
+					// the connection ends when the target closes it, the server cancels the channel when the end user does
+					return connection.inbound().receive().retain()
+							.<Payload>map(ByteBufPayload::create)
+							.doFinally(__ -> {
+								sending.dispose();
+								connection.dispose();
+								log.debug("TCP: Disconnected from {} ({})", target, address);
+							});
+				});
+	}
+}
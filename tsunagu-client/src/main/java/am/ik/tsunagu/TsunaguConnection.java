@@ -0,0 +1,248 @@
+package am.ik.tsunagu;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.ByteBufAllocator;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.core.Resume;
+import io.rsocket.metadata.CompositeMetadata;
+import io.rsocket.metadata.CompositeMetadata.Entry;
+import io.rsocket.metadata.RoutingMetadata;
+import io.rsocket.metadata.WellKnownMimeType;
+import io.rsocket.resume.InMemoryResumableFramesStore;
+import io.rsocket.transport.ClientTransport;
+import io.rsocket.util.EmptyPayload;
+import org.reactivestreams.Publisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.util.retry.Retry;
+import reactor.util.retry.RetryBackoffSpec;
+
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.messaging.rsocket.RSocketRequester.Builder;
+
+/**
+ * One of the RSocket connections of a client. Each connection is registered separately on the server and keeps its
+ * own negotiated metadata codec and verification.
+ */
+public class TsunaguConnection implements RSocket {
+	public static final String DRAIN_ROUTE = "drain";
+
+	private final int index;
+
+	private final TsunaguConnector connector;
+
+	private final RSocketRequester requester;
+
+	private final TsunaguProps props;
+
+	private final Logger log = LoggerFactory.getLogger(TsunaguConnection.class);
+
+	// replaced with a compressing codec when the server agrees on a header table
+	private volatile MetadataCodec binaryMetadataCodec = BinaryMetadataCodec.INSTANCE;
+
+	// whether the server can decompress response bodies
+	private volatile boolean compression = false;
+
+	private final NettyDataBufferFactory dataBufferFactory = new NettyDataBufferFactory(ByteBufAllocator.DEFAULT);
+
+	private Disposable verification = null;
+
+	// whether the server registered the connection
+	private volatile boolean registered = false;
+
+	// request body bytes of this connection buffered on the client
+	private final FlowControl.Window window;
+
+	public TsunaguConnection(int index, TsunaguConnector connector, Builder requesterBuilder, Map<String, String> setupData, ClientTransport transport) {
+		this.index = index;
+		this.connector = connector;
+		this.props = connector.getProps();
+		this.window = new FlowControl.Window(this.props.getFlowControl().getConnectionWindow().toBytes());
+		final TsunaguProps.Resume resume = this.props.getResume();
+		this.requester = requesterBuilder
+				.setupData(setupData)
+				.rsocketConnector(rsocketConnector -> {
+					rsocketConnector
+							.reconnect(backoff(this.props.getReconnect())
+									.doBeforeRetry(s -> {
+										log.info("[{}] Reconnecting to {}. ({})", index, this.props.getRemote(), s, s.failure());
+										connector.getMetrics().reconnect(index);
+									}))
+							.acceptor((setup, sendingSocket) -> Mono.just(TsunaguConnection.this));
+					if (resume.isEnabled()) {
+						// a resumed session keeps its requests in flight and its registration on the server
+						rsocketConnector.resume(new Resume()
+								.sessionDuration(resume.getSessionDuration())
+								.storeFactory(token -> new InMemoryResumableFramesStore("client", token, (int) resume.getBufferSize().toBytes()))
+								.retry(backoff(this.props.getReconnect())
+										.doBeforeRetry(s -> log.info("[{}] Resuming the session with {}. ({})", index, this.props.getRemote(), s))));
+					}
+				})
+				.transport(transport);
+	}
+
+	static RetryBackoffSpec backoff(TsunaguProps.Reconnect reconnect) {
+		return Retry.backoff(Long.MAX_VALUE, reconnect.getMinBackoff())
+				.maxBackoff(reconnect.getMaxBackoff())
+				.jitter(reconnect.getJitter());
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	@Override
+	public Mono<Void> fireAndForget(Payload payload) {
+		final String data = payload.getDataUtf8();
+		payload.release();
+		final Consumer<SignalType> closer = __ -> this.connector.getContext().close();
+		if (data.startsWith("{") && data.endsWith("}")) {
+			try {
+				final JsonNode response = new ObjectMapper().readValue(data, JsonNode.class);
+				if (response.has("type")) {
+					final String type = response.get("type").asText();
+					if ("connected".equals(type) && response.has("requesterId")) {
+						if (this.verification != null) {
+							log.info("[{}] cancel existing verification", this.index);
+							this.verification.dispose();
+						}
+						final String requesterId = response.get("requesterId").asText();
+						final int headerTableSize = response.path("headerTableSize").asInt(0);
+						this.binaryMetadataCodec = headerTableSize > 0 ? this.compressingMetadataCodec(headerTableSize) : BinaryMetadataCodec.INSTANCE;
+						this.compression = LinkCompression.DEFLATE.equals(response.path("compression").asText());
+						log.info("[{}] start verification for the requester({})", this.index, requesterId);
+						this.verification = new TsunaguConnectionVerifier(this.index, requesterId, this.requester, this.connector).start();
+						this.registered = true;
+						return Mono.empty();
+					}
+				}
+			}
+			catch (JsonProcessingException e) {
+				log.error("can't parse json", e);
+				return Mono.<Void>error(e).doFinally(closer);
+			}
+		}
+		log.error(data);
+		return Mono.<Void>empty().doFinally(closer);
+	}
+
+	CompressingMetadataCodec compressingMetadataCodec(int headerTableSize) {
+		final HeaderCompressor compressor = new HeaderCompressor(headerTableSize, table -> this.requester
+				.route(CompressingMetadataCodec.HEADER_TABLE_ROUTE)
+				.data(this.dataBufferFactory.wrap(CompressingMetadataCodec.encodeHeaderTable(table, ByteBufAllocator.DEFAULT)))
+				.retrieveMono(Void.class));
+		return new CompressingMetadataCodec(compressor, new HeaderDecompressor(headerTableSize));
+	}
+
+	@Override
+	public Mono<Payload> requestResponse(Payload payload) {
+		try {
+			if (CompressingMetadataCodec.HEADER_TABLE_ROUTE.equals(getRoute(payload))) {
+				final MetadataCodec metadataCodec = this.binaryMetadataCodec;
+				if (!(metadataCodec instanceof CompressingMetadataCodec)) {
+					return Mono.error(new IllegalStateException("Header compression is not enabled."));
+				}
+				((CompressingMetadataCodec) metadataCodec).getDecompressor().install(HeaderTable.read(payload.data()));
+				return Mono.just(EmptyPayload.INSTANCE);
+			}
+			return Mono.error(new IllegalArgumentException("Unknown route."));
+		}
+		finally {
+			payload.release();
+		}
+	}
+
+	static String getRoute(Payload payload) {
+		for (Entry entry : new CompositeMetadata(payload.metadata(), false)) {
+			if (WellKnownMimeType.MESSAGE_RSOCKET_ROUTING.getString().equals(entry.getMimeType())) {
+				final Iterator<String> tags = new RoutingMetadata(entry.getContent()).iterator();
+				return tags.hasNext() ? tags.next() : null;
+			}
+		}
+		return null;
+	}
+
+	MetadataCodec getMetadataCodec(String mimeType) {
+		if (BinaryMetadataCodec.MIME_TYPE.toString().equals(mimeType)) {
+			return this.binaryMetadataCodec;
+		}
+		if (CborMetadataCodec.INSTANCE.getMimeType().toString().equals(mimeType)) {
+			return CborMetadataCodec.INSTANCE;
+		}
+		return null;
+	}
+
+	boolean isCompression() {
+		return compression;
+	}
+
+	FlowControl.Window getWindow() {
+		return window;
+	}
+
+	@Override
+	public Flux<Payload> requestStream(Payload payload) {
+		return this.connector.requestStream(payload, this);
+	}
+
+	@Override
+	public Flux<Payload> requestChannel(Publisher<Payload> payloads) {
+		return this.connector.requestChannel(payloads, this);
+	}
+
+	/**
+	 * Asks the server to send no new requests through this connection. The server answers once the requests in flight
+	 * are done.
+	 */
+	Mono<Void> drain() {
+		if (!this.registered || this.requester.isDisposed()) {
+			return Mono.empty();
+		}
+		return this.requester.route(DRAIN_ROUTE)
+				.retrieveMono(Void.class)
+				.doOnSubscribe(__ -> log.info("[{}] Draining", this.index))
+				.doOnSuccess(__ -> log.info("[{}] Drained", this.index))
+				.onErrorResume(e -> {
+					log.warn("[{}] Failed to drain ({})", this.index, e.getMessage());
+					return Mono.empty();
+				});
+	}
+
+	void connect() {
+		if (this.requester.isDisposed()) {
+			return;
+		}
+		this.requester
+				.route("version_check")
+				.retrieveMono(String.class)
+				.doOnRequest(__ -> log.info("[{}] Connecting to {}", this.index, this.props.getRemote()))
+				.retryWhen(backoff(this.props.getReconnect())
+						.filter(e -> !this.requester.isDisposed())
+						.doBeforeRetry(s -> {
+							log.info("[{}] Reconnecting to {}. ({})", this.index, this.props.getRemote(), s, s.failure());
+							this.connector.getMetrics().reconnect(this.index);
+						}))
+				.doOnSuccess(s -> log.info("[{}] Connected ({})", this.index, s))
+				.doOnError(e -> log.error("[{}] Failed to connect ({})", this.index, e.getMessage()))
+				.subscribe();
+	}
+
+	void close() {
+		if (this.verification != null) {
+			this.verification.dispose();
+		}
+		this.requester.dispose();
+	}
+}
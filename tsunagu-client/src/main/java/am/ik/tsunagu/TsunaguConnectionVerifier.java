@@ -1,54 +1,88 @@
 package am.ik.tsunagu;
 
-import java.util.Arrays;
+import java.time.Duration;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
-import org.springframework.boot.availability.AvailabilityChangeEvent;
-import org.springframework.boot.availability.LivenessState;
-import org.springframework.boot.web.client.RestTemplateBuilder;
-import org.springframework.context.ApplicationEventPublisher;
-import org.springframework.web.client.RestTemplate;
-import org.springframework.web.util.UriComponentsBuilder;
+import org.springframework.messaging.rsocket.RSocketRequester;
 
+/**
+ * Asks the server through the connection itself whether it is still registered under the id it was given. A
+ * connection is broken once a number of verifications in a row failed, a verification taking longer than the timeout
+ * counts as failed.
+ */
 public class TsunaguConnectionVerifier {
+	public static final String VERIFY_ROUTE = "verify";
+
+	private final int index;
+
 	private final String requesterId;
 
-	private final ApplicationEventPublisher eventPublisher;
+	private final RSocketRequester requester;
 
-	private final RestTemplate restTemplate;
+	private final TsunaguConnector connector;
+
+	private final TsunaguProps.Verification verification;
 
 	private final Logger log = LoggerFactory.getLogger(TsunaguConnectionVerifier.class);
 
+	// verifications run one after another
+	private int failures = 0;
 
-	public TsunaguConnectionVerifier(String requesterId, ApplicationEventPublisher eventPublisher, TsunaguProps props) {
+	public TsunaguConnectionVerifier(int index, String requesterId, RSocketRequester requester, TsunaguConnector connector) {
+		this.index = index;
 		this.requesterId = requesterId;
-		this.eventPublisher = eventPublisher;
-		final String url = props.getRemote().toString()
-				.replace("wss://", "https://")
-				.replace("ws://", "http://");
-		this.restTemplate = new RestTemplateBuilder()
-				.rootUri(UriComponentsBuilder.fromHttpUrl(url).replacePath("").build(false).toString())
-				.build();
+		this.requester = requester;
+		this.connector = connector;
+		this.verification = connector.getProps().getVerification();
 	}
 
-	public void verifyConnection() {
-		log.debug("verify connection");
-		try {
-			final String[] requesters = this.restTemplate.getForObject("/.tsunagu/requesters", String[].class);
-			if (Arrays.asList(requesters).contains(this.requesterId)) {
-				log.debug("verification ok requester(client={}, server={})", this.requesterId, Arrays.toString(requesters));
-				AvailabilityChangeEvent.publish(this.eventPublisher, requesters, LivenessState.CORRECT);
-			}
-			else {
-				log.warn("verification failed requester(client={}, server={})", this.requesterId, Arrays.toString(requesters));
-				AvailabilityChangeEvent.publish(this.eventPublisher, requesters, LivenessState.BROKEN);
+	public Disposable start() {
+		return Flux.interval(Duration.ZERO, this.verification.getInterval())
+				.onBackpressureDrop()
+				.concatMap(__ -> this.verify())
+				.subscribe();
+	}
+
+	Mono<Void> verify() {
+		return Mono.defer(() -> {
+			final long start = System.nanoTime();
+			return this.requester.route(VERIFY_ROUTE)
+					.data(Map.of("requesterId", this.requesterId))
+					.retrieveMono(Boolean.class)
+					.timeout(this.verification.getTimeout())
+					.defaultIfEmpty(false)
+					.onErrorResume(e -> {
+						log.warn("[{}] verification failed ({})", this.index, e.toString());
+						return Mono.just(false);
+					})
+					.doOnNext(registered -> {
+						this.connector.getMetrics().verification(this.index, System.nanoTime() - start, registered);
+						this.verified(registered);
+					})
+					.then();
+		});
+	}
+
+	void verified(boolean registered) {
+		if (registered) {
+			if (this.failures > 0) {
+				log.info("[{}] verification ok again requester({})", this.index, this.requesterId);
 			}
+			log.debug("[{}] verification ok requester({})", this.index, this.requesterId);
+			this.failures = 0;
+			this.connector.verified(this.index, true);
+			return;
 		}
-		catch (RuntimeException e) {
-			log.warn("verification failed", e);
-			AvailabilityChangeEvent.publish(this.eventPublisher, e, LivenessState.BROKEN);
+		this.failures++;
+		log.warn("[{}] verification failed requester({}) {}/{}", this.index, this.requesterId, this.failures, this.verification.getFailureThreshold());
+		if (this.failures >= this.verification.getFailureThreshold()) {
+			this.connector.verified(this.index, false);
 		}
 	}
 }
@@ -1,213 +1,268 @@
 package am.ik.tsunagu;
 
-import java.io.IOException;
-import java.io.UncheckedIOException;
 import java.net.URI;
 import java.nio.ByteBuffer;
-import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.function.LongConsumer;
 
 import javax.net.ssl.SSLException;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.Unpooled;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
 import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
 import io.rsocket.Payload;
-import io.rsocket.RSocket;
 import io.rsocket.metadata.CompositeMetadata;
 import io.rsocket.metadata.CompositeMetadata.Entry;
 import io.rsocket.transport.ClientTransport;
 import io.rsocket.transport.netty.client.WebsocketClientTransport;
-import io.rsocket.util.DefaultPayload;
+import io.rsocket.util.ByteBufPayload;
 import org.reactivestreams.Publisher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Hooks;
 import reactor.core.publisher.Mono;
-import reactor.core.publisher.SignalType;
 import reactor.netty.http.client.HttpClient;
-import reactor.netty.http.client.WebsocketClientSpec;
-import reactor.util.retry.Retry;
 
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.LivenessState;
 import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
 import org.springframework.http.HttpHeaders;
-import org.springframework.http.client.reactive.ReactorClientHttpConnector;
-import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
-import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.messaging.rsocket.RSocketRequester.Builder;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.ClientResponse;
 import org.springframework.web.reactive.function.client.WebClient;
-import org.springframework.web.reactive.socket.client.ReactorNettyWebSocketClient;
-import org.springframework.web.reactive.socket.client.WebSocketClient;
+import org.springframework.web.reactive.socket.WebSocketMessage;
 import org.springframework.web.util.UriComponentsBuilder;
 
 @Component
-public class TsunaguConnector implements RSocket, CommandLineRunner {
-	private final RSocketRequester requester;
+public class TsunaguConnector implements CommandLineRunner, DisposableBean {
+	private final List<TsunaguConnection> connections;
 
-	private final WebClient webClient;
-
-	private final WebSocketClient webSocketClient;
+	private final UpstreamRegistry upstreams;
 
 	private final Logger log = LoggerFactory.getLogger(TsunaguConnector.class);
 
-	private final ObjectMapper objectMapper;
-
 	private final TsunaguProps props;
 
 	private final ConfigurableApplicationContext context;
 
+	private final TunnelMetrics metrics;
+
+	private final AccessLog accessLog;
+
+	private final RoutingTable routingTable;
+
+	private final TcpTargets tcpTargets;
+
+	private final EventLoops eventLoops;
+
+	private final LongConsumer stalled;
+
 	private final ScheduledExecutorService scheduledExecutor = Executors.newSingleThreadScheduledExecutor();
 
-	private ScheduledFuture<?> verificationScheduledFuture = null;
+	// indexes of the connections which failed their verification
+	private final Set<Integer> broken = new HashSet<>();
 
-	public TsunaguConnector(Builder requesterBuilder, WebClient.Builder webClientBuilder, TsunaguProps props, ConfigurableApplicationContext context) throws SSLException {
+	public TsunaguConnector(ObjectProvider<Builder> requesterBuilders, WebClient.Builder webClientBuilder, TsunaguProps props, ConfigurableApplicationContext context, TunnelMetrics metrics, AccessLog accessLog) throws SSLException {
 		final SslContext sslContext = SslContextBuilder.forClient()
 				.trustManager(InsecureTrustManagerFactory.INSTANCE).build();
-		this.requester = requesterBuilder
-				.setupData(Map.of("token", props.getToken()))
-				.rsocketConnector(connector -> connector
-						.reconnect(Retry.fixedDelay(Long.MAX_VALUE, Duration.ofSeconds(1))
-								.doBeforeRetry(s -> log.info("Reconnecting to " + props.getRemote() + ". (" + s + ")", s.failure())))
-						.acceptor((setup, sendingSocket) -> Mono.just(TsunaguConnector.this)))
-				.transport(buildClientTransport(props, sslContext));
-		final HttpClient httpClient = HttpClient.create().secure(ssl -> ssl.sslContext(sslContext));
-		this.webClient = webClientBuilder
-				.clientConnector(new ReactorClientHttpConnector(httpClient))
-				.build();
-		this.webSocketClient = new ReactorNettyWebSocketClient(httpClient,
-				() -> WebsocketClientSpec.builder()
-						.maxFramePayloadLength(props.getWebSocketMaxFramePayloadLength()));
 		this.props = props;
-		this.objectMapper = Jackson2ObjectMapperBuilder.cbor().build();
 		this.context = context;
+		this.metrics = metrics;
+		this.accessLog = accessLog;
+		this.routingTable = new RoutingTable(props);
+		this.eventLoops = new EventLoops(props);
+		this.tcpTargets = new TcpTargets(props, this.eventLoops);
+		this.stalled = metrics.stalled("request");
+		// groups the connections of this process on the server
+		final String clientId = UUID.randomUUID().toString();
+		final int size = Math.max(props.getConnections(), 1);
+		final List<TsunaguConnection> connections = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			final Map<String, String> setupData = new HashMap<>();
+			setupData.put("token", props.getToken());
+			setupData.put("clientId", clientId);
+			setupData.put("connectionIndex", String.valueOf(i));
+			if (props.getMetadataCodec() == TsunaguProps.MetadataCodecType.BINARY) {
+				// servers which do not know the binary codec ignore this and keep sending CBOR
+				setupData.put("metadataMimeType", BinaryMetadataCodec.MIME_TYPE.toString());
+				setupData.put("headerTableSize", String.valueOf(props.getHeaderTableSize()));
+			}
+			if (props.getCompression().isEnabled()) {
+				setupData.put("compression", LinkCompression.DEFLATE);
+			}
+			setupData.put("inlineBody", "true");
+			// servers which do not know routes treat the client like any other
+			if (!props.getServe().getHosts().isEmpty()) {
+				setupData.put("hosts", String.join(",", props.getServe().getHosts()));
+			}
+			if (!props.getServe().getPaths().isEmpty()) {
+				setupData.put("paths", String.join(",", props.getServe().getPaths()));
+			}
+			if (!this.tcpTargets.names().isEmpty()) {
+				setupData.put("tcp", String.join(",", this.tcpTargets.names()));
+			}
+			// each connection gets its own transport and therefore its own TCP connection
+			connections.add(new TsunaguConnection(i, this, requesterBuilders.getObject(), setupData, buildClientTransport(props, sslContext, this.eventLoops)));
+		}
+		this.connections = Collections.unmodifiableList(connections);
+		this.upstreams = new UpstreamRegistry(props, webClientBuilder, sslContext, this.eventLoops, metrics);
+	}
+
+	List<TsunaguConnection> getConnections() {
+		return connections;
+	}
+
+	TsunaguProps getProps() {
+		return props;
 	}
 
-	static ClientTransport buildClientTransport(TsunaguProps props, SslContext sslContext) {
+	ConfigurableApplicationContext getContext() {
+		return context;
+	}
+
+	TunnelMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * The client is live as long as none of its connections is broken. The state is published only when it changes.
+	 */
+	synchronized void verified(int index, boolean alive) {
+		final boolean wasBroken = !this.broken.isEmpty();
+		if (alive) {
+			this.broken.remove(index);
+		}
+		else {
+			this.broken.add(index);
+		}
+		final boolean isBroken = !this.broken.isEmpty();
+		if (isBroken != wasBroken) {
+			AvailabilityChangeEvent.publish(this.context, this, isBroken ? LivenessState.BROKEN : LivenessState.CORRECT);
+		}
+	}
+
+	static ClientTransport buildClientTransport(TsunaguProps props, SslContext sslContext, EventLoops eventLoops) {
 		final URI uri = props.getRemote();
 		boolean isSecure = uri.getScheme().equals("wss") || uri.getScheme().equals("https");
 		HttpClient client =
 				(isSecure ? HttpClient.create().secure(ssl -> ssl.sslContext(sslContext)) : HttpClient.create())
+						.runOn(eventLoops.getTunnelLoops(), eventLoops.isPreferNative())
 						.host(uri.getHost())
 						.port(uri.getPort() == -1 ? (isSecure ? 443 : 80) : uri.getPort());
 		return WebsocketClientTransport.create(client, uri.getPath())
 				.webSocketSpec(spec -> spec.maxFramePayloadLength(props.getWebSocketMaxFramePayloadLength()));
 	}
 
-	@Override
-	public Mono<Void> fireAndForget(Payload payload) {
-		final String data = payload.getDataUtf8();
-		final Consumer<SignalType> closer = __ -> context.close();
-		if (data.startsWith("{") && data.endsWith("}")) {
-			try {
-				final JsonNode response = new ObjectMapper().readValue(data, JsonNode.class);
-				if (response.has("type")) {
-					final String type = response.get("type").asText();
-					if ("connected".equals(type) && response.has("requesterId")) {
-						if (this.verificationScheduledFuture != null) {
-							log.info("cancel existing verification");
-							final boolean canceled = this.verificationScheduledFuture.cancel(true);
-							if (!canceled) {
-								log.info("failed to cancel...");
-							}
-						}
-						final String requesterId = response.get("requesterId").asText();
-						final TsunaguConnectionVerifier verifier = new TsunaguConnectionVerifier(requesterId, this.context, this.props);
-						log.info("start verification for the requester({})", requesterId);
-						this.verificationScheduledFuture = this.scheduledExecutor.scheduleAtFixedRate(verifier::verifyConnection, 0, 1, TimeUnit.MINUTES);
-						return Mono.empty();
-					}
-				}
-			}
-			catch (JsonProcessingException e) {
-				log.error("can't parse json", e);
-				return Mono.<Void>error(e).doFinally(closer);
+	// the response metadata is encoded in the same format as the request metadata
+	static Entry getHttpRequestMetadataEntry(Payload payload, Function<String, MetadataCodec> metadataCodecs) {
+		for (Entry entry : new CompositeMetadata(payload.metadata(), false)) {
+			if (metadataCodecs.apply(entry.getMimeType()) != null) {
+				return entry;
 			}
 		}
-		log.error(data);
-		return Mono.<Void>empty().doFinally(closer);
-	}
-
-	HttpRequestMetadata getHttpRequestMetadata(Payload payload) throws IOException {
-		final CompositeMetadata entries = new CompositeMetadata(payload.metadata(), true);
-		final Map<String, ByteBuf> metadataMap = entries.stream().collect(Collectors.toUnmodifiableMap(Entry::getMimeType, Entry::getContent));
-		final byte[] httpRequestMetadataBytes = ByteBufUtil.getBytes(metadataMap.get("application/cbor"));
-		return this.objectMapper.readValue(httpRequestMetadataBytes, HttpRequestMetadata.class);
+		throw new IllegalArgumentException("No supported metadata found.");
 	}
 
-	@Override
-	public Flux<Payload> requestStream(Payload payload) {
+	Flux<Payload> requestStream(Payload payload, TsunaguConnection connection) {
 		try {
-			final HttpRequestMetadata httpRequestMetadata = this.getHttpRequestMetadata(payload);
-			final URI uri = UriComponentsBuilder.fromUri(httpRequestMetadata.getUri())
-					.uri(this.props.getUpstream())
-					.build(true)
-					.toUri();
-			return this.webClient.method(httpRequestMetadata.getMethod())
-					.uri(uri)
-					.headers(this.copyHeaders(httpRequestMetadata))
-					.exchangeToFlux(this.handleResponse(httpRequestMetadata));
+			final Entry entry = getHttpRequestMetadataEntry(payload, connection::getMetadataCodec);
+			final MetadataCodec metadataCodec = connection.getMetadataCodec(entry.getMimeType());
+			final HttpRequestMetadata httpRequestMetadata = metadataCodec.decodeRequest(entry.getContent());
+			final TunnelMetrics.Recording recording = this.metrics.start(httpRequestMetadata.getMethod());
+			final RoutingTable.Route route = this.route(httpRequestMetadata);
+			final UpstreamTarget target = this.upstreams.select(route.getUpstream());
+			final WebClient.RequestBodySpec spec = target.getWebClient().method(httpRequestMetadata.getMethod())
+					.uri(upstreamUri(httpRequestMetadata, target.getUri()))
+					.headers(this.copyHeaders(httpRequestMetadata, route));
+			// small bodies are sent along with the metadata
+			final ByteBuf data = payload.data();
+			if (data.isReadable()) {
+				recording.requestBytes(data.readableBytes());
+				spec.body(Mono.just(data.retain()), ByteBuf.class);
+			}
+			return target.track(spec
+					.exchangeToFlux(this.handleResponse(httpRequestMetadata, metadataCodec, connection.isCompression(), recording))
+					.doOnSubscribe(__ -> recording.sent())
+					.doFinally(__ -> {
+						recording.finish();
+						this.accessLog.log(httpRequestMetadata, recording);
+					}));
 		}
-		catch (IOException e) {
+		catch (RuntimeException e) {
 			return Flux.<Payload>error(e).log("requestStream");
 		}
+		finally {
+			payload.release();
+		}
 	}
 
-	@Override
-	public Flux<Payload> requestChannel(Publisher<Payload> payloads) {
+	Flux<Payload> requestChannel(Publisher<Payload> payloads, TsunaguConnection connection) {
 		return Flux.from(payloads)
 				.switchOnFirst((signal, flux) -> {
+					if (signal.hasValue() && TcpTargets.ROUTE.equals(TsunaguConnection.getRoute(signal.get()))) {
+						// the first payload only names the target
+						final Payload first = signal.get();
+						final String target = first.getDataUtf8();
+						first.release();
+						return this.tcpTargets.forward(target, this.window(flux.skip(1).map(TsunaguConnector::toData), connection.getWindow()));
+					}
 					if (signal.hasValue()) {
 						try {
-							final HttpRequestMetadata httpRequestMetadata = this.getHttpRequestMetadata(signal.get());
-							final URI uri = UriComponentsBuilder.fromUri(httpRequestMetadata.getUri())
-									.uri(this.props.getUpstream())
-									.build(true)
-									.toUri();
+							final Entry entry = getHttpRequestMetadataEntry(signal.get(), connection::getMetadataCodec);
+							final MetadataCodec metadataCodec = connection.getMetadataCodec(entry.getMimeType());
+							final HttpRequestMetadata httpRequestMetadata = metadataCodec.decodeRequest(entry.getContent());
+							final TunnelMetrics.Recording recording = this.metrics.start(httpRequestMetadata.getMethod());
+							final RoutingTable.Route route = this.route(httpRequestMetadata);
+							final UpstreamTarget target = this.upstreams.select(route.getUpstream());
+							final URI uri = upstreamUri(httpRequestMetadata, target.getUri());
 							if (httpRequestMetadata.isWebSocketRequest()) {
 								final HttpHeaders httpHeaders = new HttpHeaders();
-								this.copyHeaders(httpRequestMetadata).accept(httpHeaders);
-								if (log.isInfoEnabled()) {
-									log.info("{}\t{}\t101 {} {}", httpHeaders.getFirst("X-Real-IP"), httpRequestMetadata.getMethod(), httpRequestMetadata.getUri(), httpRequestMetadata.getHeaders().getFirst(HttpHeaders.USER_AGENT));
-								}
-								return Flux.create(sink -> sink.onDispose(this.webSocketClient.execute(uri, httpHeaders,
+								this.copyHeaders(httpRequestMetadata, route).accept(httpHeaders);
+								this.accessLog.webSocket(httpRequestMetadata);
+								return target.track(Flux.create(sink -> sink.onDispose(target.getWebSocketClient().execute(uri, httpHeaders,
 										session -> session
-												.send(flux.map(payload -> session.binaryMessage(factory -> factory.wrap(payload.getData())))).and(session.receive().doOnNext(message -> {
-															final ByteBuffer payload = message.getPayload().asByteBuffer();
-															// the first 1 byte of the data is the message type
-															final ByteBuffer data = ByteBuffer.allocate(1 + payload.remaining())
-																	.put((byte) message.getType().ordinal())
-																	.put(payload)
-																	.flip();
-															sink.next(DefaultPayload.create(data));
-														})
+												.send(flux.map(payload -> session.binaryMessage(factory -> toDataBuffer(factory, payload)))).and(session.receive().doOnNext(message -> sink.next(toPayload(message)))
 														.doOnError(sink::error)
-														.doOnComplete(sink::complete))).subscribe()));
+														.doOnComplete(sink::complete))).subscribe())));
 							}
-							return this.webClient.method(httpRequestMetadata.getMethod())
+							return target.track(target.getWebClient().method(httpRequestMetadata.getMethod())
 									.uri(uri)
-									.body(flux.map(Payload::data), ByteBuf.class)
-									.headers(this.copyHeaders(httpRequestMetadata))
-									.exchangeToFlux(this.handleResponse(httpRequestMetadata));
+									.body(this.window(flux.map(TsunaguConnector::toData).doOnNext(data -> recording.requestBytes(data.readableBytes())), connection.getWindow()), ByteBuf.class)
+									.headers(this.copyHeaders(httpRequestMetadata, route))
+									.exchangeToFlux(this.handleResponse(httpRequestMetadata, metadataCodec, connection.isCompression(), recording))
+									.doOnSubscribe(__ -> recording.sent())
+									.doFinally(__ -> {
+										recording.finish();
+										this.accessLog.log(httpRequestMetadata, recording);
+									}));
 						}
-						catch (IOException e) {
+						catch (RuntimeException e) {
 							return Flux.<Payload>error(e).log("requestChannel");
 						}
 					}
@@ -217,13 +272,62 @@ public class TsunaguConnector implements RSocket, CommandLineRunner {
 				});
 	}
 
-	Consumer<HttpHeaders> copyHeaders(HttpRequestMetadata httpRequestMetadata) {
+	// slow upstreams hold back the server instead of piling up request bodies on the client
+	Flux<ByteBuf> window(Flux<ByteBuf> body, FlowControl.Window window) {
+		final TsunaguProps.FlowControl flowControl = this.props.getFlowControl();
+		if (!flowControl.isEnabled()) {
+			return body;
+		}
+		return FlowControl.window(body, flowControl.getStreamWindow().toBytes(), window, this.stalled);
+	}
+
+	// takes over the data of the payload and releases the rest, the metadata of the first payload in particular
+	static ByteBuf toData(Payload payload) {
+		try {
+			return payload.data().retain();
+		}
+		finally {
+			payload.release();
+		}
+	}
+
+	static DataBuffer toDataBuffer(DataBufferFactory factory, Payload payload) {
+		if (factory instanceof NettyDataBufferFactory) {
+			return ((NettyDataBufferFactory) factory).wrap(toData(payload));
+		}
+		try {
+			final ByteBuffer data = payload.getData();
+			return factory.allocateBuffer(data.remaining()).write(data);
+		}
+		finally {
+			payload.release();
+		}
+	}
+
+	// the first 1 byte of the data is the message type, the message payload itself is not copied
+	static Payload toPayload(WebSocketMessage message) {
+		final ByteBuf type = ByteBufAllocator.DEFAULT.buffer(1).writeByte(message.getType().ordinal());
+		final ByteBuf data = NettyDataBufferFactory.toByteBuf(DataBufferUtils.retain(message.getPayload()));
+		return ByteBufPayload.create(ByteBufAllocator.DEFAULT.compositeBuffer(2).addComponents(true, type, data));
+	}
+
+	RoutingTable.Route route(HttpRequestMetadata httpRequestMetadata) {
+		return this.routingTable.route(removeLeadingSlash(httpRequestMetadata.getUri().getPath()));
+	}
+
+	static URI upstreamUri(HttpRequestMetadata httpRequestMetadata, URI upstream) {
+		return UriComponentsBuilder.fromUri(httpRequestMetadata.getUri())
+				.uri(upstream)
+				.build(true)
+				.toUri();
+	}
+
+	Consumer<HttpHeaders> copyHeaders(HttpRequestMetadata httpRequestMetadata, RoutingTable.Route route) {
 		return headers -> {
 			headers.addAll(httpRequestMetadata.getHeaders());
 			if (this.props.isPreserveHost()) {
-				final Map<String, String> hostMap = this.props.getHostMap();
 				final String originalHost = headers.getFirst(HttpHeaders.HOST);
-				final String mappedHost = hostMap.get(originalHost);
+				final String mappedHost = this.routingTable.mapHost(originalHost);
 				if (mappedHost != null) {
 					log.debug("Mapping host: {} => {}", originalHost, mappedHost);
 					headers.replace(HttpHeaders.HOST, List.of(mappedHost));
@@ -232,15 +336,9 @@ public class TsunaguConnector implements RSocket, CommandLineRunner {
 			else {
 				headers.remove(HttpHeaders.HOST);
 			}
-			final Map<String, String> pathToHostMap = this.props.getPathToHostMap();
-			if (!pathToHostMap.isEmpty()) {
-				final String path = removeLeadingSlash(httpRequestMetadata.getUri().getPath());
-				pathToHostMap.forEach((pathPrefix, host) -> {
-					if (path.startsWith(pathPrefix)) {
-						log.debug("Mapping pathToHost: /{} => {}", path, host);
-						headers.replace(HttpHeaders.HOST, List.of(host));
-					}
-				});
+			if (route.getHost() != null) {
+				log.debug("Mapping pathToHost: {} => {}", httpRequestMetadata.getUri().getPath(), route.getHost());
+				headers.replace(HttpHeaders.HOST, List.of(route.getHost()));
 			}
 		};
 	}
@@ -249,47 +347,76 @@ public class TsunaguConnector implements RSocket, CommandLineRunner {
 		return path.startsWith("/") ? path.substring(1) : path;
 	}
 
-	Function<ClientResponse, Flux<Payload>> handleResponse(HttpRequestMetadata httpRequestMetadata) {
+	Function<ClientResponse, Flux<Payload>> handleResponse(HttpRequestMetadata httpRequestMetadata, MetadataCodec metadataCodec, boolean compression, TunnelMetrics.Recording recording) {
 		return response -> {
-			try {
-				final HttpResponseMetadata httpResponseMetadata = new HttpResponseMetadata(response.statusCode(), response.headers().asHttpHeaders());
-				final byte[] httpResponseMetadataBytes = this.objectMapper.writeValueAsBytes(httpResponseMetadata);
-				return Mono.just(DefaultPayload.create(httpResponseMetadataBytes)) // send response header first
-						.concatWith(response.bodyToFlux(ByteBuf.class) // then send response body
-								.doFinally(__ -> {
-									if (log.isInfoEnabled()) {
-										final HttpHeaders httpHeaders = httpRequestMetadata.getHeaders();
-										log.info("{}\t{}\t{} {} {}", httpHeaders.getFirst("X-Real-IP"), httpRequestMetadata.getMethod(), httpResponseMetadata.getStatus().value(), httpRequestMetadata.getUri(), httpHeaders.getFirst(HttpHeaders.USER_AGENT));
-									}
-								})
-								.map(DefaultPayload::create)
-								.switchIfEmpty(Mono.fromCallable(() -> DefaultPayload.create(Unpooled.EMPTY_BUFFER))));
+			final long upstreamLatency = recording.responded(response.statusCode());
+			final HttpHeaders headers = new HttpHeaders();
+			headers.addAll(response.headers().asHttpHeaders());
+			final boolean compress = compression && this.isCompressible(httpRequestMetadata, response.statusCode(), headers);
+			// the upstream must not be able to make the server decompress its body
+			headers.remove(LinkCompression.LINK_ENCODING_HEADER);
+			if (compress) {
+				headers.set(LinkCompression.LINK_ENCODING_HEADER, LinkCompression.DEFLATE);
 			}
-			catch (JsonProcessingException e) {
-				throw new UncheckedIOException(e);
+			headers.set(TunnelMetrics.UPSTREAM_LATENCY_HEADER, String.valueOf(upstreamLatency));
+			final HttpResponseMetadata httpResponseMetadata = new HttpResponseMetadata(response.statusCode(), headers);
+			final Flux<ByteBuf> upstreamBody = response.bodyToFlux(ByteBuf.class)
+					.doOnNext(data -> recording.responseBytes(data.readableBytes()));
+			final Flux<Payload> body;
+			if (compress) {
+				final TsunaguProps.Compression props = this.props.getCompression();
+				body = LinkCompression.compress(upstreamBody, ByteBufAllocator.DEFAULT, props.getLevel())
+						.map(ByteBufPayload::create);
 			}
+			else {
+				body = upstreamBody.map(ByteBufPayload::create);
+			}
+			return Mono.fromCallable(() -> ByteBufPayload.create(metadataCodec.encodeResponse(httpResponseMetadata, ByteBufAllocator.DEFAULT))) // send response header first
+					.concatWith(body // then send response body
+							.switchIfEmpty(Mono.fromCallable(() -> ByteBufPayload.create(Unpooled.EMPTY_BUFFER))));
 		};
 	}
 
+	boolean isCompressible(HttpRequestMetadata httpRequestMetadata, HttpStatus status, HttpHeaders responseHeaders) {
+		if (httpRequestMetadata.getMethod() == HttpMethod.HEAD || status.is1xxInformational() || status == HttpStatus.NO_CONTENT || status == HttpStatus.NOT_MODIFIED) {
+			return false;
+		}
+		final TsunaguProps.Compression props = this.props.getCompression();
+		return LinkCompression.isCompressible(responseHeaders, props.getMinSize().toBytes(), props.getMediaTypes());
+	}
+
 	@Override
 	public void run(String... args) throws Exception {
-		this.connect();
+		final TsunaguProps.HealthCheck healthCheck = this.props.getHealthCheck();
+		if (healthCheck.isEnabled()) {
+			this.scheduledExecutor.scheduleAtFixedRate(this.upstreams::checkHealth, 0, healthCheck.getInterval().toMillis(), TimeUnit.MILLISECONDS);
+		}
+		this.connections.forEach(TsunaguConnection::connect);
 		Hooks.onErrorDropped(e -> {
 			log.warn("Connection closed");
-			this.connect();
+			// connections which are still alive just answer the version check
+			this.connections.forEach(TsunaguConnection::connect);
 		});
 	}
 
-	void connect() {
-		this.requester
-				.route("version_check")
-				.retrieveMono(String.class)
-				.doOnRequest(__ -> log.info("Connecting to {}", this.props.getRemote()))
-				.retryWhen(Retry.fixedDelay(Long.MAX_VALUE, Duration.ofSeconds(1))
-						.doBeforeRetry(s -> log.info("Reconnecting to " + props.getRemote() + ". (" + s + ")", s.failure())))
-				.doOnSuccess(s -> log.info("Connected ({})", s))
-				.doOnError(e -> log.error("Failed to connect ({})", e.getMessage()))
-				.subscribe();
+	@Override
+	public void destroy() {
+		this.scheduledExecutor.shutdownNow();
+		final TsunaguProps.Drain drain = this.props.getDrain();
+		if (drain.isEnabled()) {
+			Flux.fromIterable(this.connections)
+					.flatMap(TsunaguConnection::drain)
+					.then()
+					.timeout(drain.getTimeout())
+					.onErrorResume(e -> {
+						log.warn("Failed to drain the connections ({})", e.toString());
+						return Mono.empty();
+					})
+					.block();
+		}
+		this.connections.forEach(TsunaguConnection::close);
+		this.upstreams.dispose();
+		this.eventLoops.dispose();
 	}
 
 }
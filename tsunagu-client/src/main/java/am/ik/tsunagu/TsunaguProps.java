@@ -1,12 +1,17 @@
 package am.ik.tsunagu;
 
 import java.net.URI;
+import java.time.Duration;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.boot.context.properties.ConstructorBinding;
 import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.http.MediaType;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.util.UriComponentsBuilder;
 
 @ConfigurationProperties(prefix = "tsunagu")
@@ -26,14 +31,72 @@ public class TsunaguProps {
 
 	private final Map<String, String> pathToHostMap;
 
-	public TsunaguProps(URI remote, URI upstream, @DefaultValue("false") boolean preserveHost, String token, @DefaultValue("655350") Integer webSocketMaxFramePayloadLength, Map<String, String> hostMap, Map<String, String> pathToHostMap) {
+	private final Map<String, URI> pathToUpstreamMap;
+
+	private final MetadataCodecType metadataCodec;
+
+	private final int headerTableSize;
+
+	private final int connections;
+
+	private final Compression compression;
+
+	private final List<URI> upstreams;
+
+	private final Pool pool;
+
+	private final HealthCheck healthCheck;
+
+	private final FlowControl flowControl;
+
+	private final Verification verification;
+
+	private final Reconnect reconnect;
+
+	private final Resume resume;
+
+	private final Drain drain;
+
+	private final Serve serve;
+
+	private final AccessLog accessLog;
+
+	private final Http2 http2;
+
+	private final Tcp tcp;
+
+	private final EventLoop eventLoop;
+
+	public TsunaguProps(URI remote, URI upstream, @DefaultValue("false") boolean preserveHost, String token, @DefaultValue("655350") Integer webSocketMaxFramePayloadLength, Map<String, String> hostMap, Map<String, String> pathToHostMap, Map<String, URI> pathToUpstreamMap, @DefaultValue("binary") MetadataCodecType metadataCodec, @DefaultValue("256") int headerTableSize, @DefaultValue("1") int connections, @DefaultValue Compression compression, List<URI> upstreams, @DefaultValue Pool pool, @DefaultValue HealthCheck healthCheck, @DefaultValue FlowControl flowControl, @DefaultValue Verification verification, @DefaultValue Reconnect reconnect, @DefaultValue Resume resume, @DefaultValue Drain drain, @DefaultValue Serve serve, @DefaultValue AccessLog accessLog, @DefaultValue Http2 http2, @DefaultValue Tcp tcp, @DefaultValue EventLoop eventLoop) {
 		this.remote = fixPort(remote);
-		this.upstream = fixPort(upstream);
+		this.upstreams = upstreams == null ? List.of() : upstreams.stream().map(TsunaguProps::fixPort).collect(Collectors.toUnmodifiableList());
+		if (upstream == null && this.upstreams.isEmpty()) {
+			throw new IllegalArgumentException("'tsunagu.upstream' or 'tsunagu.upstreams' must be set.");
+		}
+		this.upstream = upstream == null ? this.upstreams.get(0) : fixPort(upstream);
 		this.preserveHost = preserveHost;
 		this.token = token;
 		this.webSocketMaxFramePayloadLength = webSocketMaxFramePayloadLength;
 		this.hostMap = hostMap == null ? Map.of() : Collections.unmodifiableMap(hostMap);
 		this.pathToHostMap = pathToHostMap == null ? Map.of() : Collections.unmodifiableMap(pathToHostMap);
+		this.pathToUpstreamMap = pathToUpstreamMap == null ? Map.of() : pathToUpstreamMap.entrySet().stream()
+				.collect(Collectors.toUnmodifiableMap(Map.Entry::getKey, e -> fixPort(e.getValue())));
+		this.metadataCodec = metadataCodec;
+		this.headerTableSize = headerTableSize;
+		this.connections = connections;
+		this.compression = compression;
+		this.pool = pool;
+		this.healthCheck = healthCheck;
+		this.flowControl = flowControl;
+		this.verification = verification;
+		this.reconnect = reconnect;
+		this.resume = resume;
+		this.drain = drain;
+		this.serve = serve;
+		this.accessLog = accessLog;
+		this.http2 = http2;
+		this.tcp = tcp;
+		this.eventLoop = eventLoop;
 	}
 
 	public URI getRemote() {
@@ -64,6 +127,81 @@ public class TsunaguProps {
 		return pathToHostMap;
 	}
 
+	public Map<String, URI> getPathToUpstreamMap() {
+		return pathToUpstreamMap;
+	}
+
+	public MetadataCodecType getMetadataCodec() {
+		return metadataCodec;
+	}
+
+	public int getHeaderTableSize() {
+		return headerTableSize;
+	}
+
+	public int getConnections() {
+		return connections;
+	}
+
+	public Compression getCompression() {
+		return compression;
+	}
+
+	/**
+	 * Upstreams requests are balanced across, in addition to {@link #getUpstream()} if it is set
+	 */
+	public List<URI> getUpstreams() {
+		return upstreams;
+	}
+
+	public Pool getPool() {
+		return pool;
+	}
+
+	public HealthCheck getHealthCheck() {
+		return healthCheck;
+	}
+
+	public FlowControl getFlowControl() {
+		return flowControl;
+	}
+
+	public Verification getVerification() {
+		return verification;
+	}
+
+	public Reconnect getReconnect() {
+		return reconnect;
+	}
+
+	public Resume getResume() {
+		return resume;
+	}
+
+	public Drain getDrain() {
+		return drain;
+	}
+
+	public Serve getServe() {
+		return serve;
+	}
+
+	public AccessLog getAccessLog() {
+		return accessLog;
+	}
+
+	public Http2 getHttp2() {
+		return http2;
+	}
+
+	public Tcp getTcp() {
+		return tcp;
+	}
+
+	public EventLoop getEventLoop() {
+		return eventLoop;
+	}
+
 	static URI fixPort(URI uri) {
 		if (uri.getPort() != -1) {
 			return uri;
@@ -81,4 +219,536 @@ public class TsunaguProps {
 		}
 		return UriComponentsBuilder.fromUri(uri).port(port).build().toUri();
 	}
+
+	public enum MetadataCodecType {
+		BINARY, CBOR
+	}
+
+	@ConstructorBinding
+	public static class Compression {
+		private final boolean enabled;
+
+		private final DataSize minSize;
+
+		private final int level;
+
+		private final List<MediaType> mediaTypes;
+
+		public Compression(@DefaultValue("true") boolean enabled, @DefaultValue("1KB") DataSize minSize, @DefaultValue("6") int level, @DefaultValue({ "text/*", "application/json", "application/*+json", "application/javascript", "application/xml", "application/*+xml", "image/svg+xml" }) List<String> mediaTypes) {
+			this.enabled = enabled;
+			this.minSize = minSize;
+			this.level = level;
+			this.mediaTypes = mediaTypes.stream().map(MediaType::parseMediaType).collect(Collectors.toUnmodifiableList());
+		}
+
+		/**
+		 * Whether response bodies are compressed on the link if the server supports it
+		 */
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		/**
+		 * Bodies smaller than this are sent as they are, bodies without a content length are always compressed
+		 */
+		public DataSize getMinSize() {
+			return minSize;
+		}
+
+		/**
+		 * Deflate level from 1 (fastest) to 9 (smallest)
+		 */
+		public int getLevel() {
+			return level;
+		}
+
+		public List<MediaType> getMediaTypes() {
+			return mediaTypes;
+		}
+	}
+
+	/**
+	 * Connection pool to each upstream
+	 */
+	@ConstructorBinding
+	public static class Pool {
+		private final int maxConnections;
+
+		private final int pendingAcquireMaxCount;
+
+		private final Duration pendingAcquireTimeout;
+
+		private final Duration maxIdleTime;
+
+		private final Duration evictInBackground;
+
+		public Pool(@DefaultValue("500") int maxConnections, @DefaultValue("1000") int pendingAcquireMaxCount, @DefaultValue("45s") Duration pendingAcquireTimeout, @DefaultValue("30s") Duration maxIdleTime, @DefaultValue("30s") Duration evictInBackground) {
+			this.maxConnections = maxConnections;
+			this.pendingAcquireMaxCount = pendingAcquireMaxCount;
+			this.pendingAcquireTimeout = pendingAcquireTimeout;
+			this.maxIdleTime = maxIdleTime;
+			this.evictInBackground = evictInBackground;
+		}
+
+		public int getMaxConnections() {
+			return maxConnections;
+		}
+
+		/**
+		 * Requests waiting for a connection, more are rejected
+		 */
+		public int getPendingAcquireMaxCount() {
+			return pendingAcquireMaxCount;
+		}
+
+		public Duration getPendingAcquireTimeout() {
+			return pendingAcquireTimeout;
+		}
+
+		/**
+		 * Idle connections are closed after this, before the upstream or something in between closes them
+		 */
+		public Duration getMaxIdleTime() {
+			return maxIdleTime;
+		}
+
+		public Duration getEvictInBackground() {
+			return evictInBackground;
+		}
+	}
+
+	/**
+	 * Active health check of the upstreams, requests are not sent to unhealthy ones as long as a healthy one is left
+	 */
+	@ConstructorBinding
+	public static class HealthCheck {
+		private final boolean enabled;
+
+		private final String path;
+
+		private final Duration interval;
+
+		private final Duration timeout;
+
+		public HealthCheck(@DefaultValue("false") boolean enabled, @DefaultValue("/") String path, @DefaultValue("10s") Duration interval, @DefaultValue("3s") Duration timeout) {
+			this.enabled = enabled;
+			this.path = path;
+			this.interval = interval;
+			this.timeout = timeout;
+		}
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		/**
+		 * Path requested with GET, any response but a 5xx one counts as healthy
+		 */
+		public String getPath() {
+			return path;
+		}
+
+		public Duration getInterval() {
+			return interval;
+		}
+
+		public Duration getTimeout() {
+			return timeout;
+		}
+	}
+
+	/**
+	 * Limits the request body bytes buffered between the tunnel and slow upstreams
+	 */
+	@ConstructorBinding
+	public static class FlowControl {
+		private final boolean enabled;
+
+		private final DataSize streamWindow;
+
+		private final DataSize connectionWindow;
+
+		public FlowControl(@DefaultValue("true") boolean enabled, @DefaultValue("256KB") DataSize streamWindow, @DefaultValue("8MB") DataSize connectionWindow) {
+			this.enabled = enabled;
+			this.streamWindow = streamWindow;
+			this.connectionWindow = connectionWindow;
+		}
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		/**
+		 * Bytes of a request body which may be buffered before the server is asked to wait
+		 */
+		public DataSize getStreamWindow() {
+			return streamWindow;
+		}
+
+		/**
+		 * Bytes of all request bodies through a connection which may be buffered
+		 */
+		public DataSize getConnectionWindow() {
+			return connectionWindow;
+		}
+	}
+
+	/**
+	 * Periodic check through each connection that the server still knows it
+	 */
+	@ConstructorBinding
+	public static class Verification {
+		private final Duration interval;
+
+		private final Duration timeout;
+
+		private final int failureThreshold;
+
+		public Verification(@DefaultValue("15s") Duration interval, @DefaultValue("5s") Duration timeout, @DefaultValue("2") int failureThreshold) {
+			this.interval = interval;
+			this.timeout = timeout;
+			this.failureThreshold = failureThreshold;
+		}
+
+		public Duration getInterval() {
+			return interval;
+		}
+
+		/**
+		 * Round-trip time after which a verification counts as failed
+		 */
+		public Duration getTimeout() {
+			return timeout;
+		}
+
+		/**
+		 * Failed verifications in a row after which the client is not live anymore
+		 */
+		public int getFailureThreshold() {
+			return failureThreshold;
+		}
+	}
+
+	/**
+	 * Exponential backoff between attempts to connect to the server or to resume the session
+	 */
+	@ConstructorBinding
+	public static class Reconnect {
+		private final Duration minBackoff;
+
+		private final Duration maxBackoff;
+
+		private final double jitter;
+
+		public Reconnect(@DefaultValue("500ms") Duration minBackoff, @DefaultValue("30s") Duration maxBackoff, @DefaultValue("0.5") double jitter) {
+			this.minBackoff = minBackoff;
+			this.maxBackoff = maxBackoff;
+			this.jitter = jitter;
+		}
+
+		public Duration getMinBackoff() {
+			return minBackoff;
+		}
+
+		public Duration getMaxBackoff() {
+			return maxBackoff;
+		}
+
+		/**
+		 * Randomized fraction of each backoff so that clients do not reconnect all at once after a restart of the server
+		 */
+		public double getJitter() {
+			return jitter;
+		}
+	}
+
+	/**
+	 * Resumption of the RSocket session after losing the connection, requests in flight go on once it is resumed
+	 */
+	@ConstructorBinding
+	public static class Resume {
+		private final boolean enabled;
+
+		private final Duration sessionDuration;
+
+		private final DataSize bufferSize;
+
+		public Resume(@DefaultValue("false") boolean enabled, @DefaultValue("15s") Duration sessionDuration, @DefaultValue("4MB") DataSize bufferSize) {
+			this.enabled = enabled;
+			this.sessionDuration = sessionDuration;
+			this.bufferSize = bufferSize;
+		}
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		/**
+		 * How long the session may be resumed, the server keeps it for as long as it is configured there
+		 */
+		public Duration getSessionDuration() {
+			return sessionDuration;
+		}
+
+		/**
+		 * Bytes of frames kept per connection to be sent again after resuming, held in memory for every connection
+		 */
+		public DataSize getBufferSize() {
+			return bufferSize;
+		}
+	}
+
+	/**
+	 * Draining of the connections on shutdown, the server sends no new requests and those in flight are finished
+	 */
+	@ConstructorBinding
+	public static class Drain {
+		private final boolean enabled;
+
+		private final Duration timeout;
+
+		public Drain(@DefaultValue("true") boolean enabled, @DefaultValue("30s") Duration timeout) {
+			this.enabled = enabled;
+			this.timeout = timeout;
+		}
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		/**
+		 * How long to wait for the requests in flight before closing the connections anyway
+		 */
+		public Duration getTimeout() {
+			return timeout;
+		}
+	}
+
+	/**
+	 * Hosts and path prefixes this client serves on a server shared by several clients. A client which declares neither
+	 * gets the requests no other client declared.
+	 */
+	@ConstructorBinding
+	public static class Serve {
+		private final List<String> hosts;
+
+		private final List<String> paths;
+
+		public Serve(List<String> hosts, List<String> paths) {
+			this.hosts = hosts == null ? List.of() : List.copyOf(hosts);
+			this.paths = paths == null ? List.of() : List.copyOf(paths);
+		}
+
+		/**
+		 * Hosts without the port, {@code *.example.com} matches any subdomain
+		 */
+		public List<String> getHosts() {
+			return hosts;
+		}
+
+		public List<String> getPaths() {
+			return paths;
+		}
+	}
+
+	/**
+	 * Access log written as JSON lines by a background thread
+	 */
+	@ConstructorBinding
+	public static class AccessLog {
+		private final boolean enabled;
+
+		private final Output output;
+
+		private final String file;
+
+		private final DataSize maxFileSize;
+
+		private final int maxHistory;
+
+		private final int bufferSize;
+
+		private final int batchSize;
+
+		private final Duration flushInterval;
+
+		private final double sampleRate;
+
+		public AccessLog(@DefaultValue("true") boolean enabled, @DefaultValue("log") Output output, @DefaultValue("access.log") String file, @DefaultValue("100MB") DataSize maxFileSize, @DefaultValue("5") int maxHistory,
+				@DefaultValue("8192") int bufferSize, @DefaultValue("256") int batchSize, @DefaultValue("100ms") Duration flushInterval, @DefaultValue("1.0") double sampleRate) {
+			this.enabled = enabled;
+			this.output = output;
+			this.file = file;
+			this.maxFileSize = maxFileSize;
+			this.maxHistory = maxHistory;
+			this.bufferSize = bufferSize;
+			this.batchSize = batchSize;
+			this.flushInterval = flushInterval;
+			this.sampleRate = sampleRate;
+		}
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public Output getOutput() {
+			return output;
+		}
+
+		/**
+		 * Path of the file with {@code output=file}
+		 */
+		public String getFile() {
+			return file;
+		}
+
+		/**
+		 * Size at which the file is rolled
+		 */
+		public DataSize getMaxFileSize() {
+			return maxFileSize;
+		}
+
+		/**
+		 * Rolled files which are kept
+		 */
+		public int getMaxHistory() {
+			return maxHistory;
+		}
+
+		/**
+		 * Entries waiting to be written, further entries are dropped
+		 */
+		public int getBufferSize() {
+			return bufferSize;
+		}
+
+		public int getBatchSize() {
+			return batchSize;
+		}
+
+		/**
+		 * How long the writer waits for more entries once the buffer is empty
+		 */
+		public Duration getFlushInterval() {
+			return flushInterval;
+		}
+
+		/**
+		 * Fraction of the responses without a server error which are logged
+		 */
+		public double getSampleRate() {
+			return sampleRate;
+		}
+
+		public enum Output {
+			/**
+			 * The application log, logger {@code am.ik.tsunagu.AccessLog.entries}
+			 */
+			LOG,
+			STDOUT,
+			/**
+			 * A file rolled by size
+			 */
+			FILE
+		}
+	}
+
+	/**
+	 * HTTP/2 to the upstreams, WebSocket requests stay on HTTP/1.1
+	 */
+	@ConstructorBinding
+	public static class Http2 {
+		private final boolean enabled;
+
+		private final boolean cleartext;
+
+		private final DataSize initialWindowSize;
+
+		public Http2(@DefaultValue("false") boolean enabled, @DefaultValue("false") boolean cleartext, @DefaultValue("1MB") DataSize initialWindowSize) {
+			this.enabled = enabled;
+			this.cleartext = cleartext;
+			this.initialWindowSize = initialWindowSize;
+		}
+
+		/**
+		 * Offers {@code h2} with ALPN to https upstreams, which may still choose HTTP/1.1
+		 */
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		/**
+		 * Talks h2c with prior knowledge to http upstreams, which have to support it
+		 */
+		public boolean isCleartext() {
+			return cleartext;
+		}
+
+		/**
+		 * Bytes of a response body an upstream may send before the client asks for more
+		 */
+		public DataSize getInitialWindowSize() {
+			return initialWindowSize;
+		}
+	}
+
+	/**
+	 * Addresses the server forwards connections of its TCP ports to, by the name of the target
+	 */
+	@ConstructorBinding
+	public static class Tcp {
+		private final Map<String, String> targets;
+
+		public Tcp(Map<String, String> targets) {
+			this.targets = targets == null ? Map.of() : Map.copyOf(targets);
+		}
+
+		/**
+		 * {@code host:port} by the name, e.g. {@code tsunagu.tcp.targets.postgres=localhost:5432}
+		 */
+		public Map<String, String> getTargets() {
+			return targets;
+		}
+	}
+
+	/**
+	 * Event loops of the client. The connections to the server run on loops apart from those of upstreams and TCP
+	 * targets, so that a busy upstream does not delay the frames of other streams.
+	 */
+	@ConstructorBinding
+	public static class EventLoop {
+		private final boolean preferNative;
+
+		private final int tunnelThreads;
+
+		private final int upstreamThreads;
+
+		public EventLoop(@DefaultValue("true") boolean preferNative, @DefaultValue("0") int tunnelThreads, @DefaultValue("0") int upstreamThreads) {
+			this.preferNative = preferNative;
+			this.tunnelThreads = tunnelThreads;
+			this.upstreamThreads = upstreamThreads;
+		}
+
+		/**
+		 * Uses epoll (or kqueue) when the platform supports it and NIO otherwise
+		 */
+		public boolean isPreferNative() {
+			return preferNative;
+		}
+
+		/**
+		 * Threads for the connections to the server, {@code 0} for one per connection
+		 */
+		public int getTunnelThreads() {
+			return tunnelThreads;
+		}
+
+		/**
+		 * Threads for upstreams and TCP targets, {@code 0} for as many as Reactor Netty uses by default
+		 */
+		public int getUpstreamThreads() {
+			return upstreamThreads;
+		}
+	}
 }
@@ -0,0 +1,203 @@
+package am.ik.tsunagu;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+/**
+ * Metrics of the client side of the tunnel. Tags are limited to the method, the status class, the connection index and
+ * the configured upstreams so that the number of series stays bounded.
+ */
+@Component
+public class TunnelMetrics {
+	/**
+	 * Latency of the upstream in microseconds, reported to the server in the response metadata so that it can tell
+	 * the time spent in the tunnel from the time spent in the upstream
+	 */
+	public static final String UPSTREAM_LATENCY_HEADER = "X-Tsunagu-Upstream-Latency";
+
+	private final MeterRegistry meterRegistry;
+
+	public TunnelMetrics(MeterRegistry meterRegistry) {
+		this.meterRegistry = meterRegistry;
+	}
+
+	public Recording start(HttpMethod method) {
+		return new Recording(method);
+	}
+
+	public void register(UpstreamTarget target) {
+		final String upstream = target.getUri().toString();
+		Gauge.builder("tsunagu.upstream.in.flight", target, UpstreamTarget::getInFlight)
+				.description("Requests and WebSocket sessions in flight to the upstream")
+				.tag("upstream", upstream)
+				.register(this.meterRegistry);
+		Gauge.builder("tsunagu.upstream.healthy", target, t -> t.isHealthy() ? 1 : 0)
+				.description("Whether the upstream passed its last health check")
+				.tag("upstream", upstream)
+				.register(this.meterRegistry);
+	}
+
+	/**
+	 * @param direction {@code request} or {@code response}
+	 * @return listener of the nanoseconds a stream waited for its flow control window
+	 */
+	public LongConsumer stalled(String direction) {
+		final Timer timer = Timer.builder("tsunagu.flow.stalled")
+				.description("Time streams waited because too many of their bytes were buffered")
+				.tag("direction", direction)
+				.register(this.meterRegistry);
+		return nanos -> timer.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @param nanos round-trip time of the verification, the timeout if there was no answer
+	 */
+	public void verification(int connectionIndex, long nanos, boolean registered) {
+		Timer.builder("tsunagu.connection.verification")
+				.description("Round-trip time of the verifications of the connections to the server")
+				.tag("connection", String.valueOf(connectionIndex))
+				.tag("result", registered ? "registered" : "failed")
+				.register(this.meterRegistry)
+				.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	public void reconnect(int connectionIndex) {
+		Counter.builder("tsunagu.connection.reconnects")
+				.description("Reconnect attempts to the server")
+				.tag("connection", String.valueOf(connectionIndex))
+				.register(this.meterRegistry)
+				.increment();
+	}
+
+	static String method(HttpMethod method) {
+		return method == null ? "OTHER" : method.name();
+	}
+
+	static String status(HttpStatus status) {
+		return status == null ? "UNKNOWN" : (status.value() / 100) + "xx";
+	}
+
+	public class Recording {
+		private final String method;
+
+		// when the request arrived through the tunnel
+		private final long received = System.nanoTime();
+
+		private long sent;
+
+		// time to the response headers of the upstream, -1 until they arrive
+		private long latency = -1;
+
+		private HttpStatus status;
+
+		private long requestBytes;
+
+		private long responseBytes;
+
+		Recording(HttpMethod method) {
+			this.method = method(method);
+		}
+
+		/**
+		 * The request is sent to the upstream now
+		 */
+		public void sent() {
+			this.sent = System.nanoTime();
+			Timer.builder("tsunagu.tunnel.queue")
+					.description("Time from receiving a request through the tunnel until it is sent to the upstream")
+					.tag("method", this.method)
+					.register(meterRegistry)
+					.record(this.sent - this.received, TimeUnit.NANOSECONDS);
+		}
+
+		/**
+		 * The response headers of the upstream arrived now
+		 *
+		 * @return upstream latency in microseconds
+		 */
+		public long responded(HttpStatus status) {
+			final long latency = System.nanoTime() - this.sent;
+			this.latency = latency;
+			this.status = status;
+			Timer.builder("tsunagu.upstream.latency")
+					.description("Time from sending a request to the upstream until its response headers arrive")
+					.tag("method", this.method)
+					.tag("status", status(status))
+					.register(meterRegistry)
+					.record(latency, TimeUnit.NANOSECONDS);
+			return TimeUnit.NANOSECONDS.toMicros(latency);
+		}
+
+		public void requestBytes(long bytes) {
+			this.requestBytes += bytes;
+		}
+
+		public long getElapsedNanos() {
+			return System.nanoTime() - this.received;
+		}
+
+		/**
+		 * @return time until the request was sent to the upstream, -1 if it was not
+		 */
+		public long getQueueNanos() {
+			return this.sent == 0 ? -1 : this.sent - this.received;
+		}
+
+		public long getUpstreamNanos() {
+			return latency;
+		}
+
+		/**
+		 * @return status of the upstream or {@code null} if it did not respond
+		 */
+		public HttpStatus getStatus() {
+			return status;
+		}
+
+		public long getRequestBytes() {
+			return requestBytes;
+		}
+
+		public long getResponseBytes() {
+			return responseBytes;
+		}
+
+		public void responseBytes(long bytes) {
+			this.responseBytes += bytes;
+		}
+
+		/**
+		 * The exchange is over, the status is {@code UNKNOWN} if the upstream failed before responding
+		 */
+		public void finish() {
+			Timer.builder("tsunagu.upstream.requests")
+					.description("Time from sending a request to the upstream until its response body is forwarded")
+					.tag("method", this.method)
+					.tag("status", status(this.status))
+					.register(meterRegistry)
+					.record(System.nanoTime() - this.sent, TimeUnit.NANOSECONDS);
+			this.bytes("request", this.requestBytes);
+			this.bytes("response", this.responseBytes);
+		}
+
+		void bytes(String direction, long bytes) {
+			DistributionSummary.builder("tsunagu.upstream.bytes")
+					.description("Body size exchanged with the upstream")
+					.baseUnit("bytes")
+					.tag("method", this.method)
+					.tag("direction", direction)
+					.register(meterRegistry)
+					.record(bytes);
+		}
+	}
+}
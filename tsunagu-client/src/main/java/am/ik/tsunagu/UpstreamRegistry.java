@@ -0,0 +1,166 @@
+package am.ik.tsunagu;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.netty.http.Http2SslContextSpec;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.client.WebsocketClientSpec;
+import reactor.netty.resources.ConnectionProvider;
+
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.socket.client.ReactorNettyWebSocketClient;
+import org.springframework.web.util.UriComponentsBuilder;
+
+/**
+ * Upstreams by the URI routes refer to. The default upstream stands for {@code tsunagu.upstream} and
+ * {@code tsunagu.upstreams} together, the upstreams of {@code tsunagu.path-to-upstream-map} are targets of their own.
+ */
+public class UpstreamRegistry {
+	private final Map<URI, UpstreamTarget[]> groups = new HashMap<>();
+
+	private final List<UpstreamTarget> targets;
+
+	private final URI defaultUpstream;
+
+	private final TsunaguProps.HealthCheck healthCheck;
+
+	private final AtomicInteger next = new AtomicInteger();
+
+	private final Logger log = LoggerFactory.getLogger(UpstreamRegistry.class);
+
+	public UpstreamRegistry(TsunaguProps props, WebClient.Builder webClientBuilder, SslContext sslContext, EventLoops eventLoops, TunnelMetrics metrics) {
+		this.defaultUpstream = props.getUpstream();
+		this.healthCheck = props.getHealthCheck();
+		final Map<URI, UpstreamTarget> targets = new LinkedHashMap<>();
+		final Set<URI> defaults = new LinkedHashSet<>();
+		defaults.add(props.getUpstream());
+		defaults.addAll(props.getUpstreams());
+		this.groups.put(this.defaultUpstream, defaults.stream()
+				.map(uri -> targets.computeIfAbsent(uri, u -> createTarget(u, props, webClientBuilder, sslContext, eventLoops)))
+				.toArray(UpstreamTarget[]::new));
+		props.getPathToUpstreamMap().values().forEach(uri -> this.groups.computeIfAbsent(uri, u -> new UpstreamTarget[] {
+				targets.computeIfAbsent(u, __ -> createTarget(u, props, webClientBuilder, sslContext, eventLoops)) }));
+		this.targets = Collections.unmodifiableList(new ArrayList<>(targets.values()));
+		this.targets.forEach(metrics::register);
+	}
+
+	static UpstreamTarget createTarget(URI uri, TsunaguProps props, WebClient.Builder webClientBuilder, SslContext sslContext, EventLoops eventLoops) {
+		final TsunaguProps.Pool pool = props.getPool();
+		final ConnectionProvider connectionProvider = ConnectionProvider.builder("tsunagu-upstream-" + uri.getHost() + "-" + uri.getPort())
+				.maxConnections(pool.getMaxConnections())
+				.pendingAcquireMaxCount(pool.getPendingAcquireMaxCount())
+				.pendingAcquireTimeout(pool.getPendingAcquireTimeout())
+				.maxIdleTime(pool.getMaxIdleTime())
+				.evictInBackground(pool.getEvictInBackground())
+				.build();
+		final HttpClient httpClient = HttpClient.create(connectionProvider)
+				.runOn(eventLoops.getUpstreamLoops(), eventLoops.isPreferNative())
+				.secure(ssl -> ssl.sslContext(sslContext));
+		return new UpstreamTarget(uri, connectionProvider,
+				webClientBuilder.clone()
+						.clientConnector(new ReactorClientHttpConnector(http2(httpClient, uri, props.getHttp2())))
+						.build(),
+				new ReactorNettyWebSocketClient(httpClient,
+						() -> WebsocketClientSpec.builder()
+								.maxFramePayloadLength(props.getWebSocketMaxFramePayloadLength())));
+	}
+
+	/**
+	 * The protocols used for plain requests to the upstream. Connections of another protocol are pooled apart, so both
+	 * clients can share the connection provider.
+	 */
+	static HttpClient http2(HttpClient httpClient, URI uri, TsunaguProps.Http2 http2) {
+		final boolean secure = "https".equals(uri.getScheme());
+		if (secure && http2.isEnabled()) {
+			// ALPN needs a context of its own, upstreams are trusted like with HTTP/1.1
+			return http2Settings(httpClient, http2)
+					.protocol(HttpProtocol.H2, HttpProtocol.HTTP11)
+					.secure(ssl -> ssl.sslContext(Http2SslContextSpec.forClient()
+							.configure(builder -> builder.trustManager(InsecureTrustManagerFactory.INSTANCE))));
+		}
+		if (!secure && http2.isCleartext()) {
+			return http2Settings(httpClient, http2)
+					.protocol(HttpProtocol.H2C)
+					.noSSL();
+		}
+		return httpClient;
+	}
+
+	static HttpClient http2Settings(HttpClient httpClient, TsunaguProps.Http2 http2) {
+		return httpClient.http2Settings(settings -> settings.initialWindowSize((int) http2.getInitialWindowSize().toBytes()));
+	}
+
+	public List<UpstreamTarget> targets() {
+		return targets;
+	}
+
+	/**
+	 * @param upstream upstream of the route
+	 * @return the target with the fewest requests in flight, healthy ones first
+	 */
+	public UpstreamTarget select(URI upstream) {
+		final UpstreamTarget[] candidates = this.groups.getOrDefault(upstream, this.groups.get(this.defaultUpstream));
+		if (candidates.length == 1) {
+			return candidates[0];
+		}
+		// rotates the start so that ties are broken in turn
+		final int start = Math.floorMod(this.next.getAndIncrement(), candidates.length);
+		final UpstreamTarget selected = leastConnections(candidates, start, true);
+		// fails open, an unhealthy upstream is better than none
+		return selected != null ? selected : leastConnections(candidates, start, false);
+	}
+
+	static UpstreamTarget leastConnections(UpstreamTarget[] candidates, int start, boolean healthyOnly) {
+		UpstreamTarget selected = null;
+		for (int i = 0; i < candidates.length; i++) {
+			final UpstreamTarget candidate = candidates[(start + i) % candidates.length];
+			if (healthyOnly && !candidate.isHealthy()) {
+				continue;
+			}
+			if (selected == null || candidate.getInFlight() < selected.getInFlight()) {
+				selected = candidate;
+			}
+		}
+		return selected;
+	}
+
+	void checkHealth() {
+		for (UpstreamTarget target : this.targets) {
+			target.getWebClient().get()
+					.uri(UriComponentsBuilder.fromUri(target.getUri()).path(this.healthCheck.getPath()).build(true).toUri())
+					.exchangeToMono(response -> response.releaseBody().thenReturn(response.rawStatusCode() < 500))
+					.timeout(this.healthCheck.getTimeout())
+					.onErrorReturn(false)
+					.subscribe(healthy -> {
+						if (healthy != target.isHealthy()) {
+							if (healthy) {
+								log.info("Upstream {} is healthy again", target.getUri());
+							}
+							else {
+								log.warn("Upstream {} is unhealthy", target.getUri());
+							}
+						}
+						target.setHealthy(healthy);
+					});
+		}
+	}
+
+	void dispose() {
+		this.targets.forEach(UpstreamTarget::dispose);
+	}
+}
@@ -0,0 +1,77 @@
+package am.ik.tsunagu;
+
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import reactor.core.publisher.Flux;
+import reactor.netty.resources.ConnectionProvider;
+
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.socket.client.WebSocketClient;
+
+/**
+ * An upstream with its own connection pool, tracking the requests in flight for least-connections balancing.
+ */
+public class UpstreamTarget {
+	private final URI uri;
+
+	private final ConnectionProvider connectionProvider;
+
+	private final WebClient webClient;
+
+	private final WebSocketClient webSocketClient;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	private volatile boolean healthy = true;
+
+	public UpstreamTarget(URI uri, ConnectionProvider connectionProvider, WebClient webClient, WebSocketClient webSocketClient) {
+		this.uri = uri;
+		this.connectionProvider = connectionProvider;
+		this.webClient = webClient;
+		this.webSocketClient = webSocketClient;
+	}
+
+	public URI getUri() {
+		return uri;
+	}
+
+	public WebClient getWebClient() {
+		return webClient;
+	}
+
+	public WebSocketClient getWebSocketClient() {
+		return webSocketClient;
+	}
+
+	public int getInFlight() {
+		return this.inFlight.get();
+	}
+
+	public boolean isHealthy() {
+		return healthy;
+	}
+
+	void setHealthy(boolean healthy) {
+		this.healthy = healthy;
+	}
+
+	// WebSocket sessions count as in flight while they are open
+	public <T> Flux<T> track(Flux<T> stream) {
+		return stream
+				.doOnSubscribe(__ -> this.inFlight.incrementAndGet())
+				.doFinally(__ -> this.inFlight.decrementAndGet());
+	}
+
+	void dispose() {
+		this.connectionProvider.dispose();
+	}
+
+	@Override
+	public String toString() {
+		return "{uri=" + uri +
+				", inFlight=" + inFlight +
+				", healthy=" + healthy +
+				'}';
+	}
+}
@@ -0,0 +1,34 @@
+package am.ik.tsunagu;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AccessLogTests {
+
+	@Test
+	void entryAsJson() {
+		final HttpHeaders headers = new HttpHeaders();
+		headers.set("X-Real-IP", "10.0.0.1");
+		final AccessLog.Entry entry = new AccessLog.Entry(new HttpRequestMetadata(HttpMethod.POST, URI.create("/foo"), headers), 201,
+				TimeUnit.MILLISECONDS.toNanos(20), TimeUnit.MICROSECONDS.toNanos(50), TimeUnit.MICROSECONDS.toNanos(19_500), 10, 0);
+		final StringBuilder json = new StringBuilder();
+		entry.writeJson(json);
+		assertThat(json.toString()).matches("\\{\"time\":\"[^\"]+\",\"remote\":\"10.0.0.1\",\"method\":\"POST\",\"uri\":\"/foo\",\"status\":201,"
+				+ "\"duration_ms\":20.000,\"queue_ms\":0.050,\"upstream_ms\":19.500,\"request_bytes\":10,\"response_bytes\":0}");
+	}
+
+	@Test
+	void failedRequestsHaveNoStatus() {
+		final AccessLog.Entry entry = new AccessLog.Entry(new HttpRequestMetadata(HttpMethod.GET, URI.create("/foo"), new HttpHeaders()), 0, 1000, -1, -1, 0, 0);
+		final StringBuilder json = new StringBuilder();
+		entry.writeJson(json);
+		assertThat(json.toString()).contains("\"status\":null,").doesNotContain("queue_ms", "upstream_ms", "remote");
+	}
+}
@@ -0,0 +1,71 @@
+package am.ik.tsunagu;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RoutingTableTests {
+
+	static TsunaguProps props(Map<String, String> hostMap, Map<String, String> pathToHostMap, Map<String, URI> pathToUpstreamMap) {
+		final Map<String, Object> properties = new LinkedHashMap<>();
+		properties.put("preserve-host", true);
+		properties.putAll(Fixtures.entries("host-map", hostMap));
+		properties.putAll(Fixtures.entries("path-to-host-map", pathToHostMap));
+		properties.putAll(Fixtures.entries("path-to-upstream-map", pathToUpstreamMap));
+		return Fixtures.props(properties);
+	}
+
+	@Test
+	void longestPrefixWins() {
+		final Map<String, String> pathToHostMap = new LinkedHashMap<>();
+		// the order of the map must not matter
+		pathToHostMap.put("api/v1/", "v1.internal");
+		pathToHostMap.put("api/", "api.internal");
+		pathToHostMap.put("api/v2/", "v2.internal");
+		pathToHostMap.put("apis/", "apis.internal");
+		final RoutingTable routingTable = new RoutingTable(props(null, pathToHostMap, null));
+		assertThat(routingTable.route("api/v1/users").getHost()).isEqualTo("v1.internal");
+		assertThat(routingTable.route("api/v2/users").getHost()).isEqualTo("v2.internal");
+		assertThat(routingTable.route("api/v3/users").getHost()).isEqualTo("api.internal");
+		assertThat(routingTable.route("api/v").getHost()).isEqualTo("api.internal");
+		assertThat(routingTable.route("apis/foo").getHost()).isEqualTo("apis.internal");
+		assertThat(routingTable.route("ap").getHost()).isNull();
+		assertThat(routingTable.route("").getHost()).isNull();
+		assertThat(routingTable.route("ap").getUpstream()).isEqualTo(URI.create("http://localhost:8081"));
+	}
+
+	@Test
+	void routesInheritFromShorterPrefixes() {
+		final Map<String, String> pathToHostMap = Map.of("api/", "api.internal", "/static/", "static.internal");
+		final Map<String, URI> pathToUpstreamMap = Map.of("api/v2/", URI.create("https://v2.example.com"), "static/", URI.create("http://cdn.example.com"));
+		final RoutingTable routingTable = new RoutingTable(props(null, pathToHostMap, pathToUpstreamMap));
+		final RoutingTable.Route v2 = routingTable.route("api/v2/users");
+		assertThat(v2.getHost()).isEqualTo("api.internal");
+		assertThat(v2.getUpstream()).isEqualTo(URI.create("https://v2.example.com:443"));
+		final RoutingTable.Route v1 = routingTable.route("api/v1/users");
+		assertThat(v1.getHost()).isEqualTo("api.internal");
+		assertThat(v1.getUpstream()).isEqualTo(URI.create("http://localhost:8081"));
+		final RoutingTable.Route css = routingTable.route("static/app.css");
+		assertThat(css.getHost()).isEqualTo("static.internal");
+		assertThat(css.getUpstream()).isEqualTo(URI.create("http://cdn.example.com:80"));
+	}
+
+	@Test
+	void hostsAreMatchedExactly() {
+		final RoutingTable routingTable = new RoutingTable(props(Map.of("example.com", "www.internal"), null, null));
+		assertThat(routingTable.mapHost("example.com")).isEqualTo("www.internal");
+		assertThat(routingTable.mapHost("www.example.com")).isNull();
+		assertThat(routingTable.mapHost(null)).isNull();
+	}
+
+	@Test
+	void upstreamUriKeepsThePathAndTheQuery() {
+		final HttpRequestMetadata metadata = new HttpRequestMetadata(null, URI.create("http://localhost:8080/api/v2/users?q=a%20b"), null);
+		assertThat(TsunaguConnector.upstreamUri(metadata, URI.create("https://v2.example.com:443"))).isEqualTo(URI.create("https://v2.example.com:443/api/v2/users?q=a%20b"));
+	}
+}
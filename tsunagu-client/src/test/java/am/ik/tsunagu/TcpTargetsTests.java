@@ -0,0 +1,136 @@
+package am.ik.tsunagu;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.rsocket.Payload;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.tcp.TcpServer;
+import reactor.test.StepVerifier;
+
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+class TcpTargetsTests {
+
+	static TsunaguProps props(Map<String, String> targets) {
+		return Fixtures.props(Fixtures.entries("tcp.targets", targets));
+	}
+
+	@Test
+	void parseAddress() {
+		assertThat(TcpTargets.parseAddress("localhost:5432")).isEqualTo(InetSocketAddress.createUnresolved("localhost", 5432));
+		assertThat(TcpTargets.parseAddress("[::1]:22")).isEqualTo(InetSocketAddress.createUnresolved("::1", 22));
+		assertThatIllegalArgumentException().isThrownBy(() -> TcpTargets.parseAddress("localhost"));
+		assertThatIllegalArgumentException().isThrownBy(() -> TcpTargets.parseAddress("localhost:"));
+	}
+
+	@Test
+	void forwardsBytesBothWays() {
+		final DisposableServer echo = TcpServer.create()
+				.host("127.0.0.1")
+				.port(0)
+				.handle((inbound, outbound) -> outbound.send(inbound.receive().retain()))
+				.bindNow();
+		final TsunaguProps props = props(Map.of("echo", "127.0.0.1:" + echo.port()));
+		final EventLoops eventLoops = new EventLoops(props);
+		try {
+			final TcpTargets targets = new TcpTargets(props, eventLoops);
+			assertThat(targets.names()).containsExactly("echo");
+			final Flux<ByteBuf> data = Flux.just("hello", " world")
+					.map(s -> Unpooled.copiedBuffer(s, StandardCharsets.UTF_8));
+			StepVerifier.create(targets.forward("echo", data)
+							.map(TcpTargetsTests::toUtf8)
+							.scan(new StringBuilder(), StringBuilder::append)
+							.map(StringBuilder::toString)
+							.filter("hello world"::equals)
+							.next())
+					.expectNext("hello world")
+					.expectComplete()
+					.verify(Duration.ofSeconds(5));
+		}
+		finally {
+			echo.disposeNow();
+			eventLoops.dispose();
+		}
+	}
+
+	@Test
+	void targetsWhichCloseEndTheChannel() {
+		final DisposableServer bye = TcpServer.create()
+				.host("127.0.0.1")
+				.port(0)
+				.handle((inbound, outbound) -> outbound.sendString(Mono.just("bye")))
+				.bindNow();
+		final TsunaguProps props = props(Map.of("bye", "127.0.0.1:" + bye.port()));
+		final EventLoops eventLoops = new EventLoops(props);
+		try {
+			StepVerifier.create(new TcpTargets(props, eventLoops).forward("bye", Flux.never()).map(TcpTargetsTests::toUtf8))
+					.expectNext("bye")
+					.expectComplete()
+					.verify(Duration.ofSeconds(5));
+		}
+		finally {
+			bye.disposeNow();
+			eventLoops.dispose();
+		}
+	}
+
+	@Test
+	void cancelledChannelsCloseTheConnectionToTheTarget() throws Exception {
+		final CountDownLatch connected = new CountDownLatch(1);
+		final CountDownLatch closed = new CountDownLatch(1);
+		final DisposableServer silent = TcpServer.create()
+				.host("127.0.0.1")
+				.port(0)
+				.doOnConnection(connection -> {
+					connected.countDown();
+					connection.onDispose(closed::countDown);
+				})
+				.handle((inbound, outbound) -> inbound.receive().then())
+				.bindNow();
+		final TsunaguProps props = props(Map.of("silent", "127.0.0.1:" + silent.port()));
+		final EventLoops eventLoops = new EventLoops(props);
+		try {
+			// the server cancels the channel when the end user closes the connection
+			final Disposable channel = new TcpTargets(props, eventLoops).forward("silent", Flux.never()).subscribe();
+			assertThat(connected.await(5, TimeUnit.SECONDS)).isTrue();
+			channel.dispose();
+			assertThat(closed.await(5, TimeUnit.SECONDS)).isTrue();
+		}
+		finally {
+			silent.disposeNow();
+			eventLoops.dispose();
+		}
+	}
+
+	@Test
+	void unknownTarget() {
+		final TsunaguProps props = props(Map.of());
+		final EventLoops eventLoops = new EventLoops(props);
+		StepVerifier.create(new TcpTargets(props, eventLoops).forward("ssh", Flux.empty()))
+				.expectError(IllegalArgumentException.class)
+				.verify(Duration.ofSeconds(5));
+		eventLoops.dispose();
+	}
+
+	static String toUtf8(Payload payload) {
+		try {
+			return payload.getDataUtf8();
+		}
+		finally {
+			payload.release();
+		}
+	}
+}
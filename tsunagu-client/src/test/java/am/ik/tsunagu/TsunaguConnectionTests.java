@@ -0,0 +1,108 @@
+package am.ik.tsunagu;
+
+import java.nio.channels.ClosedChannelException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.rsocket.DuplexConnection;
+import io.rsocket.RSocket;
+import io.rsocket.SocketAcceptor;
+import io.rsocket.core.RSocketConnector;
+import io.rsocket.core.RSocketServer;
+import io.rsocket.core.Resume;
+import io.rsocket.transport.ClientTransport;
+import io.rsocket.transport.netty.client.TcpClientTransport;
+import io.rsocket.transport.netty.server.CloseableChannel;
+import io.rsocket.transport.netty.server.TcpServerTransport;
+import io.rsocket.util.DefaultPayload;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import org.springframework.messaging.rsocket.RSocketConnectorConfigurer;
+import org.springframework.messaging.rsocket.RSocketRequester;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class TsunaguConnectionTests {
+
+	// connections to the server, the latest one is dropped to lose the connection
+	final List<DuplexConnection> connections = new CopyOnWriteArrayList<>();
+
+	CloseableChannel server;
+
+	RSocket client;
+
+	@BeforeEach
+	void setUp() {
+		// keeps sessions like a server with resumption enabled
+		this.server = RSocketServer.create(SocketAcceptor.forRequestResponse(payload -> Mono.just(DefaultPayload.create(payload.getDataUtf8().toUpperCase()))))
+				.resume(new Resume().sessionDuration(Duration.ofSeconds(15)))
+				.bind(TcpServerTransport.create("localhost", 0))
+				.block(Duration.ofSeconds(5));
+	}
+
+	@AfterEach
+	void tearDown() {
+		if (this.client != null) {
+			this.client.dispose();
+		}
+		this.server.dispose();
+	}
+
+	// connects with the connector configured by the connection
+	RSocket connect(TsunaguProps props) {
+		final AtomicReference<RSocketConnectorConfigurer> configurer = new AtomicReference<>();
+		final RSocketRequester.Builder builder = mock(RSocketRequester.Builder.class, RETURNS_SELF);
+		when(builder.rsocketConnector(any())).thenAnswer(invocation -> {
+			configurer.set(invocation.getArgument(0));
+			return builder;
+		});
+		final TsunaguConnector connector = mock(TsunaguConnector.class);
+		when(connector.getProps()).thenReturn(props);
+		new TsunaguConnection(0, connector, builder, Map.of(), mock(ClientTransport.class));
+		final RSocketConnector rsocketConnector = RSocketConnector.create();
+		configurer.get().configure(rsocketConnector);
+		final ClientTransport transport = () -> TcpClientTransport.create(this.server.address()).connect().doOnNext(this.connections::add);
+		this.client = rsocketConnector.connect(transport).block(Duration.ofSeconds(5));
+		return this.client;
+	}
+
+	String hello(RSocket rsocket) {
+		return rsocket.requestResponse(DefaultPayload.create("hello")).map(payload -> {
+			try {
+				return payload.getDataUtf8();
+			}
+			finally {
+				payload.release();
+			}
+		}).block(Duration.ofSeconds(5));
+	}
+
+	@Test
+	void sessionsAreResumedWhenEnabled() {
+		final RSocket rsocket = this.connect(Fixtures.props(Map.of("resume.enabled", true, "resume.buffer-size", "64KB", "reconnect.min-backoff", "10ms")));
+		assertThat(this.hello(rsocket)).isEqualTo("HELLO");
+		this.connections.get(0).dispose();
+		assertThat(this.hello(rsocket)).isEqualTo("HELLO");
+		assertThat(this.connections).hasSize(2);
+	}
+
+	@Test
+	void sessionsAreNotResumedByDefault() {
+		final RSocket rsocket = this.connect(Fixtures.props());
+		assertThat(this.hello(rsocket)).isEqualTo("HELLO");
+		this.connections.get(0).dispose();
+		assertThatThrownBy(() -> this.hello(rsocket)).hasCauseInstanceOf(ClosedChannelException.class);
+		assertThat(this.connections).hasSize(1);
+	}
+}
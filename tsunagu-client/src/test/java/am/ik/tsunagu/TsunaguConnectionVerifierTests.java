@@ -0,0 +1,74 @@
+package am.ik.tsunagu;
+
+import java.time.Duration;
+import java.util.Map;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import org.springframework.messaging.rsocket.RSocketRequester;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class TsunaguConnectionVerifierTests {
+
+	final TsunaguConnector connector = mock(TsunaguConnector.class);
+
+	final RSocketRequester requester = mock(RSocketRequester.class);
+
+	TsunaguConnectionVerifier verifier(TsunaguProps props) {
+		when(this.connector.getProps()).thenReturn(props);
+		when(this.connector.getMetrics()).thenReturn(new TunnelMetrics(new SimpleMeterRegistry()));
+		return new TsunaguConnectionVerifier(0, "requester", this.requester, this.connector);
+	}
+
+	// the server answers the verification with the given result
+	void answer(Mono<Boolean> registered) {
+		final RSocketRequester.RequestSpec requestSpec = mock(RSocketRequester.RequestSpec.class);
+		final RSocketRequester.RetrieveSpec retrieveSpec = mock(RSocketRequester.RetrieveSpec.class);
+		when(this.requester.route(TsunaguConnectionVerifier.VERIFY_ROUTE)).thenReturn(requestSpec);
+		when(requestSpec.data(any())).thenReturn(retrieveSpec);
+		when(retrieveSpec.retrieveMono(Boolean.class)).thenReturn(registered);
+	}
+
+	@Test
+	void brokenAfterFailuresInARow() {
+		final TsunaguConnectionVerifier verifier = this.verifier(Fixtures.props(Map.of("verification.failure-threshold", 2)));
+		verifier.verified(false);
+		verify(this.connector, never()).verified(anyInt(), anyBoolean());
+		verifier.verified(false);
+		verify(this.connector).verified(0, false);
+		verifier.verified(true);
+		verify(this.connector).verified(0, true);
+		// a success starts the count again
+		verifier.verified(false);
+		verify(this.connector, times(1)).verified(0, false);
+		verifier.verified(false);
+		verify(this.connector, times(2)).verified(0, false);
+	}
+
+	@Test
+	void verificationsTakingLongerThanTheTimeoutFail() {
+		final TsunaguConnectionVerifier verifier = this.verifier(Fixtures.props(Map.of("verification.failure-threshold", 1, "verification.timeout", "50ms")));
+		this.answer(Mono.never());
+		verifier.verify().block(Duration.ofSeconds(5));
+		verify(this.connector).verified(0, false);
+	}
+
+	@Test
+	void registeredConnectionsAreAlive() {
+		final TsunaguConnectionVerifier verifier = this.verifier(Fixtures.props(Map.of("verification.failure-threshold", 1)));
+		this.answer(Mono.just(true));
+		verifier.verify().block(Duration.ofSeconds(5));
+		verify(this.connector).verified(0, true);
+		verify(this.connector, never()).verified(0, false);
+	}
+}
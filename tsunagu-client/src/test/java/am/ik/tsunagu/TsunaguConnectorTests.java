@@ -0,0 +1,190 @@
+package am.ik.tsunagu;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.rsocket.Payload;
+import io.rsocket.metadata.CompositeMetadataCodec;
+import io.rsocket.metadata.TaggingMetadataCodec;
+import io.rsocket.metadata.WellKnownMimeType;
+import io.rsocket.util.ByteBufPayload;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import reactor.core.publisher.Flux;
+import reactor.netty.DisposableServer;
+import reactor.netty.tcp.TcpServer;
+import reactor.test.StepVerifier;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.LivenessState;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class TsunaguConnectorTests {
+
+	final NettyDataBufferFactory dataBufferFactory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+
+	static ByteBuf buffer(String s) {
+		return ByteBufAllocator.DEFAULT.buffer().writeBytes(s.getBytes(StandardCharsets.UTF_8));
+	}
+
+	// connections which are never connected
+	@SuppressWarnings("unchecked")
+	static TsunaguConnector connector(TsunaguProps props, ConfigurableApplicationContext context) throws Exception {
+		final RSocketRequester.Builder builder = mock(RSocketRequester.Builder.class, RETURNS_SELF);
+		when(builder.transport(any())).thenAnswer(__ -> mock(RSocketRequester.class));
+		final ObjectProvider<RSocketRequester.Builder> builders = mock(ObjectProvider.class);
+		when(builders.getObject()).thenReturn(builder);
+		return new TsunaguConnector(builders, WebClient.builder(), props, context, new TunnelMetrics(new SimpleMeterRegistry()), new AccessLog(props, new SimpleMeterRegistry()));
+	}
+
+	@Test
+	void toPayloadPrependsTheTypeWithoutCopying() {
+		final DataBuffer body = this.dataBufferFactory.wrap(buffer("hello"));
+		final WebSocketMessage message = new WebSocketMessage(WebSocketMessage.Type.TEXT, body);
+		final Payload payload = TsunaguConnector.toPayload(message);
+		// released by the websocket session after the message is handled
+		DataBufferUtils.release(body);
+		final ByteBuf data = payload.data();
+		assertThat(data.readByte()).isEqualTo((byte) WebSocketMessage.Type.TEXT.ordinal());
+		assertThat(data.toString(StandardCharsets.UTF_8)).isEqualTo("hello");
+		assertThat(payload.release()).isTrue();
+		assertThat(NettyDataBufferFactory.toByteBuf(body).refCnt()).isZero();
+	}
+
+	@Test
+	void toDataReleasesTheMetadata() {
+		final ByteBuf data = buffer("data");
+		final ByteBuf metadata = buffer("metadata");
+		final ByteBuf result = TsunaguConnector.toData(ByteBufPayload.create(data, metadata));
+		assertThat(metadata.refCnt()).isZero();
+		assertThat(result.toString(StandardCharsets.UTF_8)).isEqualTo("data");
+		assertThat(result.release()).isTrue();
+	}
+
+	@Test
+	void toDataBuffer() {
+		final ByteBuf wrapped = buffer("wrapped");
+		final DataBuffer dataBuffer = TsunaguConnector.toDataBuffer(this.dataBufferFactory, ByteBufPayload.create(wrapped));
+		assertThat(NettyDataBufferFactory.toByteBuf(dataBuffer)).isSameAs(wrapped);
+		assertThat(DataBufferUtils.release(dataBuffer)).isTrue();
+		final ByteBuf copied = buffer("copied");
+		final DataBuffer copy = TsunaguConnector.toDataBuffer(DefaultDataBufferFactory.sharedInstance, ByteBufPayload.create(copied));
+		assertThat(copied.refCnt()).isZero();
+		assertThat(copy.toString(StandardCharsets.UTF_8)).isEqualTo("copied");
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void everyConnectionIsSetUpUnderTheSameClientId() throws Exception {
+		final List<Map<String, String>> setupData = new ArrayList<>();
+		final RSocketRequester.Builder builder = mock(RSocketRequester.Builder.class, RETURNS_SELF);
+		when(builder.setupData(any())).thenAnswer(invocation -> {
+			setupData.add(invocation.getArgument(0));
+			return builder;
+		});
+		when(builder.transport(any())).thenAnswer(__ -> mock(RSocketRequester.class));
+		final ObjectProvider<RSocketRequester.Builder> builders = mock(ObjectProvider.class);
+		when(builders.getObject()).thenReturn(builder);
+		final TsunaguProps props = Fixtures.props(Map.of("connections", 3));
+		final TsunaguConnector connector = new TsunaguConnector(builders, WebClient.builder(), props, mock(ConfigurableApplicationContext.class),
+				new TunnelMetrics(new SimpleMeterRegistry()), new AccessLog(props, new SimpleMeterRegistry()));
+		try {
+			assertThat(setupData).hasSize(3);
+			final String clientId = setupData.get(0).get("clientId");
+			assertThat(clientId).isNotEmpty();
+			for (int i = 0; i < 3; i++) {
+				assertThat(setupData.get(i)).containsEntry("clientId", clientId).containsEntry("connectionIndex", String.valueOf(i));
+			}
+			// requests on one connection do not hold back the others
+			final List<TsunaguConnection> connections = connector.getConnections();
+			assertThat(connections).extracting(TsunaguConnection::getIndex).containsExactly(0, 1, 2);
+			assertThat(connections).extracting(TsunaguConnection::getWindow).doesNotHaveDuplicates();
+		}
+		finally {
+			connector.destroy();
+		}
+	}
+
+	@Test
+	void tcpChannelsNameTheTargetFirst() throws Exception {
+		final DisposableServer echo = TcpServer.create()
+				.host("127.0.0.1")
+				.port(0)
+				.handle((inbound, outbound) -> outbound.send(inbound.receive().retain()))
+				.bindNow();
+		final TsunaguConnector connector = connector(Fixtures.props(Fixtures.entries("tcp.targets", Map.of("echo", "127.0.0.1:" + echo.port()))),
+				mock(ConfigurableApplicationContext.class));
+		try {
+			final CompositeByteBuf metadata = ByteBufAllocator.DEFAULT.compositeBuffer();
+			CompositeMetadataCodec.encodeAndAddMetadata(metadata, ByteBufAllocator.DEFAULT, WellKnownMimeType.MESSAGE_RSOCKET_ROUTING,
+					TaggingMetadataCodec.createRoutingMetadata(ByteBufAllocator.DEFAULT, List.of(TcpTargets.ROUTE)).getContent());
+			// as sent by the server, the name of the target and then the bytes of the end user
+			final Flux<Payload> payloads = Flux.just(ByteBufPayload.create(buffer("echo"), metadata), ByteBufPayload.create(buffer("hello")));
+			StepVerifier.create(connector.requestChannel(payloads, connector.getConnections().get(0))
+							.map(payload -> {
+								try {
+									return payload.getDataUtf8();
+								}
+								finally {
+									payload.release();
+								}
+							})
+							.scan("", String::concat)
+							.takeUntil("hello"::equals)
+							.last())
+					.expectNext("hello")
+					.expectComplete()
+					.verify(Duration.ofSeconds(5));
+		}
+		finally {
+			connector.destroy();
+			echo.disposeNow();
+		}
+	}
+
+	@Test
+	void livenessIsPublishedOnlyWhenItChanges() throws Exception {
+		final ConfigurableApplicationContext context = mock(ConfigurableApplicationContext.class);
+		final TsunaguConnector connector = connector(Fixtures.props(Map.of("connections", 2)), context);
+		try {
+			final ArgumentCaptor<AvailabilityChangeEvent<LivenessState>> events = ArgumentCaptor.forClass(AvailabilityChangeEvent.class);
+			connector.verified(0, true);
+			connector.verified(0, false);
+			connector.verified(1, false);
+			connector.verified(0, false);
+			// still broken while one of the connections is
+			connector.verified(0, true);
+			connector.verified(1, true);
+			connector.verified(1, true);
+			verify(context, times(2)).publishEvent(events.capture());
+			assertThat(events.getAllValues()).extracting(AvailabilityChangeEvent::getState).containsExactly(LivenessState.BROKEN, LivenessState.CORRECT);
+		}
+		finally {
+			connector.destroy();
+		}
+	}
+}
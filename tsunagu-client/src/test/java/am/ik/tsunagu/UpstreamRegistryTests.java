@@ -0,0 +1,104 @@
+package am.ik.tsunagu;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.handler.ssl.SslContextBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UpstreamRegistryTests {
+
+	static final URI A = URI.create("http://a.example.com:80");
+
+	static final URI B = URI.create("http://b.example.com:80");
+
+	static final URI C = URI.create("http://c.example.com:80");
+
+	final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	UpstreamRegistry registry;
+
+	EventLoops eventLoops;
+
+	UpstreamRegistry registry(URI upstream, List<URI> upstreams, Map<String, URI> pathToUpstreamMap) throws Exception {
+		final Map<String, Object> properties = new LinkedHashMap<>();
+		if (upstream != null) {
+			properties.put("upstream", upstream);
+		}
+		properties.put("upstreams", upstreams.stream().map(URI::toString).collect(Collectors.joining(",")));
+		properties.putAll(Fixtures.entries("path-to-upstream-map", pathToUpstreamMap));
+		final TsunaguProps props = Fixtures.props(properties);
+		this.eventLoops = new EventLoops(props);
+		this.registry = new UpstreamRegistry(props, WebClient.builder(), SslContextBuilder.forClient().build(), this.eventLoops, new TunnelMetrics(this.meterRegistry));
+		return this.registry;
+	}
+
+	@AfterEach
+	void dispose() {
+		if (this.registry != null) {
+			this.registry.dispose();
+			this.eventLoops.dispose();
+		}
+	}
+
+	@Test
+	void routesToTheirOwnUpstream() throws Exception {
+		final UpstreamRegistry registry = registry(A, List.of(B), Map.of("api/", C));
+		assertThat(registry.targets()).extracting(UpstreamTarget::getUri).containsExactly(A, B, C);
+		assertThat(registry.select(C).getUri()).isEqualTo(C);
+		assertThat(IntStream.range(0, 4).mapToObj(__ -> registry.select(A).getUri()).collect(Collectors.toSet())).containsExactlyInAnyOrder(A, B);
+		assertThat(this.meterRegistry.get("tsunagu.upstream.in.flight").gauges()).hasSize(3);
+	}
+
+	@Test
+	void selectsTheLeastBusyUpstream() throws Exception {
+		final UpstreamRegistry registry = registry(null, List.of(A, B), Map.of());
+		final UpstreamTarget a = registry.targets().get(0);
+		final Sinks.Empty<Void> pending = Sinks.empty();
+		a.track(Flux.from(pending.asMono())).subscribe();
+		assertThat(a.getInFlight()).isEqualTo(1);
+		for (int i = 0; i < 4; i++) {
+			assertThat(registry.select(A).getUri()).isEqualTo(B);
+		}
+		pending.tryEmitEmpty();
+		assertThat(a.getInFlight()).isZero();
+	}
+
+	@Test
+	void unhealthyUpstreamsAreSkippedUnlessNoneIsHealthy() throws Exception {
+		final UpstreamRegistry registry = registry(A, List.of(B), Map.of());
+		registry.targets().get(0).setHealthy(false);
+		for (int i = 0; i < 4; i++) {
+			assertThat(registry.select(A).getUri()).isEqualTo(B);
+		}
+		registry.targets().get(1).setHealthy(false);
+		assertThat(registry.select(A)).isNotNull();
+	}
+
+	@Test
+	void http2ByScheme() {
+		final HttpClient httpClient = HttpClient.create();
+		final URI secure = URI.create("https://a.example.com:443");
+		assertThat(UpstreamRegistry.http2(httpClient, secure, new TsunaguProps.Http2(false, false, DataSize.ofMegabytes(1)))).isSameAs(httpClient);
+		assertThat(UpstreamRegistry.http2(httpClient, secure, new TsunaguProps.Http2(true, false, DataSize.ofMegabytes(1))).configuration().protocols())
+				.containsExactlyInAnyOrder(HttpProtocol.H2, HttpProtocol.HTTP11);
+		assertThat(UpstreamRegistry.http2(httpClient, A, new TsunaguProps.Http2(true, false, DataSize.ofMegabytes(1)))).isSameAs(httpClient);
+		assertThat(UpstreamRegistry.http2(httpClient, A, new TsunaguProps.Http2(false, true, DataSize.ofMegabytes(1))).configuration().protocols())
+				.containsExactly(HttpProtocol.H2C);
+	}
+}
@@ -0,0 +1,477 @@
+package am.ik.tsunagu;
+
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+/**
+ * Access log written as JSON lines by a background thread. Requests only put an entry into a ring buffer, formatting and
+ * writing happen in batches off the event loop. Entries are dropped when the buffer is full. Successful responses can
+ * be sampled and are not logged at all while the buffer is more than three quarters full, server errors always are.
+ */
+@Component
+public class AccessLog implements DisposableBean {
+	private final Logger log = LoggerFactory.getLogger(AccessLog.class);
+
+	private final TsunaguProps.AccessLog props;
+
+	private final Ring<Entry> ring;
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	private final Thread writer;
+
+	private volatile boolean running = true;
+
+	public AccessLog(TsunaguProps props, MeterRegistry meterRegistry) {
+		this.props = props.getAccessLog();
+		this.ring = new Ring<>(this.props.getBufferSize());
+		FunctionCounter.builder("tsunagu.access_log.dropped", this.dropped, AtomicLong::get)
+				.description("Access log entries dropped as the buffer was full")
+				.register(meterRegistry);
+		if (this.props.isEnabled()) {
+			this.writer = new Thread(this::run, "tsunagu-access-log");
+			this.writer.setDaemon(true);
+			this.writer.start();
+		}
+		else {
+			this.writer = null;
+		}
+	}
+
+	public void log(HttpRequestMetadata httpRequestMetadata, HttpStatus status, String cache, TunnelMetrics.Recording recording) {
+		if (!this.props.isEnabled()) {
+			return;
+		}
+		final int code = status == null ? 0 : status.value();
+		if (!this.sampled(code)) {
+			return;
+		}
+		this.offer(new Entry(httpRequestMetadata, code, cache, recording.getElapsedNanos(), recording.getFirstByteNanos(), recording.getUpstreamNanos(),
+				recording.getRequestBytes(), recording.getResponseBytes()));
+	}
+
+	public void webSocket(HttpRequestMetadata httpRequestMetadata) {
+		if (!this.props.isEnabled() || !this.sampled(HttpStatus.SWITCHING_PROTOCOLS.value())) {
+			return;
+		}
+		this.offer(new Entry(httpRequestMetadata, HttpStatus.SWITCHING_PROTOCOLS.value(), null, -1, -1, -1, -1, -1));
+	}
+
+	boolean sampled(int status) {
+		if (status == 0 || status >= 500) {
+			return true;
+		}
+		if (this.ring.size() > this.ring.capacity() / 4 * 3) {
+			return false;
+		}
+		final double sampleRate = this.props.getSampleRate();
+		return sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+	}
+
+	void offer(Entry entry) {
+		if (!this.ring.offer(entry)) {
+			this.dropped.incrementAndGet();
+		}
+	}
+
+	void run() {
+		final Output output = this.output();
+		final StringBuilder line = new StringBuilder(512);
+		final int batchSize = this.props.getBatchSize();
+		final long flushIntervalNanos = this.props.getFlushInterval().toNanos();
+		final Consumer<Entry> write = entry -> {
+			line.setLength(0);
+			entry.writeJson(line);
+			output.write(line);
+		};
+		try {
+			while (this.running || this.ring.size() > 0) {
+				int written = 0;
+				try {
+					written = this.ring.drain(write, batchSize);
+					if (written < batchSize) {
+						output.flush();
+					}
+				}
+				catch (RuntimeException e) {
+					log.warn("Failed to write the access log", e);
+				}
+				if (written < batchSize && this.running) {
+					LockSupport.parkNanos(flushIntervalNanos);
+				}
+			}
+		}
+		finally {
+			output.close();
+		}
+	}
+
+	Output output() {
+		switch (this.props.getOutput()) {
+			case STDOUT:
+				return new StreamOutput(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8), 64 * 1024));
+			case FILE:
+				return new RollingFileOutput(Path.of(this.props.getFile()), this.props.getMaxFileSize().toBytes(), this.props.getMaxHistory());
+			default:
+				final Logger accessLog = LoggerFactory.getLogger("am.ik.tsunagu.AccessLog.entries");
+				return new Output() {
+					@Override
+					public void write(CharSequence line) {
+						accessLog.info(line.toString());
+					}
+				};
+		}
+	}
+
+	@Override
+	public void destroy() throws InterruptedException {
+		if (this.writer == null) {
+			return;
+		}
+		this.running = false;
+		LockSupport.unpark(this.writer);
+		this.writer.join(TimeUnit.SECONDS.toMillis(5));
+	}
+
+	static final class Entry {
+		private final long timestamp = System.currentTimeMillis();
+
+		private final String remote;
+
+		private final String method;
+
+		// formatted on the writer thread
+		private final URI uri;
+
+		private final int status;
+
+		private final String userAgent;
+
+		private final String cache;
+
+		private final long durationNanos;
+
+		private final long firstByteNanos;
+
+		private final long upstreamNanos;
+
+		private final long requestBytes;
+
+		private final long responseBytes;
+
+		Entry(HttpRequestMetadata httpRequestMetadata, int status, String cache, long durationNanos, long firstByteNanos, long upstreamNanos, long requestBytes, long responseBytes) {
+			final HttpHeaders headers = httpRequestMetadata.getHeaders();
+			this.remote = headers.getFirst("X-Real-IP");
+			this.method = httpRequestMetadata.getMethod() == null ? null : httpRequestMetadata.getMethod().name();
+			this.uri = httpRequestMetadata.getUri();
+			this.status = status;
+			this.userAgent = headers.getFirst(HttpHeaders.USER_AGENT);
+			this.cache = cache;
+			this.durationNanos = durationNanos;
+			this.firstByteNanos = firstByteNanos;
+			this.upstreamNanos = upstreamNanos;
+			this.requestBytes = requestBytes;
+			this.responseBytes = responseBytes;
+		}
+
+		void writeJson(StringBuilder json) {
+			json.append("{\"time\":\"").append(Instant.ofEpochMilli(this.timestamp)).append('"');
+			string(json, "remote", this.remote);
+			string(json, "method", this.method);
+			string(json, "uri", String.valueOf(this.uri));
+			json.append(",\"status\":");
+			if (this.status == 0) {
+				json.append("null");
+			}
+			else {
+				json.append(this.status);
+			}
+			string(json, "user_agent", this.userAgent);
+			string(json, "cache", this.cache);
+			millis(json, "duration_ms", this.durationNanos);
+			millis(json, "first_byte_ms", this.firstByteNanos);
+			millis(json, "upstream_ms", this.upstreamNanos);
+			number(json, "request_bytes", this.requestBytes);
+			number(json, "response_bytes", this.responseBytes);
+			json.append('}');
+		}
+	}
+
+	static void string(StringBuilder json, String name, String value) {
+		if (value == null) {
+			return;
+		}
+		json.append(",\"").append(name).append("\":\"");
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			switch (c) {
+				case '"':
+					json.append("\\\"");
+					break;
+				case '\\':
+					json.append("\\\\");
+					break;
+				case '\n':
+					json.append("\\n");
+					break;
+				case '\r':
+					json.append("\\r");
+					break;
+				case '\t':
+					json.append("\\t");
+					break;
+				default:
+					if (c < 0x20) {
+						json.append(String.format("\\u%04x", (int) c));
+					}
+					else {
+						json.append(c);
+					}
+			}
+		}
+		json.append('"');
+	}
+
+	// negative values are unknown and left out
+	static void number(StringBuilder json, String name, long value) {
+		if (value >= 0) {
+			json.append(",\"").append(name).append("\":").append(value);
+		}
+	}
+
+	static void millis(StringBuilder json, String name, long nanos) {
+		if (nanos < 0) {
+			return;
+		}
+		final long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+		json.append(",\"").append(name).append("\":").append(micros / 1000).append('.');
+		final long fraction = micros % 1000;
+		if (fraction < 100) {
+			json.append('0');
+		}
+		if (fraction < 10) {
+			json.append('0');
+		}
+		json.append(fraction);
+	}
+
+	/**
+	 * Bounded queue for many producers and a single consumer. Producers claim a slot by moving the tail with CAS and
+	 * publish the element into it, the consumer takes published elements in order and clears their slots.
+	 */
+	static final class Ring<T> {
+		private final AtomicReferenceArray<T> slots;
+
+		private final int mask;
+
+		private final AtomicLong tail = new AtomicLong();
+
+		private final AtomicLong head = new AtomicLong();
+
+		Ring(int capacity) {
+			final int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+			this.slots = new AtomicReferenceArray<>(size);
+			this.mask = size - 1;
+		}
+
+		int capacity() {
+			return this.mask + 1;
+		}
+
+		int size() {
+			return (int) Math.max(this.tail.get() - this.head.get(), 0);
+		}
+
+		boolean offer(T element) {
+			for (;;) {
+				final long tail = this.tail.get();
+				if (tail - this.head.get() >= this.capacity()) {
+					return false;
+				}
+				if (this.tail.compareAndSet(tail, tail + 1)) {
+					this.slots.lazySet((int) tail & this.mask, element);
+					return true;
+				}
+			}
+		}
+
+		/**
+		 * Must only be called by the consumer
+		 * @return number of elements taken
+		 */
+		int drain(Consumer<T> consumer, int limit) {
+			long head = this.head.get();
+			int drained = 0;
+			try {
+				while (drained < limit) {
+					final int index = (int) head & this.mask;
+					final T element = this.slots.get(index);
+					if (element == null) {
+						// empty or claimed but not published yet
+						break;
+					}
+					this.slots.lazySet(index, null);
+					head++;
+					drained++;
+					consumer.accept(element);
+				}
+			}
+			finally {
+				this.head.lazySet(head);
+			}
+			return drained;
+		}
+	}
+
+	interface Output {
+		void write(CharSequence line);
+
+		default void flush() {
+		}
+
+		default void close() {
+		}
+	}
+
+	static class StreamOutput implements Output {
+		protected Writer writer;
+
+		StreamOutput(Writer writer) {
+			this.writer = writer;
+		}
+
+		@Override
+		public void write(CharSequence line) {
+			try {
+				this.writer.append(line).append('\n');
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public void flush() {
+			try {
+				this.writer.flush();
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public void close() {
+			try {
+				this.writer.close();
+			}
+			catch (IOException e) {
+				// nothing to do
+			}
+		}
+	}
+
+	/**
+	 * Appends to a file and moves it to {@code <file>.1} once it reached the maximum size, older files are shifted up to
+	 * the maximum history.
+	 */
+	static class RollingFileOutput extends StreamOutput {
+		private final Path file;
+
+		private final long maxFileSize;
+
+		private final int maxHistory;
+
+		// characters rather than bytes, close enough for rolling
+		private long size;
+
+		RollingFileOutput(Path file, long maxFileSize, int maxHistory) {
+			super(open(file));
+			this.file = file;
+			this.maxFileSize = maxFileSize;
+			this.maxHistory = maxHistory;
+			try {
+				this.size = Files.size(file);
+			}
+			catch (IOException e) {
+				this.size = 0;
+			}
+		}
+
+		static Writer open(Path file) {
+			try {
+				final Path parent = file.toAbsolutePath().getParent();
+				if (parent != null) {
+					Files.createDirectories(parent);
+				}
+				return new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND), StandardCharsets.UTF_8), 64 * 1024);
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public void write(CharSequence line) {
+			if (this.size >= this.maxFileSize) {
+				this.roll();
+			}
+			super.write(line);
+			this.size += line.length() + 1;
+		}
+
+		void roll() {
+			this.close();
+			try {
+				Files.deleteIfExists(this.file.resolveSibling(this.file.getFileName() + "." + this.maxHistory));
+				for (int i = this.maxHistory - 1; i >= 1; i--) {
+					final Path source = this.file.resolveSibling(this.file.getFileName() + "." + i);
+					if (Files.exists(source)) {
+						Files.move(source, this.file.resolveSibling(this.file.getFileName() + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+					}
+				}
+				if (this.maxHistory > 0) {
+					Files.move(this.file, this.file.resolveSibling(this.file.getFileName() + ".1"), StandardCopyOption.REPLACE_EXISTING);
+				}
+				else {
+					Files.deleteIfExists(this.file);
+				}
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			finally {
+				this.writer = open(this.file);
+				this.size = 0;
+			}
+		}
+	}
+}
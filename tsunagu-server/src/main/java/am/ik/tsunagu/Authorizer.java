@@ -0,0 +1,239 @@
+package am.ik.tsunagu;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.util.UriUtils;
+
+/**
+ * Checks the API key of a request. Configured tokens are only held as SHA-256 digests, looked up by the first bytes
+ * of the digest and compared in constant time. Presented tokens are digested on every request rather than cached, so
+ * they are never kept. Rejections are results rather than exceptions as they are the common case under credential
+ * stuffing.
+ */
+@Component
+public class Authorizer {
+	private static final String BEARER = "Bearer ";
+
+	private static final String BASIC = "Basic ";
+
+	private static final byte[] NO_BYTES = new byte[0];
+
+	private final MessageDigest sha256;
+
+	// by the first 8 bytes of the digest
+	private final Map<Long, List<Grant>> grants = new HashMap<>();
+
+	public Authorizer(TsunaguProps props) {
+		try {
+			this.sha256 = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		if (StringUtils.hasText(props.getAuthorizationToken())) {
+			this.add(new Grant(this.digest(props.getAuthorizationToken().getBytes(StandardCharsets.UTF_8)), EnumSet.allOf(TsunaguProps.Authorization.Scope.class), List.of()));
+		}
+		for (TsunaguProps.Authorization.Token token : props.getAuthorization().getTokens()) {
+			final String value = token.getValue();
+			final byte[] digest = value.startsWith("sha256:") ? fromHex(value.substring(7)) : this.digest(value.getBytes(StandardCharsets.UTF_8));
+			this.add(new Grant(digest, token.getScopes().isEmpty() ? EnumSet.noneOf(TsunaguProps.Authorization.Scope.class) : EnumSet.copyOf(token.getScopes()), token.getRoutes()));
+		}
+	}
+
+	private void add(Grant grant) {
+		this.grants.computeIfAbsent(prefix(grant.digest), __ -> new ArrayList<>(1)).add(grant);
+	}
+
+	public boolean isEnabled() {
+		return !this.grants.isEmpty();
+	}
+
+	public Decision authorize(HttpMethod method, String path, String authorization) {
+		if (!this.isEnabled()) {
+			return Decision.GRANTED;
+		}
+		if (!StringUtils.hasText(authorization)) {
+			return Decision.MISSING;
+		}
+		final Grant grant = this.find(token(authorization));
+		if (grant == null) {
+			return Decision.INVALID;
+		}
+		return grant.allows(method, path) ? Decision.GRANTED : Decision.FORBIDDEN;
+	}
+
+	Grant find(byte[] token) {
+		if (token.length == 0) {
+			return null;
+		}
+		final byte[] digest = this.digest(token);
+		final List<Grant> candidates = this.grants.get(prefix(digest));
+		if (candidates == null) {
+			return null;
+		}
+		for (Grant candidate : candidates) {
+			if (MessageDigest.isEqual(candidate.digest, digest)) {
+				return candidate;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * The token of a Bearer header, or the password of a Basic header whose user name is ignored
+	 */
+	static byte[] token(String authorization) {
+		if (authorization.regionMatches(true, 0, BEARER, 0, BEARER.length())) {
+			return authorization.substring(BEARER.length()).trim().getBytes(StandardCharsets.UTF_8);
+		}
+		if (authorization.regionMatches(true, 0, BASIC, 0, BASIC.length())) {
+			final byte[] decoded;
+			try {
+				decoded = Base64.getDecoder().decode(authorization.substring(BASIC.length()).trim());
+			}
+			catch (IllegalArgumentException e) {
+				return NO_BYTES;
+			}
+			for (int i = 0; i < decoded.length; i++) {
+				if (decoded[i] == ':') {
+					final byte[] password = new byte[decoded.length - i - 1];
+					System.arraycopy(decoded, i + 1, password, 0, password.length);
+					return password;
+				}
+			}
+		}
+		return NO_BYTES;
+	}
+
+	private byte[] digest(byte[] input) {
+		try {
+			// cloning the prototype skips the provider lookup, the instance itself is not thread-safe
+			return ((MessageDigest) this.sha256.clone()).digest(input);
+		}
+		catch (CloneNotSupportedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static long prefix(byte[] digest) {
+		long prefix = 0;
+		for (int i = 0; i < 8; i++) {
+			prefix = (prefix << 8) | (digest[i] & 0xff);
+		}
+		return prefix;
+	}
+
+	static byte[] fromHex(String hex) {
+		final byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+		}
+		if (bytes.length != 32) {
+			throw new IllegalArgumentException("A SHA-256 digest must have 32 bytes: " + hex);
+		}
+		return bytes;
+	}
+
+	static final class Grant {
+		final byte[] digest;
+
+		final Set<TsunaguProps.Authorization.Scope> scopes;
+
+		final List<String> routes;
+
+		Grant(byte[] digest, Set<TsunaguProps.Authorization.Scope> scopes, List<String> routes) {
+			this.digest = digest;
+			this.scopes = scopes;
+			this.routes = routes;
+		}
+
+		boolean allows(HttpMethod method, String path) {
+			final boolean read = method == HttpMethod.GET || method == HttpMethod.HEAD || method == HttpMethod.OPTIONS;
+			if (!this.scopes.contains(read ? TsunaguProps.Authorization.Scope.READ : TsunaguProps.Authorization.Scope.WRITE)) {
+				return false;
+			}
+			if (this.routes.isEmpty()) {
+				return true;
+			}
+			final String normalized = normalize(path);
+			if (normalized == null) {
+				return false;
+			}
+			for (String route : this.routes) {
+				if (matches(route, normalized)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * The decoded path, or {@code null} if it has dot segments, which the upstream would resolve to a path outside
+	 * the route, or is not decodable
+	 */
+	static String normalize(String path) {
+		if (path == null) {
+			return null;
+		}
+		final String decoded;
+		try {
+			decoded = UriUtils.decode(path, StandardCharsets.UTF_8);
+		}
+		catch (IllegalArgumentException e) {
+			return null;
+		}
+		for (String segment : decoded.split("[/\\\\]", -1)) {
+			if (segment.equals(".") || segment.equals("..")) {
+				return null;
+			}
+		}
+		return decoded;
+	}
+
+	// whole segments only, so that /api does not match /api-admin
+	static boolean matches(String route, String path) {
+		if (!path.startsWith(route)) {
+			return false;
+		}
+		return path.length() == route.length() || route.endsWith("/") || path.charAt(route.length()) == '/';
+	}
+
+	public enum Decision {
+		GRANTED(HttpStatus.OK, ""),
+		MISSING(HttpStatus.UNAUTHORIZED, "{\"error\":{\"message\":\"You didn't provide an API key. You need to provide your API key in an Authorization header using Bearer auth (i.e. Authorization: Bearer YOUR_KEY), or as the password field (with blank username) if you're accesing the API from your browser and are prompted for a username and password.\",\"type\":\"invalid_request_error\",\"code\":\"\"}}"),
+		INVALID(HttpStatus.UNAUTHORIZED, "{\"error\":{\"message\":\"Incorrect API key provided.\",\"type\":\"invalid_request_error\",\"code\":\"invalid_api_key\"}}"),
+		FORBIDDEN(HttpStatus.FORBIDDEN, "{\"error\":{\"message\":\"The API key provided is not allowed to access this resource.\",\"type\":\"invalid_request_error\",\"code\":\"insufficient_scope\"}}");
+
+		private final HttpStatus status;
+
+		// written as is, rejections do not serialize anything
+		private final byte[] body;
+
+		Decision(HttpStatus status, String body) {
+			this.status = status;
+			this.body = body.getBytes(StandardCharsets.UTF_8);
+		}
+
+		public HttpStatus getStatus() {
+			return status;
+		}
+
+		public byte[] getBody() {
+			return body;
+		}
+	}
+}
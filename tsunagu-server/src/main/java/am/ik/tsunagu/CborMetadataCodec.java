@@ -0,0 +1,68 @@
+package am.ik.tsunagu;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.util.MimeType;
+
+public class CborMetadataCodec implements MetadataCodec {
+	public static final CborMetadataCodec INSTANCE = new CborMetadataCodec();
+
+	private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.cbor().build();
+
+	@Override
+	public MimeType getMimeType() {
+		return MediaType.APPLICATION_CBOR;
+	}
+
+	@Override
+	public ByteBuf encodeRequest(HttpRequestMetadata metadata, ByteBufAllocator allocator) {
+		return this.write(metadata, allocator);
+	}
+
+	@Override
+	public HttpRequestMetadata decodeRequest(ByteBuf buf) {
+		return this.read(buf, HttpRequestMetadata.class);
+	}
+
+	@Override
+	public ByteBuf encodeResponse(HttpResponseMetadata metadata, ByteBufAllocator allocator) {
+		return this.write(metadata, allocator);
+	}
+
+	@Override
+	public HttpResponseMetadata decodeResponse(ByteBuf buf) {
+		return this.read(buf, HttpResponseMetadata.class);
+	}
+
+	ByteBuf write(Object value, ByteBufAllocator allocator) {
+		final ByteBuf buf = allocator.buffer();
+		try (OutputStream stream = new ByteBufOutputStream(buf)) {
+			this.objectMapper.writeValue(stream, value);
+			return buf;
+		}
+		catch (IOException e) {
+			buf.release();
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	<T> T read(ByteBuf buf, Class<T> type) {
+		try (InputStream stream = new ByteBufInputStream(buf.duplicate())) {
+			return this.objectMapper.readValue(stream, type);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
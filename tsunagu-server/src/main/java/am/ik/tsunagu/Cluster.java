@@ -0,0 +1,194 @@
+package am.ik.tsunagu;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.stereotype.Component;
+
+/**
+ * Replicas of the server connected in a mesh. Every replica opens a {@link ClusterLink} to each of its peers, which
+ * registers there like a client and serves the requests the peer forwards to the clients of this replica. Replicas tell
+ * their peers periodically which clients they hold, so that a replica without a client of its own only forwards to
+ * peers which have one. Forwarded requests are never forwarded again.
+ */
+@Component
+public class Cluster implements ApplicationListener<ApplicationReadyEvent>, DisposableBean {
+	public static final String STATE_ROUTE = "cluster_state";
+
+	private final Logger log = LoggerFactory.getLogger(Cluster.class);
+
+	private final TsunaguProps props;
+
+	private final TsunaguProps.Cluster cluster;
+
+	private final RequesterRegistry registry;
+
+	private final ObjectProvider<RSocketRequester.Builder> requesterBuilders;
+
+	private final ObjectProvider<TsunaguController> controllers;
+
+	private final EventLoops eventLoops;
+
+	// peers which connected to this replica
+	private final ConcurrentMap<UUID, Peer> peers = new ConcurrentHashMap<>();
+
+	private final List<ClusterLink> links = new ArrayList<>();
+
+	public Cluster(TsunaguProps props, RequesterRegistry registry, ObjectProvider<RSocketRequester.Builder> requesterBuilders, ObjectProvider<TsunaguController> controllers, EventLoops eventLoops) {
+		this.props = props;
+		this.cluster = props.getCluster();
+		this.registry = registry;
+		this.requesterBuilders = requesterBuilders;
+		this.controllers = controllers;
+		this.eventLoops = eventLoops;
+	}
+
+	public boolean isEnabled() {
+		return this.cluster.isEnabled();
+	}
+
+	public String getNodeId() {
+		return this.cluster.getNodeId();
+	}
+
+	@Override
+	public void onApplicationEvent(ApplicationReadyEvent event) {
+		if (!this.isEnabled()) {
+			return;
+		}
+		log.info("Cluster: Joining as {} with peers {}", this.getNodeId(), this.cluster.getPeers());
+		for (URI peer : this.cluster.getPeers()) {
+			final ClusterLink link = new ClusterLink(peer, this, this.requesterBuilders.getObject(), this.eventLoops.tunnelClient(peer), this.props.getToken());
+			this.links.add(link);
+			link.start(this.cluster.getStateInterval());
+		}
+	}
+
+	@Override
+	public void destroy() {
+		this.links.forEach(ClusterLink::close);
+	}
+
+	public void register(UUID id, String nodeId, RSocketRequester requester, MetadataCodec metadataCodec, boolean inlineBody) {
+		final TsunaguProps.LoadBalancer loadBalancer = this.props.getLoadBalancer();
+		final TrackedRequester trackedRequester = new TrackedRequester(id, nodeId, requester, metadataCodec, inlineBody, loadBalancer.getDecayTime(),
+				new FlowControl.Window(this.props.getFlowControl().getConnectionWindow().toBytes()), ConcurrencyLimit.of(this.props.getConcurrencyLimit()));
+		this.peers.put(id, new Peer(trackedRequester));
+	}
+
+	public void unregister(UUID id) {
+		this.peers.remove(id);
+	}
+
+	/**
+	 * Updates the clients a peer holds and the hosts they serve.
+	 * @return whether the requester belongs to a peer
+	 */
+	public boolean state(RSocketRequester requester, List<String> clients, Set<String> hosts) {
+		for (Peer peer : this.peers.values()) {
+			if (peer.requester.getRequester() == requester) {
+				peer.clients = List.copyOf(clients);
+				peer.hosts = Set.copyOf(hosts);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Peers with a client which declared the host are preferred over peers with a client which serves any host.
+	 * @param host host of the request without the port, {@code null} for any host
+	 * @return the peer with the fewest requests in flight among those serving the host or {@code null} if there is none
+	 */
+	public TrackedRequester select(String host) {
+		final String name = host == null ? null : host.toLowerCase(Locale.ROOT);
+		TrackedRequester selected = null;
+		boolean selectedDeclares = false;
+		for (Peer peer : this.peers.values()) {
+			if (peer.clients.isEmpty()) {
+				continue;
+			}
+			final boolean declares = name != null && peer.declares(name);
+			if (!declares && name != null && !peer.hosts.contains("*")) {
+				continue;
+			}
+			if (selected == null || (declares && !selectedDeclares) || (declares == selectedDeclares && peer.requester.getInFlight() < selected.getInFlight())) {
+				selected = peer.requester;
+				selectedDeclares = declares;
+			}
+		}
+		return selected;
+	}
+
+	/**
+	 * @return client ids by the id of the replica they are connected to, this replica included
+	 */
+	public Map<String, List<String>> nodes() {
+		final Map<String, List<String>> nodes = new TreeMap<>();
+		nodes.put(this.getNodeId(), this.clients());
+		for (Peer peer : this.peers.values()) {
+			nodes.put(peer.requester.getClientId(), peer.clients);
+		}
+		return nodes;
+	}
+
+	List<String> clients() {
+		return new ArrayList<>(this.registry.clients().keySet());
+	}
+
+	List<String> hosts() {
+		return new ArrayList<>(this.registry.hosts());
+	}
+
+	/**
+	 * Serves a request forwarded by a peer with a client of this replica.
+	 */
+	RequestCoalescer.Upstream serve(HttpRequestMetadata httpRequestMetadata, Flux<DataBuffer> body) {
+		return this.controllers.getObject().serve(httpRequestMetadata, body);
+	}
+
+	static final class Peer {
+		private final TrackedRequester requester;
+
+		// unknown until the peer reports its state
+		private volatile List<String> clients = List.of();
+
+		// peers which do not report hosts serve any host
+		private volatile Set<String> hosts = Set.of("*");
+
+		Peer(TrackedRequester requester) {
+			this.requester = requester;
+		}
+
+		boolean declares(String host) {
+			final Set<String> hosts = this.hosts;
+			if (hosts.contains(host)) {
+				return true;
+			}
+			for (int dot = host.indexOf('.'); dot >= 0; dot = host.indexOf('.', dot + 1)) {
+				if (hosts.contains("*" + host.substring(dot))) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package am.ik.tsunagu;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.metadata.CompositeMetadata;
+import io.rsocket.metadata.CompositeMetadata.Entry;
+import io.rsocket.transport.netty.client.WebsocketClientTransport;
+import io.rsocket.util.ByteBufPayload;
+import org.reactivestreams.Publisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.util.retry.Retry;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.messaging.rsocket.RSocketRequester;
+
+/**
+ * Connection of this replica to a peer. It registers on the peer like a client does and serves the requests the peer
+ * forwards with the clients of this replica. Metadata on the link is always encoded with {@link BinaryMetadataCodec}.
+ */
+public class ClusterLink implements RSocket {
+	private final Logger log = LoggerFactory.getLogger(ClusterLink.class);
+
+	private final URI peer;
+
+	private final Cluster cluster;
+
+	private final RSocketRequester requester;
+
+	private final NettyDataBufferFactory dataBufferFactory = new NettyDataBufferFactory(ByteBufAllocator.DEFAULT);
+
+	private Disposable state;
+
+	public ClusterLink(URI peer, Cluster cluster, RSocketRequester.Builder requesterBuilder, HttpClient httpClient, String token) {
+		this.peer = peer;
+		this.cluster = cluster;
+		final Map<String, String> setupData = new HashMap<>();
+		setupData.put("token", token);
+		setupData.put("peer", cluster.getNodeId());
+		setupData.put("metadataMimeType", BinaryMetadataCodec.MIME_TYPE.toString());
+		setupData.put("inlineBody", "true");
+		this.requester = requesterBuilder
+				.setupData(setupData)
+				.rsocketConnector(rsocketConnector -> rsocketConnector
+						.reconnect(Retry.fixedDelay(Long.MAX_VALUE, Duration.ofSeconds(1))
+								.doBeforeRetry(s -> log.debug("Reconnecting to the peer {}. ({})", peer, s)))
+						.acceptor((setup, sendingSocket) -> Mono.just(ClusterLink.this)))
+				.transport(WebsocketClientTransport.create(httpClient, peer.getPath()));
+	}
+
+	/**
+	 * Reports the clients of this replica to the peer at the given interval, which also keeps the link connected.
+	 */
+	void start(Duration interval) {
+		this.state = Flux.interval(Duration.ZERO, interval)
+				.onBackpressureDrop()
+				.concatMap(__ -> this.requester
+						.route(Cluster.STATE_ROUTE)
+						.data(Map.of("node", this.cluster.getNodeId(), "clients", this.cluster.clients(), "hosts", this.cluster.hosts()))
+						.send()
+						.timeout(interval)
+						.onErrorResume(e -> {
+							log.debug("Failed to report the state to the peer {}. ({})", this.peer, e.getMessage());
+							return Mono.empty();
+						}))
+				.subscribe();
+	}
+
+	void close() {
+		if (this.state != null) {
+			this.state.dispose();
+		}
+		this.requester.dispose();
+	}
+
+	@Override
+	public Flux<Payload> requestStream(Payload payload) {
+		try {
+			final HttpRequestMetadata httpRequestMetadata = decodeRequest(payload);
+			final ByteBuf data = payload.data();
+			// small bodies are sent along with the metadata
+			final Flux<DataBuffer> body = data.isReadable() ? Flux.just(this.dataBufferFactory.wrap(data.retain())) : Flux.empty();
+			return this.respond(httpRequestMetadata, body);
+		}
+		catch (RuntimeException e) {
+			return Flux.error(e);
+		}
+		finally {
+			payload.release();
+		}
+	}
+
+	@Override
+	public Flux<Payload> requestChannel(Publisher<Payload> payloads) {
+		return Flux.from(payloads)
+				.switchOnFirst((signal, flux) -> {
+					if (signal.hasValue()) {
+						final HttpRequestMetadata httpRequestMetadata;
+						try {
+							httpRequestMetadata = decodeRequest(signal.get());
+						}
+						catch (RuntimeException e) {
+							return Flux.error(e);
+						}
+						return this.respond(httpRequestMetadata, flux.map(this::toData));
+					}
+					return flux.thenMany(Flux.empty());
+				});
+	}
+
+	// the response metadata of the client is translated into the codec of the link, the body is passed as it is
+	Flux<Payload> respond(HttpRequestMetadata httpRequestMetadata, Flux<DataBuffer> body) {
+		final RequestCoalescer.Upstream upstream = this.cluster.serve(httpRequestMetadata, body);
+		final MetadataCodec metadataCodec = upstream.getMetadataCodec();
+		return upstream.getResponseStream()
+				.switchOnFirst((signal, flux) -> {
+					if (signal.hasValue()) {
+						final DataBuffer httpResponseMetadataBuffer = signal.get();
+						final HttpResponseMetadata httpResponseMetadata;
+						try {
+							httpResponseMetadata = metadataCodec.decodeResponse(NettyDataBufferFactory.toByteBuf(httpResponseMetadataBuffer));
+						}
+						finally {
+							DataBufferUtils.release(httpResponseMetadataBuffer);
+						}
+						return Flux.concat(Mono.fromCallable(() -> ByteBufPayload.create(BinaryMetadataCodec.INSTANCE.encodeResponse(httpResponseMetadata, ByteBufAllocator.DEFAULT))),
+								flux.skip(1).map(buffer -> ByteBufPayload.create(NettyDataBufferFactory.toByteBuf(buffer))));
+					}
+					return flux.map(buffer -> ByteBufPayload.create(NettyDataBufferFactory.toByteBuf(buffer)));
+				});
+	}
+
+	// takes over the data of the payload and releases the rest, the metadata of the first payload in particular
+	DataBuffer toData(Payload payload) {
+		try {
+			return this.dataBufferFactory.wrap(payload.data().retain());
+		}
+		finally {
+			payload.release();
+		}
+	}
+
+	static HttpRequestMetadata decodeRequest(Payload payload) {
+		for (Entry entry : new CompositeMetadata(payload.metadata(), false)) {
+			if (BinaryMetadataCodec.MIME_TYPE.toString().equals(entry.getMimeType())) {
+				return BinaryMetadataCodec.INSTANCE.decodeRequest(entry.getContent());
+			}
+		}
+		throw new IllegalArgumentException("No supported metadata found.");
+	}
+}
@@ -0,0 +1,95 @@
+package am.ik.tsunagu;
+
+import java.util.List;
+import java.util.Map;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+import org.springframework.http.HttpHeaders;
+
+/**
+ * Binary codec with stateful header compression. An instance belongs to exactly one connection.
+ *
+ * <pre>
+ * headers = epoch(varint) count(varint) *field
+ * field   = varint(reference &lt;&lt; 1 | 1)                            ; name and value from the table
+ *         / varint(nameReference &lt;&lt; 1) [name(string)] value(string) ; literal name if nameReference is 0
+ * </pre>
+ */
+public class CompressingMetadataCodec extends BinaryMetadataCodec {
+	static final byte VERSION_2 = 2;
+
+	public static final String HEADER_TABLE_ROUTE = "header_table";
+
+	private final HeaderCompressor compressor;
+
+	private final HeaderDecompressor decompressor;
+
+	public CompressingMetadataCodec(HeaderCompressor compressor, HeaderDecompressor decompressor) {
+		this.compressor = compressor;
+		this.decompressor = decompressor;
+	}
+
+	public HeaderDecompressor getDecompressor() {
+		return decompressor;
+	}
+
+	@Override
+	byte version() {
+		return VERSION_2;
+	}
+
+	@Override
+	void writeHeaders(ByteBuf buf, HttpHeaders headers) {
+		final HeaderTable table = this.compressor.table();
+		writeVarInt(buf, table.getEpoch());
+		int count = 0;
+		for (List<String> values : headers.values()) {
+			count += values.size();
+		}
+		writeVarInt(buf, count);
+		for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+			final String name = header.getKey();
+			for (String value : header.getValue()) {
+				final int reference = table.lookup(name, value);
+				if (reference > 0) {
+					writeVarInt(buf, reference << 1 | 1);
+					continue;
+				}
+				this.compressor.miss(name, value);
+				final int nameReference = table.lookupName(name);
+				writeVarInt(buf, nameReference << 1);
+				if (nameReference == 0) {
+					writeString(buf, name);
+				}
+				writeString(buf, value);
+			}
+		}
+	}
+
+	@Override
+	HttpHeaders readHeaders(ByteBuf buf) {
+		final HeaderTable table = this.decompressor.table(readVarInt(buf));
+		final int count = readVarInt(buf);
+		final HttpHeaders headers = new HttpHeaders();
+		for (int i = 0; i < count; i++) {
+			final int code = readVarInt(buf);
+			final int reference = code >>> 1;
+			if ((code & 1) == 1) {
+				headers.add(table.name(reference), table.value(reference));
+			}
+			else {
+				final String name = reference == 0 ? readString(buf) : table.name(reference);
+				headers.add(name, readString(buf));
+			}
+		}
+		return headers;
+	}
+
+	public static ByteBuf encodeHeaderTable(HeaderTable table, ByteBufAllocator allocator) {
+		final ByteBuf buf = allocator.buffer();
+		table.write(buf);
+		return buf;
+	}
+}
@@ -0,0 +1,69 @@
+package am.ik.tsunagu;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limit of the requests in flight through a connection, adapted with AIMD. The limit grows by one per limit requests
+ * answered in time while they use at least half of it, and shrinks by the backoff ratio whenever a request fails or
+ * takes longer than the latency threshold to be answered.
+ */
+public class ConcurrencyLimit {
+	static final ConcurrencyLimit UNLIMITED = new ConcurrencyLimit(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE, 1);
+
+	private final int minLimit;
+
+	private final int maxLimit;
+
+	private final long latencyThresholdNanos;
+
+	private final double backoffRatio;
+
+	// stored as double bits
+	private final AtomicLong limitBits;
+
+	public ConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, long latencyThresholdNanos, double backoffRatio) {
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.latencyThresholdNanos = latencyThresholdNanos;
+		this.backoffRatio = backoffRatio;
+		this.limitBits = new AtomicLong(Double.doubleToRawLongBits(initialLimit));
+	}
+
+	static ConcurrencyLimit of(TsunaguProps.ConcurrencyLimit props) {
+		if (!props.isEnabled()) {
+			return UNLIMITED;
+		}
+		return new ConcurrencyLimit(props.getInitialLimit(), props.getMinLimit(), props.getMaxLimit(), props.getLatencyThreshold().toNanos(), props.getBackoffRatio());
+	}
+
+	public int getLimit() {
+		return (int) Double.longBitsToDouble(this.limitBits.get());
+	}
+
+	public boolean isExceeded(int inFlight) {
+		return this != UNLIMITED && inFlight >= this.getLimit();
+	}
+
+	void onSample(long latencyNanos, boolean failed, int inFlight) {
+		if (this == UNLIMITED) {
+			return;
+		}
+		final boolean dropped = failed || latencyNanos > this.latencyThresholdNanos;
+		long prev;
+		double next;
+		do {
+			prev = this.limitBits.get();
+			final double current = Double.longBitsToDouble(prev);
+			if (dropped) {
+				next = Math.max(this.minLimit, current * this.backoffRatio);
+			}
+			else if (inFlight * 2 >= current) {
+				next = Math.min(this.maxLimit, current + 1 / current);
+			}
+			else {
+				// the limit is not what holds the requests back
+				return;
+			}
+		} while (!this.limitBits.compareAndSet(prev, Double.doubleToRawLongBits(next)));
+	}
+}
@@ -0,0 +1,86 @@
+package am.ik.tsunagu;
+
+import java.net.URI;
+import java.time.Duration;
+
+import io.netty.channel.epoll.Epoll;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.LoopResources;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+/**
+ * Event loops of the server instead of the global ones of Reactor Netty. The public loops serve the HTTP port, where
+ * clients connect as well, and the TCP ports. The tunnel loops serve the links to cluster peers, so that forwarding
+ * between replicas does not queue behind end users.
+ */
+@Component
+public class EventLoops implements DisposableBean {
+	private final boolean preferNative;
+
+	private final LoopResources publicLoops;
+
+	private final LoopResources tunnelLoops;
+
+	private final Logger log = LoggerFactory.getLogger(EventLoops.class);
+
+	public EventLoops(TsunaguProps props) {
+		final TsunaguProps.EventLoop eventLoop = props.getEventLoop();
+		this.preferNative = eventLoop.isPreferNative();
+		final int publicThreads = eventLoop.getPublicThreads() > 0 ? eventLoop.getPublicThreads() : LoopResources.DEFAULT_IO_WORKER_COUNT;
+		final int tunnelThreads = eventLoop.getTunnelThreads() > 0 ? eventLoop.getTunnelThreads()
+				: Math.min(Math.max(props.getCluster().getPeers().size(), 1), LoopResources.DEFAULT_IO_WORKER_COUNT);
+		// threads start on first use
+		this.publicLoops = LoopResources.create("tsunagu-public", publicThreads, true);
+		this.tunnelLoops = LoopResources.create("tsunagu-tunnel", tunnelThreads, true);
+		if (this.preferNative && !LoopResources.hasNativeSupport()) {
+			log.info("Event loops: nio ({} public threads, {} tunnel threads), native transport is not available: {}", publicThreads, tunnelThreads,
+					String.valueOf(Epoll.unavailabilityCause()));
+		}
+		else {
+			log.info("Event loops: {} ({} public threads, {} tunnel threads)", transport(this.preferNative), publicThreads, tunnelThreads);
+		}
+	}
+
+	static String transport(boolean preferNative) {
+		if (!preferNative || !LoopResources.hasNativeSupport()) {
+			return "nio";
+		}
+		return Epoll.isAvailable() ? "epoll" : "kqueue";
+	}
+
+	public boolean isPreferNative() {
+		return preferNative;
+	}
+
+	public LoopResources getPublicLoops() {
+		return publicLoops;
+	}
+
+	public LoopResources getTunnelLoops() {
+		return tunnelLoops;
+	}
+
+	/**
+	 * @return client for the WebSocket of a link to the given peer
+	 */
+	public HttpClient tunnelClient(URI peer) {
+		final boolean isSecure = peer.getScheme().equals("wss") || peer.getScheme().equals("https");
+		final HttpClient client = HttpClient.create()
+				.runOn(this.tunnelLoops, this.preferNative)
+				.host(peer.getHost())
+				.port(peer.getPort() == -1 ? (isSecure ? 443 : 80) : peer.getPort());
+		return isSecure ? client.secure() : client;
+	}
+
+	@Override
+	public void destroy() {
+		// connections are closed by now, so there is nothing to wait for
+		Mono.when(this.publicLoops.disposeLater(Duration.ZERO, Duration.ofSeconds(5)), this.tunnelLoops.disposeLater(Duration.ZERO, Duration.ofSeconds(5)))
+				.block();
+	}
+}
@@ -0,0 +1,69 @@
+package am.ik.tsunagu;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+import org.springframework.util.MimeType;
+
+/**
+ * Codec of a request which may be sent through several connections one after another. Each connection negotiated its
+ * own codec, the response metadata is decoded with the codec of the connection of the latest attempt, which is the one
+ * that answered. The response is also written against the window of that connection.
+ */
+class FailoverMetadataCodec implements MetadataCodec {
+	private volatile MetadataCodec delegate;
+
+	private volatile FlowControl.Window window;
+
+	private volatile boolean answered;
+
+	void attempt(MetadataCodec metadataCodec, FlowControl.Window window) {
+		this.delegate = metadataCodec;
+		this.window = window;
+	}
+
+	/**
+	 * @return window of the connection of the latest attempt
+	 */
+	FlowControl.Window getWindow() {
+		return this.window;
+	}
+
+	void answered() {
+		if (!this.answered) {
+			this.answered = true;
+		}
+	}
+
+	/**
+	 * @return whether a part of the response arrived, the request must not be sent again then
+	 */
+	boolean isAnswered() {
+		return this.answered;
+	}
+
+	@Override
+	public MimeType getMimeType() {
+		return this.delegate.getMimeType();
+	}
+
+	@Override
+	public ByteBuf encodeRequest(HttpRequestMetadata metadata, ByteBufAllocator allocator) {
+		return this.delegate.encodeRequest(metadata, allocator);
+	}
+
+	@Override
+	public HttpRequestMetadata decodeRequest(ByteBuf buf) {
+		return this.delegate.decodeRequest(buf);
+	}
+
+	@Override
+	public ByteBuf encodeResponse(HttpResponseMetadata metadata, ByteBufAllocator allocator) {
+		return this.delegate.encodeResponse(metadata, allocator);
+	}
+
+	@Override
+	public HttpResponseMetadata decodeResponse(ByteBuf buf) {
+		return this.delegate.decodeResponse(buf);
+	}
+}
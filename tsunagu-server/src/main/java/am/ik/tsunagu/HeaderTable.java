@@ -0,0 +1,179 @@
+package am.ik.tsunagu;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import io.netty.buffer.ByteBuf;
+
+import static am.ik.tsunagu.BinaryMetadataCodec.readString;
+import static am.ik.tsunagu.BinaryMetadataCodec.readVarInt;
+import static am.ik.tsunagu.BinaryMetadataCodec.writeString;
+import static am.ik.tsunagu.BinaryMetadataCodec.writeVarInt;
+
+/**
+ * Header table shared by both ends of a connection. Index {@code 1..STATIC_SIZE} refers to the HPACK static table
+ * (RFC 7541 Appendix A) and the following indexes refer to the dynamic entries of this epoch. Tables are immutable;
+ * a new epoch replaces the whole dynamic part.
+ * <p>
+ * Lookups return a reference, the index shifted left by one with the lowest bit telling whether the name has to be
+ * lower-cased, so that the case of header names survives the round trip. {@code 0} means "not found".
+ */
+public final class HeaderTable {
+	// names are in their canonical HTTP/1.1 form, the lower-case form used by HTTP/2 is matched as well
+	private static final String[][] STATIC_ENTRIES = {
+			{ ":authority", "" }, { ":method", "GET" }, { ":method", "POST" }, { ":path", "/" },
+			{ ":path", "/index.html" }, { ":scheme", "http" }, { ":scheme", "https" }, { ":status", "200" },
+			{ ":status", "204" }, { ":status", "206" }, { ":status", "304" }, { ":status", "400" },
+			{ ":status", "404" }, { ":status", "500" }, { "Accept-Charset", "" }, { "Accept-Encoding", "gzip, deflate" },
+			{ "Accept-Language", "" }, { "Accept-Ranges", "" }, { "Accept", "" }, { "Access-Control-Allow-Origin", "" },
+			{ "Age", "" }, { "Allow", "" }, { "Authorization", "" }, { "Cache-Control", "" },
+			{ "Content-Disposition", "" }, { "Content-Encoding", "" }, { "Content-Language", "" },
+			{ "Content-Length", "" }, { "Content-Location", "" }, { "Content-Range", "" }, { "Content-Type", "" },
+			{ "Cookie", "" }, { "Date", "" }, { "ETag", "" }, { "Expect", "" }, { "Expires", "" }, { "From", "" },
+			{ "Host", "" }, { "If-Match", "" }, { "If-Modified-Since", "" }, { "If-None-Match", "" },
+			{ "If-Range", "" }, { "If-Unmodified-Since", "" }, { "Last-Modified", "" }, { "Link", "" },
+			{ "Location", "" }, { "Max-Forwards", "" }, { "Proxy-Authenticate", "" }, { "Proxy-Authorization", "" },
+			{ "Range", "" }, { "Referer", "" }, { "Refresh", "" }, { "Retry-After", "" }, { "Server", "" },
+			{ "Set-Cookie", "" }, { "Strict-Transport-Security", "" }, { "Transfer-Encoding", "" },
+			{ "User-Agent", "" }, { "Vary", "" }, { "Via", "" }, { "WWW-Authenticate", "" } };
+
+	static final int STATIC_SIZE = STATIC_ENTRIES.length;
+
+	// name -> value -> reference, see #reference(int, boolean)
+	private static final Map<String, Map<String, Integer>> STATIC_FIELDS = new HashMap<>();
+
+	private static final Map<String, Integer> STATIC_NAMES = new HashMap<>();
+
+	static {
+		for (int i = 0; i < STATIC_SIZE; i++) {
+			final String name = STATIC_ENTRIES[i][0];
+			final String lowerName = name.toLowerCase(Locale.ROOT);
+			final String value = STATIC_ENTRIES[i][1];
+			STATIC_NAMES.putIfAbsent(name, reference(i + 1, false));
+			STATIC_NAMES.putIfAbsent(lowerName, reference(i + 1, true));
+			if (!value.isEmpty()) {
+				STATIC_FIELDS.computeIfAbsent(name, __ -> new HashMap<>()).put(value, reference(i + 1, false));
+				STATIC_FIELDS.computeIfAbsent(lowerName, __ -> new HashMap<>()).put(value, reference(i + 1, true));
+			}
+		}
+	}
+
+	public static final HeaderTable EMPTY = new HeaderTable(0, List.of());
+
+	private final int epoch;
+
+	private final List<Map.Entry<String, String>> entries;
+
+	private final Map<String, Map<String, Integer>> fields = new HashMap<>();
+
+	private final Map<String, Integer> names = new HashMap<>();
+
+	// how often each dynamic entry was referenced, used to decide which entries survive the next epoch
+	private final AtomicIntegerArray hits;
+
+	public HeaderTable(int epoch, List<Map.Entry<String, String>> entries) {
+		this.epoch = epoch;
+		this.entries = Collections.unmodifiableList(entries);
+		this.hits = new AtomicIntegerArray(entries.size());
+		for (int i = 0; i < entries.size(); i++) {
+			final Map.Entry<String, String> entry = entries.get(i);
+			final int reference = reference(STATIC_SIZE + i + 1, false);
+			this.fields.computeIfAbsent(entry.getKey(), __ -> new HashMap<>()).putIfAbsent(entry.getValue(), reference);
+			this.names.putIfAbsent(entry.getKey(), reference);
+		}
+	}
+
+	public int getEpoch() {
+		return epoch;
+	}
+
+	public List<Map.Entry<String, String>> getEntries() {
+		return entries;
+	}
+
+	static int reference(int index, boolean lowerCase) {
+		return index << 1 | (lowerCase ? 1 : 0);
+	}
+
+	int lookup(String name, String value) {
+		Map<String, Integer> values = STATIC_FIELDS.get(name);
+		Integer reference = values == null ? null : values.get(value);
+		if (reference == null) {
+			values = this.fields.get(name);
+			reference = values == null ? null : values.get(value);
+			if (reference != null) {
+				this.hits.incrementAndGet((reference >>> 1) - STATIC_SIZE - 1);
+			}
+		}
+		return reference == null ? 0 : reference;
+	}
+
+	int lookupName(String name) {
+		Integer reference = STATIC_NAMES.get(name);
+		if (reference == null) {
+			reference = this.names.get(name);
+		}
+		return reference == null ? 0 : reference;
+	}
+
+	String name(int reference) {
+		final int index = reference >>> 1;
+		final String name = index <= STATIC_SIZE ? checkStatic(index)[0] : this.entry(index).getKey();
+		return (reference & 1) == 1 ? name.toLowerCase(Locale.ROOT) : name;
+	}
+
+	String value(int reference) {
+		final int index = reference >>> 1;
+		return index <= STATIC_SIZE ? checkStatic(index)[1] : this.entry(index).getValue();
+	}
+
+	private static String[] checkStatic(int index) {
+		if (index < 1) {
+			throw new IllegalArgumentException("Unknown header index: " + index);
+		}
+		return STATIC_ENTRIES[index - 1];
+	}
+
+	int hits(int dynamicIndex) {
+		return this.hits.get(dynamicIndex);
+	}
+
+	private Map.Entry<String, String> entry(int index) {
+		final int i = index - STATIC_SIZE - 1;
+		if (i < 0 || i >= this.entries.size()) {
+			throw new IllegalArgumentException("Unknown header index: " + index + " (epoch=" + this.epoch + ")");
+		}
+		return this.entries.get(i);
+	}
+
+	public void write(ByteBuf buf) {
+		writeVarInt(buf, this.epoch);
+		writeVarInt(buf, this.entries.size());
+		for (Map.Entry<String, String> entry : this.entries) {
+			writeString(buf, entry.getKey());
+			writeString(buf, entry.getValue());
+		}
+	}
+
+	public static HeaderTable read(ByteBuf buf) {
+		final int epoch = readVarInt(buf);
+		final int size = readVarInt(buf);
+		final List<Map.Entry<String, String>> entries = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			entries.add(Map.entry(readString(buf), readString(buf)));
+		}
+		return new HeaderTable(epoch, entries);
+	}
+
+	@Override
+	public String toString() {
+		return "{epoch=" + epoch +
+				", size=" + entries.size() +
+				'}';
+	}
+}
@@ -35,8 +35,22 @@ public class HttpRequestMetadata {
 		return headers;
 	}
 
+	// a request has a body if and only if it has Content-Length or Transfer-Encoding (RFC 7230, section 3.3.3). The
+	// controller sets Transfer-Encoding of HTTP/2 requests by whether their stream carries a body.
 	public boolean hasBody() {
-		return this.method == HttpMethod.POST || this.method == HttpMethod.PUT || this.method == HttpMethod.PATCH;
+		return this.headers.getContentLength() > 0 || this.headers.containsKey(HttpHeaders.TRANSFER_ENCODING);
+	}
+
+	// Transfer-Encoding overrides Content-Length, so only a body without it is known to be at most that long
+	public boolean hasBodyOfAtMost(long maxSize) {
+		final long contentLength = this.headers.getContentLength();
+		return contentLength > 0 && contentLength <= maxSize && !this.headers.containsKey(HttpHeaders.TRANSFER_ENCODING);
+	}
+
+	// RFC 7231, section 4.2.2
+	public boolean hasIdempotentMethod() {
+		return this.method == HttpMethod.GET || this.method == HttpMethod.HEAD || this.method == HttpMethod.OPTIONS || this.method == HttpMethod.TRACE
+				|| this.method == HttpMethod.PUT || this.method == HttpMethod.DELETE;
 	}
 
 	@Override
@@ -0,0 +1,170 @@
+package am.ik.tsunagu;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import reactor.core.publisher.Flux;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+
+/**
+ * Compression of response bodies between the client and the server. Bodies are compressed with raw deflate and a
+ * preset dictionary of tokens which are common in HTML, CSS, JavaScript and JSON, so that small bodies compress
+ * well too. Every input chunk is sync flushed so that the server can forward it without waiting for more data.
+ * <p>
+ * A compressed body is marked with {@link #LINK_ENCODING_HEADER} in the response metadata. The header never reaches
+ * the end user, the original {@code Content-Encoding} and {@code Content-Length} are kept as they are.
+ */
+public final class LinkCompression {
+	public static final String LINK_ENCODING_HEADER = "X-Tsunagu-Link-Encoding";
+
+	public static final String DEFLATE = "deflate";
+
+	private static final int MIN_OUTPUT_CAPACITY = 256;
+
+	// the most common strings have to be at the end
+	static final byte[] DICTIONARY = ("application/x-www-form-urlencodedmultipart/form-datatext/plainimage/svg+xml"
+			+ "<!DOCTYPE html><html lang=\"en\"><head><meta charset=\"utf-8\"><meta name=\"viewport\" content=\"width=device-width, initial-scale=1\">"
+			+ "<meta name=\"description\" content=\"<meta property=\"og:<link rel=\"stylesheet\" href=\"<link rel=\"icon\" "
+			+ "<script type=\"text/javascript\" src=\"<script src=\"</script><style></style><title></title></head><body>"
+			+ "<header></header><nav></nav><main></main><footer></footer><section></section><article></article>"
+			+ "<form action=\"\" method=\"post\"><input type=\"hidden\" name=\"value=\"<button type=\"submit\"></button>"
+			+ "<label for=\"</label><select><option></option></select><textarea></textarea><table><thead><tbody><tr><th></th><td></td></tr></tbody></table>"
+			+ "<ul><li></li></ul><ol></ol><p></p><h1></h1><h2></h2><h3></h3><br><hr><img src=\"\" alt=\"\" width=\"height=\"<span></span>"
+			+ "<a href=\"https://</a><div class=\"</div><div id=\"\"></div></body></html>"
+			+ "@media screen and (max-width:px){display:none;display:block;display:flex;position:absolute;position:relative;"
+			+ "margin:0;padding:0;border:0;font-family:font-size:font-weight:bold;color:#fff;background-color:#000;"
+			+ "text-align:center;width:100%;height:100%;}!important;"
+			+ "function(){return this.prototype.length;document.getElementById(window.addEventListener(\"click\","
+			+ "const let var undefined null true false typeof === !== => async await Promise.resolve(.then(.catch(console.log(JSON.parse(JSON.stringify("
+			+ "\"createdAt\":\"updatedAt\":\"description\":\"message\":\"status\":\"error\":\"items\":[\"total\":\"count\":\"value\":\"title\":\"url\":\"https://"
+			+ "\"name\":\"type\":\"data\":{\"id\":\"true,\"false,\"null,\":0,\":\"\",\"").getBytes(StandardCharsets.UTF_8);
+
+	private LinkCompression() {
+	}
+
+	/**
+	 * @return whether the body is worth compressing, {@code minSize} only applies if the content length is known
+	 */
+	public static boolean isCompressible(HttpHeaders headers, long minSize, List<MediaType> mediaTypes) {
+		final String contentEncoding = headers.getFirst(HttpHeaders.CONTENT_ENCODING);
+		if (contentEncoding != null && !"identity".equalsIgnoreCase(contentEncoding)) {
+			return false;
+		}
+		final long contentLength = headers.getContentLength();
+		if (contentLength >= 0 && contentLength < minSize) {
+			return false;
+		}
+		final MediaType contentType;
+		try {
+			contentType = headers.getContentType();
+		}
+		catch (RuntimeException e) {
+			return false;
+		}
+		if (contentType == null) {
+			return false;
+		}
+		for (MediaType mediaType : mediaTypes) {
+			if (mediaType.includes(contentType)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Compresses the given body. Input buffers are released.
+	 */
+	public static Flux<ByteBuf> compress(Flux<ByteBuf> body, ByteBufAllocator allocator, int level) {
+		return Flux.using(() -> {
+					final Deflater deflater = new Deflater(level, true);
+					deflater.setDictionary(DICTIONARY);
+					return deflater;
+				},
+				// handle passes the demand on as it is, where concatMap would prefetch buffers past flow control
+				deflater -> body.handle((input, sink) -> {
+					try {
+						deflater.setInput(input.nioBuffer());
+						final ByteBuf out = drain(allocator, input.readableBytes(), buffer -> deflater.deflate(buffer, Deflater.SYNC_FLUSH));
+						if (out != null) {
+							sink.next(out);
+						}
+					}
+					finally {
+						input.release();
+					}
+				}),
+				Deflater::end);
+	}
+
+	/**
+	 * Decompresses the given body. Input buffers are released.
+	 */
+	public static Flux<ByteBuf> decompress(Flux<ByteBuf> body, ByteBufAllocator allocator) {
+		return Flux.using(() -> {
+					// raw deflate has no dictionary id, so the inflater never asks for it
+					final Inflater inflater = new Inflater(true);
+					inflater.setDictionary(DICTIONARY);
+					return inflater;
+				},
+				inflater -> body.handle((input, sink) -> {
+					try {
+						inflater.setInput(input.nioBuffer());
+						final ByteBuf out = drain(allocator, input.readableBytes() * 4, buffer -> {
+							try {
+								return inflater.inflate(buffer);
+							}
+							catch (DataFormatException e) {
+								throw new IllegalStateException("Invalid compressed body.", e);
+							}
+						});
+						if (out != null) {
+							sink.next(out);
+						}
+					}
+					finally {
+						input.release();
+					}
+				}),
+				Inflater::end);
+	}
+
+	interface Operation {
+		int apply(ByteBuffer out);
+	}
+
+	// runs the operation until it leaves space in the output, which means that the input is consumed
+	static ByteBuf drain(ByteBufAllocator allocator, int initialCapacity, Operation operation) {
+		ByteBuf out = allocator.buffer(Math.max(initialCapacity, MIN_OUTPUT_CAPACITY));
+		try {
+			while (true) {
+				final int written = operation.apply(out.nioBuffer(out.writerIndex(), out.writableBytes()));
+				out.writerIndex(out.writerIndex() + written);
+				if (out.isWritable()) {
+					break;
+				}
+				out.ensureWritable(out.capacity());
+			}
+			if (!out.isReadable()) {
+				out.release();
+				return null;
+			}
+			final ByteBuf result = out;
+			out = null;
+			return result;
+		}
+		finally {
+			if (out != null) {
+				out.release();
+			}
+		}
+	}
+}
@@ -0,0 +1,22 @@
+package am.ik.tsunagu;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+import org.springframework.util.MimeType;
+
+/**
+ * Encodes and decodes the metadata exchanged through the tunnel. The codec in use for a connection is negotiated via
+ * the setup data so that clients and servers which only know CBOR keep working.
+ */
+public interface MetadataCodec {
+	MimeType getMimeType();
+
+	ByteBuf encodeRequest(HttpRequestMetadata metadata, ByteBufAllocator allocator);
+
+	HttpRequestMetadata decodeRequest(ByteBuf buf);
+
+	ByteBuf encodeResponse(HttpResponseMetadata metadata, ByteBufAllocator allocator);
+
+	HttpResponseMetadata decodeResponse(ByteBuf buf);
+}
@@ -0,0 +1,29 @@
+package am.ik.tsunagu;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Picks two requesters at random and sends the request to the one with the lower load. The load is either the number
+ * of in-flight streams or the latency EWMA weighted by them (a.k.a. peak EWMA).
+ */
+public class PowerOfTwoChoicesRequesterSelector implements RequesterSelector {
+	private final ToDoubleFunction<TrackedRequester> load;
+
+	public PowerOfTwoChoicesRequesterSelector(ToDoubleFunction<TrackedRequester> load) {
+		this.load = load;
+	}
+
+	@Override
+	public TrackedRequester select(TrackedRequester[] candidates) {
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		final int i = random.nextInt(candidates.length);
+		int j = random.nextInt(candidates.length - 1);
+		if (j >= i) {
+			j++;
+		}
+		final TrackedRequester a = candidates[i];
+		final TrackedRequester b = candidates[j];
+		return this.load.applyAsDouble(a) <= this.load.applyAsDouble(b) ? a : b;
+	}
+}
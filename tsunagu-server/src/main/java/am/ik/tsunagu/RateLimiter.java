@@ -0,0 +1,132 @@
+package am.ik.tsunagu;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+
+/**
+ * Token buckets per key of a request. The key consists of the configured parts, the address of the end user and its
+ * Authorization header, and the longest matching path prefix with a rate of its own. Buckets follow GCRA so that the
+ * state of a bucket is a single timestamp which is updated without locks.
+ */
+@Component
+public class RateLimiter {
+	private final TsunaguProps.RateLimit rateLimit;
+
+	private final Limit defaultLimit;
+
+	// longest prefix first
+	private final List<Limit> routes = new ArrayList<>();
+
+	private final Cache<String, Bucket> buckets;
+
+	public RateLimiter(TsunaguProps props) {
+		this.rateLimit = props.getRateLimit();
+		this.defaultLimit = new Limit("", this.rateLimit.getRate(), this.rateLimit.getBurst());
+		for (Map.Entry<String, Double> route : this.rateLimit.getRoutes().entrySet()) {
+			this.routes.add(new Limit(route.getKey(), route.getValue(), this.rateLimit.getBurst()));
+		}
+		this.routes.sort(Comparator.comparingInt((Limit limit) -> limit.prefix.length()).reversed());
+		long idle = this.defaultLimit.tolerance;
+		for (Limit route : this.routes) {
+			idle = Math.max(idle, route.tolerance);
+		}
+		// a bucket which was not used for as long as its tolerance is full again and can be forgotten
+		this.buckets = Caffeine.newBuilder()
+				.maximumSize(this.rateLimit.getMaximumKeys())
+				.expireAfterAccess(Duration.ofNanos(idle).plusSeconds(1))
+				.build();
+	}
+
+	public boolean isEnabled() {
+		return this.rateLimit.isEnabled();
+	}
+
+	/**
+	 * @return nanoseconds until the request would be allowed, {@code 0} if it is allowed now
+	 */
+	public long acquire(HttpRequestMetadata httpRequestMetadata) {
+		if (!this.isEnabled()) {
+			return 0;
+		}
+		final Limit limit = this.limit(httpRequestMetadata.getUri().getRawPath());
+		final String key = this.key(httpRequestMetadata.getHeaders(), limit);
+		return this.buckets.get(key, __ -> new Bucket()).acquire(System.nanoTime(), limit.interval, limit.tolerance);
+	}
+
+	Limit limit(String path) {
+		if (path != null) {
+			for (Limit route : this.routes) {
+				if (Authorizer.matches(route.prefix, path)) {
+					return route;
+				}
+			}
+		}
+		return this.defaultLimit;
+	}
+
+	String key(HttpHeaders headers, Limit limit) {
+		final StringBuilder key = new StringBuilder(limit.prefix);
+		for (TsunaguProps.RateLimit.Key part : this.rateLimit.getKeyBy()) {
+			key.append('\n');
+			switch (part) {
+				case IP:
+					key.append(headers.getFirst("X-Real-IP"));
+					break;
+				case TOKEN:
+					key.append(headers.getFirst(HttpHeaders.AUTHORIZATION));
+					break;
+			}
+		}
+		return key.toString();
+	}
+
+	static long retryAfterSeconds(long waitNanos) {
+		return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+	}
+
+	static final class Limit {
+		final String prefix;
+
+		// nanoseconds between two requests at the rate
+		final long interval;
+
+		// how far ahead of the rate a key may be, which allows bursts
+		final long tolerance;
+
+		Limit(String prefix, double rate, int burst) {
+			this.prefix = prefix;
+			this.interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+			this.tolerance = this.interval * Math.max(burst - 1, 0);
+		}
+	}
+
+	static final class Bucket {
+		// theoretical arrival time of the next request
+		private final AtomicLong tat = new AtomicLong(Long.MIN_VALUE);
+
+		long acquire(long now, long interval, long tolerance) {
+			for (;;) {
+				final long current = this.tat.get();
+				final long base = Math.max(current, now);
+				final long wait = base - now - tolerance;
+				if (wait > 0) {
+					return wait;
+				}
+				if (this.tat.compareAndSet(current, base + interval)) {
+					return 0;
+				}
+			}
+		}
+	}
+}
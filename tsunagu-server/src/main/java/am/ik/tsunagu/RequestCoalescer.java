@@ -0,0 +1,355 @@
+package am.ik.tsunagu;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+import org.reactivestreams.Subscription;
+import reactor.core.Exceptions;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+
+/**
+ * Single-flight for identical {@code GET} and {@code HEAD} requests. Requests which arrive while the response of an
+ * identical request has not started yet are attached to its stream instead of opening a new one. Every member gets its
+ * own retained slice of each buffer. The upstream is asked for the next buffer as soon as a member can take it, a member
+ * which falls behind by more than the stream window is cut off with an error rather than holding back the others.
+ */
+@Component
+public class RequestCoalescer {
+	private final boolean enabled;
+
+	private final List<String> keyHeaders;
+
+	// bytes a member may fall behind the fastest one
+	private final long maxQueuedBytes;
+
+	private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<>();
+
+	public RequestCoalescer(TsunaguProps props) {
+		final TsunaguProps.Coalescing coalescing = props.getCoalescing();
+		this.enabled = coalescing.isEnabled();
+		this.keyHeaders = coalescing.getKeyHeaders();
+		this.maxQueuedBytes = props.getFlowControl().getStreamWindow().toBytes();
+	}
+
+	public Upstream coalesce(HttpRequestMetadata request, Supplier<Upstream> upstream) {
+		final HttpMethod method = request.getMethod();
+		if (!this.enabled || (method != HttpMethod.GET && method != HttpMethod.HEAD)) {
+			return upstream.get();
+		}
+		final String key = this.key(request);
+		while (true) {
+			Flight flight = this.flights.get(key);
+			if (flight == null) {
+				// created outside of the map so that no lock is held while the request is set up, the upstream of a flight
+				// which loses the race is never subscribed
+				final Flight created = new Flight(key, upstream.get());
+				flight = this.flights.putIfAbsent(key, created);
+				if (flight == null) {
+					flight = created;
+				}
+			}
+			final Upstream joined = flight.join();
+			if (joined != null) {
+				return joined;
+			}
+			// the response has already started, a new flight is needed
+			this.flights.remove(key, flight);
+		}
+	}
+
+	int inFlight() {
+		return this.flights.size();
+	}
+
+	String key(HttpRequestMetadata request) {
+		final StringBuilder key = new StringBuilder()
+				.append(request.getMethod())
+				.append(' ')
+				.append(request.getUri());
+		final HttpHeaders headers = request.getHeaders();
+		for (String name : this.keyHeaders) {
+			final List<String> values = headers.get(name);
+			if (values != null) {
+				key.append('\n').append(name).append(':').append(values);
+			}
+		}
+		return key.toString();
+	}
+
+	public static class Upstream {
+		private final MetadataCodec metadataCodec;
+
+		private final Flux<DataBuffer> responseStream;
+
+		private final Supplier<FlowControl.Window> window;
+
+		public Upstream(MetadataCodec metadataCodec, Flux<DataBuffer> responseStream, FlowControl.Window window) {
+			this(metadataCodec, responseStream, () -> window);
+		}
+
+		/**
+		 * @param window resolved once the response arrives, the connection may not be known before
+		 */
+		public Upstream(MetadataCodec metadataCodec, Flux<DataBuffer> responseStream, Supplier<FlowControl.Window> window) {
+			this.metadataCodec = metadataCodec;
+			this.responseStream = responseStream;
+			this.window = window;
+		}
+
+		public MetadataCodec getMetadataCodec() {
+			return metadataCodec;
+		}
+
+		public Flux<DataBuffer> getResponseStream() {
+			return responseStream;
+		}
+
+		/**
+		 * Window of the connection the response comes through
+		 */
+		public FlowControl.Window getWindow() {
+			return this.window.get();
+		}
+	}
+
+	static class Member {
+		FluxSink<DataBuffer> sink;
+
+		// slices the member has not taken yet, all of them until it subscribes
+		final Queue<DataBuffer> queue = new ArrayDeque<>();
+
+		long queuedBytes;
+
+		boolean cancelled;
+
+		boolean done;
+	}
+
+	class Flight extends BaseSubscriber<DataBuffer> {
+		private final String key;
+
+		private final Upstream upstream;
+
+		private final List<Member> members = new ArrayList<>();
+
+		private boolean started;
+
+		private boolean subscribed;
+
+		private boolean awaiting;
+
+		// a synchronous upstream must not emit the next buffer before this one reached every member
+		private boolean delivering;
+
+		private boolean terminated;
+
+		private Throwable error;
+
+		Flight(String key, Upstream upstream) {
+			this.key = key;
+			this.upstream = upstream;
+		}
+
+		synchronized Upstream join() {
+			if (this.started) {
+				return null;
+			}
+			final Member member = new Member();
+			this.members.add(member);
+			final Flux<DataBuffer> responseStream = Flux.<DataBuffer>create(sink -> this.attach(member, sink))
+					.doOnDiscard(DataBuffer.class, DataBufferUtils::release);
+			return new Upstream(this.upstream.getMetadataCodec(), responseStream, this.upstream::getWindow);
+		}
+
+		void attach(Member member, FluxSink<DataBuffer> sink) {
+			final boolean subscribe;
+			synchronized (this) {
+				if (member.cancelled) {
+					// cut off before it subscribed
+					sink.error(tooSlow());
+					return;
+				}
+				member.sink = sink;
+				subscribe = !this.subscribed;
+				this.subscribed = true;
+			}
+			sink.onRequest(__ -> this.drain());
+			sink.onCancel(() -> this.leave(member));
+			if (subscribe) {
+				this.upstream.getResponseStream().subscribe(this);
+			}
+			else {
+				this.drain();
+			}
+		}
+
+		// the fastest member decides the pace, the others are cut off when they fall behind by more than the stream window
+		void drain() {
+			synchronized (this) {
+				boolean wanted = false;
+				for (int i = 0; i < this.members.size(); i++) {
+					final Member member = this.members.get(i);
+					this.deliver(member);
+					if (!member.cancelled && member.sink != null && member.queue.isEmpty() && member.sink.requestedFromDownstream() > 0) {
+						wanted = true;
+					}
+				}
+				// onRequest of the first member fires before the upstream subscription is established
+				if (!wanted || this.awaiting || this.delivering || this.terminated || this.upstream() == null) {
+					return;
+				}
+				this.awaiting = true;
+			}
+			this.request(1);
+		}
+
+		// with the lock held
+		void deliver(Member member) {
+			if (member.cancelled || member.sink == null) {
+				return;
+			}
+			while (!member.cancelled && member.sink.requestedFromDownstream() > 0) {
+				final DataBuffer buffer = member.queue.poll();
+				if (buffer == null) {
+					break;
+				}
+				member.queuedBytes -= buffer.readableByteCount();
+				member.sink.next(buffer);
+			}
+			if (this.terminated && !member.cancelled && !member.done && member.queue.isEmpty()) {
+				member.done = true;
+				this.terminate(member.sink);
+			}
+		}
+
+		void leave(Member member) {
+			final boolean cancel;
+			synchronized (this) {
+				this.remove(member);
+				cancel = this.isAbandoned();
+			}
+			if (cancel) {
+				this.cancel();
+			}
+			else {
+				this.drain();
+			}
+		}
+
+		// with the lock held
+		void remove(Member member) {
+			member.cancelled = true;
+			for (DataBuffer buffer = member.queue.poll(); buffer != null; buffer = member.queue.poll()) {
+				DataBufferUtils.release(buffer);
+			}
+			member.queuedBytes = 0;
+		}
+
+		// with the lock held
+		boolean isAbandoned() {
+			if (this.members.stream().allMatch(m -> m.cancelled)) {
+				this.started = true;
+				flights.remove(this.key, this);
+				return true;
+			}
+			return false;
+		}
+
+		@Override
+		protected void hookOnSubscribe(Subscription subscription) {
+			this.drain();
+		}
+
+		@Override
+		protected void hookOnNext(DataBuffer buffer) {
+			boolean cancel = false;
+			try {
+				synchronized (this) {
+					this.awaiting = false;
+					this.delivering = true;
+					if (!this.started) {
+						this.started = true;
+						flights.remove(this.key, this);
+					}
+					boolean cut = false;
+					for (int i = 0; i < this.members.size(); i++) {
+						final Member member = this.members.get(i);
+						if (member.cancelled) {
+							continue;
+						}
+						final DataBuffer slice = buffer.retainedSlice(buffer.readPosition(), buffer.readableByteCount());
+						member.queue.add(slice);
+						member.queuedBytes += slice.readableByteCount();
+						this.deliver(member);
+						if (member.queuedBytes > maxQueuedBytes) {
+							// a member which stopped reading must not stall the others
+							this.remove(member);
+							if (member.sink != null) {
+								member.sink.error(tooSlow());
+							}
+							cut = true;
+						}
+					}
+					this.delivering = false;
+					cancel = cut && this.isAbandoned();
+				}
+			}
+			finally {
+				DataBufferUtils.release(buffer);
+			}
+			if (cancel) {
+				this.cancel();
+			}
+			else {
+				this.drain();
+			}
+		}
+
+		@Override
+		protected void hookOnComplete() {
+			this.finish(null);
+		}
+
+		@Override
+		protected void hookOnError(Throwable throwable) {
+			this.finish(throwable);
+		}
+
+		synchronized void finish(Throwable throwable) {
+			this.started = true;
+			this.terminated = true;
+			this.error = throwable;
+			flights.remove(this.key, this);
+			// members get what is queued for them before the end of the stream
+			for (int i = 0; i < this.members.size(); i++) {
+				this.deliver(this.members.get(i));
+			}
+		}
+
+		void terminate(FluxSink<DataBuffer> sink) {
+			if (this.error == null) {
+				sink.complete();
+			}
+			else {
+				sink.error(this.error);
+			}
+		}
+	}
+
+	static Throwable tooSlow() {
+		return Exceptions.failWithOverflow("The response was not read fast enough to keep up with the coalesced requests");
+	}
+}
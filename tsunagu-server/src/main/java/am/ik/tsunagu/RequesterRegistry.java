@@ -0,0 +1,170 @@
+package am.ik.tsunagu;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.stereotype.Component;
+
+@Component
+public class RequesterRegistry {
+	private final ConcurrentMap<UUID, TrackedRequester> requesters = new ConcurrentHashMap<>();
+
+	// copy-on-write snapshots so that selecting a requester does not allocate
+	private volatile TrackedRequester[] snapshot = new TrackedRequester[0];
+
+	// requesters which are not draining
+	private volatile TrackedRequester[] candidates = new TrackedRequester[0];
+
+	// candidates by the hosts and paths they serve
+	private volatile RoutingIndex routing = RoutingIndex.EMPTY;
+
+	// candidates by the TCP targets they forward
+	private volatile Map<String, TrackedRequester[]> tcpTargets = Map.of();
+
+	private final RequesterSelector selector;
+
+	private final Duration decayTime;
+
+	private final TunnelMetrics metrics;
+
+	private final long connectionWindow;
+
+	private final TsunaguProps.ConcurrencyLimit concurrencyLimit;
+
+	public RequesterRegistry(TsunaguProps props, TunnelMetrics metrics) {
+		final TsunaguProps.LoadBalancer loadBalancer = props.getLoadBalancer();
+		this.selector = RequesterSelector.of(loadBalancer.getStrategy());
+		this.decayTime = loadBalancer.getDecayTime();
+		this.metrics = metrics;
+		this.connectionWindow = props.getFlowControl().getConnectionWindow().toBytes();
+		this.concurrencyLimit = props.getConcurrencyLimit();
+	}
+
+	public TrackedRequester register(UUID id, String clientId, RSocketRequester requester, MetadataCodec metadataCodec, boolean inlineBody, RequesterRoutes routes) {
+		final TrackedRequester trackedRequester = new TrackedRequester(id, clientId, requester, metadataCodec, inlineBody, this.decayTime, new FlowControl.Window(this.connectionWindow), ConcurrencyLimit.of(this.concurrencyLimit), routes);
+		this.requesters.put(id, trackedRequester);
+		this.refresh();
+		this.metrics.register(trackedRequester);
+		return trackedRequester;
+	}
+
+	public void unregister(UUID id) {
+		final TrackedRequester trackedRequester = this.requesters.remove(id);
+		if (trackedRequester != null) {
+			this.refresh();
+			this.metrics.unregister(trackedRequester);
+		}
+	}
+
+	/**
+	 * Stops selecting the requester, the requests in flight go on
+	 */
+	public void drain(TrackedRequester requester) {
+		requester.drain();
+		this.refresh();
+	}
+
+	/**
+	 * @param host host of the request without the port
+	 * @return selected requester among those serving the host and path or {@code null} if there is none
+	 */
+	public TrackedRequester select(String host, String path) {
+		return this.select(this.routing.candidates(host, path));
+	}
+
+	/**
+	 * @param target name of the TCP target
+	 * @return selected requester among those forwarding the target or {@code null} if there is none
+	 */
+	public TrackedRequester selectTcp(String target) {
+		final TrackedRequester[] candidates = this.tcpTargets.get(target);
+		return candidates == null ? null : this.select(candidates);
+	}
+
+	// a saturated requester is only returned when all of the candidates are, the request is shed then
+	private TrackedRequester select(TrackedRequester[] candidates) {
+		if (candidates.length == 0) {
+			return null;
+		}
+		final TrackedRequester selected = candidates.length == 1 ? candidates[0] : this.selector.select(candidates);
+		if (!selected.isSaturated()) {
+			return selected;
+		}
+		for (TrackedRequester candidate : candidates) {
+			if (!candidate.isSaturated()) {
+				return candidate;
+			}
+		}
+		return selected;
+	}
+
+	public TrackedRequester find(RSocketRequester requester) {
+		for (TrackedRequester trackedRequester : this.snapshot) {
+			if (trackedRequester.getRequester() == requester) {
+				return trackedRequester;
+			}
+		}
+		return null;
+	}
+
+	public Set<UUID> ids() {
+		return this.requesters.keySet();
+	}
+
+	public List<TrackedRequester> requesters() {
+		return List.of(this.snapshot);
+	}
+
+	/**
+	 * @return requester ids grouped by the logical client id
+	 */
+	public Map<String, List<UUID>> clients() {
+		final Map<String, List<UUID>> clients = new TreeMap<>();
+		for (TrackedRequester requester : this.snapshot) {
+			clients.computeIfAbsent(requester.getClientId(), __ -> new ArrayList<>()).add(requester.getId());
+		}
+		return clients;
+	}
+
+	/**
+	 * @return hosts the requesters serve, {@code *} if any of them serves every host
+	 */
+	public Set<String> hosts() {
+		final Set<String> hosts = new TreeSet<>();
+		for (TrackedRequester requester : this.candidates) {
+			if (requester.getRoutes().getHosts().isEmpty()) {
+				hosts.add("*");
+			}
+			else {
+				hosts.addAll(requester.getRoutes().getHosts());
+			}
+		}
+		return hosts;
+	}
+
+	private synchronized void refresh() {
+		final TrackedRequester[] snapshot = this.requesters.values().toArray(new TrackedRequester[0]);
+		this.snapshot = snapshot;
+		final TrackedRequester[] candidates = Arrays.stream(snapshot).filter(requester -> !requester.isDraining()).toArray(TrackedRequester[]::new);
+		this.candidates = candidates;
+		this.routing = RoutingIndex.build(candidates);
+		final Map<String, List<TrackedRequester>> tcpTargets = new HashMap<>();
+		for (TrackedRequester candidate : candidates) {
+			candidate.getRoutes().getTcpTargets().forEach(target -> tcpTargets.computeIfAbsent(target, __ -> new ArrayList<>()).add(candidate));
+		}
+		final Map<String, TrackedRequester[]> byTarget = new HashMap<>();
+		tcpTargets.forEach((target, group) -> byTarget.put(target, group.toArray(new TrackedRequester[0])));
+		this.tcpTargets = byTarget;
+	}
+}
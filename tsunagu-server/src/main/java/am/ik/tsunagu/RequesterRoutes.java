@@ -0,0 +1,93 @@
+package am.ik.tsunagu;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.springframework.util.StringUtils;
+
+/**
+ * Hosts and path prefixes a client declared to serve in its setup data. A client which declares neither serves every
+ * request that no other client declared. Hosts may start with {@code *.} to match any subdomain. TCP targets are the
+ * names of the ports the client forwards, they do not affect HTTP requests.
+ */
+public final class RequesterRoutes {
+	public static final RequesterRoutes ANY = new RequesterRoutes(List.of(), List.of(), List.of());
+
+	private final List<String> hosts;
+
+	private final List<String> paths;
+
+	private final List<String> tcpTargets;
+
+	public RequesterRoutes(List<String> hosts, List<String> paths, List<String> tcpTargets) {
+		this.hosts = List.copyOf(hosts);
+		this.paths = List.copyOf(paths);
+		this.tcpTargets = List.copyOf(tcpTargets);
+	}
+
+	/**
+	 * @param hosts comma separated hosts, may be {@code null}
+	 * @param paths comma separated path prefixes, may be {@code null}
+	 * @param tcpTargets comma separated names of TCP targets, may be {@code null}
+	 */
+	public static RequesterRoutes parse(String hosts, String paths, String tcpTargets) {
+		if (!StringUtils.hasText(hosts) && !StringUtils.hasText(paths) && !StringUtils.hasText(tcpTargets)) {
+			return ANY;
+		}
+		final List<String> parsedHosts = new ArrayList<>();
+		for (String host : StringUtils.commaDelimitedListToStringArray(hosts)) {
+			if (StringUtils.hasText(host)) {
+				parsedHosts.add(normalizeHost(host.trim()));
+			}
+		}
+		final List<String> parsedPaths = new ArrayList<>();
+		for (String path : StringUtils.commaDelimitedListToStringArray(paths)) {
+			if (StringUtils.hasText(path)) {
+				final String trimmed = path.trim();
+				parsedPaths.add(trimmed.startsWith("/") ? trimmed : "/" + trimmed);
+			}
+		}
+		final List<String> parsedTcpTargets = new ArrayList<>();
+		for (String target : StringUtils.commaDelimitedListToStringArray(tcpTargets)) {
+			if (StringUtils.hasText(target)) {
+				parsedTcpTargets.add(target.trim());
+			}
+		}
+		return new RequesterRoutes(parsedHosts, parsedPaths, parsedTcpTargets);
+	}
+
+	/**
+	 * Lower case without the port
+	 */
+	static String normalizeHost(String host) {
+		if (host == null) {
+			return "";
+		}
+		final int colon = host.lastIndexOf(':');
+		// IPv6 literals contain colons but end with a bracket
+		final String name = colon > 0 && host.indexOf(']') < colon ? host.substring(0, colon) : host;
+		return name.toLowerCase(Locale.ROOT);
+	}
+
+	public List<String> getHosts() {
+		return hosts;
+	}
+
+	public List<String> getPaths() {
+		return paths;
+	}
+
+	public List<String> getTcpTargets() {
+		return tcpTargets;
+	}
+
+	public boolean isAny() {
+		return this.hosts.isEmpty() && this.paths.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return "hosts=" + this.hosts + ", paths=" + this.paths + (this.tcpTargets.isEmpty() ? "" : ", tcp=" + this.tcpTargets);
+	}
+}
@@ -0,0 +1,25 @@
+package am.ik.tsunagu;
+
+@FunctionalInterface
+public interface RequesterSelector {
+	/**
+	 * Select a requester to send the next request to.
+	 *
+	 * @param candidates connected requesters. The array contains at least two elements and must not be modified.
+	 * @return selected requester
+	 */
+	TrackedRequester select(TrackedRequester[] candidates);
+
+	static RequesterSelector of(TsunaguProps.LoadBalancer.Strategy strategy) {
+		switch (strategy) {
+			case ROUND_ROBIN:
+				return new RoundRobinRequesterSelector();
+			case POWER_OF_TWO_CHOICES:
+				return new PowerOfTwoChoicesRequesterSelector(TrackedRequester::getInFlight);
+			case EWMA:
+				return new PowerOfTwoChoicesRequesterSelector(TrackedRequester::getCost);
+			default:
+				throw new IllegalStateException("Unknown strategy: " + strategy);
+		}
+	}
+}
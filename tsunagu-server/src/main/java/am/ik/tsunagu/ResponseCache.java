@@ -0,0 +1,533 @@
+package am.ik.tsunagu;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Policy;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+/**
+ * Shared HTTP cache (RFC 7234) in front of the tunnel. Only {@code GET} responses with explicit freshness or a
+ * validator are stored. Stale entries are revalidated through the tunnel with conditional requests. Entries are
+ * bounded by size, in total with W-TinyLFU eviction and per host.
+ */
+@Component
+public class ResponseCache {
+	public static final String CACHE_STATUS_HEADER = "X-Tsunagu-Cache";
+
+	private static final Set<HttpStatus> CACHEABLE_STATUSES = EnumSet.of(HttpStatus.OK, HttpStatus.NON_AUTHORITATIVE_INFORMATION, HttpStatus.NO_CONTENT, HttpStatus.MULTIPLE_CHOICES, HttpStatus.MOVED_PERMANENTLY, HttpStatus.NOT_FOUND, HttpStatus.METHOD_NOT_ALLOWED, HttpStatus.GONE, HttpStatus.URI_TOO_LONG, HttpStatus.NOT_IMPLEMENTED, HttpStatus.PERMANENT_REDIRECT);
+
+	private static final Set<String> HOP_BY_HOP_HEADERS = Set.of("connection", "keep-alive", "proxy-authenticate", "proxy-authorization", "te", "trailer", "transfer-encoding", "upgrade", CACHE_STATUS_HEADER.toLowerCase(Locale.ROOT));
+
+	// how many of the coldest entries are inspected to make room for a host which exceeds its limit
+	private static final int MAX_EVICTION_SCAN = 1024;
+
+	private final boolean enabled;
+
+	private final long maxEntrySize;
+
+	private final long maxSizePerHost;
+
+	private final Duration staleRetention;
+
+	private final Cache<String, CachedResponse> cache;
+
+	private final ConcurrentMap<String, Long> hostSizes = new ConcurrentHashMap<>();
+
+	private final Logger log = LoggerFactory.getLogger(ResponseCache.class);
+
+	public ResponseCache(TsunaguProps props) {
+		final TsunaguProps.Cache cacheProps = props.getCache();
+		this.enabled = cacheProps.isEnabled();
+		this.maxEntrySize = cacheProps.getMaxEntrySize().toBytes();
+		this.maxSizePerHost = cacheProps.getMaxSizePerHost().toBytes();
+		this.staleRetention = cacheProps.getStaleRetention();
+		this.cache = Caffeine.newBuilder()
+				.maximumWeight(cacheProps.getMaxSize().toBytes())
+				.weigher((String key, CachedResponse response) -> response.getWeight())
+				.expireAfter(new Expiry<String, CachedResponse>() {
+					@Override
+					public long expireAfterCreate(String key, CachedResponse response, long currentTime) {
+						return response.getRetention().toNanos();
+					}
+
+					@Override
+					public long expireAfterUpdate(String key, CachedResponse response, long currentTime, long currentDuration) {
+						return response.getRetention().toNanos();
+					}
+
+					@Override
+					public long expireAfterRead(String key, CachedResponse response, long currentTime, long currentDuration) {
+						return currentDuration;
+					}
+				})
+				// keep the per host sizes exact
+				.executor(Runnable::run)
+				.removalListener((String key, CachedResponse response, RemovalCause cause) -> {
+					if (response != null) {
+						this.hostSizes.computeIfPresent(response.getHost(), (host, size) -> size > response.getWeight() ? size - response.getWeight() : null);
+					}
+				})
+				.build();
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return the lookup result or {@code null} if the request bypasses the cache
+	 */
+	public Lookup lookup(HttpRequestMetadata request) {
+		if (!this.enabled) {
+			return null;
+		}
+		final String key = key(request.getUri());
+		final HttpMethod method = request.getMethod();
+		if (method != HttpMethod.GET) {
+			if (method != HttpMethod.HEAD && method != HttpMethod.OPTIONS && method != HttpMethod.TRACE) {
+				// unsafe methods invalidate the stored response of the target uri
+				this.cache.invalidate(key);
+			}
+			return null;
+		}
+		final HttpHeaders headers = request.getHeaders();
+		final Map<String, String> cacheControl = parseCacheControl(headers.get(HttpHeaders.CACHE_CONTROL));
+		if (cacheControl.containsKey("no-store") || headers.containsKey(HttpHeaders.RANGE)) {
+			return null;
+		}
+		CachedResponse cached = this.cache.getIfPresent(key);
+		if (cached != null && !cached.matchesVary(headers)) {
+			cached = null;
+		}
+		final boolean noCache = cacheControl.containsKey("no-cache") || "no-cache".equals(headers.getPragma()) || "0".equals(cacheControl.get("max-age"));
+		final boolean fresh = cached != null && !noCache && cached.isFresh();
+		return new Lookup(key, request.getUri().getHost(), cached, fresh, headers);
+	}
+
+	/**
+	 * Adds the validators of the stale entry to the request so that the upstream can answer with 304.
+	 */
+	public void addValidators(Lookup lookup, HttpHeaders requestHeaders) {
+		final CachedResponse cached = lookup.getCached();
+		if (cached == null || lookup.isFresh() || lookup.isConditional()) {
+			return;
+		}
+		final HttpHeaders cachedHeaders = cached.getHeaders();
+		final String etag = cachedHeaders.getETag();
+		final String lastModified = cachedHeaders.getFirst(HttpHeaders.LAST_MODIFIED);
+		if (etag != null) {
+			requestHeaders.set(HttpHeaders.IF_NONE_MATCH, etag);
+		}
+		if (lastModified != null) {
+			requestHeaders.set(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+		}
+		lookup.revalidating = etag != null || lastModified != null;
+	}
+
+	/**
+	 * Refreshes the stale entry with the headers of a 304 response.
+	 */
+	public CachedResponse revalidated(Lookup lookup, HttpHeaders responseHeaders) {
+		final CachedResponse cached = lookup.getCached();
+		final HttpHeaders headers = new HttpHeaders();
+		headers.putAll(cached.getHeaders());
+		responseHeaders.forEach((name, values) -> {
+			if (!isHopByHop(name) && !HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)) {
+				headers.put(name, values);
+			}
+		});
+		final CachedResponse revalidated = this.createCachedResponse(lookup, cached.getStatus(), headers, cached.getBody());
+		if (revalidated != null) {
+			this.put(lookup, revalidated);
+		}
+		else {
+			this.cache.invalidate(lookup.getKey());
+		}
+		return revalidated == null ? cached : revalidated;
+	}
+
+	/**
+	 * Stores the response once the body has been completely received. Response bodies are copied on the way through
+	 * so that the body is still streamed to the client.
+	 */
+	public Flux<DataBuffer> store(Lookup lookup, HttpStatus status, HttpHeaders responseHeaders, Flux<DataBuffer> body) {
+		if (status == HttpStatus.NOT_MODIFIED) {
+			// answer to the validators of the client
+			return body;
+		}
+		if (!this.isCacheable(lookup, status, responseHeaders)) {
+			if (lookup.getCached() != null) {
+				this.cache.invalidate(lookup.getKey());
+			}
+			return body;
+		}
+		final ByteArrayOutputStream[] out = { new ByteArrayOutputStream() };
+		return body
+				.doOnNext(buffer -> {
+					if (out[0] == null) {
+						return;
+					}
+					final int length = buffer.readableByteCount();
+					if (out[0].size() + length > this.maxEntrySize) {
+						out[0] = null;
+						return;
+					}
+					final byte[] bytes = new byte[length];
+					// reads through a view so that the buffer position is not changed
+					final ByteBuffer byteBuffer = buffer.asByteBuffer();
+					byteBuffer.get(bytes);
+					out[0].write(bytes, 0, length);
+				})
+				.doOnComplete(() -> {
+					if (out[0] == null) {
+						return;
+					}
+					final HttpHeaders headers = new HttpHeaders();
+					responseHeaders.forEach((name, values) -> {
+						if (!isHopByHop(name)) {
+							headers.put(name, values);
+						}
+					});
+					final CachedResponse cached = this.createCachedResponse(lookup, status, headers, out[0].toByteArray());
+					if (cached != null) {
+						this.put(lookup, cached);
+					}
+				});
+	}
+
+	public void invalidateAll() {
+		this.cache.invalidateAll();
+	}
+
+	public long estimatedSize() {
+		return this.cache.estimatedSize();
+	}
+
+	boolean isCacheable(Lookup lookup, HttpStatus status, HttpHeaders headers) {
+		if (!CACHEABLE_STATUSES.contains(status) || headers.containsKey(HttpHeaders.SET_COOKIE)) {
+			return false;
+		}
+		final Map<String, String> cacheControl = parseCacheControl(headers.get(HttpHeaders.CACHE_CONTROL));
+		if (cacheControl.containsKey("no-store") || cacheControl.containsKey("private")) {
+			return false;
+		}
+		// RFC 7234 3.2
+		if (lookup.isAuthorized() && !(cacheControl.containsKey("public") || cacheControl.containsKey("s-maxage") || cacheControl.containsKey("must-revalidate"))) {
+			return false;
+		}
+		if (headers.getVary().contains("*")) {
+			return false;
+		}
+		final long contentLength = headers.getContentLength();
+		return contentLength <= this.maxEntrySize;
+	}
+
+	CachedResponse createCachedResponse(Lookup lookup, HttpStatus status, HttpHeaders headers, byte[] body) {
+		final Map<String, String> cacheControl = parseCacheControl(headers.get(HttpHeaders.CACHE_CONTROL));
+		final Duration freshness = cacheControl.containsKey("no-cache") ? Duration.ZERO : freshnessLifetime(cacheControl, headers);
+		final boolean validators = headers.getETag() != null || headers.containsKey(HttpHeaders.LAST_MODIFIED);
+		if (freshness.isZero() && !validators) {
+			return null;
+		}
+		final Map<String, List<String>> vary = new HashMap<>();
+		for (String name : headers.getVary()) {
+			vary.put(name, lookup.getRequestHeaders(name));
+		}
+		final Duration age = Duration.ofSeconds(Math.max(parseSeconds(headers.getFirst(HttpHeaders.AGE)), 0));
+		final Duration retention = freshness.minus(age).plus(validators ? this.staleRetention : Duration.ZERO);
+		if (retention.isNegative() || retention.isZero()) {
+			return null;
+		}
+		return new CachedResponse(lookup.getHost(), status, HttpHeaders.readOnlyHttpHeaders(headers), body, freshness, age, retention, vary);
+	}
+
+	void put(Lookup lookup, CachedResponse cached) {
+		final String host = cached.getHost();
+		final CachedResponse existing = this.cache.getIfPresent(lookup.getKey());
+		final long replaced = existing != null && Objects.equals(existing.getHost(), host) ? existing.getWeight() : 0;
+		final long excess = this.hostSizes.getOrDefault(host, 0L) - replaced + cached.getWeight() - this.maxSizePerHost;
+		if (excess > 0 && !this.evict(host, excess)) {
+			log.debug("Cache limit of {} exceeded, not storing {}", host, lookup.getKey());
+			return;
+		}
+		this.hostSizes.merge(host, (long) cached.getWeight(), Long::sum);
+		this.cache.put(lookup.getKey(), cached);
+	}
+
+	boolean evict(String host, long size) {
+		final Policy.Eviction<String, CachedResponse> eviction = this.cache.policy().eviction().orElse(null);
+		if (eviction == null) {
+			return false;
+		}
+		long evicted = 0;
+		for (Map.Entry<String, CachedResponse> entry : eviction.coldest(MAX_EVICTION_SCAN).entrySet()) {
+			if (host.equals(entry.getValue().getHost())) {
+				this.cache.invalidate(entry.getKey());
+				evicted += entry.getValue().getWeight();
+				if (evicted >= size) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	static String key(URI uri) {
+		final String query = uri.getRawQuery();
+		return uri.getRawAuthority() + uri.getRawPath() + (query == null ? "" : "?" + query);
+	}
+
+	static boolean isHopByHop(String name) {
+		return HOP_BY_HOP_HEADERS.contains(name.toLowerCase(Locale.ROOT));
+	}
+
+	static Duration freshnessLifetime(Map<String, String> cacheControl, HttpHeaders headers) {
+		// s-maxage is for shared caches like this one
+		final long sMaxAge = parseSeconds(cacheControl.get("s-maxage"));
+		if (sMaxAge >= 0) {
+			return Duration.ofSeconds(sMaxAge);
+		}
+		final long maxAge = parseSeconds(cacheControl.get("max-age"));
+		if (maxAge >= 0) {
+			return Duration.ofSeconds(maxAge);
+		}
+		final long expires = headers.getExpires();
+		if (expires >= 0) {
+			final long date = headers.getDate();
+			return Duration.ofMillis(Math.max(expires - (date >= 0 ? date : System.currentTimeMillis()), 0));
+		}
+		return Duration.ZERO;
+	}
+
+	static Map<String, String> parseCacheControl(List<String> values) {
+		if (values == null || values.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		final Map<String, String> directives = new HashMap<>();
+		for (String value : values) {
+			for (String directive : value.split(",")) {
+				final String trimmed = directive.trim();
+				if (trimmed.isEmpty()) {
+					continue;
+				}
+				final int eq = trimmed.indexOf('=');
+				if (eq < 0) {
+					directives.put(trimmed.toLowerCase(Locale.ROOT), "");
+				}
+				else {
+					final String name = trimmed.substring(0, eq).trim().toLowerCase(Locale.ROOT);
+					String argument = trimmed.substring(eq + 1).trim();
+					if (argument.length() > 1 && argument.startsWith("\"") && argument.endsWith("\"")) {
+						argument = argument.substring(1, argument.length() - 1);
+					}
+					directives.put(name, argument);
+				}
+			}
+		}
+		return directives;
+	}
+
+	static long parseSeconds(String value) {
+		if (value == null) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		}
+		catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	static boolean matchesETag(String ifNoneMatch, String etag) {
+		if (ifNoneMatch == null || etag == null) {
+			return false;
+		}
+		final String weakless = etag.startsWith("W/") ? etag.substring(2) : etag;
+		for (String candidate : ifNoneMatch.split(",")) {
+			final String trimmed = candidate.trim();
+			if ("*".equals(trimmed) || weakless.equals(trimmed.startsWith("W/") ? trimmed.substring(2) : trimmed)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public static class Lookup {
+		private final String key;
+
+		private final String host;
+
+		private final CachedResponse cached;
+
+		private final boolean fresh;
+
+		private final boolean authorized;
+
+		// the client sent validators itself, these are passed through untouched
+		private final boolean conditional;
+
+		private final HttpHeaders requestHeaders;
+
+		private volatile boolean revalidating;
+
+		Lookup(String key, String host, CachedResponse cached, boolean fresh, HttpHeaders requestHeaders) {
+			this.key = key;
+			this.host = host == null ? "" : host;
+			this.cached = cached;
+			this.fresh = fresh;
+			this.authorized = requestHeaders.containsKey(HttpHeaders.AUTHORIZATION);
+			this.conditional = requestHeaders.containsKey(HttpHeaders.IF_NONE_MATCH) || requestHeaders.containsKey(HttpHeaders.IF_MODIFIED_SINCE);
+			this.requestHeaders = requestHeaders;
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		public String getHost() {
+			return host;
+		}
+
+		public CachedResponse getCached() {
+			return cached;
+		}
+
+		public boolean isFresh() {
+			return fresh;
+		}
+
+		public boolean isAuthorized() {
+			return authorized;
+		}
+
+		public boolean isConditional() {
+			return conditional;
+		}
+
+		public boolean isRevalidating() {
+			return revalidating;
+		}
+
+		List<String> getRequestHeaders(String name) {
+			final List<String> values = this.requestHeaders.get(name);
+			return values == null ? List.of() : values;
+		}
+	}
+
+	public static class CachedResponse {
+		private final String host;
+
+		private final HttpStatus status;
+
+		private final HttpHeaders headers;
+
+		private final byte[] body;
+
+		private final Duration freshness;
+
+		private final Duration initialAge;
+
+		private final Duration retention;
+
+		private final Map<String, List<String>> vary;
+
+		private final long storedAt = System.nanoTime();
+
+		private final int weight;
+
+		CachedResponse(String host, HttpStatus status, HttpHeaders headers, byte[] body, Duration freshness, Duration initialAge, Duration retention, Map<String, List<String>> vary) {
+			this.host = host;
+			this.status = status;
+			this.headers = headers;
+			this.body = body;
+			this.freshness = freshness;
+			this.initialAge = initialAge;
+			this.retention = retention;
+			this.vary = vary;
+			long headersSize = 0;
+			for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+				for (String value : header.getValue()) {
+					headersSize += header.getKey().length() + value.length();
+				}
+			}
+			this.weight = (int) Math.min(body.length + headersSize * 2, Integer.MAX_VALUE);
+		}
+
+		public String getHost() {
+			return host;
+		}
+
+		public HttpStatus getStatus() {
+			return status;
+		}
+
+		public HttpHeaders getHeaders() {
+			return headers;
+		}
+
+		public byte[] getBody() {
+			return body;
+		}
+
+		public Duration getRetention() {
+			return retention;
+		}
+
+		public int getWeight() {
+			return weight;
+		}
+
+		public Duration getAge() {
+			return this.initialAge.plusNanos(System.nanoTime() - this.storedAt);
+		}
+
+		public boolean isFresh() {
+			return this.getAge().compareTo(this.freshness) < 0;
+		}
+
+		boolean matchesVary(HttpHeaders requestHeaders) {
+			for (Map.Entry<String, List<String>> entry : this.vary.entrySet()) {
+				final List<String> values = requestHeaders.get(entry.getKey());
+				if (!Objects.equals(values == null ? List.of() : values, entry.getValue())) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		public boolean matchesIfNoneMatch(HttpHeaders requestHeaders) {
+			return matchesETag(requestHeaders.getFirst(HttpHeaders.IF_NONE_MATCH), this.headers.getETag());
+		}
+
+		long ageSeconds() {
+			return TimeUnit.NANOSECONDS.toSeconds(this.getAge().toNanos());
+		}
+	}
+}
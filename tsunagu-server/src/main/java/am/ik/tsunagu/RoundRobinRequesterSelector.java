@@ -0,0 +1,13 @@
+package am.ik.tsunagu;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RoundRobinRequesterSelector implements RequesterSelector {
+	private final AtomicInteger counter = new AtomicInteger();
+
+	@Override
+	public TrackedRequester select(TrackedRequester[] candidates) {
+		final int index = Math.floorMod(this.counter.getAndIncrement(), candidates.length);
+		return candidates[index];
+	}
+}
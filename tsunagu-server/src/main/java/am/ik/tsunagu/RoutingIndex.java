@@ -0,0 +1,118 @@
+package am.ik.tsunagu;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Groups of requesters by the host and path prefix they serve, rebuilt whenever a requester connects, disconnects or
+ * drains. Looking up the group of a request is a hash lookup by its host, or by its wildcard parents, followed by the
+ * path prefixes of that host. Requests whose host no client declared go to the clients which declared no host.
+ */
+final class RoutingIndex {
+	static final RoutingIndex EMPTY = new RoutingIndex(Map.of(), PathTable.EMPTY);
+
+	private static final TrackedRequester[] NONE = new TrackedRequester[0];
+
+	private final Map<String, PathTable> hosts;
+
+	private final PathTable anyHost;
+
+	private RoutingIndex(Map<String, PathTable> hosts, PathTable anyHost) {
+		this.hosts = hosts;
+		this.anyHost = anyHost;
+	}
+
+	static RoutingIndex build(TrackedRequester[] candidates) {
+		final Map<String, Map<String, List<TrackedRequester>>> byHost = new HashMap<>();
+		final Map<String, List<TrackedRequester>> anyHost = new HashMap<>();
+		for (TrackedRequester candidate : candidates) {
+			final RequesterRoutes routes = candidate.getRoutes();
+			final List<String> paths = routes.getPaths().isEmpty() ? List.of("") : routes.getPaths();
+			if (routes.getHosts().isEmpty()) {
+				paths.forEach(path -> anyHost.computeIfAbsent(path, __ -> new ArrayList<>()).add(candidate));
+				continue;
+			}
+			for (String host : routes.getHosts()) {
+				final Map<String, List<TrackedRequester>> byPath = byHost.computeIfAbsent(host, __ -> new HashMap<>());
+				paths.forEach(path -> byPath.computeIfAbsent(path, __ -> new ArrayList<>()).add(candidate));
+			}
+		}
+		final Map<String, PathTable> hosts = new HashMap<>();
+		byHost.forEach((host, byPath) -> hosts.put(host, PathTable.of(byPath)));
+		return new RoutingIndex(hosts, PathTable.of(anyHost));
+	}
+
+	/**
+	 * @param host host of the request without the port
+	 * @return requesters serving the request, empty if there are none
+	 */
+	TrackedRequester[] candidates(String host, String path) {
+		if (!this.hosts.isEmpty() && host != null) {
+			final PathTable table = this.hostTable(host);
+			if (table != null) {
+				final TrackedRequester[] group = table.find(path);
+				if (group != null) {
+					return group;
+				}
+			}
+		}
+		final TrackedRequester[] group = this.anyHost.find(path);
+		return group == null ? NONE : group;
+	}
+
+	private PathTable hostTable(String name) {
+		final String host = name.toLowerCase(Locale.ROOT);
+		final PathTable exact = this.hosts.get(host);
+		if (exact != null) {
+			return exact;
+		}
+		// closest wildcard first
+		for (int dot = host.indexOf('.'); dot >= 0; dot = host.indexOf('.', dot + 1)) {
+			final PathTable wildcard = this.hosts.get("*" + host.substring(dot));
+			if (wildcard != null) {
+				return wildcard;
+			}
+		}
+		return null;
+	}
+
+	static final class PathTable {
+		static final PathTable EMPTY = new PathTable(new String[0], new TrackedRequester[0][]);
+
+		// longest prefix first, the empty prefix last
+		private final String[] prefixes;
+
+		private final TrackedRequester[][] groups;
+
+		private PathTable(String[] prefixes, TrackedRequester[][] groups) {
+			this.prefixes = prefixes;
+			this.groups = groups;
+		}
+
+		static PathTable of(Map<String, List<TrackedRequester>> byPath) {
+			final Map<String, List<TrackedRequester>> sorted = new LinkedHashMap<>();
+			byPath.keySet().stream()
+					.sorted(Comparator.comparingInt(String::length).reversed())
+					.forEach(prefix -> sorted.put(prefix, byPath.get(prefix)));
+			final String[] prefixes = sorted.keySet().toArray(new String[0]);
+			final TrackedRequester[][] groups = sorted.values().stream()
+					.map(group -> group.toArray(new TrackedRequester[0]))
+					.toArray(TrackedRequester[][]::new);
+			return new PathTable(prefixes, groups);
+		}
+
+		TrackedRequester[] find(String path) {
+			for (int i = 0; i < this.prefixes.length; i++) {
+				if (path == null ? this.prefixes[i].isEmpty() : path.startsWith(this.prefixes[i])) {
+					return this.groups[i];
+				}
+			}
+			return null;
+		}
+	}
+}
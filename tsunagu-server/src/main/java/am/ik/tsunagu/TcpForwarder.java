@@ -0,0 +1,123 @@
+package am.ik.tsunagu;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongConsumer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.LongTaskTimer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import org.reactivestreams.Publisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.NettyInbound;
+import reactor.netty.NettyOutbound;
+import reactor.netty.tcp.TcpServer;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Listens on the ports of {@code tsunagu.tcp.ports} and forwards each connection through a request-channel to a client
+ * which declared the target of the same name. The first payload carries the route and the name of the target, the
+ * following ones only the bytes as they were read, in both directions. Nothing is parsed, so any protocol on top of TCP
+ * works.
+ */
+@Component
+public class TcpForwarder implements ApplicationListener<ApplicationReadyEvent>, DisposableBean {
+	public static final String ROUTE = "tcp";
+
+	private final TsunaguProps.Tcp tcp;
+
+	private final TsunaguProps.FlowControl flowControl;
+
+	private final RequesterRegistry registry;
+
+	private final TunnelMetrics metrics;
+
+	private final EventLoops eventLoops;
+
+	private final LongConsumer stalled;
+
+	private final NettyDataBufferFactory dataBufferFactory = new NettyDataBufferFactory(ByteBufAllocator.DEFAULT);
+
+	private final List<DisposableServer> servers = new ArrayList<>();
+
+	private final Logger log = LoggerFactory.getLogger(TcpForwarder.class);
+
+	public TcpForwarder(TsunaguProps props, RequesterRegistry registry, TunnelMetrics metrics, EventLoops eventLoops) {
+		this.tcp = props.getTcp();
+		this.flowControl = props.getFlowControl();
+		this.registry = registry;
+		this.metrics = metrics;
+		this.eventLoops = eventLoops;
+		this.stalled = metrics.stalled("response");
+	}
+
+	@Override
+	public void onApplicationEvent(ApplicationReadyEvent event) {
+		for (Map.Entry<String, Integer> port : this.tcp.getPorts().entrySet()) {
+			final String target = port.getKey();
+			final DisposableServer server = TcpServer.create()
+					.runOn(this.eventLoops.getPublicLoops(), this.eventLoops.isPreferNative())
+					.host(this.tcp.getBindAddress())
+					.port(port.getValue())
+					.handle((inbound, outbound) -> this.forward(target, inbound, outbound))
+					.bindNow();
+			log.info("TCP: Forwarding {} to {}", server.address(), target);
+			this.servers.add(server);
+		}
+	}
+
+	@Override
+	public void destroy() {
+		this.servers.forEach(DisposableServer::disposeNow);
+	}
+
+	Publisher<Void> forward(String target, NettyInbound inbound, NettyOutbound outbound) {
+		final TrackedRequester requester = this.registry.selectTcp(target);
+		if (requester == null) {
+			// there is no way to tell the end user why, the connection is closed before anything is read
+			log.warn("TCP: No client forwards {}, closing the connection", target);
+			this.metrics.tcpRejected(target);
+			return Mono.empty();
+		}
+		final Counter inboundBytes = this.metrics.tcpBytes(target, "inbound");
+		final Counter outboundBytes = this.metrics.tcpBytes(target, "outbound");
+		// the name goes first so that the channel opens before the end user sends anything, as with server-first protocols
+		final Flux<DataBuffer> data = Flux.concat(Mono.fromSupplier(() -> this.dataBufferFactory.wrap(target.getBytes(StandardCharsets.UTF_8))),
+				inbound.receive().retain().map(buffer -> {
+					inboundBytes.increment(buffer.readableBytes());
+					return this.dataBufferFactory.wrap(buffer);
+				}));
+		final Flux<DataBuffer> received = requester.getRequester()
+				.route(ROUTE)
+				.data(data, DataBuffer.class)
+				.retrieveFlux(DataBuffer.class);
+		final LongTaskTimer.Sample sample = this.metrics.startTcpSession(target);
+		return outbound.send(this.window(requester.trackInFlight(received).map(buffer -> {
+					outboundBytes.increment(buffer.readableByteCount());
+					return NettyDataBufferFactory.toByteBuf(buffer);
+				}), requester.getWindow()))
+				.then()
+				.doFinally(__ -> sample.stop());
+	}
+
+	// slow end users hold back the client as with HTTP responses
+	Flux<ByteBuf> window(Flux<ByteBuf> received, FlowControl.Window window) {
+		if (!this.flowControl.isEnabled()) {
+			return received;
+		}
+		return FlowControl.window(received, this.flowControl.getStreamWindow().toBytes(), window, this.stalled);
+	}
+}
@@ -0,0 +1,178 @@
+package am.ik.tsunagu;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import reactor.core.publisher.Flux;
+
+import org.springframework.messaging.rsocket.RSocketRequester;
+
+public class TrackedRequester {
+	private final UUID id;
+
+	// logical client this connection belongs to, a client may open several connections
+	private final String clientId;
+
+	private final RSocketRequester requester;
+
+	private final MetadataCodec metadataCodec;
+
+	// whether the client reads small request bodies from the data of a request-stream
+	private final boolean inlineBody;
+
+	// response bytes of this connection buffered on the server
+	private final FlowControl.Window window;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	private final ConcurrencyLimit concurrencyLimit;
+
+	// hosts and paths the client declared to serve
+	private final RequesterRoutes routes;
+
+	// peak EWMA of the latency to the first response signal, stored as double bits
+	private final AtomicLong latencyBits = new AtomicLong(Double.doubleToRawLongBits(0));
+
+	private final double decayNanos;
+
+	private volatile long lastObserved = System.nanoTime();
+
+	// no new requests are sent to a draining requester
+	private volatile boolean draining = false;
+
+	public TrackedRequester(UUID id, String clientId, RSocketRequester requester, MetadataCodec metadataCodec, boolean inlineBody, Duration decayTime, FlowControl.Window window, ConcurrencyLimit concurrencyLimit) {
+		this(id, clientId, requester, metadataCodec, inlineBody, decayTime, window, concurrencyLimit, RequesterRoutes.ANY);
+	}
+
+	public TrackedRequester(UUID id, String clientId, RSocketRequester requester, MetadataCodec metadataCodec, boolean inlineBody, Duration decayTime, FlowControl.Window window, ConcurrencyLimit concurrencyLimit, RequesterRoutes routes) {
+		this.id = id;
+		this.clientId = clientId;
+		this.requester = requester;
+		this.metadataCodec = metadataCodec;
+		this.inlineBody = inlineBody;
+		this.window = window;
+		this.concurrencyLimit = concurrencyLimit;
+		this.routes = routes;
+		this.decayNanos = Math.max(decayTime.toNanos(), 1);
+	}
+
+	public UUID getId() {
+		return id;
+	}
+
+	public String getClientId() {
+		return clientId;
+	}
+
+	public RSocketRequester getRequester() {
+		return requester;
+	}
+
+	public MetadataCodec getMetadataCodec() {
+		return metadataCodec;
+	}
+
+	public boolean isInlineBody() {
+		return inlineBody;
+	}
+
+	public FlowControl.Window getWindow() {
+		return window;
+	}
+
+	public RequesterRoutes getRoutes() {
+		return routes;
+	}
+
+	public boolean isDraining() {
+		return draining;
+	}
+
+	void drain() {
+		this.draining = true;
+	}
+
+	public int getInFlight() {
+		return this.inFlight.get();
+	}
+
+	public ConcurrencyLimit getConcurrencyLimit() {
+		return concurrencyLimit;
+	}
+
+	/**
+	 * @return whether the requests in flight reached the concurrency limit
+	 */
+	public boolean isSaturated() {
+		return this.concurrencyLimit.isExceeded(this.inFlight.get());
+	}
+
+	/**
+	 * Returns the latency EWMA in nanoseconds, decayed by the idle time since the last observation so that a
+	 * requester which was slow once gets probed again eventually.
+	 */
+	public double getLatency() {
+		final double latency = Double.longBitsToDouble(this.latencyBits.get());
+		final long elapsed = Math.max(System.nanoTime() - this.lastObserved, 0);
+		return latency * Math.exp(-elapsed / this.decayNanos);
+	}
+
+	/**
+	 * Cost used by latency aware selectors. The in-flight count is included so that a fast but saturated requester
+	 * is not chosen forever.
+	 */
+	public double getCost() {
+		return (this.getLatency() + 1) * (this.inFlight.get() + 1);
+	}
+
+	void observe(long latencyNanos) {
+		final long now = System.nanoTime();
+		final long elapsed = Math.max(now - this.lastObserved, 0);
+		final double weight = Math.exp(-elapsed / this.decayNanos);
+		long prev;
+		double next;
+		do {
+			prev = this.latencyBits.get();
+			final double current = Double.longBitsToDouble(prev);
+			// react to slowdowns immediately, recover gradually
+			next = latencyNanos > current ? latencyNanos : current * weight + latencyNanos * (1 - weight);
+		} while (!this.latencyBits.compareAndSet(prev, Double.doubleToRawLongBits(next)));
+		this.lastObserved = now;
+	}
+
+	public <T> Flux<T> track(Flux<T> responseStream) {
+		return Flux.defer(() -> {
+			final long start = System.nanoTime();
+			final AtomicBoolean firstSignal = new AtomicBoolean(true);
+			this.inFlight.incrementAndGet();
+			return responseStream
+					.doOnEach(signal -> {
+						if (firstSignal.compareAndSet(true, false)) {
+							final long latency = System.nanoTime() - start;
+							this.observe(latency);
+							this.concurrencyLimit.onSample(latency, signal.isOnError(), this.inFlight.get());
+						}
+					})
+					.doFinally(__ -> this.inFlight.decrementAndGet());
+		});
+	}
+
+	// long-lived streams such as WebSocket sessions only count as in-flight and do not affect the latency
+	public <T> Flux<T> trackInFlight(Flux<T> stream) {
+		return stream
+				.doOnSubscribe(__ -> this.inFlight.incrementAndGet())
+				.doFinally(__ -> this.inFlight.decrementAndGet());
+	}
+
+	@Override
+	public String toString() {
+		return "{id=" + id +
+				", clientId=" + clientId +
+				", inFlight=" + inFlight +
+				", draining=" + draining +
+				'}';
+	}
+}
@@ -1,24 +1,26 @@
 package am.ik.tsunagu;
 
-import java.io.IOException;
-import java.io.UncheckedIOException;
 import java.net.URI;
-import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
+import java.nio.channels.ClosedChannelException;
+import java.time.Duration;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.LongTaskTimer;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.codec.http2.HttpConversionUtil.ExtensionHeaderNames;
 import io.rsocket.core.RSocketClient;
+import io.rsocket.exceptions.ConnectionCloseException;
+import io.rsocket.exceptions.ConnectionErrorException;
+import io.rsocket.exceptions.Retryable;
 import io.rsocket.util.DefaultPayload;
 import org.reactivestreams.Publisher;
 import org.slf4j.Logger;
@@ -29,19 +31,16 @@ import reactor.core.publisher.Signal;
 
 import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.rsocket.RSocketRequester;
 import org.springframework.messaging.rsocket.annotation.ConnectMapping;
-import org.springframework.util.Base64Utils;
-import org.springframework.util.StringUtils;
-import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -49,35 +48,72 @@ import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.reactive.socket.WebSocketHandler;
 import org.springframework.web.reactive.socket.WebSocketMessage;
 import org.springframework.web.reactive.socket.WebSocketMessage.Type;
-import org.springframework.web.reactive.socket.WebSocketSession;
 import org.springframework.web.server.ResponseStatusException;
 
 @RestController
 public class TsunaguController implements Function<ServerHttpRequest, WebSocketHandler> {
+	public static final String DRAIN_ROUTE = "drain";
+
+	static final Duration DRAIN_CHECK_INTERVAL = Duration.ofMillis(100);
+
 	private final Logger log = LoggerFactory.getLogger(TsunaguController.class);
 
-	private final ConcurrentMap<UUID, RSocketRequester> requesters = new ConcurrentHashMap<>();
+	private final RequesterRegistry registry;
+
+	private final ResponseCache responseCache;
+
+	private final RequestCoalescer requestCoalescer;
+
+	private final TunnelMetrics metrics;
+
+	private final Cluster cluster;
+
+	private final RateLimiter rateLimiter;
+
+	private final Authorizer authorizer;
 
-	private final ObjectMapper objectMapper;
+	private final AccessLog accessLog;
 
 	private final TsunaguProps props;
 
-	public TsunaguController(TsunaguProps props) {
-		this.objectMapper = Jackson2ObjectMapperBuilder.cbor().build();
+	private final NettyDataBufferFactory dataBufferFactory = new NettyDataBufferFactory(ByteBufAllocator.DEFAULT);
+
+	private final LongConsumer stalled;
+
+	public TsunaguController(TsunaguProps props, RequesterRegistry registry, ResponseCache responseCache, RequestCoalescer requestCoalescer, TunnelMetrics metrics, Cluster cluster, RateLimiter rateLimiter, Authorizer authorizer, AccessLog accessLog) {
 		this.props = props;
+		this.registry = registry;
+		this.responseCache = responseCache;
+		this.requestCoalescer = requestCoalescer;
+		this.metrics = metrics;
+		this.cluster = cluster;
+		this.rateLimiter = rateLimiter;
+		this.authorizer = authorizer;
+		this.accessLog = accessLog;
+		this.stalled = metrics.stalled("response");
+	}
+
+	private TrackedRequester selectRequester(HttpRequestMetadata httpRequestMetadata) {
+		final URI uri = httpRequestMetadata.getUri();
+		final TrackedRequester requester = this.registry.select(uri.getHost(), uri.getRawPath());
+		if (requester == null && this.cluster.isEnabled()) {
+			// the client is connected to another replica
+			return this.cluster.select(uri.getHost());
+		}
+		return requester;
 	}
 
-	private RSocketRequester getRequester() {
-		final Collection<RSocketRequester> rSocketRequesters = requesters.values();
-		if (rSocketRequesters.isEmpty()) {
+	private TrackedRequester getRequester(HttpRequestMetadata httpRequestMetadata) {
+		final TrackedRequester requester = this.selectRequester(httpRequestMetadata);
+		if (requester == null) {
 			throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "No requester found.");
 		}
-		if (rSocketRequesters.size() == 1) {
-			return rSocketRequesters.iterator().next();
+		if (requester.isSaturated()) {
+			// shed the request before it queues up in the tunnel
+			this.metrics.rejected("concurrency_limit");
+			throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many requests in flight.");
 		}
-		final List<RSocketRequester> list = new ArrayList<>(rSocketRequesters);
-		Collections.shuffle(list, ThreadLocalRandom.current());
-		return list.get(0);
+		return requester;
 	}
 
 	@GetMapping(path = "/.well-known/acme-challenge/{key}")
@@ -93,59 +129,254 @@ public class TsunaguController implements Function<ServerHttpRequest, WebSocketH
 
 	@GetMapping(path = "/.tsunagu/requesters")
 	public Collection<UUID> requesters() {
-		return this.requesters.keySet();
+		return this.registry.ids();
+	}
+
+	@GetMapping(path = "/.tsunagu/requesters", params = "details")
+	public List<Map<String, Object>> requesterDetails() {
+		return this.registry.requesters().stream()
+				.map(requester -> Map.<String, Object>of("id", requester.getId(), "clientId", requester.getClientId(), "inFlight", requester.getInFlight(), "draining", requester.isDraining(),
+						"hosts", requester.getRoutes().getHosts(), "paths", requester.getRoutes().getPaths(), "tcp", requester.getRoutes().getTcpTargets()))
+				.collect(Collectors.toList());
+	}
+
+	@GetMapping(path = "/.tsunagu/clients")
+	public Map<String, List<UUID>> clients() {
+		return this.registry.clients();
+	}
+
+	@GetMapping(path = "/.tsunagu/cluster")
+	public Map<String, List<String>> cluster() {
+		return this.cluster.nodes();
 	}
 
 	@RequestMapping(path = "**")
 	public Mono<Void> proxy(ServerHttpRequest request, ServerHttpResponse response) throws Exception {
-		this.checkAuthorization(request);
+		final Authorizer.Decision decision = this.authorizer.authorize(request.getMethod(), request.getURI().getRawPath(), request.getHeaders().getFirst(HttpHeaders.AUTHORIZATION));
+		if (decision != Authorizer.Decision.GRANTED) {
+			this.metrics.rejected("authorization");
+			return this.reject(decision, response);
+		}
+		final boolean http2 = request.getHeaders().containsKey(ExtensionHeaderNames.STREAM_ID.text().toString());
 		final HttpHeaders httpHeaders = setForwardHeaders(request);
+		// HTTP/2 frames the body by the stream, so it may come without Content-Length and never has Transfer-Encoding. The one
+		// added by the conversion to HTTP/1.1 is dropped and whether there is a body is decided by the stream instead.
+		final boolean bodyFramedByStream = http2 && httpHeaders.getContentLength() < 0;
+		if (bodyFramedByStream) {
+			httpHeaders.remove(HttpHeaders.TRANSFER_ENCODING);
+		}
 		final HttpRequestMetadata httpRequestMetadata = new HttpRequestMetadata(request.getMethod(), request.getURI(), httpHeaders);
-		final Flux<DataBuffer> responseStream;
-		if (httpRequestMetadata.hasBody()) {
-			responseStream = this.getRequester()
-					.route("_")
-					.metadata(httpRequestMetadata, MediaType.APPLICATION_CBOR)
-					.data(request.getBody(), DataBuffer.class)
-					.retrieveFlux(DataBuffer.class);
+		final long wait = this.rateLimiter.acquire(httpRequestMetadata);
+		if (wait > 0) {
+			this.metrics.rejected("rate_limit");
+			response.setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+			response.getHeaders().set(HttpHeaders.RETRY_AFTER, String.valueOf(RateLimiter.retryAfterSeconds(wait)));
+			return response.setComplete();
+		}
+		final TunnelMetrics.Recording recording = this.metrics.start(request.getMethod());
+		final Mono<Void> forwarded;
+		if (bodyFramedByStream) {
+			forwarded = request.getBody()
+					.switchOnFirst((signal, body) -> {
+						if (signal.hasValue()) {
+							httpHeaders.set(HttpHeaders.TRANSFER_ENCODING, "chunked");
+						}
+						return this.forward(httpRequestMetadata, body, response, recording);
+					})
+					.then();
 		}
 		else {
-			responseStream = this.getRequester()
+			forwarded = this.forward(httpRequestMetadata, request.getBody(), response, recording);
+		}
+		return forwarded
+				.doFinally(__ -> {
+					final String cacheStatus = response.getHeaders().getFirst(ResponseCache.CACHE_STATUS_HEADER);
+					recording.finish(response.getStatusCode(), cacheStatus == null ? "NONE" : cacheStatus);
+					this.accessLog.log(httpRequestMetadata, response.getStatusCode(), cacheStatus, recording);
+				});
+	}
+
+	Mono<Void> reject(Authorizer.Decision decision, ServerHttpResponse response) {
+		response.setStatusCode(decision.getStatus());
+		final HttpHeaders headers = response.getHeaders();
+		if (decision.getStatus() == HttpStatus.UNAUTHORIZED) {
+			headers.set(HttpHeaders.WWW_AUTHENTICATE, "Basic realm=\"Tsunagu API\"");
+		}
+		headers.setContentType(MediaType.APPLICATION_JSON);
+		headers.setContentLength(decision.getBody().length);
+		return response.writeWith(Mono.fromSupplier(() -> this.dataBufferFactory.wrap(decision.getBody())));
+	}
+
+	Mono<Void> forward(HttpRequestMetadata httpRequestMetadata, Flux<DataBuffer> body, ServerHttpResponse response, TunnelMetrics.Recording recording) {
+		final ResponseCache.Lookup lookup = this.responseCache.lookup(httpRequestMetadata);
+		if (lookup != null) {
+			if (lookup.isFresh()) {
+				return this.writeCachedResponse(httpRequestMetadata, lookup, lookup.getCached(), "HIT", response, recording);
+			}
+			this.responseCache.addValidators(lookup, httpRequestMetadata.getHeaders());
+		}
+		final RequestCoalescer.Upstream upstream = this.requestCoalescer.coalesce(httpRequestMetadata, () -> this.exchange(httpRequestMetadata, body, recording));
+		return upstream.getResponseStream().switchOnFirst(this.handleResponse(httpRequestMetadata, upstream.getMetadataCodec(), upstream::getWindow, response, lookup, recording)).then();
+	}
+
+	RequestCoalescer.Upstream exchange(HttpRequestMetadata httpRequestMetadata, Flux<DataBuffer> body, TunnelMetrics.Recording recording) {
+		final TrackedRequester requester = this.getRequester(httpRequestMetadata);
+		if (this.props.getRetry().getMaxAttempts() > 1 && !httpRequestMetadata.hasBody() && httpRequestMetadata.hasIdempotentMethod()) {
+			final FailoverMetadataCodec metadataCodec = new FailoverMetadataCodec();
+			return new RequestCoalescer.Upstream(metadataCodec, this.attempt(requester, httpRequestMetadata, metadataCodec, 1), metadataCodec::getWindow);
+		}
+		// the metadata is encoded on subscription, a coalesced request which is not sent must not touch the codec
+		final Flux<DataBuffer> responseStream = Flux.defer(() -> this.send(requester, httpRequestMetadata, body.doOnNext(buffer -> recording.requestBytes(buffer.readableByteCount()))));
+		return new RequestCoalescer.Upstream(requester.getMetadataCodec(), requester.track(responseStream), requester.getWindow());
+	}
+
+	// nothing has to be replayed for a request without a body, so it can be sent again until the response starts
+	Flux<DataBuffer> attempt(TrackedRequester requester, HttpRequestMetadata httpRequestMetadata, FailoverMetadataCodec metadataCodec, int attempt) {
+		return Flux.defer(() -> {
+					metadataCodec.attempt(requester.getMetadataCodec(), requester.getWindow());
+					return requester.track(this.send(requester, httpRequestMetadata, Flux.empty()));
+				})
+				.doOnNext(__ -> metadataCodec.answered())
+				.onErrorResume(e -> {
+					if (attempt >= this.props.getRetry().getMaxAttempts() || metadataCodec.isAnswered() || !isConnectionLost(e)) {
+						return Flux.error(e);
+					}
+					final TrackedRequester next = this.selectRequester(httpRequestMetadata);
+					if (next == null || next == requester) {
+						return Flux.error(e);
+					}
+					log.warn("Retrying {} {} via {} as the connection {} was lost ({})", httpRequestMetadata.getMethod(), httpRequestMetadata.getUri(), next.getId(), requester.getId(), e.toString());
+					this.metrics.retried(httpRequestMetadata.getMethod());
+					return this.attempt(next, httpRequestMetadata, metadataCodec, attempt + 1);
+				});
+	}
+
+	static boolean isConnectionLost(Throwable e) {
+		// rejected requests were not processed at all
+		return e instanceof ClosedChannelException || e instanceof ConnectionErrorException || e instanceof ConnectionCloseException || e instanceof Retryable;
+	}
+
+	/**
+	 * Serves a request forwarded by a peer. Only clients of this replica are used so that requests never travel further.
+	 */
+	RequestCoalescer.Upstream serve(HttpRequestMetadata httpRequestMetadata, Flux<DataBuffer> body) {
+		final URI uri = httpRequestMetadata.getUri();
+		final TrackedRequester requester = this.registry.select(uri.getHost(), uri.getRawPath());
+		if (requester == null) {
+			final HttpResponseMetadata unavailable = new HttpResponseMetadata(HttpStatus.SERVICE_UNAVAILABLE, new HttpHeaders());
+			return new RequestCoalescer.Upstream(BinaryMetadataCodec.INSTANCE, body.doOnNext(DataBufferUtils::release)
+					.thenMany(Mono.fromCallable(() -> this.dataBufferFactory.wrap(BinaryMetadataCodec.INSTANCE.encodeResponse(unavailable, ByteBufAllocator.DEFAULT)))),
+					new FlowControl.Window(Long.MAX_VALUE));
+		}
+		return new RequestCoalescer.Upstream(requester.getMetadataCodec(), requester.track(this.send(requester, httpRequestMetadata, body)), requester.getWindow());
+	}
+
+	// the first buffer of the response stream is the response metadata
+	Flux<DataBuffer> send(TrackedRequester requester, HttpRequestMetadata httpRequestMetadata, Flux<DataBuffer> body) {
+		final MetadataCodec metadataCodec = requester.getMetadataCodec();
+		final long inlineBodyMaxSize = this.props.getInlineBodyMaxSize().toBytes();
+		if (requester.isInlineBody() && httpRequestMetadata.hasBodyOfAtMost(inlineBodyMaxSize)) {
+			// a small body fits into the first frame, so request-stream saves the frames of a channel
+			return DataBufferUtils.join(body, (int) inlineBodyMaxSize)
+					.flatMapMany(joined -> requester.getRequester()
+							.route("_")
+							.metadata(metadataCodec.encodeRequest(httpRequestMetadata, ByteBufAllocator.DEFAULT), metadataCodec.getMimeType())
+							.data(joined)
+							.retrieveFlux(DataBuffer.class));
+		}
+		if (httpRequestMetadata.hasBody()) {
+			return requester.getRequester()
 					.route("_")
-					.metadata(httpRequestMetadata, MediaType.APPLICATION_CBOR)
+					.metadata(metadataCodec.encodeRequest(httpRequestMetadata, ByteBufAllocator.DEFAULT), metadataCodec.getMimeType())
+					.data(body, DataBuffer.class)
 					.retrieveFlux(DataBuffer.class);
 		}
-		return responseStream.switchOnFirst(this.handleResponse(httpRequestMetadata, response)).then();
+		return requester.getRequester()
+				.route("_")
+				.metadata(metadataCodec.encodeRequest(httpRequestMetadata, ByteBufAllocator.DEFAULT), metadataCodec.getMimeType())
+				.retrieveFlux(DataBuffer.class);
 	}
 
-	BiFunction<Signal<? extends DataBuffer>, Flux<DataBuffer>, Publisher<? extends Void>> handleResponse(HttpRequestMetadata httpRequestMetadata, ServerHttpResponse response) {
+	BiFunction<Signal<? extends DataBuffer>, Flux<DataBuffer>, Publisher<? extends Void>> handleResponse(HttpRequestMetadata httpRequestMetadata, MetadataCodec metadataCodec, Supplier<FlowControl.Window> window, ServerHttpResponse response, ResponseCache.Lookup lookup, TunnelMetrics.Recording recording) {
 		return (signal, flux) -> {
 			if (signal.hasValue()) {
-				final byte[] httpResponseMetadataBytes = signal.get().asByteBuffer().array();
+				final DataBuffer httpResponseMetadataBuffer = signal.get();
 				final Flux<DataBuffer> body = flux.skip(1);
+				final HttpResponseMetadata httpResponseMetadata;
 				try {
-					final HttpResponseMetadata httpResponseMetadata = this.objectMapper.readValue(httpResponseMetadataBytes, HttpResponseMetadata.class);
-					response.setStatusCode(httpResponseMetadata.getStatus());
-					final HttpHeaders responseHeaders = response.getHeaders();
-					responseHeaders.addAll(httpResponseMetadata.getHeaders());
-					// https://stackoverflow.com/a/61493578/5861829
-					responseHeaders.remove(HttpHeaders.TRANSFER_ENCODING);
-					return response.writeWith(body)
-							.doFinally(__ -> {
-								if (log.isInfoEnabled()) {
-									final HttpHeaders httpHeaders = httpRequestMetadata.getHeaders();
-									log.info("{}\t{}\t{} {} {}", httpHeaders.getFirst("X-Real-IP"), httpRequestMetadata.getMethod(), httpResponseMetadata.getStatus().value(), httpRequestMetadata.getUri(), httpHeaders.getFirst(HttpHeaders.USER_AGENT));
-								}
-							});
+					httpResponseMetadata = metadataCodec.decodeResponse(NettyDataBufferFactory.toByteBuf(httpResponseMetadataBuffer));
+				}
+				finally {
+					DataBufferUtils.release(httpResponseMetadataBuffer);
 				}
-				catch (IOException e) {
-					throw new UncheckedIOException(e);
+				recording.responded(httpResponseMetadata.getHeaders());
+				if (lookup != null && lookup.isRevalidating() && httpResponseMetadata.getStatus() == HttpStatus.NOT_MODIFIED) {
+					final ResponseCache.CachedResponse revalidated = this.responseCache.revalidated(lookup, httpResponseMetadata.getHeaders());
+					return body.doOnNext(DataBufferUtils::release)
+							.then(this.writeCachedResponse(httpRequestMetadata, lookup, revalidated, "REVALIDATED", response, recording));
 				}
+				final Flux<DataBuffer> decompressedBody = this.decompress(httpResponseMetadata.getHeaders(), body);
+				response.setStatusCode(httpResponseMetadata.getStatus());
+				final HttpHeaders responseHeaders = response.getHeaders();
+				responseHeaders.addAll(httpResponseMetadata.getHeaders());
+				// https://stackoverflow.com/a/61493578/5861829
+				responseHeaders.remove(HttpHeaders.TRANSFER_ENCODING);
+				final Flux<DataBuffer> responseBody;
+				if (lookup != null) {
+					responseHeaders.set(ResponseCache.CACHE_STATUS_HEADER, "MISS");
+					responseBody = this.responseCache.store(lookup, httpResponseMetadata.getStatus(), httpResponseMetadata.getHeaders(), decompressedBody);
+				}
+				else {
+					responseBody = decompressedBody;
+				}
+				return response.writeWith(this.window(responseBody.doOnNext(buffer -> recording.responseBytes(buffer.readableByteCount())), window.get()));
 			}
 			return flux.log("wth").then();
 		};
 	}
 
+	// slow end users hold back the client instead of piling up its responses on the server
+	Flux<DataBuffer> window(Flux<DataBuffer> body, FlowControl.Window window) {
+		final TsunaguProps.FlowControl flowControl = this.props.getFlowControl();
+		if (!flowControl.isEnabled()) {
+			return body;
+		}
+		return FlowControl.window(body.map(NettyDataBufferFactory::toByteBuf), flowControl.getStreamWindow().toBytes(), window, this.stalled)
+				.map(this.dataBufferFactory::wrap);
+	}
+
+	// the link encoding is between the client and the server only, the headers are otherwise left as they are
+	Flux<DataBuffer> decompress(HttpHeaders headers, Flux<DataBuffer> body) {
+		final String linkEncoding = headers.getFirst(LinkCompression.LINK_ENCODING_HEADER);
+		if (linkEncoding == null) {
+			return body;
+		}
+		headers.remove(LinkCompression.LINK_ENCODING_HEADER);
+		if (!LinkCompression.DEFLATE.equals(linkEncoding)) {
+			return body.doOnNext(DataBufferUtils::release)
+					.thenMany(Flux.error(new IllegalStateException("Unknown link encoding: " + linkEncoding)));
+		}
+		return LinkCompression.decompress(body.map(NettyDataBufferFactory::toByteBuf), ByteBufAllocator.DEFAULT)
+				.map(this.dataBufferFactory::wrap);
+	}
+
+	Mono<Void> writeCachedResponse(HttpRequestMetadata httpRequestMetadata, ResponseCache.Lookup lookup, ResponseCache.CachedResponse cached, String cacheStatus, ServerHttpResponse response, TunnelMetrics.Recording recording) {
+		final HttpHeaders responseHeaders = response.getHeaders();
+		responseHeaders.addAll(cached.getHeaders());
+		responseHeaders.set(HttpHeaders.AGE, String.valueOf(cached.ageSeconds()));
+		responseHeaders.set(ResponseCache.CACHE_STATUS_HEADER, cacheStatus);
+		// the request headers only contain validators of the client itself if it sent any
+		final HttpStatus status = lookup.isConditional() && cached.matchesIfNoneMatch(httpRequestMetadata.getHeaders()) ? HttpStatus.NOT_MODIFIED : cached.getStatus();
+		response.setStatusCode(status);
+		if (status == HttpStatus.NOT_MODIFIED) {
+			responseHeaders.remove(HttpHeaders.CONTENT_LENGTH);
+			return response.setComplete();
+		}
+		responseHeaders.setContentLength(cached.getBody().length);
+		recording.responseBytes(cached.getBody().length);
+		return response.writeWith(Mono.fromSupplier(() -> this.dataBufferFactory.wrap(cached.getBody())));
+	}
+
 	@ConnectMapping
 	public void connect(RSocketRequester requester, @org.springframework.messaging.handler.annotation.Payload Map<String, String> data) {
 		final RSocketClient rsocketClient = requester.rsocketClient();
@@ -154,68 +385,180 @@ public class TsunaguController implements Function<ServerHttpRequest, WebSocketH
 			rsocketClient.fireAndForget(Mono.just(DefaultPayload.create("{\"type\":\"error\",\"message\":\"Token is wrong.\"}"))).subscribe();
 			return;
 		}
+		final String peer = data.get("peer");
+		if (peer != null) {
+			this.connectPeer(requester, requesterId, peer, data);
+			return;
+		}
+		// clients which open a single connection do not send their id
+		final String clientId = data.getOrDefault("clientId", requesterId.toString());
+		final boolean binary = BinaryMetadataCodec.MIME_TYPE.toString().equals(data.get("metadataMimeType"));
+		final int headerTableSize = binary ? this.negotiateHeaderTableSize(data.get("headerTableSize")) : 0;
+		final boolean compression = this.props.getCompression().isEnabled() && LinkCompression.DEFLATE.equals(data.get("compression"));
+		// older clients ignore the data of a request-stream
+		final boolean inlineBody = Boolean.parseBoolean(data.get("inlineBody"));
+		final RequesterRoutes routes = RequesterRoutes.parse(data.get("hosts"), data.get("paths"), data.get("tcp"));
+		final MetadataCodec metadataCodec;
+		if (headerTableSize > 0) {
+			metadataCodec = this.compressingMetadataCodec(requester, headerTableSize);
+		}
+		else {
+			metadataCodec = binary ? BinaryMetadataCodec.INSTANCE : CborMetadataCodec.INSTANCE;
+		}
 		requester.rsocket()
 				.onClose()
 				.doFirst(() -> {
-					requesters.put(requesterId, requester);
-					log.info("Client: Connected ({}) clients={}", requesterId, requesters.keySet());
-					rsocketClient.fireAndForget(Mono.just(DefaultPayload.create("{\"type\":\"connected\",\"requesterId\":\"" + requesterId + "\"}"))).subscribe();
+					// the client has to know the negotiated header table before the first request arrives
+					rsocketClient.fireAndForget(Mono.just(DefaultPayload.create("{\"type\":\"connected\",\"requesterId\":\"" + requesterId + "\",\"headerTableSize\":" + headerTableSize + ",\"compression\":\"" + (compression ? LinkCompression.DEFLATE : "identity") + "\"}"))).subscribe();
+					registry.register(requesterId, clientId, requester, metadataCodec, inlineBody, routes);
+					log.info("Client: Connected ({}, client={}, connection={}, metadata={}, headerTableSize={}, compression={}, {}) clients={}", requesterId, clientId, data.get("connectionIndex"), metadataCodec.getMimeType(), headerTableSize, compression, routes, registry.clients());
 				})
 				.doOnError(error -> {
 					log.warn("Client: Error (" + requester + ")", error);
 				})
 				.doFinally(consumer -> {
-					requesters.remove(requesterId);
-					log.info("Client: Disconnected ({}) clients={}", requesterId, requesters.keySet());
+					registry.unregister(requesterId);
+					log.info("Client: Disconnected ({}, client={}) clients={}", requesterId, clientId, registry.clients());
 				})
 				.subscribe();
 	}
 
+	void connectPeer(RSocketRequester requester, UUID requesterId, String nodeId, Map<String, String> data) {
+		if (!this.cluster.isEnabled()) {
+			log.warn("Peer: Rejected ({}, node={}) as cluster mode is disabled", requesterId, nodeId);
+			requester.rsocket().dispose();
+			return;
+		}
+		final boolean inlineBody = Boolean.parseBoolean(data.get("inlineBody"));
+		requester.rsocket()
+				.onClose()
+				.doFirst(() -> {
+					// links of peers always use the binary codec without a header table
+					cluster.register(requesterId, nodeId, requester, BinaryMetadataCodec.INSTANCE, inlineBody);
+					log.info("Peer: Connected ({}, node={})", requesterId, nodeId);
+				})
+				.doOnError(error -> {
+					log.warn("Peer: Error (" + requester + ")", error);
+				})
+				.doFinally(consumer -> {
+					cluster.unregister(requesterId);
+					log.info("Peer: Disconnected ({}, node={})", requesterId, nodeId);
+				})
+				.subscribe();
+	}
+
+	int negotiateHeaderTableSize(String requested) {
+		if (requested == null) {
+			return 0;
+		}
+		try {
+			return Math.max(Math.min(Integer.parseInt(requested), this.props.getHeaderTableSize()), 0);
+		}
+		catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	CompressingMetadataCodec compressingMetadataCodec(RSocketRequester requester, int headerTableSize) {
+		final HeaderCompressor compressor = new HeaderCompressor(headerTableSize, table -> requester
+				.route(CompressingMetadataCodec.HEADER_TABLE_ROUTE)
+				.data(this.dataBufferFactory.wrap(CompressingMetadataCodec.encodeHeaderTable(table, ByteBufAllocator.DEFAULT)))
+				.retrieveMono(Void.class));
+		return new CompressingMetadataCodec(compressor, new HeaderDecompressor(headerTableSize));
+	}
+
 	@MessageMapping("version_check")
 	public String versionCheck() {
 		return "OK";
 	}
 
+	/**
+	 * Tells a client whether the connection is still registered under the id it was given
+	 */
+	@MessageMapping("verify")
+	public boolean verify(RSocketRequester requester, @org.springframework.messaging.handler.annotation.Payload Map<String, String> data) {
+		final TrackedRequester trackedRequester = this.registry.find(requester);
+		return trackedRequester != null && trackedRequester.getId().toString().equals(data.get("requesterId"));
+	}
+
+	/**
+	 * A client which shuts down asks for no new requests. It is answered once its requests in flight are done or the
+	 * timeout elapsed, and the connection is closed shortly after.
+	 */
+	@MessageMapping(DRAIN_ROUTE)
+	public Mono<Void> drain(RSocketRequester requester) {
+		final TrackedRequester trackedRequester = this.registry.find(requester);
+		if (trackedRequester == null) {
+			return Mono.error(new IllegalStateException("Not a client."));
+		}
+		this.registry.drain(trackedRequester);
+		log.info("Client: Draining ({}, client={}, inFlight={})", trackedRequester.getId(), trackedRequester.getClientId(), trackedRequester.getInFlight());
+		final Duration timeout = this.props.getDrain().getTimeout();
+		return Flux.interval(Duration.ZERO, DRAIN_CHECK_INTERVAL)
+				.filter(__ -> trackedRequester.getInFlight() == 0)
+				.next()
+				.then()
+				.timeout(timeout, Mono.fromRunnable(() -> log.warn("Client: Closing ({}, client={}, inFlight={}) as it did not finish draining within {}", trackedRequester.getId(), trackedRequester.getClientId(), trackedRequester.getInFlight(), timeout)))
+				// the client closing its side does not end a resumable session, so the server does once the answer is out
+				.doFinally(__ -> Mono.delay(DRAIN_CHECK_INTERVAL).subscribe(x -> requester.rsocket().dispose()));
+	}
+
+	@MessageMapping(Cluster.STATE_ROUTE)
+	public Mono<Void> clusterState(RSocketRequester requester, @org.springframework.messaging.handler.annotation.Payload Map<String, Object> state) {
+		final Object clients = state.get("clients");
+		final Object hosts = state.getOrDefault("hosts", List.of("*"));
+		if (!(clients instanceof List) || !(hosts instanceof List) || !this.cluster.state(requester, ((List<?>) clients).stream().map(String::valueOf).collect(Collectors.toList()),
+				((List<?>) hosts).stream().map(String::valueOf).collect(Collectors.toSet()))) {
+			return Mono.error(new IllegalStateException("Not a peer."));
+		}
+		return Mono.empty();
+	}
+
+	@MessageMapping(CompressingMetadataCodec.HEADER_TABLE_ROUTE)
+	public Mono<Void> headerTable(RSocketRequester requester, DataBuffer data) {
+		try {
+			final TrackedRequester trackedRequester = this.registry.find(requester);
+			if (trackedRequester == null || !(trackedRequester.getMetadataCodec() instanceof CompressingMetadataCodec)) {
+				return Mono.error(new IllegalStateException("Header compression is not enabled."));
+			}
+			final CompressingMetadataCodec metadataCodec = (CompressingMetadataCodec) trackedRequester.getMetadataCodec();
+			metadataCodec.getDecompressor().install(HeaderTable.read(NettyDataBufferFactory.toByteBuf(data)));
+			return Mono.empty();
+		}
+		finally {
+			DataBufferUtils.release(data);
+		}
+	}
+
 	@Override
 	public WebSocketHandler apply(ServerHttpRequest request) {
 		return (session) -> {
 			final HttpHeaders httpHeaders = setForwardHeaders(request);
 			final HttpRequestMetadata httpRequestMetadata = new HttpRequestMetadata(request.getMethod(), request.getURI(), httpHeaders);
-			final Flux<DataBuffer> responseStream = this.getRequester()
+			final TrackedRequester requester = this.getRequester(httpRequestMetadata);
+			final MetadataCodec metadataCodec = requester.getMetadataCodec();
+			final Flux<DataBuffer> responseStream = requester.getRequester()
 					.route("_")
-					.metadata(httpRequestMetadata, MediaType.APPLICATION_CBOR)
+					.metadata(metadataCodec.encodeRequest(httpRequestMetadata, ByteBufAllocator.DEFAULT), metadataCodec.getMimeType())
 					.data(session.receive()
-							.doFirst(() -> {
-								if (log.isInfoEnabled()) {
-									log.info("{}\t{}\t101 {} {}", httpHeaders.getFirst("X-Real-IP"), httpRequestMetadata.getMethod(), httpRequestMetadata.getUri(), httpHeaders.getFirst(HttpHeaders.USER_AGENT));
-								}
-							})
-							.map(message -> DataBufferUtils.retain(message.getPayload())), DataBuffer.class)
+							.doFirst(() -> this.accessLog.webSocket(httpRequestMetadata))
+							.map(message -> {
+								this.metrics.webSocketMessage("inbound", message.getPayload().readableByteCount());
+								return DataBufferUtils.retain(message.getPayload());
+							}), DataBuffer.class)
 					.retrieveFlux(DataBuffer.class);
-			final Flux<WebSocketMessage> outbound = responseStream.map(buffer -> {
+			final Flux<WebSocketMessage> outbound = requester.trackInFlight(responseStream).map(buffer -> {
 				// first 1 byte of the data is the message type.
 				final Type type = Type.values()[buffer.read()];
-				return this.createMessage(session, type, buffer);
+				this.metrics.webSocketMessage("outbound", buffer.readableByteCount());
+				// the rest of the buffer becomes the payload as it is, text messages are not decoded
+				return new WebSocketMessage(type, buffer);
 			});
-			return session.send(outbound);
+			final LongTaskTimer.Sample sample = this.metrics.startWebSocketSession();
+			return session.send(outbound).doFinally(__ -> sample.stop());
 		};
 	}
 
-	WebSocketMessage createMessage(WebSocketSession session, Type type, DataBuffer buffer) {
-		switch (type) {
-			case TEXT:
-				return session.textMessage(buffer.toString(StandardCharsets.UTF_8));
-			case BINARY:
-				return session.binaryMessage(__ -> buffer);
-			case PING:
-				return session.pingMessage(__ -> buffer);
-			case PONG:
-				return session.pongMessage(__ -> buffer);
-			default:
-				throw new IllegalStateException("Unknown type: " + type);
-		}
-	}
-
 	HttpHeaders setForwardHeaders(ServerHttpRequest request) {
 		final URI uri = request.getURI();
 		final String scheme = uri.getScheme();
@@ -231,50 +574,14 @@ public class TsunaguController implements Function<ServerHttpRequest, WebSocketH
 		final HttpHeaders source = request.getHeaders();
 		final HttpHeaders httpHeaders = new HttpHeaders();
 		httpHeaders.addAll(source);
+		if (source.containsKey(ExtensionHeaderNames.STREAM_ID.text().toString())) {
+			// pseudo headers of HTTP/2 which Netty converted to headers of HTTP/1.1
+			for (ExtensionHeaderNames name : ExtensionHeaderNames.values()) {
+				httpHeaders.remove(name.text().toString());
+			}
+		}
 		final String remoteAddress = request.getRemoteAddress().getAddress().getHostAddress();
 		final String forwarded = String.format("for=%s;host=%s:%d;proto=%s", remoteAddress, uri.getHost(), port, scheme);
 		httpHeaders.set("Forwarded", forwarded); httpHeaders.set("X-Real-IP", remoteAddress); return httpHeaders;
 	}
-
-
-	@ExceptionHandler(AuthorizationException.class)
-	public Mono<ResponseEntity<Map<String, ?>>> handleAuthorizationException(AuthorizationException e) {
-		return Mono.just(ResponseEntity.status(HttpStatus.UNAUTHORIZED)
-				.header(HttpHeaders.WWW_AUTHENTICATE, "Basic realm=\"Tsunagu API\"")
-				.body(Map.of("error", Map.of("message", e.getMessage(), "type", "invalid_request_error", "code", e.code))));
-	}
-
-	void checkAuthorization(ServerHttpRequest request) {
-		if (StringUtils.hasText(this.props.getAuthorizationToken())) {
-			final String authorization = request.getHeaders().getFirst(HttpHeaders.AUTHORIZATION);
-			if (StringUtils.hasText(authorization)) {
-				if (authorization.startsWith("Bearer") || authorization.startsWith("bearer")) {
-					final String token = authorization.replace("Bearer ", "").replace("bearer ", "");
-					if (!Objects.equals(this.props.getAuthorizationToken(), token)) {
-						throw new AuthorizationException("Incorrect API key provided: " + token, "invalid_api_key");
-					}
-				}
-				else if (authorization.startsWith("Basic") || authorization.startsWith("basic")) {
-					final String basic = authorization.replace("Basic ", "").replace("basic ", "");
-					final String token = new String(Base64Utils.decodeFromString(basic)).split(":", 2)[1];
-					if (!Objects.equals(this.props.getAuthorizationToken(), token)) {
-						throw new AuthorizationException("Incorrect API key provided: " + token, "invalid_api_key");
-					}
-				}
-			}
-			else {
-				throw new AuthorizationException("You didn't provide an API key. You need to provide your API key in an Authorization header using Bearer auth (i.e. Authorization: Bearer YOUR_KEY), or as the password field (with blank username) if you're accesing the API from your browser and are prompted for a username and password.", "");
-			}
-		}
-	}
-
-	public static class AuthorizationException extends RuntimeException {
-
-
-		private final String code;
-
-		public AuthorizationException(String message, String code) {
-			super(message); this.code = code;
-		}
-	}
 }
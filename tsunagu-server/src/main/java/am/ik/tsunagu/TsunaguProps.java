@@ -1,6 +1,9 @@
 package am.ik.tsunagu;
 
+import java.net.URI;
+import java.time.Duration;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
@@ -9,10 +12,12 @@ import org.slf4j.LoggerFactory;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.boot.context.properties.ConstructorBinding;
+import org.springframework.boot.context.properties.bind.DefaultValue;
 import org.springframework.core.io.ContextResource;
 import org.springframework.core.io.DefaultResourceLoader;
 import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
+import org.springframework.util.unit.DataSize;
 
 @ConfigurationProperties(prefix = "tsunagu")
 @ConstructorBinding
@@ -25,12 +30,66 @@ public class TsunaguProps {
 
 	private final Map<String, String> acmeChallenge;
 
+	private final LoadBalancer loadBalancer;
+
+	private final int headerTableSize;
+
+	private final Cache cache;
+
+	private final Coalescing coalescing;
+
+	private final Compression compression;
+
+	private final FlowControl flowControl;
+
+	private final DataSize inlineBodyMaxSize;
+
+	private final Cluster cluster;
+
+	private final Resume resume;
+
+	private final Retry retry;
+
+	private final Drain drain;
+
+	private final RateLimit rateLimit;
+
+	private final ConcurrencyLimit concurrencyLimit;
+
+	private final Authorization authorization;
+
+	private final AccessLog accessLog;
+
+	private final Http2 http2;
+
+	private final Tcp tcp;
+
+	private final EventLoop eventLoop;
+
 	private final Logger log = LoggerFactory.getLogger(TsunaguProps.class);
 
-	public TsunaguProps(String token, String authorizationToken, Tls tls, Map<String, String> acmeChallenge) {
+	public TsunaguProps(String token, String authorizationToken, Tls tls, Map<String, String> acmeChallenge, @DefaultValue LoadBalancer loadBalancer, @DefaultValue("256") int headerTableSize, @DefaultValue Cache cache, @DefaultValue Coalescing coalescing, @DefaultValue Compression compression, @DefaultValue FlowControl flowControl, @DefaultValue("8KB") DataSize inlineBodyMaxSize, @DefaultValue Cluster cluster, @DefaultValue Resume resume, @DefaultValue Retry retry, @DefaultValue Drain drain, @DefaultValue RateLimit rateLimit, @DefaultValue ConcurrencyLimit concurrencyLimit, @DefaultValue Authorization authorization, @DefaultValue AccessLog accessLog, @DefaultValue Http2 http2, @DefaultValue Tcp tcp, @DefaultValue EventLoop eventLoop) {
 		this.tls = tls;
 		this.authorizationToken = authorizationToken;
 		this.acmeChallenge = acmeChallenge;
+		this.loadBalancer = loadBalancer;
+		this.headerTableSize = headerTableSize;
+		this.cache = cache;
+		this.coalescing = coalescing;
+		this.compression = compression;
+		this.flowControl = flowControl;
+		this.inlineBodyMaxSize = inlineBodyMaxSize;
+		this.cluster = cluster;
+		this.resume = resume;
+		this.retry = retry;
+		this.drain = drain;
+		this.rateLimit = rateLimit;
+		this.concurrencyLimit = concurrencyLimit;
+		this.authorization = authorization;
+		this.accessLog = accessLog;
+		this.http2 = http2;
+		this.tcp = tcp;
+		this.eventLoop = eventLoop;
 		if (token == null) {
 			this.token = UUID.randomUUID().toString();
 			log.info("Token = {}", this.token);
@@ -56,6 +115,767 @@ public class TsunaguProps {
 		return acmeChallenge == null ? Collections.emptyMap() : acmeChallenge;
 	}
 
+	public LoadBalancer getLoadBalancer() {
+		return loadBalancer;
+	}
+
+	public int getHeaderTableSize() {
+		return headerTableSize;
+	}
+
+	public Cache getCache() {
+		return cache;
+	}
+
+	public Coalescing getCoalescing() {
+		return coalescing;
+	}
+
+	public Compression getCompression() {
+		return compression;
+	}
+
+	public FlowControl getFlowControl() {
+		return flowControl;
+	}
+
+	/**
+	 * Request bodies with a Content-Length up to this size are sent along with the request metadata instead of as a
+	 * stream of their own
+	 */
+	public DataSize getInlineBodyMaxSize() {
+		return inlineBodyMaxSize;
+	}
+
+	public Cluster getCluster() {
+		return cluster;
+	}
+
+	public Resume getResume() {
+		return resume;
+	}
+
+	public Retry getRetry() {
+		return retry;
+	}
+
+	public Drain getDrain() {
+		return drain;
+	}
+
+	public RateLimit getRateLimit() {
+		return rateLimit;
+	}
+
+	public ConcurrencyLimit getConcurrencyLimit() {
+		return concurrencyLimit;
+	}
+
+	public Authorization getAuthorization() {
+		return authorization;
+	}
+
+	public AccessLog getAccessLog() {
+		return accessLog;
+	}
+
+	public Http2 getHttp2() {
+		return http2;
+	}
+
+	public Tcp getTcp() {
+		return tcp;
+	}
+
+	public EventLoop getEventLoop() {
+		return eventLoop;
+	}
+
+	@ConstructorBinding
+	public static class LoadBalancer {
+		private final Strategy strategy;
+
+		private final Duration decayTime;
+
+		public LoadBalancer(@DefaultValue("power_of_two_choices") Strategy strategy, @DefaultValue("10s") Duration decayTime) {
+			this.strategy = strategy;
+			this.decayTime = decayTime;
+		}
+
+		public Strategy getStrategy() {
+			return strategy;
+		}
+
+		public Duration getDecayTime() {
+			return decayTime;
+		}
+
+		public enum Strategy {
+			ROUND_ROBIN, POWER_OF_TWO_CHOICES, EWMA
+		}
+	}
+
+	@ConstructorBinding
+	public static class Cache {
+		private final boolean enabled;
+
+		private final DataSize maxSize;
+
+		private final DataSize maxSizePerHost;
+
+		private final DataSize maxEntrySize;
+
+		private final Duration staleRetention;
+
+		public Cache(@DefaultValue("false") boolean enabled, @DefaultValue("64MB") DataSize maxSize, @DefaultValue("16MB") DataSize maxSizePerHost, @DefaultValue("1MB") DataSize maxEntrySize, @DefaultValue("1h") Duration staleRetention) {
+			this.enabled = enabled;
+			this.maxSize = maxSize;
+			this.maxSizePerHost = maxSizePerHost;
+			this.maxEntrySize = maxEntrySize;
+			this.staleRetention = staleRetention;
+		}
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public DataSize getMaxSize() {
+			return maxSize;
+		}
+
+		public DataSize getMaxSizePerHost() {
+			return maxSizePerHost;
+		}
+
+		public DataSize getMaxEntrySize() {
+			return maxEntrySize;
+		}
+
+		/**
+		 * How long a stale response with a validator is kept for revalidation
+		 */
+		public Duration getStaleRetention() {
+			return staleRetention;
+		}
+	}
+
+	@ConstructorBinding
+	public static class Coalescing {
+		private final boolean enabled;
+
+		private final List<String> keyHeaders;
+
+		public Coalescing(@DefaultValue("false") boolean enabled, @DefaultValue({ "Accept", "Accept-Encoding", "Accept-Language", "Authorization", "Cookie", "If-None-Match", "If-Modified-Since", "Range" }) List<String> keyHeaders) {
+			this.enabled = enabled;
+			this.keyHeaders = keyHeaders;
+		}
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		/**
+		 * Request headers which have to be equal for requests to share a response, in addition to the method and
+		 * the uri
+		 */
+		public List<String> getKeyHeaders() {
+			return keyHeaders;
+		}
+	}
+
+	@ConstructorBinding
+	public static class Compression {
+		private final boolean enabled;
+
+		public Compression(@DefaultValue("true") boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		/**
+		 * Whether clients are allowed to compress response bodies on the link
+		 */
+		public boolean isEnabled() {
+			return enabled;
+		}
+	}
+
+	/**
+	 * Limits the response bytes buffered between the tunnel and slow end users
+	 */
+	@ConstructorBinding
+	public static class FlowControl {
+		private final boolean enabled;
+
+		private final DataSize streamWindow;
+
+		private final DataSize connectionWindow;
+
+		public FlowControl(@DefaultValue("true") boolean enabled, @DefaultValue("256KB") DataSize streamWindow, @DefaultValue("8MB") DataSize connectionWindow) {
+			this.enabled = enabled;
+			this.streamWindow = streamWindow;
+			this.connectionWindow = connectionWindow;
+		}
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		/**
+		 * Bytes of a response which may be buffered before the client is asked to wait
+		 */
+		public DataSize getStreamWindow() {
+			return streamWindow;
+		}
+
+		/**
+		 * Bytes of all responses through a connection of a client which may be buffered
+		 */
+		public DataSize getConnectionWindow() {
+			return connectionWindow;
+		}
+	}
+
+	/**
+	 * Replicas of the server which forward requests to each other when the client is connected to another replica
+	 */
+	@ConstructorBinding
+	public static class Cluster {
+		private final boolean enabled;
+
+		private final String nodeId;
+
+		private final List<URI> peers;
+
+		private final Duration stateInterval;
+
+		public Cluster(@DefaultValue("false") boolean enabled, String nodeId, List<URI> peers, @DefaultValue("2s") Duration stateInterval) {
+			this.enabled = enabled;
+			this.nodeId = nodeId == null ? UUID.randomUUID().toString() : nodeId;
+			this.peers = peers == null ? List.of() : List.copyOf(peers);
+			this.stateInterval = stateInterval;
+		}
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public String getNodeId() {
+			return nodeId;
+		}
+
+		/**
+		 * RSocket endpoints of the other replicas such as {@code ws://tsunagu-1:8080/tsunagu}
+		 */
+		public List<URI> getPeers() {
+			return peers;
+		}
+
+		/**
+		 * How often a replica tells its peers which clients are connected to it
+		 */
+		public Duration getStateInterval() {
+			return stateInterval;
+		}
+	}
+
+	/**
+	 * Resumption of RSocket sessions of clients which reconnect after losing their connection
+	 */
+	@ConstructorBinding
+	public static class Resume {
+		private final boolean enabled;
+
+		private final Duration sessionDuration;
+
+		private final DataSize bufferSize;
+
+		public Resume(@DefaultValue("false") boolean enabled, @DefaultValue("15s") Duration sessionDuration, @DefaultValue("4MB") DataSize bufferSize) {
+			this.enabled = enabled;
+			this.sessionDuration = sessionDuration;
+			this.bufferSize = bufferSize;
+		}
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		/**
+		 * How long a session is kept for a client to resume it, requests in flight wait as long
+		 */
+		public Duration getSessionDuration() {
+			return sessionDuration;
+		}
+
+		/**
+		 * Bytes of frames kept per session to be sent again after resuming, held in memory for every connected client
+		 */
+		public DataSize getBufferSize() {
+			return bufferSize;
+		}
+	}
+
+	/**
+	 * Requests without a body and with an idempotent method are sent again through another connection when theirs is
+	 * lost before the response started
+	 */
+	@ConstructorBinding
+	public static class Retry {
+		private final int maxAttempts;
+
+		public Retry(@DefaultValue("1") int maxAttempts) {
+			this.maxAttempts = maxAttempts;
+		}
+
+		/**
+		 * Attempts including the first one, {@code 1} disables retries
+		 */
+		public int getMaxAttempts() {
+			return maxAttempts;
+		}
+	}
+
+	/**
+	 * Clients which shut down drain their connections, no new requests are sent through them
+	 */
+	@ConstructorBinding
+	public static class Drain {
+		private final Duration timeout;
+
+		public Drain(@DefaultValue("30s") Duration timeout) {
+			this.timeout = timeout;
+		}
+
+		/**
+		 * How long the requests in flight of a draining connection may take before the server closes it
+		 */
+		public Duration getTimeout() {
+			return timeout;
+		}
+	}
+
+	/**
+	 * Requests per second allowed per end user, per Authorization header or per both, answered with 429 beyond that
+	 */
+	@ConstructorBinding
+	public static class RateLimit {
+		private final boolean enabled;
+
+		private final double rate;
+
+		private final int burst;
+
+		private final List<Key> keyBy;
+
+		private final Map<String, Double> routes;
+
+		private final int maximumKeys;
+
+		public RateLimit(@DefaultValue("false") boolean enabled, @DefaultValue("100") double rate, @DefaultValue("200") int burst, @DefaultValue("ip") List<Key> keyBy, Map<String, Double> routes, @DefaultValue("100000") int maximumKeys) {
+			this.enabled = enabled;
+			this.rate = rate;
+			this.burst = burst;
+			this.keyBy = keyBy;
+			this.routes = routes == null ? Map.of() : Map.copyOf(routes);
+			this.maximumKeys = maximumKeys;
+		}
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		/**
+		 * Requests per second per key
+		 */
+		public double getRate() {
+			return rate;
+		}
+
+		/**
+		 * Requests per key allowed at once after being idle
+		 */
+		public int getBurst() {
+			return burst;
+		}
+
+		public List<Key> getKeyBy() {
+			return keyBy;
+		}
+
+		/**
+		 * Requests per second per key by path prefix, matching whole segments. Requests under a prefix have buckets of
+		 * their own.
+		 */
+		public Map<String, Double> getRoutes() {
+			return routes;
+		}
+
+		/**
+		 * Keys kept in memory, the least recently used ones are forgotten beyond that
+		 */
+		public int getMaximumKeys() {
+			return maximumKeys;
+		}
+
+		public enum Key {
+			/**
+			 * Address of the end user, {@code X-Real-IP}
+			 */
+			IP,
+			/**
+			 * Authorization header
+			 */
+			TOKEN
+		}
+	}
+
+	/**
+	 * Adaptive limit of the requests in flight per connection of a client, answered with 503 beyond that
+	 */
+	@ConstructorBinding
+	public static class ConcurrencyLimit {
+		private final boolean enabled;
+
+		private final int initialLimit;
+
+		private final int minLimit;
+
+		private final int maxLimit;
+
+		private final Duration latencyThreshold;
+
+		private final double backoffRatio;
+
+		public ConcurrencyLimit(@DefaultValue("false") boolean enabled, @DefaultValue("100") int initialLimit, @DefaultValue("10") int minLimit, @DefaultValue("1000") int maxLimit, @DefaultValue("5s") Duration latencyThreshold, @DefaultValue("0.9") double backoffRatio) {
+			this.enabled = enabled;
+			this.initialLimit = initialLimit;
+			this.minLimit = minLimit;
+			this.maxLimit = maxLimit;
+			this.latencyThreshold = latencyThreshold;
+			this.backoffRatio = backoffRatio;
+		}
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public int getInitialLimit() {
+			return initialLimit;
+		}
+
+		public int getMinLimit() {
+			return minLimit;
+		}
+
+		public int getMaxLimit() {
+			return maxLimit;
+		}
+
+		/**
+		 * Time to the response headers beyond which a request counts as dropped and the limit shrinks
+		 */
+		public Duration getLatencyThreshold() {
+			return latencyThreshold;
+		}
+
+		public double getBackoffRatio() {
+			return backoffRatio;
+		}
+	}
+
+	/**
+	 * API keys which end users have to present in addition to {@code authorization-token}
+	 */
+	@ConstructorBinding
+	public static class Authorization {
+		private final List<Token> tokens;
+
+		public Authorization(List<Token> tokens) {
+			this.tokens = tokens == null ? List.of() : List.copyOf(tokens);
+		}
+
+		public List<Token> getTokens() {
+			return tokens;
+		}
+
+		@ConstructorBinding
+		public static class Token {
+			private final String value;
+
+			private final List<Scope> scopes;
+
+			private final List<String> routes;
+
+			public Token(String value, @DefaultValue({ "read", "write" }) List<Scope> scopes, List<String> routes) {
+				this.value = value;
+				this.scopes = scopes;
+				this.routes = routes == null ? List.of() : List.copyOf(routes);
+			}
+
+			/**
+			 * The token itself, or its SHA-256 digest in hex prefixed with {@code sha256:}
+			 */
+			public String getValue() {
+				return value;
+			}
+
+			public List<Scope> getScopes() {
+				return scopes;
+			}
+
+			/**
+			 * Path prefixes the token is valid for, all paths if empty
+			 */
+			public List<String> getRoutes() {
+				return routes;
+			}
+		}
+
+		public enum Scope {
+			/**
+			 * GET, HEAD and OPTIONS
+			 */
+			READ,
+			/**
+			 * All other methods
+			 */
+			WRITE
+		}
+	}
+
+	/**
+	 * Access log written as JSON lines by a background thread
+	 */
+	@ConstructorBinding
+	public static class AccessLog {
+		private final boolean enabled;
+
+		private final Output output;
+
+		private final String file;
+
+		private final DataSize maxFileSize;
+
+		private final int maxHistory;
+
+		private final int bufferSize;
+
+		private final int batchSize;
+
+		private final Duration flushInterval;
+
+		private final double sampleRate;
+
+		public AccessLog(@DefaultValue("true") boolean enabled, @DefaultValue("log") Output output, @DefaultValue("access.log") String file, @DefaultValue("100MB") DataSize maxFileSize, @DefaultValue("5") int maxHistory,
+				@DefaultValue("8192") int bufferSize, @DefaultValue("256") int batchSize, @DefaultValue("100ms") Duration flushInterval, @DefaultValue("1.0") double sampleRate) {
+			this.enabled = enabled;
+			this.output = output;
+			this.file = file;
+			this.maxFileSize = maxFileSize;
+			this.maxHistory = maxHistory;
+			this.bufferSize = bufferSize;
+			this.batchSize = batchSize;
+			this.flushInterval = flushInterval;
+			this.sampleRate = sampleRate;
+		}
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public Output getOutput() {
+			return output;
+		}
+
+		/**
+		 * Path of the file with {@code output=file}
+		 */
+		public String getFile() {
+			return file;
+		}
+
+		/**
+		 * Size at which the file is rolled
+		 */
+		public DataSize getMaxFileSize() {
+			return maxFileSize;
+		}
+
+		/**
+		 * Rolled files which are kept
+		 */
+		public int getMaxHistory() {
+			return maxHistory;
+		}
+
+		/**
+		 * Entries waiting to be written, further entries are dropped
+		 */
+		public int getBufferSize() {
+			return bufferSize;
+		}
+
+		public int getBatchSize() {
+			return batchSize;
+		}
+
+		/**
+		 * How long the writer waits for more entries once the buffer is empty
+		 */
+		public Duration getFlushInterval() {
+			return flushInterval;
+		}
+
+		/**
+		 * Fraction of the responses without a server error which are logged
+		 */
+		public double getSampleRate() {
+			return sampleRate;
+		}
+
+		public enum Output {
+			/**
+			 * The application log, logger {@code am.ik.tsunagu.AccessLog.entries}
+			 */
+			LOG,
+			STDOUT,
+			/**
+			 * A file rolled by size
+			 */
+			FILE
+		}
+	}
+
+	/**
+	 * HTTP/2 for end users, negotiated with ALPN over TLS and optionally without TLS (h2c). The tunnel itself stays on
+	 * WebSocket over HTTP/1.1.
+	 */
+	@ConstructorBinding
+	public static class Http2 {
+		private final boolean enabled;
+
+		private final boolean cleartext;
+
+		private final long maxConcurrentStreams;
+
+		private final DataSize initialWindowSize;
+
+		private final DataSize maxFrameSize;
+
+		private final DataSize maxHeaderListSize;
+
+		public Http2(@DefaultValue("true") boolean enabled, @DefaultValue("false") boolean cleartext, @DefaultValue("100") long maxConcurrentStreams, @DefaultValue("1MB") DataSize initialWindowSize,
+				@DefaultValue("16KB") DataSize maxFrameSize, @DefaultValue("8KB") DataSize maxHeaderListSize) {
+			this.enabled = enabled;
+			this.cleartext = cleartext;
+			this.maxConcurrentStreams = maxConcurrentStreams;
+			this.initialWindowSize = initialWindowSize;
+			this.maxFrameSize = maxFrameSize;
+			this.maxHeaderListSize = maxHeaderListSize;
+		}
+
+		/**
+		 * Offers {@code h2} with ALPN when TLS is enabled
+		 */
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		/**
+		 * Accepts h2c without TLS, both with prior knowledge and by upgrading from HTTP/1.1
+		 */
+		public boolean isCleartext() {
+			return cleartext;
+		}
+
+		/**
+		 * Requests in flight on one connection
+		 */
+		public long getMaxConcurrentStreams() {
+			return maxConcurrentStreams;
+		}
+
+		/**
+		 * Bytes of a request body a client may send before the server asks for more
+		 */
+		public DataSize getInitialWindowSize() {
+			return initialWindowSize;
+		}
+
+		public DataSize getMaxFrameSize() {
+			return maxFrameSize;
+		}
+
+		public DataSize getMaxHeaderListSize() {
+			return maxHeaderListSize;
+		}
+	}
+
+	/**
+	 * Public ports whose connections are forwarded as raw bytes to the TCP target of the same name on a client
+	 */
+	@ConstructorBinding
+	public static class Tcp {
+		private final Map<String, Integer> ports;
+
+		private final String bindAddress;
+
+		public Tcp(Map<String, Integer> ports, @DefaultValue("0.0.0.0") String bindAddress) {
+			this.ports = ports == null ? Map.of() : Map.copyOf(ports);
+			this.bindAddress = bindAddress;
+		}
+
+		/**
+		 * Ports by the name of the target, e.g. {@code tsunagu.tcp.ports.postgres=5432}
+		 */
+		public Map<String, Integer> getPorts() {
+			return ports;
+		}
+
+		public String getBindAddress() {
+			return bindAddress;
+		}
+	}
+
+	/**
+	 * Event loops of the server. End users and the WebSockets of clients share the public loops as they share the
+	 * port, links to cluster peers run on loops of their own.
+	 */
+	@ConstructorBinding
+	public static class EventLoop {
+		private final boolean preferNative;
+
+		private final int publicThreads;
+
+		private final int tunnelThreads;
+
+		public EventLoop(@DefaultValue("true") boolean preferNative, @DefaultValue("0") int publicThreads, @DefaultValue("0") int tunnelThreads) {
+			this.preferNative = preferNative;
+			this.publicThreads = publicThreads;
+			this.tunnelThreads = tunnelThreads;
+		}
+
+		/**
+		 * Uses epoll (or kqueue) when the platform supports it and NIO otherwise
+		 */
+		public boolean isPreferNative() {
+			return preferNative;
+		}
+
+		/**
+		 * Threads for the HTTP and TCP ports, {@code 0} for as many as Reactor Netty uses by default
+		 */
+		public int getPublicThreads() {
+			return publicThreads;
+		}
+
+		/**
+		 * Threads for the links to cluster peers, {@code 0} for one per peer
+		 */
+		public int getTunnelThreads() {
+			return tunnelThreads;
+		}
+	}
+
 	@ConstructorBinding
 	public static class Tls {
 		private final Resource crt;
@@ -3,14 +3,20 @@ package am.ik.tsunagu;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 
+import io.rsocket.core.Resume;
+import io.rsocket.resume.InMemoryResumableFramesStore;
 import org.slf4j.LoggerFactory;
 import reactor.core.publisher.Hooks;
 import reactor.netty.http.Http11SslContextSpec;
+import reactor.netty.http.Http2SslContextSpec;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.server.HttpServer;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.boot.info.JavaInfo;
+import org.springframework.boot.rsocket.server.RSocketServerCustomizer;
 import org.springframework.boot.web.embedded.netty.NettyServerCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.http.HttpHeaders;
@@ -44,6 +50,14 @@ import static org.springframework.nativex.hint.TypeAccess.PUBLIC_METHODS;
 								JavaInfo.JavaVirtualMachineInfo.class
 						},
 						access = { DECLARED_FIELDS, DECLARED_METHODS, DECLARED_CONSTRUCTORS, PUBLIC_FIELDS, PUBLIC_METHODS, PUBLIC_CONSTRUCTORS }
+				),
+				// classes generated by Caffeine for the configuration of ResponseCache
+				@TypeHint(
+						typeNames = {
+								"com.github.benmanes.caffeine.cache.SSLMWA",
+								"com.github.benmanes.caffeine.cache.PSAMW"
+						},
+						access = { DECLARED_CONSTRUCTORS }
 				)
 		})
 public class TsunaguServerApplication {
@@ -62,19 +76,55 @@ public class TsunaguServerApplication {
 		SpringApplication.run(TsunaguServerApplication.class, args);
 	}
 
+	@Bean
+	public RSocketServerCustomizer resumeCustomizer(TsunaguProps props) {
+		final TsunaguProps.Resume resume = props.getResume();
+		if (!resume.isEnabled()) {
+			return rsocketServer -> { };
+		}
+		// only clients which ask for resumption in their setup get a session
+		return rsocketServer -> rsocketServer.resume(new Resume()
+				.sessionDuration(resume.getSessionDuration())
+				.storeFactory(token -> new InMemoryResumableFramesStore("server", token, (int) resume.getBufferSize().toBytes())));
+	}
+
+	@Bean
+	public NettyServerCustomizer eventLoopCustomizer(EventLoops eventLoops) {
+		return httpServer -> httpServer.runOn(eventLoops.getPublicLoops(), eventLoops.isPreferNative());
+	}
+
 	@Bean
 	public NettyServerCustomizer customizer(TsunaguProps props) {
 		final TsunaguProps.Tls tls = props.getTls();
+		final TsunaguProps.Http2 http2 = props.getHttp2();
 		// @ConditionalOnProperty(name = { "tsunagu.tls.crt", "tsunagu.tls.key" }) is not working in the native image ???
 		if (tls == null || tls.getCrt() == null || tls.getKey() == null) {
-			return httpServer -> httpServer;
+			if (!http2.isCleartext()) {
+				return httpServer -> httpServer;
+			}
+			LoggerFactory.getLogger(TsunaguServerApplication.class).info("h2c is enabled");
+			// HTTP/1.1 stays for the WebSocket of the tunnel
+			return httpServer -> http2Settings(httpServer.protocol(HttpProtocol.HTTP11, HttpProtocol.H2C), http2);
 		}
 		LoggerFactory.getLogger(TsunaguServerApplication.class)
-				.info("TLS is enabled (crt = {}, key = {})", tls.getCrt(), tls.getKey());
-		return httpServer -> httpServer
+				.info("TLS is enabled (crt = {}, key = {}, h2 = {})", tls.getCrt(), tls.getKey(), http2.isEnabled());
+		if (!http2.isEnabled()) {
+			return httpServer -> httpServer
+					.secure(sslContextSpec -> {
+						try {
+							final Http11SslContextSpec spec = Http11SslContextSpec.forServer(tls.getCrt().getFile(), tls.getKey().getFile());
+							sslContextSpec.sslContext(spec);
+						}
+						catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					});
+		}
+		// clients which do not offer h2 with ALPN get HTTP/1.1
+		return httpServer -> http2Settings(httpServer.protocol(HttpProtocol.HTTP11, HttpProtocol.H2), http2)
 				.secure(sslContextSpec -> {
 					try {
-						final Http11SslContextSpec spec = Http11SslContextSpec.forServer(props.getTls().getCrt().getFile(), props.getTls().getKey().getFile());
+						final Http2SslContextSpec spec = Http2SslContextSpec.forServer(tls.getCrt().getFile(), tls.getKey().getFile());
 						sslContextSpec.sslContext(spec);
 					}
 					catch (IOException e) {
@@ -82,4 +132,12 @@ public class TsunaguServerApplication {
 					}
 				});
 	}
+
+	static HttpServer http2Settings(HttpServer httpServer, TsunaguProps.Http2 http2) {
+		return httpServer.http2Settings(settings -> settings
+				.maxConcurrentStreams(http2.getMaxConcurrentStreams())
+				.initialWindowSize((int) http2.getInitialWindowSize().toBytes())
+				.maxFrameSize((int) http2.getMaxFrameSize().toBytes())
+				.maxHeaderListSize(http2.getMaxHeaderListSize().toBytes()));
+	}
 }
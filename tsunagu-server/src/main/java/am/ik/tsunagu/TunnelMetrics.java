@@ -0,0 +1,274 @@
+package am.ik.tsunagu;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.LongTaskTimer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+/**
+ * Metrics of the server side of the tunnel. Tags are limited to the method, the status class, the cache status and
+ * the ids of connected requesters so that the number of series stays bounded.
+ */
+@Component
+public class TunnelMetrics {
+	/**
+	 * Latency of the upstream in microseconds as measured by the client
+	 */
+	public static final String UPSTREAM_LATENCY_HEADER = "X-Tsunagu-Upstream-Latency";
+
+	private final MeterRegistry meterRegistry;
+
+	private final LongTaskTimer webSocketSessions;
+
+	private final ConcurrentMap<TrackedRequester, List<Gauge>> requesterGauges = new ConcurrentHashMap<>();
+
+	public TunnelMetrics(MeterRegistry meterRegistry) {
+		this.meterRegistry = meterRegistry;
+		this.webSocketSessions = LongTaskTimer.builder("tsunagu.websocket.sessions")
+				.description("WebSocket sessions through the tunnel")
+				.register(meterRegistry);
+	}
+
+	public void register(TrackedRequester requester) {
+		this.requesterGauges.put(requester, List.of(
+				Gauge.builder("tsunagu.requester.in.flight", requester, TrackedRequester::getInFlight)
+						.description("Requests in flight per connection of a client")
+						.tag("requester", requester.getId().toString())
+						.tag("client", requester.getClientId())
+						.register(this.meterRegistry),
+				Gauge.builder("tsunagu.requester.buffered", requester, r -> r.getWindow().getBuffered())
+						.description("Response bytes of a connection buffered until end users read them")
+						.baseUnit("bytes")
+						.tag("requester", requester.getId().toString())
+						.tag("client", requester.getClientId())
+						.register(this.meterRegistry),
+				Gauge.builder("tsunagu.requester.concurrency.limit", requester, r -> r.getConcurrencyLimit().getLimit())
+						.description("Adaptive limit of the requests in flight per connection of a client")
+						.tag("requester", requester.getId().toString())
+						.tag("client", requester.getClientId())
+						.register(this.meterRegistry)));
+	}
+
+	public void unregister(TrackedRequester requester) {
+		final List<Gauge> gauges = this.requesterGauges.remove(requester);
+		if (gauges != null) {
+			gauges.forEach(this.meterRegistry::remove);
+		}
+	}
+
+	/**
+	 * @param direction {@code request} or {@code response}
+	 * @return listener of the nanoseconds a stream waited for its flow control window
+	 */
+	public LongConsumer stalled(String direction) {
+		final Timer timer = Timer.builder("tsunagu.flow.stalled")
+				.description("Time streams waited because too many of their bytes were buffered")
+				.tag("direction", direction)
+				.register(this.meterRegistry);
+		return nanos -> timer.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	public Recording start(HttpMethod method) {
+		return new Recording(method);
+	}
+
+	public LongTaskTimer.Sample startWebSocketSession() {
+		return this.webSocketSessions.start();
+	}
+
+	/**
+	 * @param direction {@code inbound} from the end user or {@code outbound} to the end user
+	 */
+	public void webSocketMessage(String direction, long bytes) {
+		DistributionSummary.builder("tsunagu.websocket.messages")
+				.description("WebSocket messages through the tunnel")
+				.baseUnit("bytes")
+				.tag("direction", direction)
+				.register(this.meterRegistry)
+				.record(bytes);
+	}
+
+	public LongTaskTimer.Sample startTcpSession(String target) {
+		return LongTaskTimer.builder("tsunagu.tcp.sessions")
+				.description("TCP connections forwarded through the tunnel")
+				.tag("target", target)
+				.register(this.meterRegistry)
+				.start();
+	}
+
+	/**
+	 * @param direction {@code inbound} from the end user or {@code outbound} to the end user
+	 */
+	public Counter tcpBytes(String target, String direction) {
+		return Counter.builder("tsunagu.tcp.bytes")
+				.description("Bytes of TCP connections forwarded through the tunnel")
+				.baseUnit("bytes")
+				.tag("target", target)
+				.tag("direction", direction)
+				.register(this.meterRegistry);
+	}
+
+	/**
+	 * A TCP connection is closed right away as no client forwards its target
+	 */
+	public void tcpRejected(String target) {
+		Counter.builder("tsunagu.tcp.rejected")
+				.description("TCP connections closed as no client forwards their target")
+				.tag("target", target)
+				.register(this.meterRegistry)
+				.increment();
+	}
+
+	/**
+	 * @param reason {@code rate_limit} or {@code concurrency_limit}
+	 */
+	public void rejected(String reason) {
+		Counter.builder("tsunagu.requests.rejected")
+				.description("Requests answered by the server itself as a limit was reached")
+				.tag("reason", reason)
+				.register(this.meterRegistry)
+				.increment();
+	}
+
+	/**
+	 * A request is sent again through another connection since its connection was lost
+	 */
+	public void retried(HttpMethod method) {
+		Counter.builder("tsunagu.requests.retried")
+				.description("Requests sent again after the connection to the client was lost")
+				.tag("method", method(method))
+				.register(this.meterRegistry)
+				.increment();
+	}
+
+	static String method(HttpMethod method) {
+		return method == null ? "OTHER" : method.name();
+	}
+
+	static String status(HttpStatus status) {
+		return status == null ? "UNKNOWN" : (status.value() / 100) + "xx";
+	}
+
+	public class Recording {
+		private final String method;
+
+		private final long start = System.nanoTime();
+
+		// time to the response headers, -1 until they arrive
+		private long firstByte = -1;
+
+		// as reported by the client, -1 if unknown
+		private long upstream = -1;
+
+		private long requestBytes;
+
+		private long responseBytes;
+
+		Recording(HttpMethod method) {
+			this.method = method(method);
+		}
+
+		/**
+		 * The response headers arrived through the tunnel now. The latency reported by the client is removed from the
+		 * headers and the rest of the time is attributed to the tunnel.
+		 */
+		public void responded(HttpHeaders responseHeaders) {
+			final long latency = System.nanoTime() - this.start;
+			this.firstByte = latency;
+			Timer.builder("tsunagu.proxy.first.byte")
+					.description("Time from receiving a request until the response headers arrive through the tunnel")
+					.tag("method", this.method)
+					.register(meterRegistry)
+					.record(latency, TimeUnit.NANOSECONDS);
+			final String upstreamLatency = responseHeaders.getFirst(UPSTREAM_LATENCY_HEADER);
+			if (upstreamLatency == null) {
+				return;
+			}
+			responseHeaders.remove(UPSTREAM_LATENCY_HEADER);
+			final long upstreamNanos;
+			try {
+				upstreamNanos = TimeUnit.MICROSECONDS.toNanos(Long.parseLong(upstreamLatency));
+			}
+			catch (NumberFormatException e) {
+				return;
+			}
+			this.upstream = upstreamNanos;
+			Timer.builder("tsunagu.proxy.upstream")
+					.description("Latency of the upstream as measured by the client")
+					.tag("method", this.method)
+					.register(meterRegistry)
+					.record(upstreamNanos, TimeUnit.NANOSECONDS);
+			Timer.builder("tsunagu.proxy.tunnel")
+					.description("Latency to the first byte minus the latency of the upstream")
+					.tag("method", this.method)
+					.register(meterRegistry)
+					.record(Math.max(latency - upstreamNanos, 0), TimeUnit.NANOSECONDS);
+		}
+
+		public void requestBytes(long bytes) {
+			this.requestBytes += bytes;
+		}
+
+		public long getElapsedNanos() {
+			return System.nanoTime() - this.start;
+		}
+
+		public long getFirstByteNanos() {
+			return firstByte;
+		}
+
+		public long getUpstreamNanos() {
+			return upstream;
+		}
+
+		public long getRequestBytes() {
+			return requestBytes;
+		}
+
+		public long getResponseBytes() {
+			return responseBytes;
+		}
+
+		public void responseBytes(long bytes) {
+			this.responseBytes += bytes;
+		}
+
+		/**
+		 * @param cache cache status of the response or {@code NONE} if the response cache was not involved
+		 */
+		public void finish(HttpStatus status, String cache) {
+			Timer.builder("tsunagu.proxy.requests")
+					.description("Time from receiving a request until the response is written")
+					.tag("method", this.method)
+					.tag("status", status(status))
+					.tag("cache", cache)
+					.register(meterRegistry)
+					.record(System.nanoTime() - this.start, TimeUnit.NANOSECONDS);
+			this.bytes("request", this.requestBytes);
+			this.bytes("response", this.responseBytes);
+		}
+
+		void bytes(String direction, long bytes) {
+			DistributionSummary.builder("tsunagu.proxy.bytes")
+					.description("Body size exchanged with the end user")
+					.baseUnit("bytes")
+					.tag("method", this.method)
+					.tag("direction", direction)
+					.register(meterRegistry)
+					.record(bytes);
+		}
+	}
+}
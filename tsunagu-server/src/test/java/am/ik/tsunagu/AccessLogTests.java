@@ -0,0 +1,85 @@
+package am.ik.tsunagu;
+
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AccessLogTests {
+
+	@Test
+	void ringKeepsOrderAndRejectsWhenFull() {
+		final AccessLog.Ring<Integer> ring = new AccessLog.Ring<>(3);
+		assertThat(ring.capacity()).isEqualTo(4);
+		for (int i = 0; i < 4; i++) {
+			assertThat(ring.offer(i)).isTrue();
+		}
+		assertThat(ring.offer(4)).isFalse();
+		final List<Integer> drained = new ArrayList<>();
+		assertThat(ring.drain(drained::add, 3)).isEqualTo(3);
+		assertThat(ring.offer(5)).isTrue();
+		assertThat(ring.drain(drained::add, 10)).isEqualTo(2);
+		assertThat(drained).containsExactly(0, 1, 2, 3, 5);
+		assertThat(ring.size()).isZero();
+	}
+
+	@Test
+	void ringWithManyProducers() throws Exception {
+		final AccessLog.Ring<Integer> ring = new AccessLog.Ring<>(1 << 16);
+		final int producers = 4;
+		final int perProducer = 10000;
+		final CountDownLatch done = new CountDownLatch(producers);
+		for (int p = 0; p < producers; p++) {
+			new Thread(() -> {
+				for (int i = 0; i < perProducer; i++) {
+					ring.offer(i);
+				}
+				done.countDown();
+			}).start();
+		}
+		assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+		final List<Integer> drained = new ArrayList<>();
+		while (ring.drain(drained::add, 1000) > 0) {
+			// drain all
+		}
+		assertThat(drained).hasSize(producers * perProducer);
+	}
+
+	@Test
+	void entryAsJson() {
+		final HttpHeaders headers = new HttpHeaders();
+		headers.set("X-Real-IP", "10.0.0.1");
+		headers.set(HttpHeaders.USER_AGENT, "curl \"7\"");
+		final AccessLog.Entry entry = new AccessLog.Entry(new HttpRequestMetadata(HttpMethod.GET, URI.create("http://example.com/foo?a=b"), headers), 200, "HIT",
+				TimeUnit.MICROSECONDS.toNanos(12_345), TimeUnit.MICROSECONDS.toNanos(1_005), -1, 0, 42);
+		final StringBuilder json = new StringBuilder();
+		entry.writeJson(json);
+		assertThat(json.toString()).matches("\\{\"time\":\"[^\"]+\",\"remote\":\"10.0.0.1\",\"method\":\"GET\",\"uri\":\"http://example.com/foo\\?a=b\",\"status\":200,"
+				+ "\"user_agent\":\"curl \\\\\"7\\\\\"\",\"cache\":\"HIT\",\"duration_ms\":12.345,\"first_byte_ms\":1.005,\"request_bytes\":0,\"response_bytes\":42}");
+	}
+
+	@Test
+	void rollingFile(@TempDir Path dir) throws Exception {
+		final Path file = dir.resolve("access.log");
+		final AccessLog.RollingFileOutput output = new AccessLog.RollingFileOutput(file, 10, 2);
+		for (int i = 0; i < 4; i++) {
+			output.write("line-" + i + "-xx");
+		}
+		output.close();
+		assertThat(Files.readAllLines(file)).containsExactly("line-3-xx");
+		assertThat(Files.readAllLines(dir.resolve("access.log.1"))).containsExactly("line-2-xx");
+		assertThat(Files.readAllLines(dir.resolve("access.log.2"))).containsExactly("line-1-xx");
+		assertThat(dir.resolve("access.log.3")).doesNotExist();
+	}
+}
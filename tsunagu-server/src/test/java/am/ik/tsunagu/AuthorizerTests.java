@@ -0,0 +1,77 @@
+package am.ik.tsunagu;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import org.springframework.http.HttpMethod;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AuthorizerTests {
+
+	static String basic(String user, String password) {
+		return "Basic " + Base64.getEncoder().encodeToString((user + ":" + password).getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void everythingIsGrantedWithoutTokens() {
+		final Authorizer authorizer = new Authorizer(Fixtures.props());
+		assertThat(authorizer.isEnabled()).isFalse();
+		assertThat(authorizer.authorize(HttpMethod.POST, "/", null)).isEqualTo(Authorizer.Decision.GRANTED);
+	}
+
+	@Test
+	void authorizationToken() {
+		final Authorizer authorizer = new Authorizer(Fixtures.props(Map.of("authorization-token", "secret")));
+		assertThat(authorizer.authorize(HttpMethod.GET, "/", null)).isEqualTo(Authorizer.Decision.MISSING);
+		assertThat(authorizer.authorize(HttpMethod.GET, "/", "Bearer secret")).isEqualTo(Authorizer.Decision.GRANTED);
+		assertThat(authorizer.authorize(HttpMethod.GET, "/", "bearer secret")).isEqualTo(Authorizer.Decision.GRANTED);
+		assertThat(authorizer.authorize(HttpMethod.GET, "/", basic("", "secret"))).isEqualTo(Authorizer.Decision.GRANTED);
+		assertThat(authorizer.authorize(HttpMethod.GET, "/", "Bearer wrong")).isEqualTo(Authorizer.Decision.INVALID);
+		assertThat(authorizer.authorize(HttpMethod.GET, "/", basic("secret", ""))).isEqualTo(Authorizer.Decision.INVALID);
+		assertThat(authorizer.authorize(HttpMethod.GET, "/", "Basic !!!")).isEqualTo(Authorizer.Decision.INVALID);
+		assertThat(authorizer.authorize(HttpMethod.GET, "/", "Digest secret")).isEqualTo(Authorizer.Decision.INVALID);
+		// cached
+		assertThat(authorizer.authorize(HttpMethod.GET, "/", "Bearer secret")).isEqualTo(Authorizer.Decision.GRANTED);
+	}
+
+	@Test
+	void scopesAndRoutes() {
+		// sha256 of "reader"
+		final Authorizer authorizer = new Authorizer(Fixtures.props(Map.of(
+				"authorization.tokens[0].value", "sha256:3d0941964aa3ebdcb00ccef58b1bb399f9f898465e9886d5aec7f31090a0fb30",
+				"authorization.tokens[0].scopes", "read",
+				"authorization.tokens[1].value", "writer",
+				"authorization.tokens[1].routes", "/api/")));
+		assertThat(authorizer.authorize(HttpMethod.GET, "/foo", "Bearer reader")).isEqualTo(Authorizer.Decision.GRANTED);
+		assertThat(authorizer.authorize(HttpMethod.POST, "/foo", "Bearer reader")).isEqualTo(Authorizer.Decision.FORBIDDEN);
+		assertThat(authorizer.authorize(HttpMethod.POST, "/api/foo", "Bearer writer")).isEqualTo(Authorizer.Decision.GRANTED);
+		assertThat(authorizer.authorize(HttpMethod.GET, "/foo", "Bearer writer")).isEqualTo(Authorizer.Decision.FORBIDDEN);
+		// the cached grant is checked against the request as well
+		assertThat(authorizer.authorize(HttpMethod.GET, "/foo", "Bearer writer")).isEqualTo(Authorizer.Decision.FORBIDDEN);
+	}
+
+	@Test
+	void routesMatchWholeSegmentsOfTheNormalizedPath() {
+		final Authorizer authorizer = new Authorizer(Fixtures.props(Map.of(
+				"authorization.tokens[0].value", "writer",
+				"authorization.tokens[0].routes", "/api")));
+		assertThat(authorizer.authorize(HttpMethod.POST, "/api", "Bearer writer")).isEqualTo(Authorizer.Decision.GRANTED);
+		assertThat(authorizer.authorize(HttpMethod.POST, "/api/users", "Bearer writer")).isEqualTo(Authorizer.Decision.GRANTED);
+		assertThat(authorizer.authorize(HttpMethod.POST, "/api-admin", "Bearer writer")).isEqualTo(Authorizer.Decision.FORBIDDEN);
+		assertThat(authorizer.authorize(HttpMethod.POST, "/apiadmin", "Bearer writer")).isEqualTo(Authorizer.Decision.FORBIDDEN);
+		// the upstream would resolve dot segments to a path outside the route
+		assertThat(authorizer.authorize(HttpMethod.POST, "/api/../admin", "Bearer writer")).isEqualTo(Authorizer.Decision.FORBIDDEN);
+		assertThat(authorizer.authorize(HttpMethod.POST, "/api/./users", "Bearer writer")).isEqualTo(Authorizer.Decision.FORBIDDEN);
+		assertThat(authorizer.authorize(HttpMethod.POST, "/api/%2e%2e/admin", "Bearer writer")).isEqualTo(Authorizer.Decision.FORBIDDEN);
+		assertThat(authorizer.authorize(HttpMethod.POST, "/api/%2E./admin", "Bearer writer")).isEqualTo(Authorizer.Decision.FORBIDDEN);
+		assertThat(authorizer.authorize(HttpMethod.POST, "/api%2f..%2fadmin", "Bearer writer")).isEqualTo(Authorizer.Decision.FORBIDDEN);
+		assertThat(authorizer.authorize(HttpMethod.POST, "/api/..%5cadmin", "Bearer writer")).isEqualTo(Authorizer.Decision.FORBIDDEN);
+		assertThat(authorizer.authorize(HttpMethod.POST, "/api/%zz", "Bearer writer")).isEqualTo(Authorizer.Decision.FORBIDDEN);
+		// dots within a segment are just names
+		assertThat(authorizer.authorize(HttpMethod.POST, "/api/v1.2/..users", "Bearer writer")).isEqualTo(Authorizer.Decision.GRANTED);
+	}
+}
@@ -0,0 +1,69 @@
+package am.ik.tsunagu;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+
+import org.springframework.messaging.rsocket.RSocketRequester;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class ClusterTests {
+
+	final TsunaguProps props = Fixtures.props(Map.of("cluster.enabled", true, "cluster.node-id", "a"));
+
+	final RequesterRegistry registry = new RequesterRegistry(this.props, new TunnelMetrics(new SimpleMeterRegistry()));
+
+	final Cluster cluster = new Cluster(this.props, this.registry, null, null, null);
+
+	@Test
+	void onlyPeersWithClientsAreSelected() {
+		final RSocketRequester b = mock(RSocketRequester.class);
+		final RSocketRequester c = mock(RSocketRequester.class);
+		this.cluster.register(UUID.randomUUID(), "b", b, BinaryMetadataCodec.INSTANCE, true);
+		this.cluster.register(UUID.randomUUID(), "c", c, BinaryMetadataCodec.INSTANCE, true);
+		assertThat(this.cluster.select("example.com")).isNull();
+		assertThat(this.cluster.state(b, List.of("client-1"), Set.of("*"))).isTrue();
+		assertThat(this.cluster.select("example.com").getClientId()).isEqualTo("b");
+		assertThat(this.cluster.state(mock(RSocketRequester.class), List.of("client-2"), Set.of("*"))).isFalse();
+		assertThat(this.cluster.nodes()).isEqualTo(Map.of("a", List.of(), "b", List.of("client-1"), "c", List.of()));
+	}
+
+	@Test
+	void leastBusyPeerIsSelected() {
+		final RSocketRequester b = mock(RSocketRequester.class);
+		final RSocketRequester c = mock(RSocketRequester.class);
+		final UUID id = UUID.randomUUID();
+		this.cluster.register(id, "b", b, BinaryMetadataCodec.INSTANCE, true);
+		this.cluster.register(UUID.randomUUID(), "c", c, BinaryMetadataCodec.INSTANCE, true);
+		this.cluster.state(b, List.of("client-1"), Set.of("*"));
+		this.cluster.state(c, List.of("client-2"), Set.of("*"));
+		final TrackedRequester first = this.cluster.select("example.com");
+		first.track(Flux.never()).subscribe();
+		final TrackedRequester second = this.cluster.select("example.com");
+		assertThat(second).isNotSameAs(first);
+		this.cluster.unregister(id);
+		assertThat(this.cluster.select("example.com").getClientId()).isEqualTo("c");
+	}
+
+	@Test
+	void peersDeclaringTheHostArePreferred() {
+		final RSocketRequester b = mock(RSocketRequester.class);
+		final RSocketRequester c = mock(RSocketRequester.class);
+		this.cluster.register(UUID.randomUUID(), "b", b, BinaryMetadataCodec.INSTANCE, true);
+		this.cluster.register(UUID.randomUUID(), "c", c, BinaryMetadataCodec.INSTANCE, true);
+		this.cluster.state(b, List.of("client-1"), Set.of("*"));
+		this.cluster.state(c, List.of("client-2"), Set.of("app.example.com", "*.tenant.example.com"));
+		assertThat(this.cluster.select("APP.example.com").getClientId()).isEqualTo("c");
+		assertThat(this.cluster.select("x.tenant.example.com").getClientId()).isEqualTo("c");
+		assertThat(this.cluster.select("other.example.com").getClientId()).isEqualTo("b");
+		this.cluster.state(b, List.of("client-1"), Set.of("api.example.com"));
+		assertThat(this.cluster.select("other.example.com")).isNull();
+	}
+}
@@ -0,0 +1,61 @@
+package am.ik.tsunagu;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConcurrencyLimitTests {
+	static final long THRESHOLD = TimeUnit.SECONDS.toNanos(1);
+
+	@Test
+	void growsByAboutOnePerLimitRequests() {
+		final ConcurrencyLimit limit = new ConcurrencyLimit(10, 5, 20, THRESHOLD, 0.5);
+		for (int i = 0; i < 9; i++) {
+			limit.onSample(1000, false, 10);
+		}
+		assertThat(limit.getLimit()).isEqualTo(10);
+		for (int i = 0; i < 2; i++) {
+			limit.onSample(1000, false, 10);
+		}
+		assertThat(limit.getLimit()).isEqualTo(11);
+		assertThat(limit.isExceeded(10)).isFalse();
+		assertThat(limit.isExceeded(11)).isTrue();
+	}
+
+	@Test
+	void doesNotGrowWhileMostlyUnused() {
+		final ConcurrencyLimit limit = new ConcurrencyLimit(10, 5, 20, THRESHOLD, 0.5);
+		for (int i = 0; i < 100; i++) {
+			limit.onSample(1000, false, 1);
+		}
+		assertThat(limit.getLimit()).isEqualTo(10);
+	}
+
+	@Test
+	void shrinksOnFailuresAndSlowResponses() {
+		final ConcurrencyLimit limit = new ConcurrencyLimit(16, 5, 20, THRESHOLD, 0.5);
+		limit.onSample(1000, true, 1);
+		assertThat(limit.getLimit()).isEqualTo(8);
+		limit.onSample(THRESHOLD + 1, false, 1);
+		assertThat(limit.getLimit()).isEqualTo(5);
+		limit.onSample(THRESHOLD + 1, false, 1);
+		assertThat(limit.getLimit()).isEqualTo(5);
+	}
+
+	@Test
+	void staysWithinMaxLimit() {
+		final ConcurrencyLimit limit = new ConcurrencyLimit(19, 5, 20, THRESHOLD, 0.5);
+		for (int i = 0; i < 1000; i++) {
+			limit.onSample(1000, false, 20);
+		}
+		assertThat(limit.getLimit()).isEqualTo(20);
+	}
+
+	@Test
+	void unlimitedIsNeverExceeded() {
+		ConcurrencyLimit.UNLIMITED.onSample(1000, true, 1);
+		assertThat(ConcurrencyLimit.UNLIMITED.isExceeded(Integer.MAX_VALUE - 1)).isFalse();
+	}
+}
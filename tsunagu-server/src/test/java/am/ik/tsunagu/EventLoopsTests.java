@@ -0,0 +1,49 @@
+package am.ik.tsunagu;
+
+import java.time.Duration;
+import java.util.Map;
+
+import io.netty.channel.epoll.Epoll;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.tcp.TcpClient;
+import reactor.netty.tcp.TcpServer;
+
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EventLoopsTests {
+
+	@Test
+	void transport() {
+		assertThat(EventLoops.transport(false)).isEqualTo("nio");
+		if (Epoll.isAvailable()) {
+			assertThat(EventLoops.transport(true)).isEqualTo("epoll");
+		}
+	}
+
+	@Test
+	void portsRunOnThePublicLoops() {
+		final EventLoops eventLoops = new EventLoops(Fixtures.props(Map.of("event-loop.public-threads", 2, "cluster.enabled", true, "cluster.peers", "ws://b:8080/tsunagu")));
+		final DisposableServer server = TcpServer.create()
+				.runOn(eventLoops.getPublicLoops(), eventLoops.isPreferNative())
+				.host("127.0.0.1")
+				.port(0)
+				.handle((inbound, outbound) -> outbound.sendString(Mono.fromSupplier(() -> Thread.currentThread().getName())))
+				.bindNow();
+		try {
+			final String thread = TcpClient.create()
+					.host("127.0.0.1")
+					.port(server.port())
+					.connect()
+					.flatMap(connection -> connection.inbound().receive().asString().next().doFinally(__ -> connection.dispose()))
+					.block(Duration.ofSeconds(5));
+			assertThat(thread).startsWith("tsunagu-public-" + EventLoops.transport(true));
+		}
+		finally {
+			server.disposeNow();
+			eventLoops.destroy();
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package am.ik.tsunagu;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+
+final class Fixtures {
+	private Fixtures() {
+	}
+
+	static TsunaguProps props() {
+		return props(Map.of());
+	}
+
+	/**
+	 * Binds the properties like Spring Boot does, so that everything not given gets its default.
+	 * @param properties values by their name without the {@code tsunagu.} prefix, e.g. {@code rate-limit.enabled}
+	 */
+	static TsunaguProps props(Map<String, ?> properties) {
+		final Map<String, Object> source = new LinkedHashMap<>();
+		properties.forEach((name, value) -> source.put("tsunagu." + name, value));
+		return new Binder(new MapConfigurationPropertySource(source)).bindOrCreate("tsunagu", TsunaguProps.class);
+	}
+
+	/**
+	 * @return the entries of a map property, with the keys in brackets so that dots and slashes are kept
+	 */
+	static Map<String, Object> entries(String name, Map<String, ?> map) {
+		final Map<String, Object> entries = new LinkedHashMap<>();
+		if (map != null) {
+			map.forEach((key, value) -> entries.put(name + ".[" + key + "]", value));
+		}
+		return entries;
+	}
+}
@@ -0,0 +1,70 @@
+package am.ik.tsunagu;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FlowControlTests {
+
+	static Flux<ByteBuf> body(int count) {
+		return Flux.range(0, count).map(__ -> Unpooled.buffer(1024).writeZero(1024));
+	}
+
+	@Test
+	void stallsUntilBuffersAreReleased() {
+		final AtomicInteger stalls = new AtomicInteger();
+		final List<ByteBuf> received = new CopyOnWriteArrayList<>();
+		final AtomicBoolean completed = new AtomicBoolean();
+		FlowControl.window(body(100), 4096, new FlowControl.Window(Long.MAX_VALUE), __ -> stalls.incrementAndGet())
+				.subscribe(received::add, null, () -> completed.set(true));
+		assertThat(received).hasSize(4);
+		assertThat(stalls).hasValue(0);
+		received.get(0).release();
+		assertThat(received).hasSize(5);
+		assertThat(stalls).hasValue(1);
+		for (int i = 1; i < 100; i++) {
+			received.get(i).release();
+		}
+		assertThat(received).hasSize(100);
+		assertThat(completed).isTrue();
+	}
+
+	@Test
+	void streamsShareTheWindowOfTheirConnection() {
+		final FlowControl.Window connection = new FlowControl.Window(4096);
+		final List<ByteBuf> first = new CopyOnWriteArrayList<>();
+		final List<ByteBuf> second = new CopyOnWriteArrayList<>();
+		FlowControl.window(body(4), 1024 * 1024, connection, __ -> {
+		}).subscribe(first::add);
+		FlowControl.window(body(4), 1024 * 1024, connection, __ -> {
+		}).subscribe(second::add);
+		assertThat(first).hasSize(4);
+		assertThat(second).isEmpty();
+		assertThat(connection.getBuffered()).isEqualTo(4096);
+		first.forEach(ByteBuf::release);
+		assertThat(second).hasSize(4);
+		second.forEach(ByteBuf::release);
+		assertThat(connection.getBuffered()).isZero();
+	}
+
+	@Test
+	void releaseAwareBufferKeepsTheContent() {
+		final ByteBuf buffer = Unpooled.copiedBuffer("tsunagu", StandardCharsets.UTF_8);
+		final AtomicBoolean released = new AtomicBoolean();
+		final ByteBuf wrapped = new FlowControl.ReleaseAwareByteBuf(buffer, () -> released.set(true));
+		assertThat(wrapped.toString(StandardCharsets.UTF_8)).isEqualTo("tsunagu");
+		assertThat(released).isFalse();
+		wrapped.release();
+		assertThat(released).isTrue();
+		assertThat(buffer.refCnt()).isZero();
+	}
+}
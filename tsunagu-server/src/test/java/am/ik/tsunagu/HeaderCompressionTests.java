@@ -0,0 +1,57 @@
+package am.ik.tsunagu;
+
+import java.net.URI;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HeaderCompressionTests {
+
+	@Test
+	void roundTripAcrossEpochs() {
+		final HeaderDecompressor decompressor = new HeaderDecompressor(16);
+		final HeaderCompressor compressor = new HeaderCompressor(16, table -> Mono.fromRunnable(() -> decompressor.install(table)));
+		final CompressingMetadataCodec codec = new CompressingMetadataCodec(compressor, decompressor);
+		final HttpHeaders headers = new HttpHeaders();
+		headers.add(HttpHeaders.USER_AGENT, "curl/7.79.1");
+		headers.add(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate");
+		headers.add("accept-encoding", "gzip, deflate");
+		headers.add("X-Forwarded-Proto", "https");
+		headers.add(HttpHeaders.AUTHORIZATION, "Bearer secret");
+		final HttpRequestMetadata metadata = new HttpRequestMetadata(HttpMethod.GET, URI.create("https://example.com/"), headers);
+		int firstSize = 0;
+		int lastSize = 0;
+		for (int i = 0; i < HeaderCompressor.UPDATE_INTERVAL * 2; i++) {
+			final ByteBuf buf = codec.encodeRequest(metadata, ByteBufAllocator.DEFAULT);
+			try {
+				if (i == 0) {
+					firstSize = buf.readableBytes();
+				}
+				lastSize = buf.readableBytes();
+				assertThat(codec.decodeRequest(buf).getHeaders()).isEqualTo(headers);
+			}
+			finally {
+				buf.release();
+			}
+		}
+		assertThat(lastSize).isLessThan(firstSize);
+	}
+
+	@Test
+	void sensitiveHeadersAreNotIndexed() {
+		final HeaderCompressor compressor = new HeaderCompressor(16, table -> Mono.error(new AssertionError("unexpected update " + table)));
+		compressor.miss("Authorization", "Bearer secret");
+		compressor.miss("Authorization", "Bearer secret");
+		compressor.miss("cookie", "a=b");
+		compressor.miss("cookie", "a=b");
+		compressor.maybeUpdate();
+		assertThat(compressor.table()).isSameAs(HeaderTable.EMPTY);
+	}
+}
@@ -0,0 +1,119 @@
+package am.ik.tsunagu;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.util.ByteBufPayload;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.messaging.rsocket.RSocketStrategies;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = { "tsunagu.http2.cleartext=true", "management.server.port=0" })
+class Http2Tests {
+
+	@LocalServerPort
+	int port;
+
+	@Autowired
+	RequesterRegistry registry;
+
+	final UUID id = UUID.randomUUID();
+
+	final List<String> interactions = new CopyOnWriteArrayList<>();
+
+	final AtomicLong receivedBytes = new AtomicLong();
+
+	// answers every request with an empty 200 after counting the bytes of its body
+	final RSocket rsocket = new RSocket() {
+		@Override
+		public Flux<Payload> requestStream(Payload payload) {
+			interactions.add("stream");
+			receivedBytes.addAndGet(payload.data().readableBytes());
+			payload.release();
+			return Flux.just(ok());
+		}
+
+		@Override
+		public Flux<Payload> requestChannel(Publisher<Payload> payloads) {
+			interactions.add("channel");
+			return Flux.from(payloads)
+					.doOnNext(payload -> {
+						receivedBytes.addAndGet(payload.data().readableBytes());
+						payload.release();
+					})
+					.thenMany(Mono.fromSupplier(Http2Tests::ok));
+		}
+	};
+
+	static Payload ok() {
+		final HttpHeaders headers = new HttpHeaders();
+		headers.setContentLength(0);
+		return ByteBufPayload.create(CborMetadataCodec.INSTANCE.encodeResponse(new HttpResponseMetadata(HttpStatus.OK, headers), ByteBufAllocator.DEFAULT));
+	}
+
+	@BeforeEach
+	void register() {
+		this.registry.register(this.id, "client",
+				RSocketRequester.wrap(this.rsocket, MimeTypeUtils.APPLICATION_OCTET_STREAM, MimeType.valueOf("message/x.rsocket.composite-metadata.v0"), RSocketStrategies.create()),
+				CborMetadataCodec.INSTANCE, false, RequesterRoutes.ANY);
+	}
+
+	@AfterEach
+	void unregister() {
+		this.registry.unregister(this.id);
+	}
+
+	@Test
+	void bodiesWithoutContentLengthAreForwarded() {
+		// HTTP/2 has no chunked encoding, the body is sent in DATA frames of a stream without Content-Length
+		final Integer status = HttpClient.create()
+				.protocol(HttpProtocol.H2C)
+				.port(this.port)
+				.post()
+				.uri("/upload")
+				.send(Flux.range(0, 4).map(__ -> Unpooled.wrappedBuffer(new byte[4096])))
+				.responseSingle((response, body) -> Mono.just(response.status().code()))
+				.block(Duration.ofSeconds(5));
+		assertThat(status).isEqualTo(200);
+		assertThat(this.interactions).containsExactly("channel");
+		assertThat(this.receivedBytes).hasValue(4 * 4096);
+	}
+
+	@Test
+	void requestsWithoutBodyAreStillSentAsStreams() {
+		final Integer status = HttpClient.create()
+				.protocol(HttpProtocol.H2C)
+				.port(this.port)
+				.get()
+				.uri("/")
+				.responseSingle((response, body) -> Mono.just(response.status().code()))
+				.block(Duration.ofSeconds(5));
+		assertThat(status).isEqualTo(200);
+		assertThat(this.interactions).containsExactly("stream");
+		assertThat(this.receivedBytes).hasValue(0);
+	}
+}
@@ -0,0 +1,51 @@
+package am.ik.tsunagu;
+
+import java.net.URI;
+
+import org.junit.jupiter.api.Test;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HttpRequestMetadataTests {
+
+	static HttpRequestMetadata metadata(HttpMethod method, String name, String value) {
+		final HttpHeaders headers = new HttpHeaders();
+		if (name != null) {
+			headers.add(name, value);
+		}
+		return new HttpRequestMetadata(method, URI.create("https://example.com/"), headers);
+	}
+
+	@Test
+	void bodyIsDecidedByHeadersRegardlessOfTheMethod() {
+		assertThat(metadata(HttpMethod.DELETE, HttpHeaders.CONTENT_LENGTH, "12").hasBody()).isTrue();
+		assertThat(metadata(HttpMethod.OPTIONS, HttpHeaders.TRANSFER_ENCODING, "chunked").hasBody()).isTrue();
+		assertThat(metadata(HttpMethod.POST, HttpHeaders.CONTENT_LENGTH, "0").hasBody()).isFalse();
+		assertThat(metadata(HttpMethod.PUT, null, null).hasBody()).isFalse();
+		assertThat(metadata(HttpMethod.GET, null, null).hasBody()).isFalse();
+	}
+
+	@Test
+	void onlyBodiesOfAKnownLengthAreAtMostTheSize() {
+		assertThat(metadata(HttpMethod.POST, HttpHeaders.CONTENT_LENGTH, "12").hasBodyOfAtMost(12)).isTrue();
+		assertThat(metadata(HttpMethod.POST, HttpHeaders.CONTENT_LENGTH, "13").hasBodyOfAtMost(12)).isFalse();
+		assertThat(metadata(HttpMethod.POST, HttpHeaders.TRANSFER_ENCODING, "chunked").hasBodyOfAtMost(12)).isFalse();
+		assertThat(metadata(HttpMethod.POST, null, null).hasBodyOfAtMost(12)).isFalse();
+		final HttpRequestMetadata both = metadata(HttpMethod.POST, HttpHeaders.CONTENT_LENGTH, "12");
+		both.getHeaders().add(HttpHeaders.TRANSFER_ENCODING, "chunked");
+		assertThat(both.hasBodyOfAtMost(12)).isFalse();
+	}
+
+	@Test
+	void onlySafeMethodsPutAndDeleteAreIdempotent() {
+		assertThat(metadata(HttpMethod.GET, null, null).hasIdempotentMethod()).isTrue();
+		assertThat(metadata(HttpMethod.HEAD, null, null).hasIdempotentMethod()).isTrue();
+		assertThat(metadata(HttpMethod.PUT, null, null).hasIdempotentMethod()).isTrue();
+		assertThat(metadata(HttpMethod.DELETE, null, null).hasIdempotentMethod()).isTrue();
+		assertThat(metadata(HttpMethod.POST, null, null).hasIdempotentMethod()).isFalse();
+		assertThat(metadata(HttpMethod.PATCH, null, null).hasIdempotentMethod()).isFalse();
+	}
+}
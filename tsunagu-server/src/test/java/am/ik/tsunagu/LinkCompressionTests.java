@@ -0,0 +1,82 @@
+package am.ik.tsunagu;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LinkCompressionTests {
+
+	static final List<MediaType> MEDIA_TYPES = List.of(MediaType.parseMediaType("text/*"), MediaType.APPLICATION_JSON);
+
+	static ByteBuf buffer(String s) {
+		return Unpooled.copiedBuffer(s, StandardCharsets.UTF_8);
+	}
+
+	static String string(List<ByteBuf> buffers) {
+		final StringBuilder builder = new StringBuilder();
+		for (ByteBuf buffer : buffers) {
+			builder.append(buffer.toString(StandardCharsets.UTF_8));
+			buffer.release();
+		}
+		return builder.toString();
+	}
+
+	@Test
+	void roundTrip() {
+		final String first = "{\"id\":\"1\",\"name\":\"tsunagu\",\"description\":\"" + "a".repeat(10_000) + "\"}";
+		final String second = "<!DOCTYPE html><html><head><title>tsunagu</title></head><body></body></html>";
+		final List<ByteBuf> compressed = LinkCompression.compress(Flux.just(buffer(first), buffer(second)), ByteBufAllocator.DEFAULT, 6)
+				.collectList()
+				.block();
+		assertThat(compressed).hasSize(2);
+		assertThat(compressed.get(0).readableBytes()).isLessThan(first.length() / 10);
+		final List<ByteBuf> decompressed = LinkCompression.decompress(Flux.fromIterable(compressed), ByteBufAllocator.DEFAULT)
+				.collectList()
+				.block();
+		assertThat(string(decompressed)).isEqualTo(first + second);
+	}
+
+	@Test
+	void everyChunkCanBeDecompressedWithoutTheNextOne() {
+		final String chunk = "{\"id\":\"1\",\"name\":\"tsunagu\"}";
+		final List<ByteBuf> compressed = LinkCompression.compress(Flux.just(buffer(chunk), buffer(chunk)), ByteBufAllocator.DEFAULT, 6)
+				.collectList()
+				.block();
+		// the dictionary makes even a small body smaller
+		assertThat(compressed.get(0).readableBytes()).isLessThan(chunk.length());
+		final List<ByteBuf> decompressed = LinkCompression.decompress(Flux.just(compressed.get(0)), ByteBufAllocator.DEFAULT)
+				.collectList()
+				.block();
+		assertThat(string(decompressed)).isEqualTo(chunk);
+		compressed.get(1).release();
+	}
+
+	@Test
+	void isCompressible() {
+		final HttpHeaders headers = new HttpHeaders();
+		assertThat(LinkCompression.isCompressible(headers, 1024, MEDIA_TYPES)).isFalse();
+		headers.setContentType(MediaType.APPLICATION_JSON);
+		assertThat(LinkCompression.isCompressible(headers, 1024, MEDIA_TYPES)).isTrue();
+		headers.setContentLength(100);
+		assertThat(LinkCompression.isCompressible(headers, 1024, MEDIA_TYPES)).isFalse();
+		headers.setContentLength(2048);
+		assertThat(LinkCompression.isCompressible(headers, 1024, MEDIA_TYPES)).isTrue();
+		headers.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+		assertThat(LinkCompression.isCompressible(headers, 1024, MEDIA_TYPES)).isFalse();
+		headers.remove(HttpHeaders.CONTENT_ENCODING);
+		headers.setContentType(MediaType.IMAGE_PNG);
+		assertThat(LinkCompression.isCompressible(headers, 1024, MEDIA_TYPES)).isFalse();
+		headers.setContentType(MediaType.TEXT_HTML);
+		assertThat(LinkCompression.isCompressible(headers, 1024, MEDIA_TYPES)).isTrue();
+	}
+}
@@ -0,0 +1,62 @@
+package am.ik.tsunagu;
+
+import java.net.URI;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MetadataCodecTests {
+
+	static MetadataCodec[] codecs() {
+		return new MetadataCodec[] { BinaryMetadataCodec.INSTANCE, CborMetadataCodec.INSTANCE };
+	}
+
+	@ParameterizedTest
+	@MethodSource("codecs")
+	void request(MetadataCodec codec) {
+		final HttpHeaders headers = new HttpHeaders();
+		headers.add(HttpHeaders.USER_AGENT, "curl/7.79.1");
+		headers.add(HttpHeaders.ACCEPT, "text/html");
+		headers.add(HttpHeaders.ACCEPT, "application/json");
+		headers.add("X-Real-IP", "192.168.11.1");
+		headers.add("X-Unicode", "つなぐ");
+		final HttpRequestMetadata metadata = new HttpRequestMetadata(HttpMethod.PATCH, URI.create("https://example.com/foo?bar=%E3%81%A4"), headers);
+		final ByteBuf buf = codec.encodeRequest(metadata, ByteBufAllocator.DEFAULT);
+		try {
+			final HttpRequestMetadata decoded = codec.decodeRequest(buf);
+			assertThat(decoded.getMethod()).isEqualTo(HttpMethod.PATCH);
+			assertThat(decoded.getUri()).isEqualTo(metadata.getUri());
+			assertThat(decoded.getHeaders()).isEqualTo(headers);
+		}
+		finally {
+			buf.release();
+		}
+	}
+
+	@ParameterizedTest
+	@MethodSource("codecs")
+	void response(MetadataCodec codec) {
+		final HttpHeaders headers = new HttpHeaders();
+		headers.add(HttpHeaders.CONTENT_TYPE, "application/json");
+		headers.add(HttpHeaders.SET_COOKIE, "a=b");
+		headers.add(HttpHeaders.SET_COOKIE, "c=d");
+		final HttpResponseMetadata metadata = new HttpResponseMetadata(HttpStatus.NOT_MODIFIED, headers);
+		final ByteBuf buf = codec.encodeResponse(metadata, ByteBufAllocator.DEFAULT);
+		try {
+			final HttpResponseMetadata decoded = codec.decodeResponse(buf);
+			assertThat(decoded.getStatus()).isEqualTo(HttpStatus.NOT_MODIFIED);
+			assertThat(decoded.getHeaders()).isEqualTo(headers);
+		}
+		finally {
+			buf.release();
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package am.ik.tsunagu;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RateLimiterTests {
+
+	static TsunaguProps props(double rate, int burst, String keyBy, Map<String, Double> routes) {
+		final Map<String, Object> properties = new HashMap<>(Map.of("rate-limit.enabled", true, "rate-limit.rate", rate, "rate-limit.burst", burst, "rate-limit.key-by", keyBy));
+		properties.putAll(Fixtures.entries("rate-limit.routes", routes));
+		return Fixtures.props(properties);
+	}
+
+	@Test
+	void bucketAllowsBurstThenWaits() {
+		final RateLimiter.Bucket bucket = new RateLimiter.Bucket();
+		final long interval = TimeUnit.MILLISECONDS.toNanos(100);
+		final long tolerance = interval * 2;
+		final long now = 1_000_000_000L;
+		assertThat(bucket.acquire(now, interval, tolerance)).isZero();
+		assertThat(bucket.acquire(now, interval, tolerance)).isZero();
+		assertThat(bucket.acquire(now, interval, tolerance)).isZero();
+		assertThat(bucket.acquire(now, interval, tolerance)).isEqualTo(interval);
+		// one more request is allowed once an interval passed
+		assertThat(bucket.acquire(now + interval, interval, tolerance)).isZero();
+		assertThat(bucket.acquire(now + interval, interval, tolerance)).isEqualTo(interval);
+	}
+
+	@Test
+	void keysHaveBucketsOfTheirOwn() {
+		final RateLimiter rateLimiter = new RateLimiter(props(1, 2, "ip,token", Map.of()));
+		assertThat(rateLimiter.acquire(request("/", "10.0.0.1", "Bearer a"))).isZero();
+		assertThat(rateLimiter.acquire(request("/", "10.0.0.1", "Bearer a"))).isZero();
+		assertThat(rateLimiter.acquire(request("/", "10.0.0.1", "Bearer a"))).isPositive();
+		assertThat(rateLimiter.acquire(request("/", "10.0.0.1", "Bearer b"))).isZero();
+		assertThat(rateLimiter.acquire(request("/", "10.0.0.2", "Bearer a"))).isZero();
+	}
+
+	@Test
+	void longestRoutePrefixWins() {
+		final RateLimiter rateLimiter = new RateLimiter(props(100, 1, "ip", Map.of("/api/", 10.0, "/api/slow/", 1.0)));
+		assertThat(rateLimiter.limit("/api/slow/foo").prefix).isEqualTo("/api/slow/");
+		assertThat(rateLimiter.limit("/api/foo").prefix).isEqualTo("/api/");
+		assertThat(rateLimiter.limit("/foo").prefix).isEmpty();
+		assertThat(rateLimiter.limit("/api/slow/foo").interval).isEqualTo(TimeUnit.SECONDS.toNanos(1));
+		// routes are limited separately from the rest
+		assertThat(rateLimiter.acquire(request("/api/slow/foo", "10.0.0.1", null))).isZero();
+		assertThat(rateLimiter.acquire(request("/foo", "10.0.0.1", null))).isZero();
+		assertThat(rateLimiter.acquire(request("/api/slow/bar", "10.0.0.1", null))).isPositive();
+	}
+
+	@Test
+	void routesMatchWholeSegments() {
+		final RateLimiter rateLimiter = new RateLimiter(props(100, 1, "ip", Map.of("/api", 10.0)));
+		assertThat(rateLimiter.limit("/api").prefix).isEqualTo("/api");
+		assertThat(rateLimiter.limit("/api/foo").prefix).isEqualTo("/api");
+		assertThat(rateLimiter.limit("/api-admin").prefix).isEmpty();
+	}
+
+	@Test
+	void retryAfterIsRoundedUp() {
+		assertThat(RateLimiter.retryAfterSeconds(1)).isEqualTo(1);
+		assertThat(RateLimiter.retryAfterSeconds(TimeUnit.SECONDS.toNanos(1))).isEqualTo(1);
+		assertThat(RateLimiter.retryAfterSeconds(TimeUnit.MILLISECONDS.toNanos(1500))).isEqualTo(2);
+	}
+
+	static HttpRequestMetadata request(String path, String ip, String authorization) {
+		final HttpHeaders headers = new HttpHeaders();
+		headers.add("X-Real-IP", ip);
+		if (authorization != null) {
+			headers.add(HttpHeaders.AUTHORIZATION, authorization);
+		}
+		return new HttpRequestMetadata(HttpMethod.GET, URI.create("http://localhost" + path), headers);
+	}
+}
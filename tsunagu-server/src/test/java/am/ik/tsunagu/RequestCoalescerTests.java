@@ -0,0 +1,147 @@
+package am.ik.tsunagu;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.junit.jupiter.api.Test;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.NettyDataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RequestCoalescerTests {
+
+	final RequestCoalescer requestCoalescer = new RequestCoalescer(Fixtures.props(Map.of("coalescing.enabled", true, "coalescing.key-headers", HttpHeaders.ACCEPT_ENCODING)));
+
+	final NettyDataBufferFactory dataBufferFactory = new NettyDataBufferFactory(new UnpooledByteBufAllocator(false));
+
+	final Sinks.Many<DataBuffer> upstream = Sinks.many().unicast().onBackpressureBuffer();
+
+	final AtomicInteger subscriptions = new AtomicInteger();
+
+	final AtomicBoolean cancelled = new AtomicBoolean();
+
+	RequestCoalescer.Upstream coalesce(HttpMethod method, String uri) {
+		return this.coalesce(this.requestCoalescer, method, uri);
+	}
+
+	RequestCoalescer.Upstream coalesce(RequestCoalescer requestCoalescer, HttpMethod method, String uri) {
+		return requestCoalescer.coalesce(new HttpRequestMetadata(method, URI.create(uri), new HttpHeaders()),
+				() -> new RequestCoalescer.Upstream(CborMetadataCodec.INSTANCE, this.upstream.asFlux()
+						.doOnSubscribe(__ -> this.subscriptions.incrementAndGet())
+						.doOnCancel(() -> this.cancelled.set(true)), new FlowControl.Window(Long.MAX_VALUE)));
+	}
+
+	DataBuffer buffer(String content) {
+		return this.dataBufferFactory.wrap(ByteBufAllocator.DEFAULT.buffer().writeBytes(content.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	static String consume(DataBuffer buffer) {
+		try {
+			return buffer.toString(StandardCharsets.UTF_8);
+		}
+		finally {
+			DataBufferUtils.release(buffer);
+		}
+	}
+
+	@Test
+	void identicalRequestsShareOneStream() {
+		final RequestCoalescer.Upstream first = this.coalesce(HttpMethod.GET, "http://example.com/hot");
+		final RequestCoalescer.Upstream second = this.coalesce(HttpMethod.GET, "http://example.com/hot");
+		final List<DataBuffer> emitted = new ArrayList<>();
+		final StepVerifier verifier1 = StepVerifier.create(first.getResponseStream().map(RequestCoalescerTests::consume))
+				.expectNext("metadata", "body")
+				.expectComplete()
+				.verifyLater();
+		final StepVerifier verifier2 = StepVerifier.create(second.getResponseStream().map(RequestCoalescerTests::consume))
+				.expectNext("metadata", "body")
+				.expectComplete()
+				.verifyLater();
+		for (String content : new String[] { "metadata", "body" }) {
+			final DataBuffer buffer = this.buffer(content);
+			emitted.add(buffer);
+			this.upstream.tryEmitNext(buffer);
+		}
+		this.upstream.tryEmitComplete();
+		verifier1.verify(Duration.ofSeconds(5));
+		verifier2.verify(Duration.ofSeconds(5));
+		assertThat(this.subscriptions).hasValue(1);
+		assertThat(this.requestCoalescer.inFlight()).isZero();
+		assertThat(emitted).allSatisfy(buffer -> assertThat(((NettyDataBuffer) buffer).getNativeBuffer().refCnt()).isZero());
+	}
+
+	@Test
+	void requestsAfterTheResponseStartedOpenANewStream() {
+		final RequestCoalescer.Upstream first = this.coalesce(HttpMethod.GET, "http://example.com/hot");
+		StepVerifier.create(first.getResponseStream().map(RequestCoalescerTests::consume))
+				.then(() -> this.upstream.tryEmitNext(this.buffer("metadata")))
+				.expectNext("metadata")
+				.thenCancel()
+				.verify(Duration.ofSeconds(5));
+		assertThat(this.requestCoalescer.inFlight()).isZero();
+		assertThat(this.cancelled).isTrue();
+	}
+
+	@Test
+	void differentRequestsAreNotCoalesced() {
+		final RequestCoalescer.Upstream get = this.coalesce(HttpMethod.GET, "http://example.com/a");
+		assertThat(this.coalesce(HttpMethod.GET, "http://example.com/b")).isNotSameAs(get);
+		assertThat(this.requestCoalescer.inFlight()).isEqualTo(2);
+		this.coalesce(HttpMethod.POST, "http://example.com/a");
+		assertThat(this.requestCoalescer.inFlight()).isEqualTo(2);
+		final HttpHeaders gzip = new HttpHeaders();
+		gzip.add(HttpHeaders.ACCEPT_ENCODING, "gzip");
+		assertThat(this.requestCoalescer.key(new HttpRequestMetadata(HttpMethod.GET, URI.create("http://example.com/a"), new HttpHeaders())))
+				.isNotEqualTo(this.requestCoalescer.key(new HttpRequestMetadata(HttpMethod.GET, URI.create("http://example.com/a"), gzip)));
+	}
+
+	@Test
+	void membersWhichDoNotReadAreCutOff() {
+		final RequestCoalescer requestCoalescer = new RequestCoalescer(Fixtures.props(Map.of("coalescing.enabled", true, "flow-control.stream-window", "16B")));
+		final RequestCoalescer.Upstream first = this.coalesce(requestCoalescer, HttpMethod.GET, "http://example.com/hot");
+		final RequestCoalescer.Upstream second = this.coalesce(requestCoalescer, HttpMethod.GET, "http://example.com/hot");
+		final RequestCoalescer.Upstream stalled = this.coalesce(requestCoalescer, HttpMethod.GET, "http://example.com/hot");
+		final List<DataBuffer> emitted = new ArrayList<>();
+		final StepVerifier verifier1 = StepVerifier.create(first.getResponseStream().map(RequestCoalescerTests::consume))
+				.expectNext("metadata", "0123456789", "0123456789", "0123456789")
+				.expectComplete()
+				.verifyLater();
+		final StepVerifier verifier2 = StepVerifier.create(second.getResponseStream().map(RequestCoalescerTests::consume))
+				.expectNext("metadata", "0123456789", "0123456789", "0123456789")
+				.expectComplete()
+				.verifyLater();
+		// never requests anything
+		final StepVerifier verifier3 = StepVerifier.create(stalled.getResponseStream(), 0)
+				.expectErrorMatches(Exceptions::isOverflow)
+				.verifyLater();
+		for (String content : new String[] { "metadata", "0123456789", "0123456789", "0123456789" }) {
+			final DataBuffer buffer = this.buffer(content);
+			emitted.add(buffer);
+			this.upstream.tryEmitNext(buffer);
+		}
+		this.upstream.tryEmitComplete();
+		verifier1.verify(Duration.ofSeconds(5));
+		verifier2.verify(Duration.ofSeconds(5));
+		verifier3.verify(Duration.ofSeconds(5));
+		assertThat(this.subscriptions).hasValue(1);
+		assertThat(this.cancelled).isFalse();
+		assertThat(emitted).allSatisfy(buffer -> assertThat(((NettyDataBuffer) buffer).getNativeBuffer().refCnt()).isZero());
+	}
+}
@@ -0,0 +1,123 @@
+package am.ik.tsunagu;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
+import org.springframework.messaging.rsocket.RSocketRequester;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class RequesterRegistryTests {
+
+	final TsunaguProps props = Fixtures.props(Map.of("load-balancer.strategy", "round_robin"));
+
+	final RequesterRegistry registry = new RequesterRegistry(this.props, new TunnelMetrics(new SimpleMeterRegistry()));
+
+	@Test
+	void drainingRequestersAreNotSelected() {
+		final RSocketRequester requester = mock(RSocketRequester.class);
+		final TrackedRequester draining = this.registry.register(UUID.randomUUID(), "a", requester, BinaryMetadataCodec.INSTANCE, true, RequesterRoutes.ANY);
+		final TrackedRequester other = this.registry.register(UUID.randomUUID(), "b", mock(RSocketRequester.class), BinaryMetadataCodec.INSTANCE, true, RequesterRoutes.ANY);
+		this.registry.drain(draining);
+		for (int i = 0; i < 4; i++) {
+			assertThat(this.registry.select("example.com", "/")).isSameAs(other);
+		}
+		// draining requesters are still known until they disconnect
+		assertThat(this.registry.find(requester)).isSameAs(draining);
+		assertThat(this.registry.requesters()).contains(draining, other);
+		this.registry.drain(other);
+		assertThat(this.registry.select("example.com", "/")).isNull();
+	}
+
+	@Test
+	void requestersAreSelectedByHostAndPath() {
+		final TrackedRequester any = this.registry.register(UUID.randomUUID(), "any", mock(RSocketRequester.class), BinaryMetadataCodec.INSTANCE, true, RequesterRoutes.ANY);
+		final TrackedRequester app = this.registry.register(UUID.randomUUID(), "app", mock(RSocketRequester.class), BinaryMetadataCodec.INSTANCE, true,
+				RequesterRoutes.parse("app.example.com:443", null, null));
+		final TrackedRequester api = this.registry.register(UUID.randomUUID(), "api", mock(RSocketRequester.class), BinaryMetadataCodec.INSTANCE, true,
+				RequesterRoutes.parse("app.example.com", "/api/", null));
+		final TrackedRequester tenants = this.registry.register(UUID.randomUUID(), "tenants", mock(RSocketRequester.class), BinaryMetadataCodec.INSTANCE, true,
+				RequesterRoutes.parse("*.tenant.example.com", null, null));
+		final TrackedRequester docs = this.registry.register(UUID.randomUUID(), "docs", mock(RSocketRequester.class), BinaryMetadataCodec.INSTANCE, true,
+				RequesterRoutes.parse(null, "docs", null));
+		assertThat(this.registry.select("app.example.com", "/")).isSameAs(app);
+		assertThat(this.registry.select("App.Example.com", "/api/users")).isSameAs(api);
+		assertThat(this.registry.select("a.b.tenant.example.com", "/")).isSameAs(tenants);
+		assertThat(this.registry.select("other.example.com", "/")).isSameAs(any);
+		assertThat(this.registry.select("other.example.com", "/docs/index.html")).isSameAs(docs);
+		// paths the host does not declare go to the clients of any host
+		this.registry.drain(app);
+		assertThat(this.registry.select("app.example.com", "/")).isSameAs(any);
+		assertThat(this.registry.hosts()).containsExactly("*", "*.tenant.example.com", "app.example.com");
+		this.registry.drain(any);
+		assertThat(this.registry.select("other.example.com", "/")).isNull();
+	}
+
+	@Test
+	void requestersAreSelectedByTcpTarget() {
+		final TrackedRequester any = this.registry.register(UUID.randomUUID(), "any", mock(RSocketRequester.class), BinaryMetadataCodec.INSTANCE, true, RequesterRoutes.ANY);
+		final TrackedRequester db = this.registry.register(UUID.randomUUID(), "db", mock(RSocketRequester.class), BinaryMetadataCodec.INSTANCE, true,
+				RequesterRoutes.parse(null, null, "postgres, redis"));
+		assertThat(db.getRoutes().isAny()).isTrue();
+		assertThat(this.registry.selectTcp("postgres")).isSameAs(db);
+		assertThat(this.registry.selectTcp("redis")).isSameAs(db);
+		assertThat(this.registry.selectTcp("ssh")).isNull();
+		// TCP targets do not take HTTP requests away from other clients
+		assertThat(this.registry.select("example.com", "/")).isIn(any, db);
+		this.registry.drain(db);
+		assertThat(this.registry.selectTcp("postgres")).isNull();
+	}
+
+	@Test
+	void connectionsOfAClientAreGroupedAndShareTheRequests() {
+		final List<UUID> ids = List.of(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+		for (UUID id : ids) {
+			this.registry.register(id, "client-1", mock(RSocketRequester.class), BinaryMetadataCodec.INSTANCE, true, RequesterRoutes.ANY);
+		}
+		final UUID other = UUID.randomUUID();
+		this.registry.register(other, "client-2", mock(RSocketRequester.class), BinaryMetadataCodec.INSTANCE, true, RequesterRoutes.ANY);
+		assertThat(this.registry.clients()).containsOnlyKeys("client-1", "client-2");
+		assertThat(this.registry.clients().get("client-1")).containsExactlyInAnyOrderElementsOf(ids);
+		assertThat(this.registry.clients().get("client-2")).containsExactly(other);
+		// every connection is a requester of its own
+		final Map<UUID, Integer> selected = new HashMap<>();
+		for (int i = 0; i < 8; i++) {
+			selected.merge(this.registry.select("example.com", "/").getId(), 1, Integer::sum);
+		}
+		assertThat(selected).containsOnlyKeys(ids.get(0), ids.get(1), ids.get(2), other).allSatisfy((id, count) -> assertThat(count).isEqualTo(2));
+	}
+
+	@Test
+	void saturatedRequestersAreSkipped() {
+		final TsunaguProps props = Fixtures.props(Map.of("load-balancer.strategy", "round_robin", "concurrency-limit.enabled", true, "concurrency-limit.initial-limit", 1, "concurrency-limit.min-limit", 1));
+		final RequesterRegistry registry = new RequesterRegistry(props, new TunnelMetrics(new SimpleMeterRegistry()));
+		final TrackedRequester a = registry.register(UUID.randomUUID(), "a", mock(RSocketRequester.class), BinaryMetadataCodec.INSTANCE, true, RequesterRoutes.ANY);
+		final TrackedRequester b = registry.register(UUID.randomUUID(), "b", mock(RSocketRequester.class), BinaryMetadataCodec.INSTANCE, true, RequesterRoutes.ANY);
+		final Disposable inFlightOfA = a.track(Flux.never()).subscribe();
+		try {
+			assertThat(a.isSaturated()).isTrue();
+			for (int i = 0; i < 4; i++) {
+				assertThat(registry.select("example.com", "/")).isSameAs(b);
+			}
+			final Disposable inFlightOfB = b.track(Flux.never()).subscribe();
+			try {
+				// the controller sheds the request once every candidate is saturated
+				assertThat(registry.select("example.com", "/").isSaturated()).isTrue();
+			}
+			finally {
+				inFlightOfB.dispose();
+			}
+		}
+		finally {
+			inFlightOfA.dispose();
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package am.ik.tsunagu;
+
+import java.time.Duration;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import org.springframework.messaging.rsocket.RSocketRequester;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class RequesterSelectorTests {
+
+	@Test
+	void roundRobin() {
+		final TrackedRequester[] candidates = candidates(3);
+		final RequesterSelector selector = new RoundRobinRequesterSelector();
+		assertThat(selector.select(candidates)).isSameAs(candidates[0]);
+		assertThat(selector.select(candidates)).isSameAs(candidates[1]);
+		assertThat(selector.select(candidates)).isSameAs(candidates[2]);
+		assertThat(selector.select(candidates)).isSameAs(candidates[0]);
+	}
+
+	@Test
+	void powerOfTwoChoicesPrefersLessLoaded() {
+		final TrackedRequester[] candidates = candidates(2);
+		final TrackedRequester busy = candidates[0];
+		busy.trackInFlight(Flux.never()).subscribe();
+		busy.trackInFlight(Flux.never()).subscribe();
+		final RequesterSelector selector = RequesterSelector.of(TsunaguProps.LoadBalancer.Strategy.POWER_OF_TWO_CHOICES);
+		for (int i = 0; i < 10; i++) {
+			assertThat(selector.select(candidates)).isSameAs(candidates[1]);
+		}
+	}
+
+	@Test
+	void ewmaPrefersFaster() {
+		final TrackedRequester[] candidates = candidates(2);
+		candidates[0].observe(Duration.ofMillis(500).toNanos());
+		candidates[1].observe(Duration.ofMillis(5).toNanos());
+		final RequesterSelector selector = RequesterSelector.of(TsunaguProps.LoadBalancer.Strategy.EWMA);
+		for (int i = 0; i < 10; i++) {
+			assertThat(selector.select(candidates)).isSameAs(candidates[1]);
+		}
+	}
+
+	@Test
+	void trackCountsInFlight() {
+		final TrackedRequester requester = candidates(1)[0];
+		StepVerifier.create(requester.track(Flux.just("a", "b")), 0)
+				.then(() -> assertThat(requester.getInFlight()).isEqualTo(1))
+				.thenRequest(2)
+				.expectNext("a", "b")
+				.verifyComplete();
+		assertThat(requester.getInFlight()).isZero();
+		assertThat(requester.getLatency()).isPositive();
+	}
+
+	static TrackedRequester[] candidates(int n) {
+		final TrackedRequester[] candidates = new TrackedRequester[n];
+		for (int i = 0; i < n; i++) {
+			candidates[i] = new TrackedRequester(UUID.randomUUID(), "client", mock(RSocketRequester.class), CborMetadataCodec.INSTANCE, false, Duration.ofSeconds(10), new FlowControl.Window(Long.MAX_VALUE), ConcurrencyLimit.UNLIMITED);
+		}
+		return candidates;
+	}
+}
@@ -0,0 +1,149 @@
+package am.ik.tsunagu;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.util.unit.DataSize;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ResponseCacheTests {
+
+	final ResponseCache responseCache = responseCache(DataSize.ofMegabytes(1));
+
+	static ResponseCache responseCache(DataSize maxSizePerHost) {
+		return new ResponseCache(Fixtures.props(Map.of("cache.enabled", true, "cache.max-size", "8MB", "cache.max-size-per-host", maxSizePerHost, "cache.max-entry-size", "64KB")));
+	}
+
+	static HttpRequestMetadata get(String uri, HttpHeaders headers) {
+		return new HttpRequestMetadata(HttpMethod.GET, URI.create(uri), headers);
+	}
+
+	void exchange(ResponseCache.Lookup lookup, HttpHeaders responseHeaders, String body) {
+		final DataBuffer buffer = DefaultDataBufferFactory.sharedInstance.wrap(body.getBytes(StandardCharsets.UTF_8));
+		StepVerifier.create(this.responseCache.store(lookup, HttpStatus.OK, responseHeaders, Flux.just(buffer)))
+				.expectNextCount(1)
+				.verifyComplete();
+	}
+
+	@Test
+	void freshResponseIsServedFromCache() {
+		final ResponseCache.Lookup miss = this.responseCache.lookup(get("http://example.com/app.js", new HttpHeaders()));
+		assertThat(miss.getCached()).isNull();
+		final HttpHeaders responseHeaders = new HttpHeaders();
+		responseHeaders.setCacheControl("public, max-age=60");
+		responseHeaders.add(HttpHeaders.TRANSFER_ENCODING, "chunked");
+		this.exchange(miss, responseHeaders, "console.log('hello')");
+		final ResponseCache.Lookup hit = this.responseCache.lookup(get("http://example.com/app.js", new HttpHeaders()));
+		assertThat(hit.isFresh()).isTrue();
+		assertThat(new String(hit.getCached().getBody(), StandardCharsets.UTF_8)).isEqualTo("console.log('hello')");
+		assertThat(hit.getCached().getHeaders()).doesNotContainKey(HttpHeaders.TRANSFER_ENCODING);
+		assertThat(this.responseCache.lookup(get("http://example.com/app.js?v=2", new HttpHeaders())).getCached()).isNull();
+	}
+
+	@Test
+	void uncacheableResponsesAreNotStored() {
+		for (String cacheControl : new String[] { "no-store", "private, max-age=60", "max-age=0" }) {
+			final ResponseCache.Lookup lookup = this.responseCache.lookup(get("http://example.com/private", new HttpHeaders()));
+			final HttpHeaders responseHeaders = new HttpHeaders();
+			responseHeaders.setCacheControl(cacheControl);
+			this.exchange(lookup, responseHeaders, "secret");
+			assertThat(this.responseCache.lookup(get("http://example.com/private", new HttpHeaders())).getCached()).isNull();
+		}
+		final ResponseCache.Lookup lookup = this.responseCache.lookup(get("http://example.com/login", new HttpHeaders()));
+		final HttpHeaders responseHeaders = new HttpHeaders();
+		responseHeaders.setCacheControl("max-age=60");
+		responseHeaders.add(HttpHeaders.SET_COOKIE, "session=1");
+		this.exchange(lookup, responseHeaders, "welcome");
+		assertThat(this.responseCache.lookup(get("http://example.com/login", new HttpHeaders())).getCached()).isNull();
+	}
+
+	@Test
+	void authorizedRequestsRequirePublicResponses() {
+		final HttpHeaders requestHeaders = new HttpHeaders();
+		requestHeaders.setBearerAuth("token");
+		final HttpHeaders responseHeaders = new HttpHeaders();
+		responseHeaders.setCacheControl("max-age=60");
+		this.exchange(this.responseCache.lookup(get("http://example.com/me", requestHeaders)), responseHeaders, "me");
+		assertThat(this.responseCache.lookup(get("http://example.com/me", requestHeaders)).getCached()).isNull();
+		responseHeaders.setCacheControl("public, max-age=60");
+		this.exchange(this.responseCache.lookup(get("http://example.com/me", requestHeaders)), responseHeaders, "me");
+		assertThat(this.responseCache.lookup(get("http://example.com/me", requestHeaders)).isFresh()).isTrue();
+	}
+
+	@Test
+	void staleResponseIsRevalidated() {
+		final ResponseCache.Lookup miss = this.responseCache.lookup(get("http://example.com/logo.png", new HttpHeaders()));
+		final HttpHeaders responseHeaders = new HttpHeaders();
+		responseHeaders.setCacheControl("no-cache");
+		responseHeaders.setETag("\"v1\"");
+		this.exchange(miss, responseHeaders, "png");
+		final HttpHeaders requestHeaders = new HttpHeaders();
+		final ResponseCache.Lookup stale = this.responseCache.lookup(get("http://example.com/logo.png", requestHeaders));
+		assertThat(stale.getCached()).isNotNull();
+		assertThat(stale.isFresh()).isFalse();
+		this.responseCache.addValidators(stale, requestHeaders);
+		assertThat(stale.isRevalidating()).isTrue();
+		assertThat(requestHeaders.getIfNoneMatch()).containsExactly("\"v1\"");
+		final HttpHeaders notModifiedHeaders = new HttpHeaders();
+		notModifiedHeaders.setETag("\"v1\"");
+		notModifiedHeaders.setCacheControl("max-age=60");
+		final ResponseCache.CachedResponse revalidated = this.responseCache.revalidated(stale, notModifiedHeaders);
+		assertThat(new String(revalidated.getBody(), StandardCharsets.UTF_8)).isEqualTo("png");
+		assertThat(this.responseCache.lookup(get("http://example.com/logo.png", new HttpHeaders())).isFresh()).isTrue();
+	}
+
+	@Test
+	void varyMismatchIsAMiss() {
+		final HttpHeaders gzip = new HttpHeaders();
+		gzip.set(HttpHeaders.ACCEPT_ENCODING, "gzip");
+		final HttpHeaders responseHeaders = new HttpHeaders();
+		responseHeaders.setCacheControl("max-age=60");
+		responseHeaders.setVary(List.of(HttpHeaders.ACCEPT_ENCODING));
+		this.exchange(this.responseCache.lookup(get("http://example.com/style.css", gzip)), responseHeaders, "compressed");
+		assertThat(this.responseCache.lookup(get("http://example.com/style.css", gzip)).isFresh()).isTrue();
+		assertThat(this.responseCache.lookup(get("http://example.com/style.css", new HttpHeaders())).getCached()).isNull();
+	}
+
+	@Test
+	void unsafeMethodInvalidates() {
+		final HttpHeaders responseHeaders = new HttpHeaders();
+		responseHeaders.setCacheControl("max-age=60");
+		this.exchange(this.responseCache.lookup(get("http://example.com/items", new HttpHeaders())), responseHeaders, "[]");
+		assertThat(this.responseCache.lookup(new HttpRequestMetadata(HttpMethod.POST, URI.create("http://example.com/items"), new HttpHeaders()))).isNull();
+		assertThat(this.responseCache.lookup(get("http://example.com/items", new HttpHeaders())).getCached()).isNull();
+	}
+
+	@Test
+	void hostLimitEvictsEntriesOfTheSameHost() {
+		final ResponseCache responseCache = responseCache(DataSize.ofBytes(300));
+		final HttpHeaders responseHeaders = new HttpHeaders();
+		responseHeaders.setCacheControl("max-age=60");
+		final String body = "x".repeat(100);
+		for (String uri : new String[] { "http://a.example.com/1", "http://a.example.com/2", "http://a.example.com/3", "http://b.example.com/1" }) {
+			final DataBuffer buffer = DefaultDataBufferFactory.sharedInstance.wrap(body.getBytes(StandardCharsets.UTF_8));
+			StepVerifier.create(responseCache.store(responseCache.lookup(get(uri, new HttpHeaders())), HttpStatus.OK, responseHeaders, Flux.just(buffer)))
+					.expectNextCount(1)
+					.verifyComplete();
+		}
+		int cached = 0;
+		for (String uri : new String[] { "http://a.example.com/1", "http://a.example.com/2", "http://a.example.com/3" }) {
+			if (responseCache.lookup(get(uri, new HttpHeaders())).getCached() != null) {
+				cached++;
+			}
+		}
+		assertThat(cached).isEqualTo(2);
+		assertThat(responseCache.lookup(get("http://b.example.com/1", new HttpHeaders())).getCached()).isNotNull();
+	}
+}
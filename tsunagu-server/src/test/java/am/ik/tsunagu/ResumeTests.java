@@ -0,0 +1,85 @@
+package am.ik.tsunagu;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import io.rsocket.DuplexConnection;
+import io.rsocket.RSocket;
+import io.rsocket.SocketAcceptor;
+import io.rsocket.core.RSocketConnector;
+import io.rsocket.core.RSocketServer;
+import io.rsocket.core.Resume;
+import io.rsocket.exceptions.UnsupportedSetupException;
+import io.rsocket.transport.ClientTransport;
+import io.rsocket.transport.netty.client.TcpClientTransport;
+import io.rsocket.transport.netty.server.CloseableChannel;
+import io.rsocket.transport.netty.server.TcpServerTransport;
+import io.rsocket.util.DefaultPayload;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ResumeTests {
+
+	// connections of the client, the latest one is dropped to lose the connection
+	final List<DuplexConnection> connections = new CopyOnWriteArrayList<>();
+
+	CloseableChannel server;
+
+	RSocket client;
+
+	@AfterEach
+	void tearDown() {
+		if (this.client != null) {
+			this.client.dispose();
+		}
+		if (this.server != null) {
+			this.server.dispose();
+		}
+	}
+
+	RSocket connect(TsunaguProps props) {
+		final RSocketServer rsocketServer = RSocketServer.create(SocketAcceptor.forRequestResponse(payload -> Mono.just(DefaultPayload.create(payload.getDataUtf8().toUpperCase()))));
+		new TsunaguServerApplication().resumeCustomizer(props).customize(rsocketServer);
+		this.server = rsocketServer.bind(TcpServerTransport.create("localhost", 0)).block(Duration.ofSeconds(5));
+		final ClientTransport transport = () -> TcpClientTransport.create(this.server.address()).connect().doOnNext(this.connections::add);
+		this.client = RSocketConnector.create()
+				.resume(new Resume().retry(Retry.fixedDelay(10, Duration.ofMillis(100))))
+				.connect(transport)
+				.block(Duration.ofSeconds(5));
+		return this.client;
+	}
+
+	String hello(RSocket rsocket) {
+		return rsocket.requestResponse(DefaultPayload.create("hello")).map(payload -> {
+			try {
+				return payload.getDataUtf8();
+			}
+			finally {
+				payload.release();
+			}
+		}).block(Duration.ofSeconds(5));
+	}
+
+	@Test
+	void sessionsAreResumedWhenEnabled() {
+		final RSocket rsocket = this.connect(Fixtures.props(Map.of("resume.enabled", true, "resume.buffer-size", "64KB")));
+		assertThat(this.hello(rsocket)).isEqualTo("HELLO");
+		this.connections.get(0).dispose();
+		assertThat(this.hello(rsocket)).isEqualTo("HELLO");
+		assertThat(this.connections).hasSize(2);
+	}
+
+	@Test
+	void sessionsAreNotKeptByDefault() {
+		// the client asks for resumption, the server does not offer it
+		assertThatThrownBy(() -> this.hello(this.connect(Fixtures.props()))).isInstanceOf(UnsupportedSetupException.class);
+		assertThat(this.connections).hasSize(1);
+	}
+}
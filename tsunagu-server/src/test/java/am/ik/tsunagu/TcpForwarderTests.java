@@ -0,0 +1,178 @@
+package am.ik.tsunagu;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.util.DefaultPayload;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.netty.Connection;
+import reactor.netty.DisposableServer;
+import reactor.netty.tcp.TcpClient;
+import reactor.netty.tcp.TcpServer;
+
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.messaging.rsocket.RSocketStrategies;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TcpForwarderTests {
+
+	final TsunaguProps props = Fixtures.props();
+
+	final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	final TunnelMetrics metrics = new TunnelMetrics(this.meterRegistry);
+
+	final RequesterRegistry registry = new RequesterRegistry(this.props, this.metrics);
+
+	final EventLoops eventLoops = new EventLoops(this.props);
+
+	final TcpForwarder forwarder = new TcpForwarder(this.props, this.registry, this.metrics, this.eventLoops);
+
+	final List<DisposableServer> servers = new ArrayList<>();
+
+	// what the client received through the channel, the name of the target first
+	final List<String> received = new CopyOnWriteArrayList<>();
+
+	// lets the test answer and end the channel like the target would
+	final Sinks.Many<Payload> answers = Sinks.many().unicast().onBackpressureBuffer();
+
+	final Sinks.Empty<Void> targetClosed = Sinks.empty();
+
+	final CountDownLatch opened = new CountDownLatch(1);
+
+	final CountDownLatch cancelled = new CountDownLatch(1);
+
+	// echoes the bytes of the end user in upper case, and whatever the test emits
+	final RSocket client = new RSocket() {
+		@Override
+		public Flux<Payload> requestChannel(Publisher<Payload> payloads) {
+			final Flux<Payload> echoes = Flux.from(payloads)
+					.map(payload -> {
+						final String data = payload.getDataUtf8();
+						payload.release();
+						received.add(data);
+						return data;
+					})
+					.skip(1)
+					.map(data -> DefaultPayload.create(data.toUpperCase()));
+			return Flux.merge(echoes.takeUntilOther(targetClosed.asMono()), answers.asFlux())
+					.doOnSubscribe(__ -> opened.countDown())
+					.doOnCancel(cancelled::countDown);
+		}
+	};
+
+	@AfterEach
+	void tearDown() {
+		this.servers.forEach(DisposableServer::disposeNow);
+		this.eventLoops.destroy();
+	}
+
+	// a port of tsunagu.tcp.ports
+	DisposableServer listen(String target) {
+		final DisposableServer server = TcpServer.create()
+				.host("127.0.0.1")
+				.port(0)
+				.handle((inbound, outbound) -> this.forwarder.forward(target, inbound, outbound))
+				.bindNow();
+		this.servers.add(server);
+		return server;
+	}
+
+	void register(String tcpTargets) {
+		this.registry.register(UUID.randomUUID(), "client",
+				RSocketRequester.wrap(this.client, MimeTypeUtils.APPLICATION_OCTET_STREAM, MimeType.valueOf("message/x.rsocket.composite-metadata.v0"), RSocketStrategies.create()),
+				CborMetadataCodec.INSTANCE, true, RequesterRoutes.parse(null, null, tcpTargets));
+	}
+
+	static Connection connect(DisposableServer server) {
+		return TcpClient.create().host("127.0.0.1").port(server.port()).connectNow(Duration.ofSeconds(5));
+	}
+
+	// received by the end user until the given text arrived
+	static String receive(Connection connection, String expected) {
+		return connection.inbound().receive().asString(StandardCharsets.UTF_8)
+				.scan("", String::concat)
+				.takeUntil(expected::equals)
+				.blockLast(Duration.ofSeconds(5));
+	}
+
+	// received by the end user until the connection is closed
+	static String receiveAll(Connection connection) {
+		return connection.inbound().receive().asString(StandardCharsets.UTF_8)
+				.reduce("", String::concat)
+				.block(Duration.ofSeconds(5));
+	}
+
+	@Test
+	void forwardsBytesBothWaysAfterTheTarget() {
+		this.register("echo");
+		final Connection connection = connect(this.listen("echo"));
+		try {
+			connection.outbound().sendString(Flux.just("hello")).then().block(Duration.ofSeconds(5));
+			assertThat(receive(connection, "HELLO")).isEqualTo("HELLO");
+			assertThat(this.received).containsExactly("echo", "hello");
+		}
+		finally {
+			connection.disposeNow();
+		}
+	}
+
+	@Test
+	void endUsersWhoCloseCancelTheChannel() throws Exception {
+		this.register("echo");
+		final Connection connection = connect(this.listen("echo"));
+		connection.outbound().sendString(Flux.just("hello")).then().block(Duration.ofSeconds(5));
+		assertThat(receive(connection, "HELLO")).isEqualTo("HELLO");
+		connection.disposeNow();
+		assertThat(this.cancelled.await(5, TimeUnit.SECONDS)).isTrue();
+	}
+
+	@Test
+	void targetsWhichCloseCloseTheConnection() throws Exception {
+		this.register("echo");
+		final Connection connection = connect(this.listen("echo"));
+		try {
+			assertThat(this.opened.await(5, TimeUnit.SECONDS)).isTrue();
+			this.answers.tryEmitNext(DefaultPayload.create("bye"));
+			this.answers.tryEmitComplete();
+			this.targetClosed.tryEmitEmpty();
+			// the stream of the end user ends after what was sent before
+			assertThat(receiveAll(connection)).isEqualTo("bye");
+			connection.onDispose().block(Duration.ofSeconds(5));
+		}
+		finally {
+			connection.disposeNow();
+		}
+	}
+
+	@Test
+	void connectionsToATargetNoClientForwardsAreClosedAndCounted() {
+		this.register("echo");
+		final Connection connection = connect(this.listen("ssh"));
+		try {
+			assertThat(receiveAll(connection)).isEmpty();
+			connection.onDispose().block(Duration.ofSeconds(5));
+			assertThat(this.received).isEmpty();
+			assertThat(this.meterRegistry.get("tsunagu.tcp.rejected").tag("target", "ssh").counter().count()).isEqualTo(1);
+		}
+		finally {
+			connection.disposeNow();
+		}
+	}
+}
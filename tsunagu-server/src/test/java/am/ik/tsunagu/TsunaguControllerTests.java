@@ -0,0 +1,249 @@
+package am.ik.tsunagu;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.channels.ClosedChannelException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.handler.codec.http2.HttpConversionUtil.ExtensionHeaderNames;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.util.ByteBufPayload;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.messaging.rsocket.RSocketStrategies;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.http.server.reactive.MockServerHttpResponse;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TsunaguControllerTests {
+
+	final TsunaguProps props = Fixtures.props();
+
+	final TunnelMetrics metrics = new TunnelMetrics(new SimpleMeterRegistry());
+
+	final RequesterRegistry registry = new RequesterRegistry(this.props, this.metrics);
+
+	final TsunaguController controller = this.controller(this.props);
+
+	final NettyDataBufferFactory dataBufferFactory = new NettyDataBufferFactory(new UnpooledByteBufAllocator(false));
+
+	final List<String> interactions = new CopyOnWriteArrayList<>();
+
+	final AtomicLong receivedBytes = new AtomicLong();
+
+	// records how the request reached the client and how many bytes of body it carried
+	final RSocket rsocket = new RSocket() {
+		@Override
+		public Flux<Payload> requestStream(Payload payload) {
+			interactions.add("stream");
+			receivedBytes.addAndGet(payload.data().readableBytes());
+			payload.release();
+			return Flux.empty();
+		}
+
+		@Override
+		public Flux<Payload> requestChannel(Publisher<Payload> payloads) {
+			interactions.add("channel");
+			return Flux.from(payloads)
+					.doOnNext(payload -> {
+						receivedBytes.addAndGet(payload.data().readableBytes());
+						payload.release();
+					})
+					.thenMany(Flux.empty());
+		}
+	};
+
+	final AtomicInteger encodedRequests = new AtomicInteger();
+
+	final TrackedRequester requester = this.registry.register(UUID.randomUUID(), "client",
+			RSocketRequester.wrap(this.rsocket, MimeTypeUtils.APPLICATION_OCTET_STREAM, MimeType.valueOf("message/x.rsocket.composite-metadata.v0"), RSocketStrategies.create()),
+			new CborMetadataCodec() {
+				@Override
+				public ByteBuf encodeRequest(HttpRequestMetadata metadata, ByteBufAllocator allocator) {
+					encodedRequests.incrementAndGet();
+					return super.encodeRequest(metadata, allocator);
+				}
+			}, true, RequesterRoutes.ANY);
+
+	TsunaguController controller(TsunaguProps props) {
+		return this.controller(props, this.registry);
+	}
+
+	TsunaguController controller(TsunaguProps props, RequesterRegistry registry) {
+		return new TsunaguController(props, registry, new ResponseCache(props), new RequestCoalescer(props), this.metrics,
+				new Cluster(props, registry, null, null, null), new RateLimiter(props), new Authorizer(props), new AccessLog(props, new SimpleMeterRegistry()));
+	}
+
+	Flux<DataBuffer> body(int chunks, int chunkSize) {
+		return Flux.range(0, chunks).map(__ -> this.dataBufferFactory.wrap(new byte[chunkSize]));
+	}
+
+	HttpRequestMetadata post(String name, String value) {
+		final HttpHeaders headers = new HttpHeaders();
+		headers.add(name, value);
+		return new HttpRequestMetadata(HttpMethod.POST, URI.create("https://example.com/upload"), headers);
+	}
+
+	@Test
+	void smallBodiesOfAKnownLengthAreInlined() {
+		this.controller.send(this.requester, post(HttpHeaders.CONTENT_LENGTH, "1024"), body(1, 1024)).blockLast(Duration.ofSeconds(5));
+		assertThat(this.interactions).containsExactly("stream");
+		assertThat(this.receivedBytes).hasValue(1024);
+	}
+
+	@Test
+	void chunkedBodiesAreStreamedRegardlessOfTheirSize() {
+		// larger than the inline body max size, which would fail joining the body
+		this.controller.send(this.requester, post(HttpHeaders.TRANSFER_ENCODING, "chunked"), body(4, 4096)).blockLast(Duration.ofSeconds(5));
+		assertThat(this.interactions).containsExactly("channel");
+		assertThat(this.receivedBytes).hasValue(4 * 4096);
+	}
+
+	MockServerHttpRequest.BodyBuilder http2Post() {
+		return MockServerHttpRequest.post("http://example.com/upload")
+				.remoteAddress(new InetSocketAddress("127.0.0.1", 50000))
+				.header(ExtensionHeaderNames.STREAM_ID.text().toString(), "3");
+	}
+
+	@Test
+	void http2BodiesAreDecidedByTheStream() throws Exception {
+		// neither Content-Length nor Transfer-Encoding
+		this.controller.proxy(http2Post().body(body(2, 4096)), new MockServerHttpResponse()).block(Duration.ofSeconds(5));
+		assertThat(this.interactions).containsExactly("channel");
+		assertThat(this.receivedBytes).hasValue(2 * 4096);
+	}
+
+	@Test
+	void http2StreamsWithoutDataHaveNoBody() throws Exception {
+		// added by the conversion to HTTP/1.1 before the stream turned out to be empty
+		this.controller.proxy(http2Post().header(HttpHeaders.TRANSFER_ENCODING, "chunked").body(Flux.empty()), new MockServerHttpResponse()).block(Duration.ofSeconds(5));
+		assertThat(this.interactions).containsExactly("stream");
+		assertThat(this.receivedBytes).hasValue(0);
+	}
+
+	@Test
+	void requestsAreEncodedWhenTheResponseIsSubscribed() {
+		final TsunaguController controller = this.controller(Fixtures.props(Map.of("retry.max-attempts", 1)));
+		final HttpRequestMetadata get = new HttpRequestMetadata(HttpMethod.GET, URI.create("https://example.com/hot"), new HttpHeaders());
+		final RequestCoalescer.Upstream upstream = controller.exchange(get, Flux.empty(), this.metrics.start(HttpMethod.GET));
+		// a flight which loses the race for its key is never subscribed
+		assertThat(this.encodedRequests).hasValue(0);
+		upstream.getResponseStream().blockLast(Duration.ofSeconds(5));
+		assertThat(this.encodedRequests).hasValue(1);
+		assertThat(this.interactions).containsExactly("stream");
+	}
+
+	final TsunaguProps failoverProps = Fixtures.props(Map.of("load-balancer.strategy", "round_robin", "retry.max-attempts", 2));
+
+	final RequesterRegistry failoverRegistry = new RequesterRegistry(this.failoverProps, this.metrics);
+
+	final TsunaguController failoverController = this.controller(this.failoverProps, this.failoverRegistry);
+
+	final List<TrackedRequester> attempted = new CopyOnWriteArrayList<>();
+
+	// records the requesters the request is sent to
+	TrackedRequester failoverRequester(Supplier<Flux<Payload>> responses) {
+		final AtomicReference<TrackedRequester> self = new AtomicReference<>();
+		final RSocket rsocket = new RSocket() {
+			@Override
+			public Flux<Payload> requestStream(Payload payload) {
+				attempted.add(self.get());
+				payload.release();
+				return responses.get();
+			}
+		};
+		self.set(this.failoverRegistry.register(UUID.randomUUID(), "client",
+				RSocketRequester.wrap(rsocket, MimeTypeUtils.APPLICATION_OCTET_STREAM, MimeType.valueOf("message/x.rsocket.composite-metadata.v0"), RSocketStrategies.create()),
+				CborMetadataCodec.INSTANCE, true, RequesterRoutes.ANY));
+		return self.get();
+	}
+
+	static Flux<Payload> ok() {
+		return Flux.just(ByteBufPayload.create(CborMetadataCodec.INSTANCE.encodeResponse(new HttpResponseMetadata(HttpStatus.OK, new HttpHeaders()), ByteBufAllocator.DEFAULT)));
+	}
+
+	RequestCoalescer.Upstream get() {
+		final HttpRequestMetadata get = new HttpRequestMetadata(HttpMethod.GET, URI.create("https://example.com/"), new HttpHeaders());
+		return this.failoverController.exchange(get, Flux.empty(), this.metrics.start(HttpMethod.GET));
+	}
+
+	@Test
+	void lostConnectionsMoveTheRequestToAnotherRequester() {
+		final AtomicInteger calls = new AtomicInteger();
+		final Supplier<Flux<Payload>> responses = () -> calls.getAndIncrement() == 0 ? Flux.error(new ClosedChannelException()) : ok();
+		this.failoverRequester(responses);
+		this.failoverRequester(responses);
+		final RequestCoalescer.Upstream upstream = this.get();
+		StepVerifier.create(upstream.getResponseStream())
+				.assertNext(buffer -> {
+					assertThat(upstream.getMetadataCodec().decodeResponse(NettyDataBufferFactory.toByteBuf(buffer)).getStatus()).isEqualTo(HttpStatus.OK);
+					DataBufferUtils.release(buffer);
+				})
+				.expectComplete()
+				.verify(Duration.ofSeconds(5));
+		assertThat(this.attempted).hasSize(2).doesNotHaveDuplicates();
+		// the response is written against the connection which answered
+		assertThat(upstream.getWindow()).isSameAs(this.attempted.get(1).getWindow());
+	}
+
+	@Test
+	void answeredRequestsAreNotSentAgain() {
+		final Supplier<Flux<Payload>> responses = () -> ok().concatWith(Flux.error(new ClosedChannelException()));
+		this.failoverRequester(responses);
+		this.failoverRequester(responses);
+		StepVerifier.create(this.get().getResponseStream())
+				.consumeNextWith(DataBufferUtils::release)
+				.expectError(ClosedChannelException.class)
+				.verify(Duration.ofSeconds(5));
+		assertThat(this.attempted).hasSize(1);
+	}
+
+	@Test
+	void requestsAreSentAtMostMaxAttemptsTimes() {
+		final Supplier<Flux<Payload>> responses = () -> Flux.error(new ClosedChannelException());
+		this.failoverRequester(responses);
+		this.failoverRequester(responses);
+		this.failoverRequester(responses);
+		StepVerifier.create(this.get().getResponseStream())
+				.expectError(ClosedChannelException.class)
+				.verify(Duration.ofSeconds(5));
+		assertThat(this.attempted).hasSize(2);
+	}
+
+	@Test
+	void onlyLostConnectionsAreRetried() {
+		final Supplier<Flux<Payload>> responses = () -> Flux.error(new IllegalStateException("failed"));
+		this.failoverRequester(responses);
+		this.failoverRequester(responses);
+		StepVerifier.create(this.get().getResponseStream())
+				.expectError(IllegalStateException.class)
+				.verify(Duration.ofSeconds(5));
+		assertThat(this.attempted).hasSize(1);
+	}
+}
@@ -0,0 +1,50 @@
+package am.ik.tsunagu;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.messaging.rsocket.RSocketRequester;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.Mockito.mock;
+
+class TunnelMetricsTests {
+
+	final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	final TunnelMetrics metrics = new TunnelMetrics(this.meterRegistry);
+
+	@Test
+	void upstreamLatencyIsSeparatedFromTheTunnel() throws Exception {
+		final TunnelMetrics.Recording recording = this.metrics.start(HttpMethod.GET);
+		Thread.sleep(20);
+		final HttpHeaders responseHeaders = new HttpHeaders();
+		responseHeaders.set(TunnelMetrics.UPSTREAM_LATENCY_HEADER, "5000");
+		recording.responded(responseHeaders);
+		recording.responseBytes(100);
+		recording.finish(HttpStatus.NOT_FOUND, "NONE");
+		assertThat(responseHeaders).doesNotContainKey(TunnelMetrics.UPSTREAM_LATENCY_HEADER);
+		final double firstByte = this.meterRegistry.get("tsunagu.proxy.first.byte").timer().totalTime(TimeUnit.MILLISECONDS);
+		assertThat(this.meterRegistry.get("tsunagu.proxy.upstream").timer().totalTime(TimeUnit.MILLISECONDS)).isEqualTo(5);
+		assertThat(this.meterRegistry.get("tsunagu.proxy.tunnel").timer().totalTime(TimeUnit.MILLISECONDS)).isCloseTo(firstByte - 5, within(0.001));
+		assertThat(this.meterRegistry.get("tsunagu.proxy.requests").tags("method", "GET", "status", "4xx", "cache", "NONE").timer().count()).isEqualTo(1);
+		assertThat(this.meterRegistry.get("tsunagu.proxy.bytes").tag("direction", "response").summary().totalAmount()).isEqualTo(100);
+	}
+
+	@Test
+	void inFlightGaugeIsRemovedWithTheRequester() {
+		final TrackedRequester requester = new TrackedRequester(UUID.randomUUID(), "client", mock(RSocketRequester.class), CborMetadataCodec.INSTANCE, false, Duration.ofSeconds(10), new FlowControl.Window(Long.MAX_VALUE), ConcurrencyLimit.UNLIMITED);
+		this.metrics.register(requester);
+		assertThat(this.meterRegistry.get("tsunagu.requester.in.flight").tag("requester", requester.getId().toString()).gauge().value()).isZero();
+		this.metrics.unregister(requester);
+		assertThat(this.meterRegistry.find("tsunagu.requester.in.flight").gauges()).isEmpty();
+	}
+}